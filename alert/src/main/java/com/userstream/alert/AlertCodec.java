@@ -0,0 +1,47 @@
+package com.userstream.alert;
+
+import com.userstream.common.codec.Codecs;
+import com.userstream.common.codec.EntityCodec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public class AlertCodec implements EntityCodec<Alert> {
+
+    public static final String SCHEMA = "Alert";
+
+    private static final int VERSION = 1;
+
+    @Override
+    public int version() {
+        return VERSION;
+    }
+
+    @Override
+    public int idOf(Alert alert) {
+        return alert.getId();
+    }
+
+    @Override
+    public void encode(Alert alert, DataOutput out) throws IOException {
+        out.writeInt(alert.getId());
+        out.writeInt(alert.getUserId());
+        Codecs.writeString(out, alert.getMessage());
+        Codecs.writeString(out, alert.getType());
+        Codecs.writeDateTime(out, alert.getCreatedAt());
+        out.writeBoolean(alert.isRead());
+    }
+
+    @Override
+    public Alert decode(DataInput in, int version) throws IOException {
+        Alert alert = new Alert();
+        alert.setId(in.readInt());
+        alert.setUserId(in.readInt());
+        alert.setMessage(Codecs.readString(in));
+        alert.setType(Codecs.readString(in));
+        alert.setCreatedAt(Codecs.readDateTime(in));
+        alert.setRead(in.readBoolean());
+        return alert;
+    }
+}
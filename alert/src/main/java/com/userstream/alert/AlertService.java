@@ -1,12 +1,17 @@
 package com.userstream.alert;
 
+import com.userstream.common.codec.BinaryCodec;
+import com.userstream.common.snapshot.SnapshotManager;
 import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
 
 import java.util.List;
 
 public class AlertService {
 
     private static final int DEFAULT_PORT = 7005;
+    private static final BinaryCodec<Alert> BINARY = new BinaryCodec<>(AlertCodec.SCHEMA, new AlertCodec());
     private InMemoryAlertRepository repository;
     private Javalin server;
 
@@ -16,6 +21,8 @@ public class AlertService {
     }
 
     public void start(int port) {
+        // -Dsnapshot.dir=... restores alerts from the last snapshot and keeps it current
+        repository = new InMemoryAlertRepository(SnapshotManager.fromSystemProperties("alerts", new AlertCodec()));
         server = initHttpServer();
         server.start(port);
         System.out.println("AlertService started on port " + port);
@@ -26,6 +33,9 @@ public class AlertService {
             server.stop();
             System.out.println("AlertService stopped");
         }
+        if (repository != null) {
+            repository.close();
+        }
     }
 
     private Javalin initHttpServer() {
@@ -35,23 +45,24 @@ public class AlertService {
         // GET all alerts
         app.get("/alerts", ctx -> {
             List<Alert> alerts = repository.findAll();
-            ctx.json(alerts);
+            respondAll(ctx, alerts);
         });
 
         // GET alert by ID
         app.get("/alerts/{id}", ctx -> {
             String id = ctx.pathParam("id");
             repository.findById(id).ifPresentOrElse(
-                    ctx::json,
+                    alert -> respond(ctx, alert),
                     () -> ctx.status(404).result("Alert not found")
             );
         });
 
         // POST create alert
         app.post("/alerts", ctx -> {
-            Alert alert = ctx.bodyAsClass(Alert.class);
+            Alert alert = readAlert(ctx);
             repository.save(alert);
-            ctx.status(201).json(alert);
+            ctx.status(201);
+            respond(ctx, alert);
         });
 
         // GET alerts by user ID
@@ -59,7 +70,7 @@ public class AlertService {
             int userId = Integer.parseInt(ctx.pathParam("id"));
 
             List<Alert> alerts = repository.findByUserId(userId);
-            ctx.json(alerts);
+            respondAll(ctx, alerts);
         });
 
         // POST mark alert as read
@@ -70,7 +81,7 @@ public class AlertService {
                     alert -> {
                         alert.setRead(true);
                         repository.save(alert);
-                        ctx.json(alert);
+                        respond(ctx, alert);
                     },
                     () -> ctx.status(404).result("Alert not found")
             );
@@ -86,4 +97,32 @@ public class AlertService {
 
         return app;
     }
+
+    // Bodies sent as application/x-userstream-bin are binary frames, anything else is JSON
+    private static Alert readAlert(Context ctx) {
+        if (!BinaryCodec.isBinary(ctx.contentType())) {
+            return ctx.bodyAsClass(Alert.class);
+        }
+        try {
+            return BINARY.decode(ctx.bodyAsBytes());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestResponse("Invalid alert frame: " + e.getMessage());
+        }
+    }
+
+    private static void respond(Context ctx, Alert alert) {
+        if (BinaryCodec.accepts(ctx.header("Accept"))) {
+            ctx.contentType(BinaryCodec.MEDIA_TYPE).result(BINARY.encode(alert));
+        } else {
+            ctx.json(alert);
+        }
+    }
+
+    private static void respondAll(Context ctx, List<Alert> alerts) {
+        if (BinaryCodec.accepts(ctx.header("Accept"))) {
+            ctx.contentType(BinaryCodec.MEDIA_TYPE).result(BINARY.encodeAll(alerts));
+        } else {
+            ctx.json(alerts);
+        }
+    }
 }
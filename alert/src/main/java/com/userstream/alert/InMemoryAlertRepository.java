@@ -1,47 +1,100 @@
 package com.userstream.alert;
 
+import com.userstream.common.ConcurrentIntObjectMap;
+import com.userstream.common.snapshot.SnapshotManager;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.Map;
-import java.util.stream.Collectors;
 
-public abstract class InMemoryAlertRepository implements AlertRepository {
-    private final Map<Integer, Alert> alerts = new ConcurrentHashMap<>();
+public class InMemoryAlertRepository implements AlertRepository {
+    private final ConcurrentIntObjectMap<Alert> alerts = new ConcurrentIntObjectMap<>();
+    private final SnapshotManager<Alert> snapshots;
+
+    public InMemoryAlertRepository() {
+        this(null);
+    }
+
+    /**
+     * Restores the alerts saved by {@code snapshots}, if given, and journals every change to it.
+     */
+    public InMemoryAlertRepository(SnapshotManager<Alert> snapshots) {
+        this.snapshots = snapshots;
+        if (snapshots != null) {
+            snapshots.restore(alert -> alerts.put(alert.getId(), alert), alerts::remove);
+            snapshots.scheduleSnapshots(alerts::values);
+        }
+    }
 
     @Override
     public Alert save(Alert alert) {
-        alerts.put(alert.getId(), alert);
+        // Journaled under the entry's lock so concurrent saves of one id are replayed in order
+        alerts.compute(alert.getId(), previous -> {
+            if (snapshots != null) {
+                snapshots.journalPut(alert);
+            }
+            return alert;
+        });
         return alert;
     }
 
     @Override
-    public Optional<Alert> findById(String id) {
+    public Optional<Alert> findById(int id) {
         return Optional.ofNullable(alerts.get(id));
     }
 
+    @Override
+    public Optional<Alert> findById(String id) {
+        try {
+            return findById(Integer.parseInt(id));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
     @Override
     public List<Alert> findByUserId(int userId) {
-        return alerts.values().stream()
-                .filter(alert -> alert.getUserId() == userId)
-                .collect(Collectors.toList());
+        List<Alert> result = new ArrayList<>();
+        alerts.forEach(alert -> {
+            if (alert.getUserId() == userId) {
+                result.add(alert);
+            }
+        });
+        return result;
     }
 
     @Override
     public List<Alert> findUnreadByUserId(int userId) {
-        return alerts.values().stream()
-                .filter(alert -> alert.getUserId() == userId && !alert.isRead())
-                .collect(Collectors.toList());
+        List<Alert> result = new ArrayList<>();
+        alerts.forEach(alert -> {
+            if (alert.getUserId() == userId && !alert.isRead()) {
+                result.add(alert);
+            }
+        });
+        return result;
     }
 
     @Override
     public List<Alert> findAll() {
-        return new ArrayList<>(alerts.values());
+        return alerts.values();
     }
 
     @Override
     public void deleteById(int id) {
-        alerts.remove(id);
+        alerts.compute(id, previous -> {
+            if (previous != null && snapshots != null) {
+                snapshots.journalDelete(id);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Writes a final snapshot, if snapshots are enabled.
+     */
+    public void close() {
+        if (snapshots != null) {
+            snapshots.close();
+        }
     }
 }
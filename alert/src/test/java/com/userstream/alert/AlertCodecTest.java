@@ -0,0 +1,37 @@
+package com.userstream.alert;
+
+import com.userstream.common.codec.BinaryCodec;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AlertCodecTest {
+
+    private final BinaryCodec<Alert> codec = new BinaryCodec<>(AlertCodec.SCHEMA, new AlertCodec());
+
+    @Test
+    void roundTripsEveryField() {
+        Alert alert = new Alert(5, 17, "Login from a new device — Kraków", "security");
+        alert.setCreatedAt(LocalDateTime.of(2025, 1, 1, 8, 30, 0, 1));
+        alert.setRead(true);
+        Alert sparse = new Alert();
+        sparse.setId(6);
+
+        List<Alert> decoded = codec.decodeAll(codec.encodeAll(List.of(alert, sparse)));
+
+        assertSameAlert(alert, decoded.get(0));
+        assertSameAlert(sparse, decoded.get(1));
+    }
+
+    private static void assertSameAlert(Alert expected, Alert actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getUserId(), actual.getUserId());
+        assertEquals(expected.getMessage(), actual.getMessage());
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getCreatedAt(), actual.getCreatedAt());
+        assertEquals(expected.isRead(), actual.isRead());
+    }
+}
@@ -0,0 +1,79 @@
+package com.userstream.benchmarks;
+
+import com.userstream.events.Event;
+import com.userstream.events.EventBroadcaster;
+import com.userstream.events.InMemoryUserRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fan-out of a burst of {@code events} events through {@link EventBroadcaster} to {@code subscribers}
+ * live subscribers with no-op sinks. One operation publishes the burst and waits until every
+ * subscriber's drain thread has delivered all of it, so the time covers the offers, the virtual
+ * thread wake-ups and the sends.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BroadcastBenchmark {
+
+    @Param({"100", "5000"})
+    int subscribers;
+
+    @Param("1000")
+    int events;
+
+    private EventBroadcaster broadcaster;
+    private Event[] burst;
+
+    @Setup
+    public void setUp() {
+        // A burst never overflows the default buffer, so a drop means a subscriber fell behind
+        broadcaster = new EventBroadcaster(new InMemoryUserRepository());
+        for (int i = 0; i < subscribers; i++) {
+            broadcaster.subscribe(Set.of(), null, event -> { }, () -> { });
+        }
+        burst = new Event[events];
+        for (int i = 0; i < events; i++) {
+            burst[i] = new Event(i + 1, "click", "{\"user\":" + i + "}");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        broadcaster.close();
+    }
+
+    @Benchmark
+    public long fanOut() {
+        long target = broadcaster.getDelivered() + (long) events * broadcaster.getSubscriberCount();
+        for (Event event : burst) {
+            broadcaster.onSaved(event);
+        }
+        long delivered;
+        while ((delivered = broadcaster.getDelivered()) < target) {
+            if (broadcaster.getDropped() > 0) {
+                throw new IllegalStateException(broadcaster.getDropped() + " subscribers fell behind and were dropped");
+            }
+            LockSupport.parkNanos(50_000);
+        }
+        return delivered;
+    }
+}
@@ -0,0 +1,112 @@
+package com.userstream.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.userstream.common.codec.BinaryCodec;
+import com.userstream.events.Event;
+import com.userstream.events.EventCodec;
+import com.userstream.user.UserData;
+import com.userstream.user.UserDataCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BinaryCodec} frames against Jackson JSON, configured as the services configure it, for a
+ * 1000-event batch with nested JSON payloads and for a single user.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CodecBenchmark {
+
+    private static final TypeReference<List<Event>> EVENT_LIST = new TypeReference<>() {
+    };
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    private final BinaryCodec<Event> events = new BinaryCodec<>(EventCodec.SCHEMA, new EventCodec());
+    private final BinaryCodec<UserData> users = new BinaryCodec<>(UserDataCodec.SCHEMA, new UserDataCodec());
+
+    private List<Event> batch;
+    private UserData user;
+    private byte[] batchFrame;
+    private byte[] batchJson;
+    private byte[] userFrame;
+    private byte[] userJson;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        batch = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            batch.add(new Event(i, i % 3 == 0 ? "click" : "view",
+                    "{\"page\":\"/products/" + i + "\",\"referrer\":\"https://example.com/?q=" + i + "\",\"ms\":" + i * 7 + "}"));
+        }
+        user = new UserData(123_456, "Ada", "Lovelace", "ada.lovelace@example.com");
+        batchFrame = events.encodeAll(batch);
+        batchJson = mapper.writeValueAsBytes(batch);
+        userFrame = users.encode(user);
+        userJson = mapper.writeValueAsBytes(user);
+        System.out.printf("%nbatch: %d bytes binary, %d bytes JSON; user: %d bytes binary, %d bytes JSON%n",
+                batchFrame.length, batchJson.length, userFrame.length, userJson.length);
+    }
+
+    @Benchmark
+    public byte[] eventBatchEncodeBinary() {
+        return events.encodeAll(batch);
+    }
+
+    @Benchmark
+    public byte[] eventBatchEncodeJackson() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(batch);
+    }
+
+    @Benchmark
+    public List<Event> eventBatchDecodeBinary() {
+        return events.decodeAll(batchFrame);
+    }
+
+    @Benchmark
+    public List<Event> eventBatchDecodeJackson() throws IOException {
+        return mapper.readValue(batchJson, EVENT_LIST);
+    }
+
+    @Benchmark
+    public byte[] userEncodeBinary() {
+        return users.encode(user);
+    }
+
+    @Benchmark
+    public byte[] userEncodeJackson() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(user);
+    }
+
+    @Benchmark
+    public UserData userDecodeBinary() {
+        return users.decode(userFrame);
+    }
+
+    @Benchmark
+    public UserData userDecodeJackson() throws IOException {
+        return mapper.readValue(userJson, UserData.class);
+    }
+}
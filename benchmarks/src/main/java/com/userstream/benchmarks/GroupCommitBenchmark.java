@@ -0,0 +1,77 @@
+package com.userstream.benchmarks;
+
+import com.userstream.db.GroupCommitWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Durable single-row inserts through {@link GroupCommitWriter} from 16 concurrent callers, one
+ * batch window per run. Sample-time mode reports each caller's wait for its commit as percentiles
+ * and, from the sample count, the throughput, so the runs together trace throughput against latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(16)
+@Fork(1)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+public class GroupCommitBenchmark {
+
+    @Param({"0", "500", "2000", "5000"})
+    long batchWindowMicros;
+
+    @Param("256")
+    int maxBatchSize;
+
+    private Path dir;
+    private GroupCommitWriter writer;
+
+    @Setup
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("group-commit-bench");
+        writer = new GroupCommitWriter("jdbc:sqlite:" + dir.resolve("bench.db"), 10_000, maxBatchSize, batchWindowMicros);
+        writer.submit(connection -> connection.getConnection().createStatement()
+                .executeUpdate("CREATE TABLE items (id INTEGER PRIMARY KEY AUTOINCREMENT, payload TEXT)")).join();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        // The average group size, so each window's latency can be read against it
+        System.out.printf("%nwindow %d us: %.1f writes per commit%n", batchWindowMicros, writer.getAverageBatchSize());
+        writer.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public Integer insert() {
+        return writer.submit(connection -> {
+            PreparedStatement statement = connection.prepare("INSERT INTO items (payload) VALUES (?)");
+            statement.setString(1, "payload");
+            return statement.executeUpdate();
+        }).join();
+    }
+}
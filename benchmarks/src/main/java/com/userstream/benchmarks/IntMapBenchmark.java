@@ -0,0 +1,74 @@
+package com.userstream.benchmarks;
+
+import com.userstream.common.ConcurrentIntObjectMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Random-key reads and overwrites on {@link ConcurrentIntObjectMap} and {@link ConcurrentHashMap}
+ * holding the same entries. Run with {@code -t N} for contended numbers; {@link MapFootprint}
+ * measures the heap each map takes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class IntMapBenchmark {
+
+    private static final Object VALUE = new Object();
+
+    @Param("10000000")
+    int entries;
+
+    private ConcurrentIntObjectMap<Object> intMap;
+    private ConcurrentHashMap<Integer, Object> hashMap;
+
+    @Setup
+    public void setUp() {
+        intMap = new ConcurrentIntObjectMap<>(entries);
+        hashMap = new ConcurrentHashMap<>(entries);
+        for (int key = 0; key < entries; key++) {
+            intMap.put(key, VALUE);
+            hashMap.put(key, VALUE);
+        }
+    }
+
+    @Benchmark
+    public Object intMapGet() {
+        return intMap.get(randomKey());
+    }
+
+    @Benchmark
+    public Object hashMapGet() {
+        return hashMap.get(randomKey());
+    }
+
+    @Benchmark
+    public Object intMapPut() {
+        return intMap.put(randomKey(), VALUE);
+    }
+
+    @Benchmark
+    public Object hashMapPut() {
+        return hashMap.put(randomKey(), VALUE);
+    }
+
+    private int randomKey() {
+        return ThreadLocalRandom.current().nextInt(entries);
+    }
+}
@@ -0,0 +1,54 @@
+package com.userstream.benchmarks;
+
+import com.userstream.common.ConcurrentIntObjectMap;
+
+import java.lang.ref.Reference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+/**
+ * Heap retained by {@link ConcurrentIntObjectMap} and {@link ConcurrentHashMap} at the same size,
+ * all entries sharing one value so only the map itself is counted. Not a JMH benchmark: run with
+ * {@code java -cp benchmarks.jar com.userstream.benchmarks.MapFootprint [entries]}.
+ */
+public class MapFootprint {
+
+    private static final Object VALUE = new Object();
+
+    public static void main(String[] args) {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        report("ConcurrentIntObjectMap", entries, n -> {
+            ConcurrentIntObjectMap<Object> map = new ConcurrentIntObjectMap<>();
+            for (int key = 0; key < n; key++) {
+                map.put(key, VALUE);
+            }
+            return map;
+        });
+        report("ConcurrentHashMap", entries, n -> {
+            Map<Integer, Object> map = new ConcurrentHashMap<>();
+            for (int key = 0; key < n; key++) {
+                map.put(key, VALUE);
+            }
+            return map;
+        });
+    }
+
+    private static void report(String name, int entries, IntFunction<Object> build) {
+        long before = usedHeap();
+        Object map = build.apply(entries);
+        long after = usedHeap();
+        System.out.printf("%-24s %,d entries: %,d bytes (%.1f bytes/entry)%n",
+                name, entries, after - before, (double) (after - before) / entries);
+        // Keeps the map reachable until it has been measured
+        Reference.reachabilityFence(map);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
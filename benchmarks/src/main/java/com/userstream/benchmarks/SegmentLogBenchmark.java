@@ -0,0 +1,100 @@
+package com.userstream.benchmarks;
+
+import com.userstream.events.Event;
+import com.userstream.events.SegmentLogEventRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Single-writer appends to {@link SegmentLogEventRepository}, including the segment rolls and
+ * index writes they trigger, and reopening a log of {@code recoveredEvents} events, which replays
+ * the sealed segments' index files and scans the tail segment.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SegmentLogBenchmark {
+
+    @Param({"INTERVAL", "NEVER"})
+    SegmentLogEventRepository.FsyncPolicy fsync;
+
+    @Param("1000000")
+    int recoveredEvents;
+
+    private Path appendDir;
+    private Path recoveryDir;
+    private SegmentLogEventRepository log;
+    private int nextId;
+
+    @Setup
+    public void setUp() throws IOException {
+        appendDir = Files.createTempDirectory("segment-log-append");
+        log = new SegmentLogEventRepository(appendDir, SegmentLogEventRepository.DEFAULT_SEGMENT_BYTES, fsync, 1000);
+
+        recoveryDir = Files.createTempDirectory("segment-log-recovery");
+        try (SegmentLogEventRepository written = new SegmentLogEventRepository(recoveryDir,
+                SegmentLogEventRepository.DEFAULT_SEGMENT_BYTES, SegmentLogEventRepository.FsyncPolicy.NEVER, 1000)) {
+            for (int id = 1; id <= recoveredEvents; id++) {
+                written.save(event(id));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        log.close();
+        delete(appendDir);
+        delete(recoveryDir);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Event append() {
+        Event event = event(++nextId);
+        log.save(event);
+        return event;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int recover() {
+        try (SegmentLogEventRepository reopened = new SegmentLogEventRepository(recoveryDir,
+                SegmentLogEventRepository.DEFAULT_SEGMENT_BYTES, SegmentLogEventRepository.FsyncPolicy.NEVER, 1000)) {
+            return reopened.size();
+        }
+    }
+
+    private static Event event(int id) {
+        Event event = new Event(id, id % 4 == 0 ? "click" : "view", "{\"user\":" + (id % 10_000) + "}");
+        event.setTimestamp(1_700_000_000_000L + id);
+        return event;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.userstream.benchmarks;
+
+import com.userstream.mq.ActiveMqSender;
+import com.userstream.mq.MQ;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Messages per second through {@link ActiveMqSender} into an embedded, non-persistent vm:// broker,
+ * for plain, asynchronous and transacted batch sends, next to opening a connection per message as
+ * publishers did before the pool. A listener drains the destination so the broker's memory limit
+ * never throttles the producer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SenderBenchmark {
+
+    private static final String BROKER_URL = "vm://bench?create=false";
+    private static final String DESTINATION = "bench";
+    private static final int BATCH = 100;
+
+    @Param({"QUEUE", "TOPIC"})
+    MQ.DestinationType destinationType;
+
+    private BrokerService broker;
+    private Connection drain;
+    private ActiveMqSender sender;
+    private List<String> batch;
+
+    @Setup
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setBrokerName("bench");
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.start();
+        broker.waitUntilStarted();
+
+        drain = new ActiveMQConnectionFactory(BROKER_URL).createConnection();
+        Session session = drain.createSession(false, Session.DUPS_OK_ACKNOWLEDGE);
+        session.createConsumer(destinationType == MQ.DestinationType.QUEUE
+                        ? session.createQueue(DESTINATION)
+                        : session.createTopic(DESTINATION))
+                .setMessageListener(message -> {
+                });
+        drain.start();
+
+        sender = new ActiveMqSender(BROKER_URL, destinationType, ActiveMqSender.DEFAULT_POOL_SIZE);
+        batch = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            batch.add("{\"id\":" + i + ",\"type\":\"click\",\"data\":\"payload\"}");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        sender.close();
+        drain.close();
+        broker.stop();
+        broker.waitUntilStopped();
+    }
+
+    @Benchmark
+    public void send() {
+        sender.send(DESTINATION, batch.get(0));
+    }
+
+    @Benchmark
+    public void sendUnpooled() throws JMSException {
+        Connection connection = new ActiveMQConnectionFactory(BROKER_URL).createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(destinationType == MQ.DestinationType.QUEUE
+                    ? session.createQueue(DESTINATION)
+                    : session.createTopic(DESTINATION));
+            producer.send(session.createTextMessage(batch.get(0)));
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void sendAsync() {
+        CompletableFuture<?>[] sends = new CompletableFuture<?>[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            sends[i] = sender.sendAsync(DESTINATION, batch.get(i));
+        }
+        CompletableFuture.allOf(sends).join();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void sendBatch() {
+        sender.sendBatch(DESTINATION, batch);
+    }
+}
@@ -0,0 +1,85 @@
+package com.userstream.benchmarks;
+
+import com.userstream.repository.InMemoryUserRepository;
+import com.userstream.user.UserData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Username and email lookups in {@link InMemoryUserRepository} against the full scan they replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UserLookupBenchmark {
+
+    private static final int PROBES = 1 << 12;
+
+    @Param("1000000")
+    int users;
+
+    private InMemoryUserRepository repository;
+    // The same users in the map the repository used to scan
+    private Map<Integer, UserData> scanned;
+    private String[] emails;
+    private String[] names;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        repository = new InMemoryUserRepository();
+        scanned = new ConcurrentHashMap<>(users * 2);
+        for (int id = 1; id <= users; id++) {
+            UserData user = new UserData(id, "name" + id, "surname", "user" + id + "@example.com");
+            repository.save(user);
+            scanned.put(id, user);
+        }
+        Random random = new Random(1);
+        emails = new String[PROBES];
+        names = new String[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            int id = 1 + random.nextInt(users);
+            // Fresh strings, so lookups hash and compare rather than hitting identity
+            emails[i] = new String("user" + id + "@example.com");
+            names[i] = new String("name" + id);
+        }
+    }
+
+    @Benchmark
+    public Optional<UserData> findByEmail() {
+        return repository.findByEmail(emails[next()]);
+    }
+
+    @Benchmark
+    public Optional<UserData> findByUsername() {
+        return repository.findByUsername(names[next()]);
+    }
+
+    @Benchmark
+    public Optional<UserData> scanByEmail() {
+        String email = emails[next()];
+        return scanned.values().stream().filter(user -> email.equals(user.getEmail())).findFirst();
+    }
+
+    private int next() {
+        return next++ & (PROBES - 1);
+    }
+}
@@ -0,0 +1,104 @@
+package com.userstream.benchmarks;
+
+import com.userstream.repository.InMemoryUserRepository;
+import com.userstream.repository.SearchableUserRepository;
+import com.userstream.user.UserData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Top-k queries against {@link SearchableUserRepository}: a name prefix, a surname substring and
+ * a two-term query, over users whose names are built from random syllables so that terms have
+ * the skewed, overlapping postings real names do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UserSearchBenchmark {
+
+    private static final int PROBES = 1 << 12;
+    private static final String[] SYLLABLES = {
+            "an", "bel", "car", "da", "el", "fer", "gio", "ha", "is", "jo",
+            "ka", "lin", "mar", "no", "or", "pe", "ra", "san", "to", "vi"
+    };
+
+    @Param("1000000")
+    int users;
+
+    @Param("10")
+    int limit;
+
+    private SearchableUserRepository repository;
+    private String[] prefixes;
+    private String[] substrings;
+    private String[] twoTerms;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        InMemoryUserRepository store = new InMemoryUserRepository();
+        String[] names = new String[users + 1];
+        String[] surnames = new String[users + 1];
+        for (int id = 1; id <= users; id++) {
+            names[id] = word(random, 2);
+            surnames[id] = word(random, 3);
+            store.save(new UserData(id, names[id], surnames[id], names[id] + "." + surnames[id] + id + "@example.com"));
+        }
+        // Built from streamAll(), as at startup
+        repository = new SearchableUserRepository(store);
+
+        prefixes = new String[PROBES];
+        substrings = new String[PROBES];
+        twoTerms = new String[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            int id = 1 + random.nextInt(users);
+            prefixes[i] = names[id].substring(0, 3);
+            substrings[i] = surnames[id].substring(1, 5);
+            twoTerms[i] = names[id] + " " + surnames[random.nextInt(users) + 1].substring(0, 3);
+        }
+    }
+
+    @Benchmark
+    public List<UserData> prefix() {
+        return repository.search(prefixes[next()], limit);
+    }
+
+    @Benchmark
+    public List<UserData> substring() {
+        return repository.search(substrings[next()], limit);
+    }
+
+    @Benchmark
+    public List<UserData> twoTerms() {
+        return repository.search(twoTerms[next()], limit);
+    }
+
+    private int next() {
+        return next++ & (PROBES - 1);
+    }
+
+    private static String word(Random random, int syllables) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < syllables; i++) {
+            word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        return word.toString();
+    }
+}
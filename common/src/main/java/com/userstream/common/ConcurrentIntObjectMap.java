@@ -0,0 +1,308 @@
+package com.userstream.common;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Concurrent map from primitive {@code int} keys to objects.
+ *
+ * <p>Entries live in lock-striped open-addressing tables (parallel {@code int[]} keys and
+ * {@code Object[]} values, linear probing), so a lookup never boxes the key and an entry costs
+ * two array slots instead of a node plus an {@code Integer}. Writers lock one segment; readers
+ * take no lock and allocate nothing. Removed entries leave a tombstone that is reused if the same
+ * key comes back and dropped when the segment is rehashed.
+ *
+ * <p>Iteration is weakly consistent, like {@link java.util.concurrent.ConcurrentHashMap}.
+ * Null values are not supported.
+ */
+public class ConcurrentIntObjectMap<V> {
+
+    private static final int DEFAULT_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+    private static final Object TOMBSTONE = new Object();
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    private final Segment<V>[] segments;
+    private final int segmentShift;
+
+    public ConcurrentIntObjectMap() {
+        this(DEFAULT_SEGMENTS * MIN_SEGMENT_CAPACITY);
+    }
+
+    public ConcurrentIntObjectMap(int expectedSize) {
+        this(expectedSize, DEFAULT_SEGMENTS);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ConcurrentIntObjectMap(int expectedSize, int concurrencyLevel) {
+        int segmentCount = tableSizeFor(Math.max(concurrencyLevel, 1));
+        this.segments = (Segment<V>[]) new Segment<?>[segmentCount];
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+        int perSegment = Math.max(expectedSize / segmentCount, 1);
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment<>(capacityFor(perSegment));
+        }
+    }
+
+    public V get(int key) {
+        int hash = hash(key);
+        return segmentFor(hash).get(key, hash);
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Associates {@code value} with {@code key} and returns the previous value, or null.
+     */
+    public V put(int key, V value) {
+        requireValue(value);
+        int hash = hash(key);
+        Segment<V> segment = segmentFor(hash);
+        synchronized (segment) {
+            return segment.put(key, hash, value);
+        }
+    }
+
+    public V putIfAbsent(int key, V value) {
+        requireValue(value);
+        int hash = hash(key);
+        Segment<V> segment = segmentFor(hash);
+        synchronized (segment) {
+            V current = segment.get(key, hash);
+            return current != null ? current : segment.put(key, hash, value);
+        }
+    }
+
+    public V remove(int key) {
+        int hash = hash(key);
+        Segment<V> segment = segmentFor(hash);
+        synchronized (segment) {
+            return segment.remove(key, hash);
+        }
+    }
+
+    /**
+     * Atomically replaces the value for {@code key} with {@code remapping.apply(current)},
+     * where {@code current} is null if the key is absent. A null result removes the entry.
+     * The function runs under the segment lock and must not touch this map.
+     */
+    public V compute(int key, UnaryOperator<V> remapping) {
+        int hash = hash(key);
+        Segment<V> segment = segmentFor(hash);
+        synchronized (segment) {
+            V current = segment.get(key, hash);
+            V updated = remapping.apply(current);
+            if (updated != null) {
+                segment.put(key, hash, updated);
+            } else if (current != null) {
+                segment.remove(key, hash);
+            }
+            return updated;
+        }
+    }
+
+    public int size() {
+        long size = 0;
+        for (Segment<V> segment : segments) {
+            size += segment.size;
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public void forEach(Consumer<? super V> action) {
+        for (Segment<V> segment : segments) {
+            segment.forEach(action);
+        }
+    }
+
+    /**
+     * Snapshot of the current values. Each segment is copied under its lock, so a
+     * {@link #compute} running on it is either wholly in the copy or wholly after it.
+     */
+    public List<V> values() {
+        List<V> values = new ArrayList<>(size());
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                segment.forEach(values::add);
+            }
+        }
+        return values;
+    }
+
+    private Segment<V> segmentFor(int hash) {
+        return segments.length == 1 ? segments[0] : segments[hash >>> segmentShift];
+    }
+
+    private static void requireValue(Object value) {
+        if (value == null) {
+            throw new NullPointerException("null values are not supported");
+        }
+    }
+
+    // Murmur3 finalizer: spreads sequential ids across both the segment bits and the slot bits
+    private static int hash(int key) {
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int capacityFor(int entries) {
+        // Keep the load factor at or below 0.5 right after a rehash
+        return Math.max(MIN_SEGMENT_CAPACITY, tableSizeFor(entries * 2));
+    }
+
+    private static int tableSizeFor(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    private static final class Table {
+        final int[] keys;
+        final Object[] values;
+        final int mask;
+
+        Table(int capacity) {
+            this.keys = new int[capacity];
+            this.values = new Object[capacity];
+            this.mask = capacity - 1;
+        }
+    }
+
+    /**
+     * One lock stripe. Slot protocol: a null value marks a never-used slot, which ends a probe.
+     * A slot's key is written before its value is published with release semantics and never
+     * changes afterwards, so a reader that acquires a non-null value always sees the matching key.
+     */
+    private static final class Segment<V> {
+        private volatile Table table;
+        private volatile int size;
+        private int used;
+
+        Segment(int capacity) {
+            this.table = new Table(capacity);
+        }
+
+        @SuppressWarnings("unchecked")
+        V get(int key, int hash) {
+            Table t = table;
+            int index = hash & t.mask;
+            while (true) {
+                Object value = VALUES.getAcquire(t.values, index);
+                if (value == null) {
+                    return null;
+                }
+                if (t.keys[index] == key) {
+                    return value == TOMBSTONE ? null : (V) value;
+                }
+                index = (index + 1) & t.mask;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        V put(int key, int hash, V value) {
+            Table t = table;
+            int index = hash & t.mask;
+            while (true) {
+                Object current = t.values[index];
+                if (current == null) {
+                    t.keys[index] = key;
+                    VALUES.setRelease(t.values, index, value);
+                    size++;
+                    if (++used > t.keys.length * 3 / 4) {
+                        rehash();
+                    }
+                    return null;
+                }
+                if (t.keys[index] == key) {
+                    VALUES.setRelease(t.values, index, value);
+                    if (current == TOMBSTONE) {
+                        size++;
+                        return null;
+                    }
+                    return (V) current;
+                }
+                index = (index + 1) & t.mask;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        V remove(int key, int hash) {
+            Table t = table;
+            int index = hash & t.mask;
+            while (true) {
+                Object current = t.values[index];
+                if (current == null) {
+                    return null;
+                }
+                if (t.keys[index] == key) {
+                    if (current == TOMBSTONE) {
+                        return null;
+                    }
+                    VALUES.setRelease(t.values, index, TOMBSTONE);
+                    size--;
+                    return (V) current;
+                }
+                index = (index + 1) & t.mask;
+            }
+        }
+
+        void clear() {
+            table = new Table(MIN_SEGMENT_CAPACITY);
+            size = 0;
+            used = 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        void forEach(Consumer<? super V> action) {
+            Table t = table;
+            for (int i = 0; i < t.values.length; i++) {
+                Object value = VALUES.getAcquire(t.values, i);
+                if (value != null && value != TOMBSTONE) {
+                    action.accept((V) value);
+                }
+            }
+        }
+
+        // Copies live entries into a fresh table; readers still probing the old one stay consistent
+        private void rehash() {
+            Table old = table;
+            Table fresh = new Table(capacityFor(size + 1));
+            for (int i = 0; i < old.values.length; i++) {
+                Object value = old.values[i];
+                if (value == null || value == TOMBSTONE) {
+                    continue;
+                }
+                int key = old.keys[i];
+                int index = hash(key) & fresh.mask;
+                while (fresh.values[index] != null) {
+                    index = (index + 1) & fresh.mask;
+                }
+                fresh.keys[index] = key;
+                fresh.values[index] = value;
+            }
+            used = size;
+            table = fresh;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.userstream.common;
+
+import java.util.Arrays;
+
+/**
+ * Map from primitive {@code int} keys to non-negative {@code long} values, for indexes that map
+ * an id to a position (a row, an offset, a packed location).
+ *
+ * <p>One open-addressing table of parallel {@code int[]} keys and {@code long[]} values with linear
+ * probing, kept at most half full. {@link #MISSING} marks an empty slot, which is why values must
+ * not be negative. Deletes shift later entries back instead of leaving tombstones, so lookups stay
+ * short however many ids come and go.
+ *
+ * <p>Not thread-safe: owners guard it with their own lock.
+ */
+public class IntLongMap {
+
+    /**
+     * Returned for a key that is not in the map.
+     */
+    public static final long MISSING = -1;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] keys;
+    private long[] values;
+    private int size;
+
+    public IntLongMap() {
+        this(512);
+    }
+
+    public IntLongMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2 && capacity < 1 << 30) {
+            capacity <<= 1;
+        }
+        this.keys = new int[capacity];
+        this.values = filled(capacity);
+    }
+
+    /**
+     * Returns the value for {@code key}, or {@link #MISSING}.
+     */
+    public long get(int key) {
+        int mask = keys.length - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            if (values[i] == MISSING) {
+                return MISSING;
+            }
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != MISSING;
+    }
+
+    /**
+     * Associates {@code value} with {@code key} and returns the previous value, or {@link #MISSING}.
+     */
+    public long put(int key, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Values must not be negative: " + value);
+        }
+        if ((size + 1) * 2 > keys.length) {
+            resize();
+        }
+        int mask = keys.length - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            if (values[i] == MISSING) {
+                keys[i] = key;
+                values[i] = value;
+                size++;
+                return MISSING;
+            }
+            if (keys[i] == key) {
+                long previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+    }
+
+    /**
+     * Removes {@code key} and returns its value, or {@link #MISSING}.
+     */
+    public long remove(int key) {
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (values[i] != MISSING && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (values[i] == MISSING) {
+            return MISSING;
+        }
+        long removed = values[i];
+        size--;
+
+        // Backward-shift deletion keeps every probe chain contiguous
+        int hole = i;
+        for (int j = (i + 1) & mask; values[j] != MISSING; j = (j + 1) & mask) {
+            int home = mix(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        values[hole] = MISSING;
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = filled(oldKeys.length * 2);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != MISSING) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static long[] filled(int length) {
+        long[] array = new long[length];
+        Arrays.fill(array, MISSING);
+        return array;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,122 @@
+package com.userstream.common.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Self-describing binary frames of one entity type, for HTTP bodies and broker messages.
+ *
+ * <p>A frame starts with a schema header ({@code magic, schema name, codec version}) followed by
+ * an entity count and the entities as written by the {@link EntityCodec}. Readers reject frames
+ * of another schema and hand the writer's codec version to {@link EntityCodec#decode}, so a
+ * service can read frames produced by an older version of its peer.
+ */
+public class BinaryCodec<T> {
+
+    public static final String MEDIA_TYPE = "application/x-userstream-bin";
+
+    private static final int MAGIC = 0x55534231;
+    private static final int MAX_ENTITIES = 1_000_000;
+
+    private final String schema;
+    private final EntityCodec<T> codec;
+
+    public BinaryCodec(String schema, EntityCodec<T> codec) {
+        this.schema = schema;
+        this.codec = codec;
+    }
+
+    public String getSchema() {
+        return schema;
+    }
+
+    public byte[] encode(T entity) {
+        return encodeAll(List.of(entity));
+    }
+
+    public byte[] encodeAll(Collection<? extends T> entities) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + entities.size() * 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeUTF(schema);
+            out.writeInt(codec.version());
+            out.writeInt(entities.size());
+            for (T entity : entities) {
+                codec.encode(entity, out);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encode " + schema + ": " + e.getMessage(), e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a frame holding exactly one entity.
+     */
+    public T decode(byte[] frame) {
+        List<T> entities = decodeAll(frame);
+        if (entities.size() != 1) {
+            throw new IllegalArgumentException("Expected one " + schema + " but the frame holds " + entities.size());
+        }
+        return entities.get(0);
+    }
+
+    public List<T> decodeAll(byte[] frame) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a " + MEDIA_TYPE + " frame");
+            }
+            String frameSchema = in.readUTF();
+            if (!schema.equals(frameSchema)) {
+                throw new IllegalArgumentException("Expected schema " + schema + " but the frame holds " + frameSchema);
+            }
+            int version = in.readInt();
+            if (version > codec.version()) {
+                throw new IllegalArgumentException(schema + " frame version " + version + " is newer than " + codec.version());
+            }
+            int count = in.readInt();
+            // Every entity takes at least one byte, so a count beyond the bytes left is corrupt
+            if (count < 0 || count > MAX_ENTITIES || count > in.available()) {
+                throw new IllegalArgumentException("Invalid " + schema + " frame count " + count);
+            }
+            // Grown as entities decode rather than sized from the count, which the sender controls
+            List<T> entities = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                entities.add(codec.decode(in, version));
+            }
+            return entities;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated " + schema + " frame", e);
+        }
+    }
+
+    /**
+     * True if {@code bytes} starts like a binary frame, as opposed to JSON text.
+     */
+    public static boolean isFrame(byte[] bytes) {
+        return bytes.length >= 4 && ((bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16
+                | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF)) == MAGIC;
+    }
+
+    /**
+     * True if an {@code Accept} header asks for binary frames.
+     */
+    public static boolean accepts(String acceptHeader) {
+        return acceptHeader != null && acceptHeader.contains(MEDIA_TYPE);
+    }
+
+    /**
+     * True if a {@code Content-Type} header declares a binary frame body.
+     */
+    public static boolean isBinary(String contentType) {
+        return contentType != null && contentType.startsWith(MEDIA_TYPE);
+    }
+}
@@ -0,0 +1,22 @@
+package com.userstream.common.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compact binary encoding of one entity type.
+ *
+ * <p>{@link #version()} is written alongside encoded data and handed back to {@link #decode},
+ * so a codec can keep reading what older versions wrote after fields are added.
+ */
+public interface EntityCodec<T> {
+
+    int version();
+
+    int idOf(T entity);
+
+    void encode(T entity, DataOutput out) throws IOException;
+
+    T decode(DataInput in, int version) throws IOException;
+}
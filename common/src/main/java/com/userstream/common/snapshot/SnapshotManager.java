@@ -0,0 +1,474 @@
+package com.userstream.common.snapshot;
+
+import com.userstream.common.codec.EntityCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Snapshot plus change journal for one in-memory repository, for warm restarts.
+ *
+ * <p>A snapshot ({@code <name>.snapshot}) holds every entity, encoded with an {@link EntityCodec}
+ * in CRC-checked chunks of {@value #CHUNK_ENTITIES}. Between snapshots each write is appended to
+ * a journal ({@code <name>.journal.<generation>}). Taking a snapshot first rotates the journal,
+ * so the snapshot records the generation from which replay must start; older journals are
+ * deleted once the new snapshot is in place. Replayed puts and deletes are idempotent, so changes
+ * that made it into both the snapshot and the journal are harmless.
+ *
+ * <p>The snapshot source is read only after the rotation, so it must already show every write
+ * journaled into an older generation. Repositories therefore journal under the lock that applies
+ * the write, and the source copies the data under those same locks (see
+ * {@link com.userstream.common.ConcurrentIntObjectMap#values()}).
+ *
+ * <p>Snapshot chunks are encoded and decoded in parallel on the common fork-join pool; the
+ * journal is replayed sequentially afterwards, stopping at the first torn record. Journal writes
+ * are buffered and flushed every {@value #JOURNAL_FLUSH_MILLIS} ms.
+ */
+public class SnapshotManager<T> implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(SnapshotManager.class.getName());
+
+    public static final String DIR_PROPERTY = "snapshot.dir";
+    public static final String INTERVAL_PROPERTY = "snapshot.interval.seconds";
+    public static final long DEFAULT_INTERVAL_SECONDS = 60;
+
+    private static final int SNAPSHOT_MAGIC = 0x55534E50;
+    private static final int JOURNAL_MAGIC = 0x55534A52;
+    private static final int FORMAT_VERSION = 1;
+    private static final int CHUNK_ENTITIES = 16_384;
+    private static final int END_OF_CHUNKS = -1;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final long JOURNAL_FLUSH_MILLIS = 200;
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+    private static final String JOURNAL_INFIX = ".journal.";
+
+    private final Path directory;
+    private final String name;
+    private final EntityCodec<T> codec;
+    private final long intervalMillis;
+    private final ScheduledExecutorService scheduler;
+
+    private final Object journalLock = new Object();
+    private final RecordBuffer record = new RecordBuffer();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final CRC32C journalCrc = new CRC32C();
+    private DataOutputStream journal;
+    private long generation;
+    private volatile Supplier<? extends Collection<T>> source;
+
+    /**
+     * Manager configured from {@code -Dsnapshot.dir} and {@code -Dsnapshot.interval.seconds},
+     * or null when snapshots are not enabled.
+     */
+    public static <T> SnapshotManager<T> fromSystemProperties(String name, EntityCodec<T> codec) {
+        String dir = System.getProperty(DIR_PROPERTY);
+        if (dir == null || dir.isBlank()) {
+            return null;
+        }
+        long interval = TimeUnit.SECONDS.toMillis(Long.getLong(INTERVAL_PROPERTY, DEFAULT_INTERVAL_SECONDS));
+        return new SnapshotManager<>(Path.of(dir), name, codec, interval);
+    }
+
+    public SnapshotManager(Path directory, String name, EntityCodec<T> codec, long intervalMillis) {
+        this.directory = directory;
+        this.name = name;
+        this.codec = codec;
+        this.intervalMillis = intervalMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create snapshot directory " + directory + ": " + e.getMessage(), e);
+        }
+        scheduler.scheduleWithFixedDelay(this::flushJournal, JOURNAL_FLUSH_MILLIS, JOURNAL_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Loads the latest snapshot and replays the journals written since. {@code put} is called from
+     * several threads at once while the snapshot is decoded and must be thread-safe. Returns the
+     * number of entities read from the snapshot.
+     */
+    public int restore(Consumer<T> put, IntConsumer delete) {
+        long started = System.nanoTime();
+        try {
+            long baseGeneration = 0;
+            int restored = 0;
+            Path snapshot = directory.resolve(name + SNAPSHOT_SUFFIX);
+            if (Files.exists(snapshot)) {
+                long[] header = new long[1];
+                restored = readSnapshot(snapshot, put, header);
+                baseGeneration = header[0];
+            }
+
+            long replayed = 0;
+            long lastGeneration = baseGeneration;
+            for (long journalGeneration : journalGenerations()) {
+                if (journalGeneration >= baseGeneration) {
+                    replayed += replayJournal(journalPath(journalGeneration), put, delete);
+                }
+                lastGeneration = Math.max(lastGeneration, journalGeneration);
+            }
+
+            synchronized (journalLock) {
+                openJournal(lastGeneration + 1);
+            }
+            logger.info("Restored " + restored + " " + name + " from snapshot and " + replayed
+                    + " journal records in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms");
+            return restored;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to restore " + name + " snapshot: " + e.getMessage(), e);
+        }
+    }
+
+    public void journalPut(T entity) {
+        appendJournal(PUT, codec.idOf(entity), entity);
+    }
+
+    public void journalDelete(int id) {
+        appendJournal(DELETE, id, null);
+    }
+
+    /**
+     * Rotates the journal, then writes a snapshot of what {@code source} returns and drops the
+     * journals it supersedes. Returns the number of entities written.
+     */
+    public synchronized int snapshot(Supplier<? extends Collection<T>> source) {
+        long started = System.nanoTime();
+        long snapshotGeneration;
+        synchronized (journalLock) {
+            snapshotGeneration = generation + 1;
+            openJournal(snapshotGeneration);
+        }
+
+        // Read after the rotation: a write that missed this copy is journaled into snapshotGeneration
+        Collection<T> entities = source.get();
+        List<T> list = entities instanceof List<T> l ? l : new ArrayList<>(entities);
+        Path target = directory.resolve(name + SNAPSHOT_SUFFIX);
+        Path temp = directory.resolve(name + SNAPSHOT_SUFFIX + ".tmp");
+        try {
+            try (FileOutputStream file = new FileOutputStream(temp.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 20))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(codec.version());
+                out.writeLong(snapshotGeneration);
+                writeChunks(list, out);
+                out.writeInt(END_OF_CHUNKS);
+                out.writeLong(list.size());
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            for (long journalGeneration : journalGenerations()) {
+                if (journalGeneration < snapshotGeneration) {
+                    Files.deleteIfExists(journalPath(journalGeneration));
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            throw new RuntimeException("Failed to write " + name + " snapshot: " + e.getMessage(), e);
+        }
+        logger.info("Wrote " + list.size() + " " + name + " to snapshot in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms");
+        return list.size();
+    }
+
+    /**
+     * Takes a snapshot of {@code source} every interval on the background thread, and a final one on close.
+     */
+    public void scheduleSnapshots(Supplier<? extends Collection<T>> source) {
+        this.source = source;
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot(source);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Scheduled " + name + " snapshot failed", e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        Supplier<? extends Collection<T>> current = source;
+        if (current != null) {
+            try {
+                scheduler.awaitTermination(10, TimeUnit.SECONDS);
+                snapshot(current);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Final " + name + " snapshot failed", e);
+            }
+        }
+        synchronized (journalLock) {
+            closeJournal();
+        }
+    }
+
+    // Encodes a bounded window of chunks in parallel, then writes them in order
+    private void writeChunks(List<T> entities, DataOutputStream out) throws IOException {
+        int window = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+        for (int from = 0; from < entities.size(); from += CHUNK_ENTITIES * window) {
+            List<CompletableFuture<EncodedChunk>> chunks = new ArrayList<>(window);
+            for (int start = from; start < Math.min(from + CHUNK_ENTITIES * window, entities.size()); start += CHUNK_ENTITIES) {
+                List<T> slice = entities.subList(start, Math.min(start + CHUNK_ENTITIES, entities.size()));
+                chunks.add(CompletableFuture.supplyAsync(() -> encodeChunk(slice), ForkJoinPool.commonPool()));
+            }
+            for (CompletableFuture<EncodedChunk> future : chunks) {
+                EncodedChunk chunk = future.join();
+                out.writeInt(chunk.count());
+                out.writeInt(chunk.bytes().size());
+                out.writeInt(chunk.crc());
+                chunk.bytes().writeTo(out);
+            }
+        }
+    }
+
+    private EncodedChunk encodeChunk(List<T> slice) {
+        RecordBuffer bytes = new RecordBuffer();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            for (T entity : slice) {
+                codec.encode(entity, out);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(bytes.array(), 0, bytes.size());
+        return new EncodedChunk(slice.size(), bytes, (int) crc.getValue());
+    }
+
+    private int readSnapshot(Path snapshot, Consumer<T> put, long[] header) throws IOException {
+        List<CompletableFuture<Integer>> chunks = new ArrayList<>();
+        long expected;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot), 1 << 20))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Not a snapshot file: " + snapshot);
+            }
+            int version = in.readInt();
+            header[0] = in.readLong();
+            while (true) {
+                int count = in.readInt();
+                if (count == END_OF_CHUNKS) {
+                    break;
+                }
+                byte[] bytes = new byte[in.readInt()];
+                int crc = in.readInt();
+                in.readFully(bytes);
+                // File reading stays sequential; decoding fans out
+                chunks.add(CompletableFuture.supplyAsync(
+                        () -> decodeChunk(bytes, count, crc, version, put), ForkJoinPool.commonPool()));
+            }
+            expected = in.readLong();
+        }
+
+        int restored = 0;
+        try {
+            for (CompletableFuture<Integer> chunk : chunks) {
+                restored += chunk.join();
+            }
+        } catch (RuntimeException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new IOException("Corrupt snapshot " + snapshot + ": " + cause.getMessage(), cause);
+        }
+        if (restored != expected) {
+            throw new IOException("Snapshot " + snapshot + " holds " + restored + " entities, expected " + expected);
+        }
+        return restored;
+    }
+
+    private int decodeChunk(byte[] bytes, int count, int expectedCrc, int version, Consumer<T> put) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new IllegalStateException("chunk checksum mismatch");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            for (int i = 0; i < count; i++) {
+                put.accept(codec.decode(in, version));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return count;
+    }
+
+    private long replayJournal(Path path, Consumer<T> put, IntConsumer delete) throws IOException {
+        long replayed = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            int version;
+            try {
+                if (in.readInt() != JOURNAL_MAGIC) {
+                    throw new IOException("Not a journal file: " + path);
+                }
+                version = in.readInt();
+            } catch (EOFException e) {
+                return 0;
+            }
+
+            CRC32C crc = new CRC32C();
+            while (true) {
+                byte[] body;
+                int expectedCrc;
+                try {
+                    body = new byte[in.readInt()];
+                    expectedCrc = in.readInt();
+                    in.readFully(body);
+                } catch (EOFException | NegativeArraySizeException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(body);
+                if ((int) crc.getValue() != expectedCrc) {
+                    logger.warning("Stopping " + name + " journal replay at a torn record in " + path);
+                    break;
+                }
+
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+                byte op = record.readByte();
+                int id = record.readInt();
+                if (op == PUT) {
+                    put.accept(codec.decode(record, version));
+                } else {
+                    delete.accept(id);
+                }
+                replayed++;
+            }
+        }
+        return replayed;
+    }
+
+    private void appendJournal(byte op, int id, T entity) {
+        synchronized (journalLock) {
+            try {
+                if (journal == null) {
+                    openJournal(nextGeneration());
+                }
+                record.reset();
+                recordOut.writeByte(op);
+                recordOut.writeInt(id);
+                if (entity != null) {
+                    codec.encode(entity, recordOut);
+                }
+                journalCrc.reset();
+                journalCrc.update(record.array(), 0, record.size());
+                journal.writeInt(record.size());
+                journal.writeInt((int) journalCrc.getValue());
+                record.writeTo(journal);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to journal " + name + " " + id + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    // Callers hold journalLock
+    private void openJournal(long newGeneration) {
+        closeJournal();
+        try {
+            Path path = journalPath(newGeneration);
+            journal = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+            journal.writeInt(JOURNAL_MAGIC);
+            journal.writeInt(codec.version());
+            generation = newGeneration;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open " + name + " journal: " + e.getMessage(), e);
+        }
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to close " + name + " journal", e);
+            }
+            journal = null;
+        }
+    }
+
+    private void flushJournal() {
+        synchronized (journalLock) {
+            if (journal != null) {
+                try {
+                    journal.flush();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Failed to flush " + name + " journal", e);
+                }
+            }
+        }
+    }
+
+    private long nextGeneration() throws IOException {
+        long last = generation;
+        for (long journalGeneration : journalGenerations()) {
+            last = Math.max(last, journalGeneration);
+        }
+        return last + 1;
+    }
+
+    private List<Long> journalGenerations() throws IOException {
+        String prefix = name + JOURNAL_INFIX;
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(file -> file.startsWith(prefix))
+                    .map(file -> Long.parseLong(file.substring(prefix.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path journalPath(long journalGeneration) {
+        return directory.resolve(name + JOURNAL_INFIX + String.format("%020d", journalGeneration));
+    }
+
+    private record EncodedChunk(int count, RecordBuffer bytes, int crc) {
+    }
+
+    /**
+     * ByteArrayOutputStream that exposes its array, so checksums and writes skip a copy.
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+
+        RecordBuffer() {
+            super(1024);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.userstream.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of JDBC connections.
+ * Connections are opened lazily up to {@code maxSize}; callers that find the pool
+ * exhausted wait up to {@code acquireTimeoutMillis} for one to be returned.
+ * A semaphore with one permit per borrowable connection does the waiting, so a
+ * waiter is woken by a discarded connection as well as by a returned one.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private static final int BUSY_TIMEOUT_MILLIS = 5000;
+
+    private final String url;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final BlockingQueue<PooledConnection> idle;
+    // One permit per connection that may be borrowed right now, idle or not yet opened
+    private final Semaphore permits;
+    private final AtomicInteger opened = new AtomicInteger();
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, int maxSize, long acquireTimeoutMillis) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.url = url;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idle = new ArrayBlockingQueue<>(maxSize);
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Borrows a connection. Closing the returned {@link PooledConnection} hands it back.
+     */
+    public PooledConnection acquire() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        try {
+            if (!permits.tryAcquire() && !permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out after " + acquireTimeoutMillis + "ms waiting for a connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+
+        if (closed) {
+            permits.release();
+            throw new SQLException("Connection pool is closed");
+        }
+        // Holding a permit means either an idle connection or room to open one
+        PooledConnection connection = idle.poll();
+        if (connection != null) {
+            return connection;
+        }
+        opened.incrementAndGet();
+        try {
+            return open();
+        } catch (SQLException | RuntimeException e) {
+            opened.decrementAndGet();
+            permits.release();
+            throw e;
+        }
+    }
+
+    void release(PooledConnection connection) {
+        try {
+            if (closed || connection.getConnection().isClosed()) {
+                discard(connection);
+                return;
+            }
+            if (!connection.getConnection().getAutoCommit()) {
+                connection.getConnection().rollback();
+                connection.getConnection().setAutoCommit(true);
+            }
+            if (!idle.offer(connection.reissue())) {
+                discard(connection);
+            }
+        } catch (SQLException e) {
+            discard(connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getOpenConnections() {
+        return opened.get();
+    }
+
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        PooledConnection connection;
+        while ((connection = idle.poll()) != null) {
+            discard(connection);
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection connection = DriverManager.getConnection(url);
+        try (Statement statement = connection.createStatement()) {
+            // Wait for SQLite's write lock instead of failing fast with SQLITE_BUSY
+            statement.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MILLIS);
+        }
+        return new PooledConnection(this, connection);
+    }
+
+    private void discard(PooledConnection connection) {
+        opened.decrementAndGet();
+        connection.closeQuietly();
+    }
+}
@@ -2,17 +2,86 @@ package com.userstream.db;
 
 import java.sql.*;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.userstream.user.UserData;
 
 public class DatabaseConfig {
 
+    private static final Logger logger = Logger.getLogger(DatabaseConfig.class.getName());
+
     private static final String URL = "jdbc:sqlite:userstream.db";
+    private static final int DEFAULT_POOL_SIZE = 8;
+    private static final long ACQUIRE_TIMEOUT_MILLIS = 5000;
+
+    private static final int DEFAULT_WRITER_QUEUE = 10_000;
+    private static final int DEFAULT_WRITER_BATCH = 256;
+    private static final long DEFAULT_WRITER_WINDOW_MICROS = 2000;
+
+    private static volatile ConnectionPool pool;
+    private static volatile GroupCommitWriter writer;
 
     public static Connection getConnection()throws SQLException {
         return DriverManager.getConnection(URL);
     }
 
+    /**
+     * Shared connection pool for the users database, sized by the {@code db.pool.size} system property.
+     */
+    public static ConnectionPool getPool() {
+        ConnectionPool current = pool;
+        if (current == null) {
+            synchronized (DatabaseConfig.class) {
+                current = pool;
+                if (current == null) {
+                    int size = Integer.getInteger("db.pool.size", DEFAULT_POOL_SIZE);
+                    current = new ConnectionPool(URL, size, ACQUIRE_TIMEOUT_MILLIS);
+                    pool = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Shared single-writer group-commit pipeline. Tuned with {@code db.writer.queue},
+     * {@code db.writer.batch} and {@code db.writer.window.micros}.
+     */
+    public static GroupCommitWriter getWriter() {
+        GroupCommitWriter current = writer;
+        if (current == null) {
+            synchronized (DatabaseConfig.class) {
+                current = writer;
+                if (current == null) {
+                    current = new GroupCommitWriter(URL,
+                            Integer.getInteger("db.writer.queue", DEFAULT_WRITER_QUEUE),
+                            Integer.getInteger("db.writer.batch", DEFAULT_WRITER_BATCH),
+                            Long.getLong("db.writer.window.micros", DEFAULT_WRITER_WINDOW_MICROS));
+                    writer = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Closes the shared writer, committing what it has queued, then the pool. The next
+     * {@link #getPool()} or {@link #getWriter()} call opens fresh ones.
+     */
+    public static synchronized void close() {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+    }
+
     public static void createTable(){
 
         String sql = """
@@ -20,7 +89,7 @@ public class DatabaseConfig {
                     id INTEGER PRIMARY KEY AUTOINCREMENT,
                     name TEXT,
                     surname TEXT,
-                    email, TEXT
+                    email TEXT
                     );
                 """;
 
@@ -30,49 +99,66 @@ public class DatabaseConfig {
             statement.execute(sql);
 
         }catch (SQLException e){
-            e.printStackTrace();
+            logger.log(Level.WARNING, "Failed to create the users table", e);
+            throw new RuntimeException("Failed to create the users table: " + e.getMessage(), e);
         }
     }
 
     public void save(UserData user){
-        String sql = "INSERT INTO users (name, surname, email) VALUES (?, ?, ?)";
+        try {
+            saveAsync(user).join();
+        }catch (CompletionException e){
+            logger.log(Level.WARNING, "Failed to save user", e.getCause());
+        }
+    }
 
-        try (Connection connection = DatabaseConfig.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql)){
+    /**
+     * Queues the insert on the group-commit writer. The future completes with the generated id
+     * once the transaction holding the insert has been committed.
+     */
+    public CompletableFuture<Integer> saveAsync(UserData user){
+        String sql = "INSERT INTO users (name, surname, email) VALUES (?, ?, ?)";
 
+        return getWriter().submit(connection -> {
+            PreparedStatement statement = connection.prepare(sql, Statement.RETURN_GENERATED_KEYS);
             statement.setString(1,user.getName());
             statement.setString(2,user.getSurname());
             statement.setString(3, user.getEmail());
             statement.executeUpdate();
 
-        }catch (SQLException e){
-            e.printStackTrace();
-        }
-
+            try (ResultSet keys = statement.getGeneratedKeys()) {
+                return keys.next() ? keys.getInt(1) : user.getId();
+            }
+        }).thenApply(id -> {
+            user.setId(id);
+            return id;
+        });
     }
 
     public Optional<UserData> findById(int id){
         String sql = "SELECT * FROM users WHERE id = ?";
 
-        try(Connection connection = DatabaseConfig.getConnection();
-        PreparedStatement stmt = connection.prepareStatement(sql)){
+        try(PooledConnection connection = getPool().acquire()){
 
+            PreparedStatement stmt = connection.prepare(sql);
             stmt.setInt(1, id);
-            ResultSet rs = stmt.executeQuery();
-
-            if(rs.next()){
-                UserData user = new UserData(
-                        rs.getInt("id"),
-                        rs.getString("name"),
-                        rs.getString("surname"),
-                        rs.getString("email")
-                );
-                return Optional.of(user);
 
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    UserData user = new UserData(
+                            rs.getInt("id"),
+                            rs.getString("name"),
+                            rs.getString("surname"),
+                            rs.getString("email")
+                    );
+                    return Optional.of(user);
+                }
             }
 
         }catch (SQLException e){
-            e.printStackTrace();
+            // A failed lookup is not a missing user, so it must not turn into an empty result
+            logger.log(Level.WARNING, "Failed to load user " + id, e);
+            throw new RuntimeException("Failed to load user " + id + ": " + e.getMessage(), e);
         }
         return Optional.empty();
     }
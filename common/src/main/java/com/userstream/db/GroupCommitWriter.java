@@ -0,0 +1,266 @@
+package com.userstream.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Single-writer pipeline for SQLite.
+ *
+ * <p>Callers submit write operations to a bounded queue and get a future back. One dedicated
+ * thread drains the queue, runs up to {@code maxBatchSize} operations inside one transaction
+ * (waiting at most {@code batchWindowMicros} after the first one for others to arrive), commits
+ * once, and only then completes the futures. With WAL journaling and {@code synchronous=FULL}
+ * a completed future means the write is durable, and concurrent writers share one fsync instead
+ * of fighting over the database lock.
+ *
+ * <p>Each operation runs under its own savepoint, so a failing operation - whether it throws an
+ * {@link SQLException} or a runtime exception - is rolled back and reported on its own future
+ * without affecting the rest of the group. Once {@link #close()} has been called, writes that did
+ * not make it into the queue fail straight away instead of waiting on a future nobody completes.
+ */
+public final class GroupCommitWriter implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(GroupCommitWriter.class.getName());
+
+    /**
+     * Work executed on the writer thread inside the current group transaction.
+     */
+    @FunctionalInterface
+    public interface WriteOperation<T> {
+        T apply(PooledConnection connection) throws SQLException;
+    }
+
+    private final ConnectionPool connections;
+    private final BlockingQueue<PendingWrite<?>> queue;
+    private final int maxBatchSize;
+    private final long batchWindowNanos;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+
+    public GroupCommitWriter(String url, int queueCapacity, int maxBatchSize, long batchWindowMicros) {
+        this.connections = new ConnectionPool(url, 1, 0);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.batchWindowNanos = TimeUnit.MICROSECONDS.toNanos(batchWindowMicros);
+        this.writerThread = new Thread(this::run, "sqlite-group-commit");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queues a write. Blocks while the queue is full, which pushes back on callers
+     * instead of letting pending writes pile up without bound.
+     */
+    public <T> CompletableFuture<T> submit(WriteOperation<T> operation) {
+        if (!running) {
+            throw new RejectedExecutionException("Writer is closed");
+        }
+        PendingWrite<T> pending = new PendingWrite<>(operation);
+        try {
+            queue.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while queueing write", e);
+        }
+        // close() may have run while we were queueing; if the writer has not picked the write up
+        // by now it may never do so, so take it back and fail it here
+        if (!running && queue.remove(pending)) {
+            throw new RejectedExecutionException("Writer is closed");
+        }
+        return pending.future;
+    }
+
+    public long getCommits() {
+        return commits.get();
+    }
+
+    public long getWrites() {
+        return writes.get();
+    }
+
+    public long getFailedWrites() {
+        return failedWrites.get();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public double getAverageBatchSize() {
+        long commitCount = commits.get();
+        return commitCount == 0 ? 0.0 : (double) writes.get() / commitCount;
+    }
+
+    /**
+     * Stops accepting writes, commits whatever is already queued and closes the connection.
+     */
+    @Override
+    public void close() {
+        running = false;
+        writerThread.interrupt();
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        connections.close();
+    }
+
+    private void run() {
+        PooledConnection connection;
+        try {
+            connection = connections.acquire();
+            configure(connection.getConnection());
+        } catch (SQLException e) {
+            running = false;
+            failAll(e);
+            throw new RuntimeException("Failed to open writer connection: " + e.getMessage(), e);
+        }
+
+        List<PendingWrite<?>> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                if (!collect(batch)) {
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                // close() interrupts us; keep draining what is already queued
+                queue.drainTo(batch, maxBatchSize - batch.size());
+                if (batch.isEmpty()) {
+                    continue;
+                }
+            }
+            try {
+                commit(connection.getConnection(), connection, batch);
+            } catch (RuntimeException e) {
+                // Never let the writer thread die while callers are still queueing behind it
+                logger.log(Level.SEVERE, "Group commit failed", e);
+                failedWrites.addAndGet(batch.size());
+                for (PendingWrite<?> pending : batch) {
+                    pending.future.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+        connection.close();
+        failAll(new SQLException("Writer is closed"));
+    }
+
+    // Waits for a first write, then gathers more until the batch is full or the window closes
+    private boolean collect(List<PendingWrite<?>> batch) throws InterruptedException {
+        PendingWrite<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return false;
+        }
+        batch.add(first);
+
+        long deadline = System.nanoTime() + batchWindowNanos;
+        while (batch.size() < maxBatchSize) {
+            queue.drainTo(batch, maxBatchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= maxBatchSize || remaining <= 0) {
+                break;
+            }
+            PendingWrite<?> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+        return true;
+    }
+
+    private void commit(Connection jdbc, PooledConnection connection, List<PendingWrite<?>> batch) {
+        Object[] results = new Object[batch.size()];
+        Exception[] errors = new Exception[batch.size()];
+        try {
+            jdbc.setAutoCommit(false);
+            for (int i = 0; i < batch.size(); i++) {
+                Savepoint savepoint = jdbc.setSavepoint();
+                try {
+                    results[i] = batch.get(i).operation.apply(connection);
+                    jdbc.releaseSavepoint(savepoint);
+                } catch (SQLException | RuntimeException e) {
+                    jdbc.rollback(savepoint);
+                    errors[i] = e;
+                }
+            }
+            jdbc.commit();
+        } catch (SQLException e) {
+            rollbackQuietly(jdbc);
+            failedWrites.addAndGet(batch.size());
+            for (PendingWrite<?> pending : batch) {
+                pending.future.completeExceptionally(e);
+            }
+            return;
+        } finally {
+            try {
+                jdbc.setAutoCommit(true);
+            } catch (SQLException ignored) {
+            }
+        }
+
+        commits.incrementAndGet();
+        writes.addAndGet(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            if (errors[i] != null) {
+                failedWrites.incrementAndGet();
+                batch.get(i).future.completeExceptionally(errors[i]);
+            } else {
+                batch.get(i).complete(results[i]);
+            }
+        }
+    }
+
+    private static void configure(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            // journal_mode reports the resulting mode as a row, which we have no use for
+            statement.executeQuery("PRAGMA journal_mode = WAL").close();
+            statement.execute("PRAGMA synchronous = FULL");
+        }
+    }
+
+    private static void rollbackQuietly(Connection connection) {
+        try {
+            connection.rollback();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private void failAll(SQLException e) {
+        PendingWrite<?> pending;
+        while ((pending = queue.poll()) != null) {
+            pending.future.completeExceptionally(e);
+        }
+    }
+
+    private static final class PendingWrite<T> {
+        final WriteOperation<T> operation;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        PendingWrite(WriteOperation<T> operation) {
+            this.operation = operation;
+        }
+
+        @SuppressWarnings("unchecked")
+        void complete(Object result) {
+            future.complete((T) result);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.userstream.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Connection borrowed from a {@link ConnectionPool}.
+ * Prepared statements are cached per connection and reused across borrows,
+ * so hot queries are compiled once per connection instead of once per call.
+ * Not thread-safe: a borrowed connection belongs to one caller until closed.
+ * Each borrow gets its own handle, so closing a handle twice, even after the
+ * connection has been lent to someone else, returns it to the pool only once.
+ */
+public class PooledConnection implements AutoCloseable {
+
+    private static final int MAX_CACHED_STATEMENTS = 64;
+
+    private final ConnectionPool pool;
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    PooledConnection(ConnectionPool pool, Connection connection) {
+        this(pool, connection, new LinkedHashMap<>(16, 0.75f, true));
+    }
+
+    private PooledConnection(ConnectionPool pool, Connection connection, Map<String, PreparedStatement> statements) {
+        this.pool = pool;
+        this.connection = connection;
+        this.statements = statements;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Returns a cached statement for {@code sql}, preparing it on first use.
+     * Callers must not close the returned statement.
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        return prepare(sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    public PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys + ":" + sql;
+        PreparedStatement statement = statements.get(key);
+        if (statement != null && !statement.isClosed()) {
+            statement.clearParameters();
+            return statement;
+        }
+
+        statement = connection.prepareStatement(sql, autoGeneratedKeys);
+        statements.put(key, statement);
+        evictOverflow();
+        return statement;
+    }
+
+    @Override
+    public void close() {
+        if (released.compareAndSet(false, true)) {
+            pool.release(this);
+        }
+    }
+
+    /**
+     * A fresh handle on the same connection and statement cache, for the next borrower.
+     */
+    PooledConnection reissue() {
+        return new PooledConnection(pool, connection, statements);
+    }
+
+    void closeQuietly() {
+        for (PreparedStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException ignored) {
+            }
+        }
+        statements.clear();
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private void evictOverflow() throws SQLException {
+        Iterator<PreparedStatement> iterator = statements.values().iterator();
+        while (statements.size() > MAX_CACHED_STATEMENTS && iterator.hasNext()) {
+            PreparedStatement eldest = iterator.next();
+            iterator.remove();
+            eldest.close();
+        }
+    }
+}
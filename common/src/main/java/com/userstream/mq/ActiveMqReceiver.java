@@ -0,0 +1,260 @@
+package com.userstream.mq;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.RedeliveryPolicy;
+
+import javax.jms.Connection;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Consumes a queue with {@code concurrency} transacted sessions, each drained by its own virtual thread.
+ *
+ * <p>The handler runs on the session's virtual thread rather than the JMS delivery thread, so a slow
+ * handler holds up only its own session. Each message is committed after the handler returns and
+ * rolled back if it throws, which makes the broker redeliver it, ahead of later messages, up to
+ * {@code maxRedeliveries} times before moving it to the dead-letter queue.
+ *
+ * <p>Messages that carry the same {@code JMSXGroupID} (see {@link ActiveMqSender#GROUP_ID_PROPERTY})
+ * are pinned by the broker to one consumer and so are handled in order, while different groups
+ * spread across the sessions and run in parallel.
+ *
+ * <p>A worker whose session fails, in a receive or a commit, closes it and opens a new one, and if
+ * the connection itself is gone the first worker to notice replaces it for all of them. Until the
+ * broker is back each worker retries every {@value #REOPEN_DELAY_MILLIS} ms; the messages they held
+ * uncommitted return to the broker for redelivery.
+ */
+public class ActiveMqReceiver implements MQ, AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(ActiveMqReceiver.class.getName());
+
+    public static final int DEFAULT_CONCURRENCY = 8;
+    public static final int DEFAULT_PREFETCH = 16;
+    public static final int DEFAULT_MAX_REDELIVERIES = 6;
+
+    private static final long RECEIVE_TIMEOUT_MILLIS = 1000;
+    private static final long REOPEN_DELAY_MILLIS = 1000;
+
+    private final Consumer<Message> handler;
+    private final String brokerUrl;
+    private final DestinationType destinationType;
+    private final String currentDestination;
+    private final int concurrency;
+    private final int prefetch;
+    private final int maxRedeliveries;
+
+    private final List<Thread> workers = new ArrayList<>();
+    // Held while the connection is replaced, apart from this so workers never wait on close()
+    private final Object connectionLock = new Object();
+    private Connection connection;
+    private volatile boolean running;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder handled = new LongAdder();
+    private final LongAdder rolledBack = new LongAdder();
+
+    public ActiveMqReceiver(String destination, Consumer<Message> handler) {
+        this(URL, DestinationType.QUEUE, destination, DEFAULT_CONCURRENCY, DEFAULT_PREFETCH,
+                DEFAULT_MAX_REDELIVERIES, handler);
+    }
+
+    public ActiveMqReceiver(String brokerUrl, DestinationType destinationType, String destination, int concurrency,
+                            int prefetch, int maxRedeliveries, Consumer<Message> handler) {
+        if (concurrency <= 0 || prefetch < 0) {
+            throw new IllegalArgumentException("concurrency must be positive and prefetch not negative");
+        }
+        this.brokerUrl = brokerUrl;
+        this.destinationType = destinationType;
+        this.currentDestination = destination;
+        this.concurrency = concurrency;
+        this.prefetch = prefetch;
+        this.maxRedeliveries = maxRedeliveries;
+        this.handler = handler;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        try {
+            synchronized (connectionLock) {
+                connection = connect();
+            }
+            running = true;
+            for (int i = 0; i < concurrency; i++) {
+                Channel channel = open(connection);
+                workers.add(Thread.ofVirtual()
+                        .name("mq-receiver-" + currentDestination + "-" + i)
+                        .start(() -> consume(channel)));
+            }
+        } catch (JMSException e) {
+            close();
+            throw new RuntimeException("Failed to start receiver for " + currentDestination + ": " + e.getMessage(), e);
+        }
+    }
+
+    public long getReceived() {
+        return received.sum();
+    }
+
+    public long getHandled() {
+        return handled.sum();
+    }
+
+    public long getRolledBack() {
+        return rolledBack.sum();
+    }
+
+    /**
+     * Stops the sessions after the message each is handling. Uncommitted messages go back to the broker.
+     */
+    @Override
+    public synchronized void close() {
+        running = false;
+        for (Thread worker : workers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        workers.clear();
+        synchronized (connectionLock) {
+            try {
+                if (connection != null) connection.close();
+            } catch (JMSException e) {
+                throw new RuntimeException("Failed to close receiver: " + e);
+            } finally {
+                connection = null;
+            }
+        }
+    }
+
+    private void consume(Channel initial) {
+        Channel channel = initial;
+        while (running && !Thread.currentThread().isInterrupted()) {
+            if (channel == null) {
+                channel = reopen();
+                if (channel == null) {
+                    pause();
+                    continue;
+                }
+            }
+            Message message;
+            try {
+                message = channel.consumer.receive(RECEIVE_TIMEOUT_MILLIS);
+            } catch (JMSException e) {
+                if (running) {
+                    logger.log(Level.WARNING, "Receiver for " + currentDestination + " failed, reopening its session", e);
+                }
+                channel.close();
+                channel = null;
+                continue;
+            }
+            if (message == null) {
+                continue;
+            }
+            received.increment();
+            try {
+                handler.accept(message);
+                channel.session.commit();
+                handled.increment();
+            } catch (JMSException | RuntimeException e) {
+                rolledBack.increment();
+                logger.log(Level.WARNING, "Handler failed on " + currentDestination + ", rolling back", e);
+                try {
+                    channel.session.rollback();
+                } catch (JMSException rollbackError) {
+                    // The broker redelivers whatever the closed session left uncommitted
+                    logger.log(Level.WARNING, "Rollback failed on " + currentDestination + ", reopening its session",
+                            rollbackError);
+                    channel.close();
+                    channel = null;
+                }
+            }
+        }
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    // A new session on the current connection, or on a new connection if that one is dead; null if the broker is unreachable
+    private Channel reopen() {
+        synchronized (connectionLock) {
+            if (!running || connection == null) {
+                return null;
+            }
+            try {
+                return open(connection);
+            } catch (JMSException e) {
+                logger.log(Level.WARNING, "Receiver connection to " + brokerUrl + " is gone, reconnecting", e);
+            }
+            try {
+                Connection fresh = connect();
+                try {
+                    connection.close();
+                } catch (JMSException e) {
+                    logger.log(Level.FINE, "Failed to close dead receiver connection", e);
+                }
+                connection = fresh;
+                return open(connection);
+            } catch (JMSException e) {
+                logger.log(Level.WARNING, "Failed to reconnect receiver to " + brokerUrl + ": " + e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    private Connection connect() throws JMSException {
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(USER, PASSAWD, brokerUrl);
+        // A small prefetch keeps one busy session from hoarding messages other sessions could handle
+        factory.getPrefetchPolicy().setAll(prefetch);
+        RedeliveryPolicy redelivery = factory.getRedeliveryPolicy();
+        redelivery.setMaximumRedeliveries(maxRedeliveries);
+        redelivery.setInitialRedeliveryDelay(0);
+        Connection connection = factory.createConnection();
+        connection.start();
+        return connection;
+    }
+
+    private Channel open(Connection connection) throws JMSException {
+        Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+        Destination destination = destinationType == DestinationType.QUEUE
+                ? session.createQueue(currentDestination)
+                : session.createTopic(currentDestination);
+        return new Channel(session, session.createConsumer(destination));
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(REOPEN_DELAY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A worker's transacted session and its consumer.
+     */
+    private record Channel(Session session, MessageConsumer consumer) {
+
+        void close() {
+            try {
+                // Closing the session closes its consumer and hands back unacknowledged messages
+                session.close();
+            } catch (JMSException e) {
+                logger.log(Level.FINE, "Failed to close receiver session", e);
+            }
+        }
+    }
+}
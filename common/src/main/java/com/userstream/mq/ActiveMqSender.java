@@ -0,0 +1,360 @@
+package com.userstream.mq;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.ActiveMQMessageProducer;
+import org.apache.activemq.AsyncCallback;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Publishes to ActiveMQ queues (or topics, see {@link ActiveTopicMqSender}) over a pool of long-lived sessions.
+ *
+ * <p>The sender opens its connections once and keeps {@code poolSize} channels, each a session with
+ * a producer cached per destination. A send borrows a channel, so concurrent callers never share a
+ * session and nobody pays for a connection, session or producer per message. Plain sends are
+ * acknowledged by the broker before returning; {@link #sendAsync} returns as soon as the message is
+ * on the wire and completes its future from the broker's receipt; {@link #sendBatch} publishes
+ * several messages under one transacted commit.
+ *
+ * <p>A channel whose send failed is reopened the next time it is borrowed. If its connection is
+ * gone too, that connection is replaced, and every other channel on it is moved to the new one when
+ * next borrowed; while the broker is unreachable each borrow retries once and fails fast.
+ * A {@code failover:} URL also works, in which case the client reconnects transparently.
+ */
+public class ActiveMqSender implements MQ, AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(ActiveMqSender.class.getName());
+
+    public static final String GROUP_ID_PROPERTY = "JMSXGroupID";
+    public static final int DEFAULT_POOL_SIZE = 8;
+
+    private static final int SESSIONS_PER_CONNECTION = 8;
+    private static final long ACQUIRE_TIMEOUT_MILLIS = 30_000;
+
+    /**
+     * Builds a message on the borrowed channel's session.
+     */
+    @FunctionalInterface
+    public interface MessageFactory {
+        Message create(Session session) throws JMSException;
+    }
+
+    private final DestinationType destinationType;
+    private final String brokerUrl;
+    private final ActiveMQConnectionFactory factory;
+    // Written under this; a slot's connection is swapped when it is found dead
+    private final AtomicReferenceArray<Connection> connections;
+    private final BlockingQueue<Channel> channels;
+    private final BlockingQueue<Channel> transactedChannels;
+    private final int deliveryMode;
+    private volatile boolean closed;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+
+    public ActiveMqSender() {
+        this(URL, DestinationType.QUEUE, DEFAULT_POOL_SIZE);
+    }
+
+    public ActiveMqSender(String brokerUrl, DestinationType destinationType, int poolSize) {
+        this.destinationType = destinationType;
+        this.brokerUrl = brokerUrl;
+        // Topic messages only reach subscribers connected at the time, so persisting them buys nothing
+        this.deliveryMode = destinationType == DestinationType.QUEUE
+                ? DeliveryMode.PERSISTENT
+                : DeliveryMode.NON_PERSISTENT;
+        this.channels = new LinkedBlockingQueue<>();
+        this.transactedChannels = new LinkedBlockingQueue<>();
+        this.factory = new ActiveMQConnectionFactory(USER, PASSAWD, brokerUrl);
+        this.connections = new AtomicReferenceArray<>((poolSize + SESSIONS_PER_CONNECTION - 1) / SESSIONS_PER_CONNECTION);
+        try {
+            for (int i = 0; i < connections.length(); i++) {
+                connections.set(i, connect(factory));
+            }
+            for (int i = 0; i < poolSize; i++) {
+                int slot = i % connections.length();
+                channels.add(new Channel(slot, connections.get(slot), false, destinationType, deliveryMode));
+                transactedChannels.add(new Channel(slot, connections.get(slot), true, destinationType, deliveryMode));
+            }
+        } catch (JMSException e) {
+            closeConnections(connections);
+            throw new RuntimeException("Failed to connect sender to " + brokerUrl + ": " + e.getMessage(), e);
+        }
+    }
+
+    public void send(String destination, String text) {
+        send(destination, session -> session.createTextMessage(text), null);
+    }
+
+    /**
+     * Sends synchronously. Messages with the same non-null {@code groupId} are delivered in order to a
+     * single consumer at a time.
+     */
+    public void send(String destination, MessageFactory factory, String groupId) {
+        Channel channel = acquire(channels);
+        try {
+            channel.producer(destination).send(build(channel, factory, groupId));
+            sent.increment();
+        } catch (JMSException e) {
+            failed.increment();
+            channel.broken = true;
+            throw new RuntimeException("Failed to send to " + destination + ": " + e.getMessage(), e);
+        } finally {
+            release(channels, channel);
+        }
+    }
+
+    public CompletableFuture<Void> sendAsync(String destination, String text) {
+        return sendAsync(destination, session -> session.createTextMessage(text), null);
+    }
+
+    /**
+     * Sends without waiting for the broker. The future completes when the broker has accepted the
+     * message, or exceptionally if it refused it or the connection failed.
+     */
+    public CompletableFuture<Void> sendAsync(String destination, MessageFactory factory, String groupId) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        Channel channel = acquire(channels);
+        try {
+            MessageProducer producer = channel.producer(destination);
+            ((ActiveMQMessageProducer) producer).send(build(channel, factory, groupId), new AsyncCallback() {
+                @Override
+                public void onSuccess() {
+                    sent.increment();
+                    result.complete(null);
+                }
+
+                @Override
+                public void onException(JMSException e) {
+                    failed.increment();
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (JMSException | RuntimeException e) {
+            failed.increment();
+            channel.broken = true;
+            result.completeExceptionally(e);
+        } finally {
+            release(channels, channel);
+        }
+        return result;
+    }
+
+    public void sendBatch(String destination, List<String> texts) {
+        List<MessageFactory> factories = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            factories.add(session -> session.createTextMessage(text));
+        }
+        sendBatch(destination, factories, null);
+    }
+
+    /**
+     * Sends all messages in one transaction: either every message is published or none is.
+     */
+    public void sendBatch(String destination, List<? extends MessageFactory> factories, String groupId) {
+        if (factories.isEmpty()) {
+            return;
+        }
+        Channel channel = acquire(transactedChannels);
+        try {
+            MessageProducer producer = channel.producer(destination);
+            for (MessageFactory factory : factories) {
+                producer.send(build(channel, factory, groupId));
+            }
+            channel.session.commit();
+            commits.increment();
+            sent.add(factories.size());
+        } catch (Throwable e) {
+            // Whatever failed, a factory included, the messages sent so far must not ride along with the next batch
+            failed.add(factories.size());
+            try {
+                channel.session.rollback();
+            } catch (JMSException rollbackError) {
+                channel.broken = true;
+            }
+            if (e instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (e instanceof Error error) {
+                throw error;
+            }
+            throw new RuntimeException("Failed to send batch to " + destination + ": " + e.getMessage(), e);
+        } finally {
+            release(transactedChannels, channel);
+        }
+    }
+
+    public DestinationType getDestinationType() {
+        return destinationType;
+    }
+
+    public long getSent() {
+        return sent.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getCommits() {
+        return commits.sum();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            closeConnections(connections);
+        }
+        channels.clear();
+        transactedChannels.clear();
+    }
+
+    private Message build(Channel channel, MessageFactory factory, String groupId) throws JMSException {
+        Message message = factory.create(channel.session);
+        if (groupId != null) {
+            message.setStringProperty(GROUP_ID_PROPERTY, groupId);
+        }
+        return message;
+    }
+
+    private Channel acquire(BlockingQueue<Channel> pool) {
+        if (closed) {
+            throw new IllegalStateException("Sender is closed");
+        }
+        Channel channel;
+        try {
+            channel = pool.poll(ACQUIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            if (channel == null) {
+                throw new IllegalStateException("No sender session free after " + ACQUIRE_TIMEOUT_MILLIS + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for a sender session", e);
+        }
+        if (!channel.broken && channel.connection == connections.get(channel.slot)) {
+            return channel;
+        }
+        try {
+            return reopen(channel);
+        } catch (JMSException | RuntimeException e) {
+            // Stays broken in the pool, so the next borrower tries again and the pool keeps its size
+            pool.add(channel);
+            throw new IllegalStateException("Failed to reconnect sender to " + brokerUrl + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void release(BlockingQueue<Channel> pool, Channel channel) {
+        if (!closed) {
+            pool.add(channel);
+        }
+    }
+
+    // Opens a fresh session for a broken or stale channel, replacing its connection first if that is dead too
+    private synchronized Channel reopen(Channel stale) throws JMSException {
+        if (closed) {
+            throw new IllegalStateException("Sender is closed");
+        }
+        stale.close();
+        int slot = stale.slot;
+        Connection current = connections.get(slot);
+        try {
+            return new Channel(slot, current, stale.transacted, destinationType, deliveryMode);
+        } catch (JMSException e) {
+            logger.log(Level.WARNING, "Sender connection to " + brokerUrl + " is gone, reconnecting", e);
+        }
+        connections.set(slot, connect(factory));
+        try {
+            current.close();
+        } catch (JMSException e) {
+            logger.log(Level.FINE, "Failed to close dead sender connection", e);
+        }
+        return new Channel(slot, connections.get(slot), stale.transacted, destinationType, deliveryMode);
+    }
+
+    private static Connection connect(ActiveMQConnectionFactory factory) throws JMSException {
+        Connection connection = factory.createConnection();
+        connection.start();
+        return connection;
+    }
+
+    private static void closeConnections(AtomicReferenceArray<Connection> connections) {
+        for (int i = 0; i < connections.length(); i++) {
+            Connection connection = connections.get(i);
+            if (connection == null) {
+                continue;
+            }
+            try {
+                // Closing the connection closes its sessions and producers
+                connection.close();
+            } catch (JMSException e) {
+                logger.log(Level.WARNING, "Failed to close sender connection", e);
+            }
+        }
+    }
+
+    /**
+     * A session with its producers, used by one thread at a time.
+     */
+    private static final class Channel {
+        private final int slot;
+        private final Connection connection;
+        private final boolean transacted;
+        private final Session session;
+        private final DestinationType destinationType;
+        private final int deliveryMode;
+        private final Map<String, MessageProducer> producers = new HashMap<>();
+        private boolean broken;
+
+        Channel(int slot, Connection connection, boolean transacted, DestinationType destinationType,
+                int deliveryMode) throws JMSException {
+            this.slot = slot;
+            this.connection = connection;
+            this.transacted = transacted;
+            this.destinationType = destinationType;
+            this.deliveryMode = deliveryMode;
+            this.session = connection.createSession(transacted,
+                    transacted ? Session.SESSION_TRANSACTED : Session.AUTO_ACKNOWLEDGE);
+        }
+
+        MessageProducer producer(String destination) throws JMSException {
+            MessageProducer producer = producers.get(destination);
+            if (producer == null) {
+                Destination target = destinationType == DestinationType.QUEUE
+                        ? session.createQueue(destination)
+                        : session.createTopic(destination);
+                producer = session.createProducer(target);
+                producer.setDeliveryMode(deliveryMode);
+                producers.put(destination, producer);
+            }
+            return producer;
+        }
+
+        void close() {
+            try {
+                session.close();
+            } catch (JMSException e) {
+                logger.log(Level.FINE, "Failed to close sender session", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.userstream.mq;
+
+import javax.jms.Message;
+import java.util.function.Consumer;
+
+/**
+ * {@link ActiveMqReceiver} for a topic. Every session on a topic gets its own copy of each message,
+ * so it runs a single session; the handler still runs off the JMS delivery thread.
+ */
+public class ActiveTopicMqReceiver extends ActiveMqReceiver {
+
+    public ActiveTopicMqReceiver(String topic, Consumer<Message> handler) {
+        this(URL, topic, DEFAULT_PREFETCH, handler);
+    }
+
+    public ActiveTopicMqReceiver(String brokerUrl, String topic, int prefetch, Consumer<Message> handler) {
+        super(brokerUrl, DestinationType.TOPIC, topic, 1, prefetch, DEFAULT_MAX_REDELIVERIES, handler);
+    }
+}
@@ -0,0 +1,15 @@
+package com.userstream.mq;
+
+/**
+ * {@link ActiveMqSender} that publishes to topics.
+ */
+public class ActiveTopicMqSender extends ActiveMqSender {
+
+    public ActiveTopicMqSender() {
+        this(URL, DEFAULT_POOL_SIZE);
+    }
+
+    public ActiveTopicMqSender(String brokerUrl, int poolSize) {
+        super(brokerUrl, DestinationType.TOPIC, poolSize);
+    }
+}
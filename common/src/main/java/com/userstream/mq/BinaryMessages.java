@@ -0,0 +1,62 @@
+package com.userstream.mq;
+
+import com.userstream.common.codec.BinaryCodec;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Carries {@link BinaryCodec} frames in JMS {@link BytesMessage}s. The frame's schema is also set
+ * as the JMS type, and a {@value #CONTENT_TYPE_PROPERTY} property marks the body as binary, so
+ * consumers can tell frames from JSON without reading the body.
+ */
+public final class BinaryMessages {
+
+    public static final String CONTENT_TYPE_PROPERTY = "contentType";
+
+    private BinaryMessages() {
+    }
+
+    public static <T> BytesMessage create(Session session, BinaryCodec<T> codec, T entity) throws JMSException {
+        return create(session, codec, List.of(entity));
+    }
+
+    /**
+     * One message holding all of {@code entities}, so a batch costs a single send.
+     */
+    public static <T> BytesMessage create(Session session, BinaryCodec<T> codec,
+                                          Collection<? extends T> entities) throws JMSException {
+        BytesMessage message = session.createBytesMessage();
+        message.setStringProperty(CONTENT_TYPE_PROPERTY, BinaryCodec.MEDIA_TYPE);
+        message.setJMSType(codec.getSchema());
+        message.writeBytes(codec.encodeAll(entities));
+        return message;
+    }
+
+    public static boolean isBinary(Message message) throws JMSException {
+        return message instanceof BytesMessage
+                && BinaryCodec.MEDIA_TYPE.equals(message.getStringProperty(CONTENT_TYPE_PROPERTY));
+    }
+
+    /**
+     * Body of a bytes message. Reads from the start only if the message has not been read yet.
+     */
+    public static byte[] body(BytesMessage message) throws JMSException {
+        byte[] body = new byte[(int) message.getBodyLength()];
+        message.readBytes(body);
+        return body;
+    }
+
+    /**
+     * Entities carried by a binary message.
+     *
+     * @throws IllegalArgumentException if the body is not a frame of {@code codec}'s schema
+     */
+    public static <T> List<T> read(BytesMessage message, BinaryCodec<T> codec) throws JMSException {
+        return codec.decodeAll(body(message));
+    }
+}
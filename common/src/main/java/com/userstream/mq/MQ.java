@@ -17,6 +17,8 @@ public interface MQ {
 
     static final String TEST_QUEUE = "test_queue";
 
+    static final String EVENTS_QUEUE = "events";
+
 
     static final Broker EMBEDDED_BROKER = new Broker();
 
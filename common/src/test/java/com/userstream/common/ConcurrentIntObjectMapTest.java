@@ -0,0 +1,179 @@
+package com.userstream.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ConcurrentIntObjectMapTest {
+
+    @Test
+    void matchesHashMapUnderRandomPutsRemovesAndComputes() {
+        ConcurrentIntObjectMap<String> map = new ConcurrentIntObjectMap<>(16, 4);
+        Map<Integer, String> expected = new HashMap<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 200_000; i++) {
+            // A narrow key range keeps segments full of tombstones between rehashes
+            int key = random.nextInt(5_000) - 2_500;
+            switch (random.nextInt(4)) {
+                case 0 -> assertEquals(expected.remove(key), map.remove(key));
+                case 1 -> {
+                    String value = random.nextBoolean() ? null : "c" + i;
+                    assertEquals(value, map.compute(key, current -> {
+                        assertEquals(expected.get(key), current);
+                        return value;
+                    }));
+                    if (value == null) {
+                        expected.remove(key);
+                    } else {
+                        expected.put(key, value);
+                    }
+                }
+                default -> assertEquals(expected.put(key, "p" + i), map.put(key, "p" + i));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (int key = -2_500; key < 2_500; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    @Test
+    void removedKeyComesBackThroughItsTombstone() {
+        ConcurrentIntObjectMap<String> map = new ConcurrentIntObjectMap<>(16, 1);
+        for (int key = 0; key < 8; key++) {
+            map.put(key, "v" + key);
+        }
+
+        // Far more remove/put cycles than the table has slots: reusing the tombstone keeps it from filling up
+        for (int round = 0; round < 10_000; round++) {
+            int key = round % 8;
+            assertEquals(round < 8 ? "v" + key : "r" + (round - 8), map.remove(key));
+            assertNull(map.get(key));
+            assertNull(map.remove(key));
+            assertEquals(7, map.size());
+            assertNull(map.put(key, "r" + round));
+            assertEquals("r" + round, map.get(key));
+            assertEquals(8, map.size());
+        }
+    }
+
+    @Test
+    void computeReturningNullRemovesTheEntry() {
+        ConcurrentIntObjectMap<String> map = new ConcurrentIntObjectMap<>();
+        map.put(1, "one");
+        map.put(2, "two");
+
+        assertNull(map.compute(1, current -> {
+            assertEquals("one", current);
+            return null;
+        }));
+        assertNull(map.get(1));
+        assertFalse(map.containsKey(1));
+        assertEquals(1, map.size());
+
+        // Computing null for an absent key leaves the map alone
+        assertNull(map.compute(3, current -> null));
+        assertEquals(1, map.size());
+        assertEquals(List.of("two"), map.values());
+
+        assertEquals("again", map.compute(1, current -> {
+            assertNull(current);
+            return "again";
+        }));
+        assertEquals("again", map.get(1));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    void valuesHoldsExactlyTheLiveEntries() {
+        ConcurrentIntObjectMap<Integer> map = new ConcurrentIntObjectMap<>(16, 4);
+        for (int key = 0; key < 1_000; key++) {
+            map.put(key, key);
+        }
+        for (int key = 0; key < 1_000; key += 3) {
+            map.remove(key);
+        }
+        for (int key = 1; key < 1_000; key += 3) {
+            map.compute(key, current -> current + 10_000);
+        }
+
+        List<Integer> values = new ArrayList<>(map.values());
+        values.sort(null);
+
+        List<Integer> expected = new ArrayList<>();
+        for (int key = 0; key < 1_000; key++) {
+            if (key % 3 == 2) {
+                expected.add(key);
+            } else if (key % 3 == 1) {
+                expected.add(key + 10_000);
+            }
+        }
+        expected.sort(null);
+        assertEquals(expected, values);
+        assertEquals(expected.size(), map.size());
+    }
+
+    @Test
+    void readersNeverMissAnEntryWhileItsSegmentRehashes() throws InterruptedException {
+        // One small segment, so every few puts the table readers are probing is replaced
+        ConcurrentIntObjectMap<Integer> map = new ConcurrentIntObjectMap<>(16, 1);
+        int stable = 64;
+        for (int key = 0; key < stable; key++) {
+            map.put(key, key);
+        }
+        int added = 200_000;
+        AtomicInteger published = new AtomicInteger(stable);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger misses = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            Thread reader = new Thread(() -> {
+                Random random = new Random();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                while (!done.get()) {
+                    // Any key below the published count was put before this read began
+                    int key = random.nextInt(published.get());
+                    Integer value = map.get(key);
+                    if (value == null || value != key) {
+                        misses.incrementAndGet();
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        start.countDown();
+        for (int key = stable; key < stable + added; key++) {
+            map.put(key, key);
+            published.set(key + 1);
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertEquals(0, misses.get());
+        assertEquals(stable + added, map.size());
+        assertEquals(map.size(), map.values().size());
+    }
+}
@@ -0,0 +1,43 @@
+package com.userstream.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IntLongMapTest {
+
+    @Test
+    void matchesHashMapUnderRandomPutsAndRemoves() {
+        IntLongMap map = new IntLongMap();
+        Map<Integer, Long> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 200_000; i++) {
+            // A narrow key range keeps probe chains crowded, which is where backward-shift deletes go wrong
+            int key = random.nextInt(5_000) - 2_500;
+            if (random.nextInt(3) == 0) {
+                Long removed = expected.remove(key);
+                assertEquals(removed == null ? IntLongMap.MISSING : removed, map.remove(key));
+            } else {
+                long value = random.nextInt(Integer.MAX_VALUE);
+                Long previous = expected.put(key, value);
+                assertEquals(previous == null ? IntLongMap.MISSING : previous, map.put(key, value));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (int key = -2_500; key < 2_500; key++) {
+            Long value = expected.get(key);
+            assertEquals(value == null ? IntLongMap.MISSING : value, map.get(key));
+        }
+    }
+
+    @Test
+    void rejectsNegativeValues() {
+        assertThrows(IllegalArgumentException.class, () -> new IntLongMap().put(1, -1));
+    }
+}
@@ -0,0 +1,85 @@
+package com.userstream.common.codec;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryCodecTest {
+
+    private static final EntityCodec<String> STRINGS = new EntityCodec<>() {
+        @Override
+        public int version() {
+            return 1;
+        }
+
+        @Override
+        public int idOf(String value) {
+            return value.hashCode();
+        }
+
+        @Override
+        public void encode(String value, DataOutput out) throws IOException {
+            Codecs.writeString(out, value);
+        }
+
+        @Override
+        public String decode(DataInput in, int version) throws IOException {
+            return Codecs.readString(in);
+        }
+    };
+
+    private final BinaryCodec<String> codec = new BinaryCodec<>("Text", STRINGS);
+
+    @Test
+    void roundTripsEntitiesIncludingNullAndNonAscii() {
+        List<String> values = Arrays.asList("plain", null, "", "zażółć 🚀");
+
+        byte[] frame = codec.encodeAll(values);
+
+        assertTrue(BinaryCodec.isFrame(frame));
+        assertEquals(values, codec.decodeAll(frame));
+        assertEquals("one", codec.decode(codec.encode("one")));
+    }
+
+    @Test
+    void rejectsCountsTheFrameCannotHold() throws IOException {
+        // A few bytes claiming the maximum entity count must fail before anything is sized from it
+        byte[] frame = header(1_000_000);
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> codec.decodeAll(frame));
+        assertTrue(e.getMessage().contains("count"));
+        assertThrows(IllegalArgumentException.class, () -> codec.decodeAll(header(-1)));
+    }
+
+    @Test
+    void rejectsOtherSchemasAndTruncatedFrames() {
+        byte[] frame = codec.encodeAll(List.of("a", "b"));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new BinaryCodec<>("Other", STRINGS).decodeAll(frame));
+        assertThrows(IllegalArgumentException.class,
+                () -> codec.decodeAll(Arrays.copyOf(frame, frame.length - 1)));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(frame));
+    }
+
+    private static byte[] header(int count) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x55534231);
+        out.writeUTF("Text");
+        out.writeInt(1);
+        out.writeInt(count);
+        out.writeInt(0);
+        return bytes.toByteArray();
+    }
+}
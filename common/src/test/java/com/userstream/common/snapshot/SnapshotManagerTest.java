@@ -0,0 +1,139 @@
+package com.userstream.common.snapshot;
+
+import com.userstream.common.ConcurrentIntObjectMap;
+import com.userstream.common.codec.EntityCodec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SnapshotManagerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void restoresSnapshotPlusLaterJournal() {
+        ConcurrentIntObjectMap<Item> live = new ConcurrentIntObjectMap<>();
+        SnapshotManager<Item> manager = manager();
+        manager.restore(item -> live.put(item.id(), item), live::remove);
+        for (int id = 0; id < 100; id++) {
+            put(manager, live, new Item(id, 1));
+        }
+        manager.snapshot(live::values);
+        put(manager, live, new Item(7, 2));
+        delete(manager, live, 8);
+        manager.close();
+
+        ConcurrentIntObjectMap<Item> restored = restore();
+        assertEquals(99, restored.size());
+        assertEquals(new Item(7, 2), restored.get(7));
+        assertNull(restored.get(8));
+    }
+
+    @Test
+    void writesRacingSnapshotsSurviveRestart() throws Exception {
+        ConcurrentIntObjectMap<Item> live = new ConcurrentIntObjectMap<>();
+        SnapshotManager<Item> manager = manager();
+        manager.restore(item -> live.put(item.id(), item), live::remove);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong versions = new AtomicLong();
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            Thread writer = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    int id = random.nextInt(2_000);
+                    if (random.nextInt(10) == 0) {
+                        delete(manager, live, id);
+                    } else {
+                        put(manager, live, new Item(id, versions.incrementAndGet()));
+                    }
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+        for (int i = 0; i < 50; i++) {
+            manager.snapshot(live::values);
+        }
+        running.set(false);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        // No scheduled source, so close() only seals the journal: the last snapshot plus journals must suffice
+        manager.close();
+
+        ConcurrentIntObjectMap<Item> restored = restore();
+        assertEquals(live.size(), restored.size());
+        live.forEach(item -> assertEquals(item, restored.get(item.id())));
+    }
+
+    private SnapshotManager<Item> manager() {
+        return new SnapshotManager<>(dir, "items", new ItemCodec(), Long.MAX_VALUE);
+    }
+
+    private ConcurrentIntObjectMap<Item> restore() {
+        ConcurrentIntObjectMap<Item> restored = new ConcurrentIntObjectMap<>();
+        SnapshotManager<Item> manager = manager();
+        manager.restore(item -> restored.put(item.id(), item), restored::remove);
+        manager.close();
+        return restored;
+    }
+
+    // Journals under the entry's lock, the way the repositories do
+    private static void put(SnapshotManager<Item> manager, ConcurrentIntObjectMap<Item> live, Item item) {
+        live.compute(item.id(), previous -> {
+            manager.journalPut(item);
+            return item;
+        });
+    }
+
+    private static void delete(SnapshotManager<Item> manager, ConcurrentIntObjectMap<Item> live, int id) {
+        live.compute(id, previous -> {
+            if (previous != null) {
+                manager.journalDelete(id);
+            }
+            return null;
+        });
+    }
+
+    private record Item(int id, long version) {
+    }
+
+    private static final class ItemCodec implements EntityCodec<Item> {
+
+        @Override
+        public int version() {
+            return 1;
+        }
+
+        @Override
+        public int idOf(Item item) {
+            return item.id();
+        }
+
+        @Override
+        public void encode(Item item, DataOutput out) throws IOException {
+            out.writeInt(item.id());
+            out.writeLong(item.version());
+        }
+
+        @Override
+        public Item decode(DataInput in, int version) throws IOException {
+            return new Item(in.readInt(), in.readLong());
+        }
+    }
+}
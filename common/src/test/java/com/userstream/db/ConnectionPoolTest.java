@@ -0,0 +1,65 @@
+package com.userstream.db;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ConnectionPoolTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void waiterGetsTheSlotOfADiscardedConnection() throws Exception {
+        try (ConnectionPool pool = new ConnectionPool(url(), 1, 5_000)) {
+            PooledConnection borrowed = pool.acquire();
+            CompletableFuture<PooledConnection> waiter = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return pool.acquire();
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            Thread.sleep(100);
+
+            // A closed JDBC connection is discarded on return rather than handed back to the idle queue
+            borrowed.getConnection().close();
+            borrowed.close();
+
+            try (PooledConnection replacement = waiter.get(2, TimeUnit.SECONDS)) {
+                assertFalse(replacement.getConnection().isClosed());
+                assertEquals(1, pool.getOpenConnections());
+            }
+        }
+    }
+
+    @Test
+    void closingAHandleTwiceReturnsTheConnectionOnce() throws Exception {
+        try (ConnectionPool pool = new ConnectionPool(url(), 1, 100)) {
+            PooledConnection first = pool.acquire();
+            first.close();
+            PooledConnection second = pool.acquire();
+
+            // The stale handle must not hand back the connection the second borrower now holds
+            first.close();
+
+            assertThrows(SQLException.class, pool::acquire);
+            assertEquals(0, pool.getIdleConnections());
+            second.close();
+            second.close();
+            assertEquals(1, pool.getIdleConnections());
+        }
+    }
+
+    private String url() {
+        return "jdbc:sqlite:" + dir.resolve("pool.db");
+    }
+}
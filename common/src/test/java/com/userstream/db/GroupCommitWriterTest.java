@@ -0,0 +1,144 @@
+package com.userstream.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GroupCommitWriterTest {
+
+    @TempDir
+    Path dir;
+
+    private String url;
+    private GroupCommitWriter writer;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        url = "jdbc:sqlite:" + dir.resolve("writer.db");
+        writer = new GroupCommitWriter(url, 1_000, 64, 200);
+        writer.submit(connection -> connection.getConnection().createStatement()
+                .executeUpdate("CREATE TABLE items (id INTEGER PRIMARY KEY)")).get(5, TimeUnit.SECONDS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        writer.close();
+    }
+
+    @Test
+    void runtimeExceptionFailsOnlyItsOwnWrite() throws Exception {
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int id = 0; id < 20; id++) {
+            int value = id;
+            futures.add(writer.submit(connection -> {
+                if (value == 7) {
+                    throw new IllegalStateException("boom");
+                }
+                return insert(connection, value);
+            }));
+        }
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> futures.get(7).get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, failure.getCause());
+        for (int id = 0; id < 20; id++) {
+            if (id != 7) {
+                assertEquals(1, (int) futures.get(id).get(5, TimeUnit.SECONDS));
+            }
+        }
+        assertEquals(19, count());
+        assertEquals(1, writer.getFailedWrites());
+
+        // The writer thread is still alive after the failure
+        assertEquals(1, (int) writer.submit(connection -> insert(connection, 100)).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void submitAfterCloseFailsFast() {
+        writer.close();
+        assertThrows(RejectedExecutionException.class, () -> writer.submit(connection -> insert(connection, 1)));
+    }
+
+    @Test
+    void writesRacingCloseNeverHang() throws Exception {
+        CountDownLatch started = new CountDownLatch(4);
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        List<Thread> submitters = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int base = t * 100_000;
+            Thread submitter = new Thread(() -> {
+                started.countDown();
+                for (int i = 0; ; i++) {
+                    int id = base + i;
+                    try {
+                        CompletableFuture<Integer> future = writer.submit(connection -> insert(connection, id));
+                        synchronized (futures) {
+                            futures.add(future);
+                        }
+                    } catch (RejectedExecutionException e) {
+                        return;
+                    }
+                }
+            });
+            submitters.add(submitter);
+            submitter.start();
+        }
+        started.await();
+        Thread.sleep(50);
+        writer.close();
+        for (Thread submitter : submitters) {
+            submitter.join(TimeUnit.SECONDS.toMillis(10));
+        }
+
+        // Every write that was accepted completes one way or the other
+        int committed = 0;
+        synchronized (futures) {
+            for (CompletableFuture<Integer> future : futures) {
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                    committed++;
+                } catch (ExecutionException e) {
+                    // failed rather than stranded is fine
+                } catch (TimeoutException e) {
+                    throw new AssertionError("write accepted before close never completed", e);
+                }
+            }
+        }
+        assertTrue(committed > 0);
+        assertEquals(committed, count());
+    }
+
+    private static int insert(PooledConnection connection, int id) throws SQLException {
+        PreparedStatement statement = connection.prepare("INSERT INTO items (id) VALUES (?)");
+        statement.setInt(1, id);
+        return statement.executeUpdate();
+    }
+
+    private int count() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(url, 1, 0);
+        try (PooledConnection connection = pool.acquire();
+             ResultSet rows = connection.getConnection().createStatement().executeQuery("SELECT COUNT(*) FROM items")) {
+            return rows.getInt(1);
+        } finally {
+            pool.close();
+        }
+    }
+}
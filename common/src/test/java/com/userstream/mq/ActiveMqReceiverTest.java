@@ -0,0 +1,145 @@
+package com.userstream.mq;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ActiveMqReceiverTest {
+
+    private static final String BROKER = "receiver-test";
+    private static final String URL = "vm://" + BROKER + "?create=false";
+    private static final String QUEUE = "receiver-test-queue";
+    private static final String DLQ = "ActiveMQ.DLQ";
+
+    private BrokerService broker;
+    private ActiveMqReceiver receiver;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        broker = startBroker();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (receiver != null) {
+            receiver.close();
+        }
+        broker.stop();
+        broker.waitUntilStopped();
+    }
+
+    @Test
+    void failingMessageIsRedeliveredThenDeadLettered() throws Exception {
+        AtomicInteger poisonAttempts = new AtomicInteger();
+        List<String> handled = new CopyOnWriteArrayList<>();
+        receiver = new ActiveMqReceiver(URL, MQ.DestinationType.QUEUE, QUEUE, 1, 1, 2, message -> {
+            String text = text(message);
+            if (text.equals("poison")) {
+                poisonAttempts.incrementAndGet();
+                throw new IllegalStateException("cannot handle " + text);
+            }
+            handled.add(text);
+        });
+        receiver.start();
+
+        send("poison", "good");
+
+        assertTrue(await(() -> handled.contains("good")));
+        // The first delivery plus two redeliveries, then the broker gives up on it
+        assertEquals(3, poisonAttempts.get());
+        assertEquals(3, receiver.getRolledBack());
+        assertEquals("poison", receiveFrom(DLQ));
+    }
+
+    @Test
+    void keepsConsumingAfterTheBrokerRestarts() throws Exception {
+        List<String> handled = new CopyOnWriteArrayList<>();
+        receiver = new ActiveMqReceiver(URL, MQ.DestinationType.QUEUE, QUEUE, 2, 1, 2,
+                message -> handled.add(text(message)));
+        receiver.start();
+        send("before");
+        assertTrue(await(() -> handled.contains("before")));
+
+        broker.stop();
+        broker.waitUntilStopped();
+        broker = startBroker();
+        send("after");
+
+        assertTrue(await(() -> handled.contains("after")));
+    }
+
+    private static BrokerService startBroker() throws Exception {
+        BrokerService broker = new BrokerService();
+        broker.setBrokerName(BROKER);
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.start();
+        broker.waitUntilStarted();
+        return broker;
+    }
+
+    private static void send(String... texts) throws JMSException {
+        Connection connection = new ActiveMQConnectionFactory(URL).createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(session.createQueue(QUEUE));
+            for (String text : texts) {
+                producer.send(session.createTextMessage(text));
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static String receiveFrom(String queue) throws JMSException {
+        Connection connection = new ActiveMQConnectionFactory(URL).createConnection();
+        try {
+            connection.start();
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageConsumer consumer = session.createConsumer(session.createQueue(queue));
+            Message message = consumer.receive(5000);
+            assertNotNull(message);
+            return ((TextMessage) message).getText();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static String text(Message message) {
+        try {
+            return ((TextMessage) message).getText();
+        } catch (JMSException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static boolean await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,106 @@
+package com.userstream.mq;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.jms.Connection;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ActiveMqSenderTest {
+
+    private static final String BROKER = "sender-test";
+    private static final String URL = "vm://" + BROKER + "?create=false";
+    private static final String QUEUE = "sender-test-queue";
+
+    private BrokerService broker;
+    private ActiveMqSender sender;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        broker = startBroker();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (sender != null) {
+            sender.close();
+        }
+        broker.stop();
+        broker.waitUntilStopped();
+    }
+
+    @Test
+    void failingFactoryRollsBackTheMessagesAlreadySent() throws Exception {
+        sender = new ActiveMqSender(URL, MQ.DestinationType.QUEUE, 1);
+        List<ActiveMqSender.MessageFactory> batch = new ArrayList<>();
+        batch.add(session -> session.createTextMessage("first"));
+        batch.add(session -> {
+            throw new IllegalStateException("cannot encode");
+        });
+
+        assertThrows(IllegalStateException.class, () -> sender.sendBatch(QUEUE, batch, null));
+        sender.sendBatch(QUEUE, List.of("second"));
+
+        // Only the second batch may reach the queue; the first must not ride along with its commit
+        assertEquals(List.of("second"), drain());
+        assertEquals(2, sender.getFailed());
+    }
+
+    @Test
+    void reconnectsAfterTheBrokerRestarts() throws Exception {
+        sender = new ActiveMqSender(URL, MQ.DestinationType.QUEUE, 1);
+        sender.send(QUEUE, "before");
+        assertEquals(List.of("before"), drain());
+
+        broker.stop();
+        broker.waitUntilStopped();
+        broker = startBroker();
+
+        // The first send finds the connection dead; the next reconnects, and the transacted
+        // channel on the old connection moves to the new one without a failed send of its own
+        assertThrows(RuntimeException.class, () -> sender.send(QUEUE, "lost"));
+        sender.send(QUEUE, "after");
+        sender.sendBatch(QUEUE, List.of("batched"));
+
+        assertEquals(List.of("after", "batched"), drain());
+    }
+
+    private static BrokerService startBroker() throws Exception {
+        BrokerService broker = new BrokerService();
+        broker.setBrokerName(BROKER);
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.start();
+        broker.waitUntilStarted();
+        return broker;
+    }
+
+    private static List<String> drain() throws Exception {
+        Connection connection = new ActiveMQConnectionFactory(URL).createConnection();
+        try {
+            connection.start();
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageConsumer consumer = session.createConsumer(session.createQueue(QUEUE));
+            List<String> texts = new ArrayList<>();
+            for (TextMessage message = (TextMessage) consumer.receive(1000); message != null;
+                 message = (TextMessage) consumer.receive(200)) {
+                texts.add(message.getText());
+            }
+            assertNull(consumer.receiveNoWait());
+            return texts;
+        } finally {
+            connection.close();
+        }
+    }
+}
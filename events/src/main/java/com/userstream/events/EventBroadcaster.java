@@ -0,0 +1,173 @@
+package com.userstream.events;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pushes newly saved events to live subscribers (SSE streams, WebSocket sessions).
+ *
+ * <p>Fan-out never blocks the writer: each subscriber has its own bounded buffer, drained by its
+ * own virtual thread, and {@link #onSaved(Event)} only offers to those buffers. A subscriber whose
+ * buffer is full is disconnected rather than slowing everyone else down; it can reconnect and
+ * resume after the last id it received.
+ */
+public class EventBroadcaster implements EventListener {
+
+    private static final Logger logger = Logger.getLogger(EventBroadcaster.class.getName());
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+    public static final int MAX_REPLAY = 10_000;
+
+    /**
+     * Transport-specific delivery of one event. Runs on the subscriber's drain thread.
+     */
+    @FunctionalInterface
+    public interface EventSink {
+        void send(Event event) throws Exception;
+    }
+
+    private final EventRepository history;
+    private final int bufferSize;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public EventBroadcaster(EventRepository history) {
+        this(history, DEFAULT_BUFFER_SIZE);
+    }
+
+    public EventBroadcaster(EventRepository history, int bufferSize) {
+        this.history = history;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Starts delivering events whose type is in {@code types} (all types if empty) to {@code sink}.
+     * If {@code afterId} is set, stored events with a greater id are replayed first, in id order.
+     * {@code onClose} runs once, on the drain thread, when the subscription ends for any reason,
+     * including being dropped.
+     */
+    public Subscription subscribe(Set<String> types, Integer afterId, EventSink sink, Runnable onClose) {
+        Subscription subscription = new Subscription(types, sink, onClose);
+        // Register before reading history so nothing saved in between is missed
+        subscriptions.add(subscription);
+        List<Event> replay = afterId == null ? List.of() : history.findAfterId(afterId, types, MAX_REPLAY);
+        subscription.start(replay);
+        return subscription;
+    }
+
+    @Override
+    public void onSaved(Event event) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.accepts(event) && !subscription.buffer.offer(event)) {
+                dropped.increment();
+                subscription.close();
+            }
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Disconnects every subscriber.
+     */
+    public void close() {
+        for (Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+    }
+
+    /**
+     * One live subscriber with its buffer and drain thread.
+     */
+    public final class Subscription {
+        private final Set<String> types;
+        private final EventSink sink;
+        private final Runnable onClose;
+        private final BlockingQueue<Event> buffer;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile Thread drainer;
+
+        private Subscription(Set<String> types, EventSink sink, Runnable onClose) {
+            this.types = types;
+            this.sink = sink;
+            this.onClose = onClose;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        boolean accepts(Event event) {
+            // An untyped event never matches a filter, and the parsed filter set throws on contains(null)
+            return !closed.get() && (types.isEmpty() || event.getType() != null && types.contains(event.getType()));
+        }
+
+        private void start(List<Event> replay) {
+            drainer = Thread.ofVirtual().name("event-subscriber").start(() -> drain(replay));
+            if (closed.get()) {
+                drainer.interrupt();
+            }
+        }
+
+        private void drain(List<Event> replay) {
+            Set<Integer> replayed = new HashSet<>();
+            try {
+                for (Event event : replay) {
+                    sink.send(event);
+                    replayed.add(event.getId());
+                    delivered.increment();
+                }
+                while (!closed.get()) {
+                    Event event = buffer.take();
+                    // Saved while the replay was being read, and already sent as part of it
+                    if (!replayed.isEmpty() && replayed.remove(event.getId())) {
+                        continue;
+                    }
+                    sink.send(event);
+                    delivered.increment();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                // The client went away; nothing to report beyond ending the subscription
+            } finally {
+                close();
+                // Transport teardown runs here rather than in close(), which may be called on the writer's thread
+                try {
+                    onClose.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Failed to close event subscription transport", e);
+                }
+            }
+        }
+
+        public void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            subscriptions.remove(this);
+            buffer.clear();
+            Thread thread = drainer;
+            if (thread != null && thread != Thread.currentThread()) {
+                thread.interrupt();
+            }
+        }
+    }
+}
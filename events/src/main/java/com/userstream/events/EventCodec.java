@@ -0,0 +1,43 @@
+package com.userstream.events;
+
+import com.userstream.common.codec.Codecs;
+import com.userstream.common.codec.EntityCodec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public class EventCodec implements EntityCodec<Event> {
+
+    public static final String SCHEMA = "Event";
+
+    private static final int VERSION = 1;
+
+    @Override
+    public int version() {
+        return VERSION;
+    }
+
+    @Override
+    public int idOf(Event event) {
+        return event.getId();
+    }
+
+    @Override
+    public void encode(Event event, DataOutput out) throws IOException {
+        out.writeInt(event.getId());
+        Codecs.writeString(out, event.getType());
+        Codecs.writeString(out, event.getData());
+        out.writeLong(event.getTimestamp());
+    }
+
+    @Override
+    public Event decode(DataInput in, int version) throws IOException {
+        Event event = new Event();
+        event.setId(in.readInt());
+        event.setType(Codecs.readString(in));
+        event.setData(Codecs.readString(in));
+        event.setTimestamp(in.readLong());
+        return event;
+    }
+}
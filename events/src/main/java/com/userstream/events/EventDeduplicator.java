@@ -0,0 +1,313 @@
+package com.userstream.events;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Detects retried event submissions by their idempotency key.
+ *
+ * <p>Keys are first checked against a Bloom filter split into two generations, each covering
+ * one window: a key is considered recent if either generation has it, and the older one is
+ * dropped as the window rolls over. A negative answer is definite, so new keys skip the exact
+ * check. A positive answer is confirmed against a bounded, striped LRU of key to the id of the
+ * event first stored with it. A key that the filter reports but the LRU no longer holds is
+ * treated as new, so an undersized LRU can let an old retry through but never rejects a new
+ * event.
+ */
+public class EventDeduplicator {
+
+    public static final long DEFAULT_WINDOW_MILLIS = 600_000;
+    public static final int DEFAULT_EXPECTED_KEYS = 1_000_000;
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+    public static final int DEFAULT_LRU_SIZE = 100_000;
+
+    /**
+     * Id held by a key claimed with {@link #claim(String)} until {@link #update(String, int)} records
+     * the stored event's id, meaning the original request is still being stored.
+     */
+    public static final int PENDING = Integer.MIN_VALUE;
+
+    private static final int STRIPES = 16;
+    // Rough heap cost of one LRU entry besides the key's characters
+    private static final int LRU_ENTRY_OVERHEAD_BYTES = 112;
+
+    private final long windowMillis;
+    private final int expectedKeys;
+    private final double falsePositiveRate;
+    private final int bits;
+    private final int hashes;
+    private final LongSupplier clock;
+    private final Stripe[] stripes;
+    private final int lruSize;
+
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder filterPositives = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    public EventDeduplicator(long windowMillis, int expectedKeys, double falsePositiveRate, int lruSize) {
+        this(windowMillis, expectedKeys, falsePositiveRate, lruSize, System::currentTimeMillis);
+    }
+
+    EventDeduplicator(long windowMillis, int expectedKeys, double falsePositiveRate, int lruSize, LongSupplier clock) {
+        if (windowMillis <= 0 || expectedKeys <= 0 || lruSize <= 0) {
+            throw new IllegalArgumentException("window, expected keys and LRU size must be positive");
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("false positive rate must be between 0 and 1");
+        }
+        this.windowMillis = windowMillis;
+        this.expectedKeys = expectedKeys;
+        this.falsePositiveRate = falsePositiveRate;
+        this.lruSize = lruSize;
+        this.clock = clock;
+
+        // Standard sizing: m = -n ln p / (ln 2)^2 bits and k = m/n ln 2 hash functions
+        double optimalBits = -expectedKeys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        this.bits = (int) Math.min(Math.max(Math.ceil(optimalBits / 64) * 64, 64), Integer.MAX_VALUE - 63);
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expectedKeys * Math.log(2)));
+
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(Math.max(1, lruSize / STRIPES));
+        }
+        long now = clock.getAsLong();
+        this.current = new Generation(bits, now);
+        this.previous = new Generation(bits, now - windowMillis);
+    }
+
+    /**
+     * Registers {@code key} before its event has an id, for stores that assign ids on save.
+     * A retry gets {@link #PENDING} back until {@link #update(String, int)} is called.
+     */
+    public OptionalInt claim(String key) {
+        return claim(key, PENDING);
+    }
+
+    /**
+     * Registers {@code key} for {@code eventId} if it has not been seen within the window.
+     * Returns the id of the event already stored under the key when this is a retry.
+     */
+    public OptionalInt claim(String key, int eventId) {
+        checked.increment();
+        long now = clock.getAsLong();
+        rotateIfDue(now);
+
+        long hash = hash(key);
+        Generation generation = current;
+        boolean maybeSeen = generation.mightContain(hash, hashes, bits) || previous.mightContain(hash, hashes, bits);
+        if (maybeSeen) {
+            filterPositives.increment();
+        }
+
+        // Claiming is exact either way, so two concurrent retries cannot both win
+        Integer existing = stripeFor(hash).claim(key, eventId, now, now - windowMillis, maybeSeen);
+        if (existing != null) {
+            duplicates.increment();
+            return OptionalInt.of(existing);
+        }
+        if (maybeSeen) {
+            // Either a true false positive or a key the LRU has already evicted
+            falsePositives.increment();
+        }
+        generation.add(hash, hashes, bits);
+        return OptionalInt.empty();
+    }
+
+    /**
+     * Records the id of the event stored under a claimed {@code key}, once the store has assigned it.
+     */
+    public void update(String key, int eventId) {
+        stripeFor(hash(key)).update(key, eventId);
+    }
+
+    /**
+     * Forgets a claim whose event could not be stored, so the client's retry is accepted.
+     */
+    public void release(String key) {
+        stripeFor(hash(key)).remove(key);
+    }
+
+    public Stats getStats() {
+        long total = checked.sum();
+        long retries = duplicates.sum();
+        long misses = falsePositives.sum();
+        double fill = current.fillRatio();
+        return new Stats(windowMillis, expectedKeys, falsePositiveRate, bits, hashes,
+                Math.pow(fill, hashes), fill, 2L * bits / 8, lruSize, lruEntries(), lruBytes(),
+                total, retries, filterPositives.sum(), misses,
+                total == retries ? 0 : (double) misses / (total - retries));
+    }
+
+    private void rotateIfDue(long now) {
+        if (now - current.startedAt < windowMillis) {
+            return;
+        }
+        synchronized (this) {
+            Generation generation = current;
+            if (now - generation.startedAt >= windowMillis) {
+                // Keys older than two windows can no longer be in either generation
+                previous = now - generation.startedAt >= 2 * windowMillis ? new Generation(bits, now - windowMillis) : generation;
+                current = new Generation(bits, now);
+            }
+        }
+    }
+
+    private Stripe stripeFor(long hash) {
+        return stripes[(int) (hash >>> 60) & (STRIPES - 1)];
+    }
+
+    private int lruEntries() {
+        int entries = 0;
+        for (Stripe stripe : stripes) {
+            entries += stripe.size();
+        }
+        return entries;
+    }
+
+    private long lruBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += stripe.bytes();
+        }
+        return bytes;
+    }
+
+    // 64-bit FNV-1a over the key's chars, finished with the MurmurHash3 mixer
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * One window's worth of Bloom filter bits. Probes use double hashing on the two halves of the key hash.
+     */
+    private static final class Generation {
+        private final AtomicLongArray words;
+        private final long startedAt;
+
+        Generation(int bits, long startedAt) {
+            this.words = new AtomicLongArray(bits / 64);
+            this.startedAt = startedAt;
+        }
+
+        boolean mightContain(long hash, int hashes, int bits) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashes; i++) {
+                int bit = Math.floorMod(h1 + i * h2, bits);
+                if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void add(long hash, int hashes, int bits) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashes; i++) {
+                int bit = Math.floorMod(h1 + i * h2, bits);
+                long mask = 1L << bit;
+                int index = bit >>> 6;
+                long word = words.get(index);
+                while ((word & mask) == 0 && !words.compareAndSet(index, word, word | mask)) {
+                    word = words.get(index);
+                }
+            }
+        }
+
+        double fillRatio() {
+            long set = 0;
+            for (int i = 0; i < words.length(); i++) {
+                set += Long.bitCount(words.get(i));
+            }
+            return (double) set / (words.length() * 64L);
+        }
+    }
+
+    /**
+     * Access-ordered map of key to (event id, first seen) that evicts its eldest entry past capacity.
+     */
+    private static final class Stripe {
+        private final LinkedHashMap<String, long[]> entries;
+        private long keyChars;
+
+        Stripe(int capacity) {
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+                    if (size() > capacity) {
+                        keyChars -= eldest.getKey().length();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        /**
+         * Returns the id already held for an unexpired {@code key}, or records {@code eventId} and returns null.
+         * Keys the filter has not seen go straight to the put, which catches the one case where the
+         * filter lags the map: a concurrent claim of the same key.
+         */
+        synchronized Integer claim(String key, int eventId, long now, long expiredBefore, boolean maybeSeen) {
+            if (maybeSeen) {
+                long[] existing = entries.get(key);
+                if (existing != null && existing[1] >= expiredBefore) {
+                    return (int) existing[0];
+                }
+            }
+            long[] previous = entries.put(key, new long[]{eventId, now});
+            if (previous == null) {
+                keyChars += key.length();
+            } else if (!maybeSeen && previous[1] >= expiredBefore) {
+                entries.put(key, previous);
+                return (int) previous[0];
+            }
+            return null;
+        }
+
+        synchronized void update(String key, int eventId) {
+            long[] entry = entries.get(key);
+            if (entry != null) {
+                entry[0] = eventId;
+            }
+        }
+
+        synchronized void remove(String key) {
+            if (entries.remove(key) != null) {
+                keyChars -= key.length();
+            }
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized long bytes() {
+            return (long) entries.size() * LRU_ENTRY_OVERHEAD_BYTES + keyChars * 2;
+        }
+    }
+
+    public record Stats(long windowMillis, int expectedKeys, double targetFalsePositiveRate, int filterBits,
+                        int filterHashes, double estimatedFalsePositiveRate, double filterFillRatio,
+                        long filterBytes, int lruCapacity, int lruEntries, long lruBytes,
+                        long checked, long duplicates, long filterPositives, long falsePositives,
+                        double observedFalsePositiveRate) {
+    }
+}
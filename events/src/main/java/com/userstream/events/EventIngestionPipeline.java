@@ -0,0 +1,252 @@
+package com.userstream.events;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.userstream.common.codec.BinaryCodec;
+import com.userstream.mq.BinaryMessages;
+import com.userstream.mq.MQ;
+import org.apache.activemq.ActiveMQConnectionFactory;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Consumes events from an ActiveMQ queue and writes them to an {@link EventRepository} in micro-batches.
+ *
+ * <p>Each of the {@code consumers} threads owns a transacted session. It collects up to
+ * {@code batchSize} messages (waiting at most {@code batchWaitMillis} after the first), saves the
+ * decoded events with one {@link EventRepository#saveAll(List)} call and only then commits the
+ * session, so a batch is acknowledged after it has been persisted. If persisting fails the session
+ * is rolled back and the broker redelivers the batch. Messages that cannot be decoded are logged,
+ * counted and committed with their batch so they cannot block the queue.
+ *
+ * <p>Messages are JSON {@link Event}s in a {@link TextMessage} or a UTF-8 {@link BytesMessage}, or
+ * binary frames of one or more events written with {@link BinaryMessages}.
+ * Point it at {@code vm://localhost?broker.persistent=false} to run against an in-process broker.
+ */
+public class EventIngestionPipeline implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(EventIngestionPipeline.class.getName());
+
+    public static final int DEFAULT_CONSUMERS = 4;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final long DEFAULT_BATCH_WAIT_MILLIS = 50;
+
+    private static final long RECEIVE_TIMEOUT_MILLIS = 1000;
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final BinaryCodec<Event> BINARY = new BinaryCodec<>(EventCodec.SCHEMA, new EventCodec());
+
+    private final EventRepository repository;
+    private final String brokerUrl;
+    private final String queueName;
+    private final int consumers;
+    private final int batchSize;
+    private final long batchWaitMillis;
+
+    private final List<Thread> workers = new ArrayList<>();
+    private Connection connection;
+    private volatile boolean running;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder persisted = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder rolledBack = new LongAdder();
+    private final LongAdder poison = new LongAdder();
+
+    public EventIngestionPipeline(EventRepository repository, String brokerUrl) {
+        this(repository, brokerUrl, MQ.EVENTS_QUEUE, DEFAULT_CONSUMERS, DEFAULT_BATCH_SIZE, DEFAULT_BATCH_WAIT_MILLIS);
+    }
+
+    public EventIngestionPipeline(EventRepository repository, String brokerUrl, String queueName,
+                                  int consumers, int batchSize, long batchWaitMillis) {
+        this.repository = repository;
+        this.brokerUrl = brokerUrl;
+        this.queueName = queueName;
+        this.consumers = consumers;
+        this.batchSize = batchSize;
+        this.batchWaitMillis = batchWaitMillis;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        try {
+            ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(MQ.USER, MQ.PASSAWD, brokerUrl);
+            // Keep each consumer's prefetch to one batch so the queue spreads evenly across consumers
+            factory.getPrefetchPolicy().setQueuePrefetch(batchSize);
+            connection = factory.createConnection();
+            connection.start();
+
+            running = true;
+            for (int i = 0; i < consumers; i++) {
+                Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+                MessageConsumer consumer = session.createConsumer(session.createQueue(queueName));
+                Thread worker = new Thread(() -> consume(session, consumer), "event-ingest-" + i);
+                worker.setDaemon(true);
+                workers.add(worker);
+                worker.start();
+            }
+            logger.info("Event ingestion consuming " + queueName + " from " + brokerUrl
+                    + " with " + consumers + " consumers");
+        } catch (JMSException e) {
+            close();
+            throw new RuntimeException("Failed to start event ingestion: " + e.getMessage(), e);
+        }
+    }
+
+    public long getReceived() {
+        return received.sum();
+    }
+
+    public long getPersisted() {
+        return persisted.sum();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getRolledBack() {
+        return rolledBack.sum();
+    }
+
+    public long getPoisonMessages() {
+        return poison.sum();
+    }
+
+    /**
+     * Stops the consumers after their current batch and closes the connection.
+     * Uncommitted messages are returned to the broker.
+     */
+    @Override
+    public synchronized void close() {
+        running = false;
+        for (Thread worker : workers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        workers.clear();
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (JMSException e) {
+                logger.log(Level.WARNING, "Failed to close event ingestion connection", e);
+            }
+            connection = null;
+        }
+    }
+
+    private void consume(Session session, MessageConsumer consumer) {
+        List<Event> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                int messages = collect(consumer, batch);
+                if (messages == 0) {
+                    continue;
+                }
+                if (!batch.isEmpty()) {
+                    repository.saveAll(batch);
+                }
+                session.commit();
+                persisted.add(batch.size());
+                batches.increment();
+            } catch (JMSException | RuntimeException e) {
+                rolledBack.increment();
+                logger.log(Level.WARNING, "Event ingestion batch failed, rolling back", e);
+                rollback(session);
+                pause();
+            } finally {
+                batch.clear();
+            }
+        }
+        try {
+            consumer.close();
+            session.close();
+        } catch (JMSException e) {
+            logger.log(Level.FINE, "Failed to close event ingestion session", e);
+        }
+    }
+
+    // Blocks for the first message, then takes more until the batch is full or the wait is over
+    private int collect(MessageConsumer consumer, List<Event> batch) throws JMSException {
+        Message message = consumer.receive(RECEIVE_TIMEOUT_MILLIS);
+        if (message == null) {
+            return 0;
+        }
+        int messages = 1;
+        decodeInto(message, batch);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchWaitMillis);
+        while (messages < batchSize) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            message = remaining > 0 ? consumer.receive(remaining) : consumer.receiveNoWait();
+            if (message == null) {
+                break;
+            }
+            messages++;
+            decodeInto(message, batch);
+        }
+        received.add(messages);
+        return messages;
+    }
+
+    private void decodeInto(Message message, List<Event> batch) throws JMSException {
+        try {
+            String json;
+            if (message instanceof TextMessage text) {
+                json = text.getText();
+            } else if (message instanceof BytesMessage bytes) {
+                byte[] body = BinaryMessages.body(bytes);
+                if (BinaryCodec.isFrame(body)) {
+                    batch.addAll(BINARY.decodeAll(body));
+                    return;
+                }
+                json = new String(body, StandardCharsets.UTF_8);
+            } else {
+                throw new IOException("Unsupported message type " + message.getClass().getSimpleName());
+            }
+            Event event = MAPPER.readValue(json, Event.class);
+            if (event == null) {
+                throw new IOException("Empty message");
+            }
+            batch.add(event);
+        } catch (IOException | IllegalArgumentException e) {
+            poison.increment();
+            logger.log(Level.WARNING, "Skipping undecodable event message " + message.getJMSMessageID(), e);
+        }
+    }
+
+    private static void rollback(Session session) {
+        try {
+            session.rollback();
+        } catch (JMSException e) {
+            logger.log(Level.WARNING, "Failed to roll back event ingestion batch", e);
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(RETRY_BACKOFF_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
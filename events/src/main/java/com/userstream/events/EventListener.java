@@ -0,0 +1,13 @@
+package com.userstream.events;
+
+/**
+ * Callback for writes to an {@link EventRepository}. Invoked on the writing thread after the
+ * write has been applied, so implementations must not block.
+ */
+public interface EventListener {
+
+    void onSaved(Event event);
+
+    default void onDeleted(int id) {
+    }
+}
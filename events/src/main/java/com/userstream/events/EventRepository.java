@@ -2,13 +2,35 @@ package com.userstream.events;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 public interface EventRepository {
     void save(Event event);
 
+    /**
+     * Saves a batch of events. Stores that can amortize work across a batch should override this.
+     */
+    default void saveAll(List<Event> events) {
+        for (Event event : events) {
+            save(event);
+        }
+    }
+
     Optional<Event> findById(int id);
 
     List<Event> findAll();
 
+    /**
+     * Up to {@code limit} events with {@code from <= timestamp < to}, oldest first.
+     * A null {@code type} matches every type.
+     */
+    List<Event> findByTimeRange(long from, long to, String type, int limit);
+
+    /**
+     * Up to {@code limit} events with an id greater than {@code afterId}, lowest id first.
+     * An empty {@code types} matches every type.
+     */
+    List<Event> findAfterId(int afterId, Set<String> types, int limit);
+
     void delete(int id);
 }
@@ -0,0 +1,78 @@
+package com.userstream.events;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Applies a {@link RetentionPolicy} to a {@link RetentionTarget} on a background thread
+ * and keeps counters about what each sweep reclaimed and how long it took.
+ */
+public final class EventRetentionSweeper implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(EventRetentionSweeper.class.getName());
+
+    private final RetentionTarget target;
+    private final RetentionPolicy policy;
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong sweeps = new AtomicLong();
+    private final AtomicLong evictedEvents = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile long lastSweepAt;
+    private volatile long lastSweepMillis;
+    private volatile long lastEvicted;
+    private volatile long lastReclaimedBytes;
+
+    public EventRetentionSweeper(RetentionTarget target, RetentionPolicy policy, long intervalMillis) {
+        this.target = target;
+        this.policy = policy;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "event-retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::sweep, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs one sweep immediately on the calling thread.
+     */
+    public synchronized RetentionTarget.Reclaimed sweep() {
+        long started = System.nanoTime();
+        try {
+            RetentionTarget.Reclaimed reclaimed = target.enforce(policy, System.currentTimeMillis());
+            evictedEvents.addAndGet(reclaimed.events());
+            reclaimedBytes.addAndGet(reclaimed.bytes());
+            lastEvicted = reclaimed.events();
+            lastReclaimedBytes = reclaimed.bytes();
+            return reclaimed;
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            logger.log(Level.WARNING, "Event retention sweep failed", e);
+            return new RetentionTarget.Reclaimed(0, 0);
+        } finally {
+            sweeps.incrementAndGet();
+            lastSweepAt = System.currentTimeMillis();
+            lastSweepMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(policy, sweeps.get(), failures.get(), evictedEvents.get(), reclaimedBytes.get(),
+                lastSweepAt, lastSweepMillis, lastEvicted, lastReclaimedBytes);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    public record Stats(RetentionPolicy policy, long sweeps, long failures, long evictedEvents, long reclaimedBytes,
+                        long lastSweepAt, long lastSweepMillis, long lastEvicted, long lastReclaimedBytes) {
+    }
+}
@@ -1,14 +1,68 @@
 package com.userstream.events;
 
+import com.userstream.common.codec.BinaryCodec;
+import com.userstream.common.snapshot.SnapshotManager;
+import com.userstream.mq.MQ;
 import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
 
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 public class EventService {
 
+    private static final Logger logger = Logger.getLogger(EventService.class.getName());
+
     private static final int DEFAULT_PORT = 7002;
+    private static final String STORE_PROPERTY = "events.store";
+    private static final String DIR_PROPERTY = "events.dir";
+    private static final String SEGMENT_BYTES_PROPERTY = "events.segment.bytes";
+    private static final String FSYNC_PROPERTY = "events.fsync";
+    private static final String FSYNC_INTERVAL_PROPERTY = "events.fsync.interval.ms";
+    private static final int DEFAULT_RANGE_LIMIT = 1000;
+    private static final int MAX_RANGE_LIMIT = 10_000;
+    private static final String SUBSCRIBER_BUFFER_PROPERTY = "events.subscriber.buffer";
+    private static final String INGEST_ENABLED_PROPERTY = "events.ingest.enabled";
+    private static final String INGEST_URL_PROPERTY = "events.ingest.url";
+    private static final String INGEST_QUEUE_PROPERTY = "events.ingest.queue";
+    private static final String INGEST_CONSUMERS_PROPERTY = "events.ingest.consumers";
+    private static final String INGEST_BATCH_PROPERTY = "events.ingest.batch";
+    private static final String INGEST_WAIT_PROPERTY = "events.ingest.wait.ms";
+    private static final String RETENTION_AGE_PROPERTY = "events.retention.max.age.seconds";
+    private static final String RETENTION_EVENTS_PROPERTY = "events.retention.max.events";
+    private static final String RETENTION_BYTES_PROPERTY = "events.retention.max.bytes";
+    private static final String RETENTION_INTERVAL_PROPERTY = "events.retention.interval.seconds";
+    private static final String DEDUP_WINDOW_PROPERTY = "events.dedup.window.seconds";
+    private static final String DEDUP_EXPECTED_KEYS_PROPERTY = "events.dedup.expected.keys";
+    private static final String DEDUP_FPP_PROPERTY = "events.dedup.fpp";
+    private static final String DEDUP_LRU_SIZE_PROPERTY = "events.dedup.lru.size";
+    private static final String WRITE_QUEUE_PROPERTY = "events.write.queue";
+    private static final String WRITE_HIGH_WATER_PROPERTY = "events.write.high.water";
+    private static final String WRITE_WRITERS_PROPERTY = "events.write.writers";
+    private static final String WRITE_BATCH_PROPERTY = "events.write.batch";
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private static final String IDEMPOTENT_REPLAY_HEADER = "Idempotent-Replayed";
+    private static final BinaryCodec<Event> BINARY = new BinaryCodec<>(EventCodec.SCHEMA, new EventCodec());
+
     private Javalin server;
-    private InMemoryUserRepository repository;
+    private EventRepository repository;
+    private EventBroadcaster broadcaster;
+    private EventIngestionPipeline ingestion;
+    private EventRetentionSweeper retention;
+    private EventDeduplicator deduplicator;
+    private EventWriteQueue writeQueue;
+    private final EventStatsAggregator stats = new EventStatsAggregator();
 
     public static void main(String[] args) {
         EventService eventService = new EventService();
@@ -16,43 +70,334 @@ public class EventService {
     }
 
     public void start(int port) {
+        ListeningEventRepository listening = new ListeningEventRepository(createRepository());
+        broadcaster = new EventBroadcaster(listening.getDelegate(),
+                Integer.getInteger(SUBSCRIBER_BUFFER_PROPERTY, EventBroadcaster.DEFAULT_BUFFER_SIZE));
+        listening.addListener(broadcaster);
+        listening.addListener(stats);
+
+        RetentionPolicy policy = new RetentionPolicy(
+                Long.getLong(RETENTION_AGE_PROPERTY, 0L) * 1000,
+                Long.getLong(RETENTION_EVENTS_PROPERTY, 0L),
+                Long.getLong(RETENTION_BYTES_PROPERTY, 0L));
+        if (!policy.isUnlimited() && listening.getDelegate() instanceof RetentionTarget target) {
+            retention = new EventRetentionSweeper(target, policy,
+                    Long.getLong(RETENTION_INTERVAL_PROPERTY, 30L) * 1000);
+        }
+        repository = listening;
+        deduplicator = new EventDeduplicator(
+                Long.getLong(DEDUP_WINDOW_PROPERTY, EventDeduplicator.DEFAULT_WINDOW_MILLIS / 1000) * 1000,
+                Integer.getInteger(DEDUP_EXPECTED_KEYS_PROPERTY, EventDeduplicator.DEFAULT_EXPECTED_KEYS),
+                Double.parseDouble(System.getProperty(DEDUP_FPP_PROPERTY,
+                        String.valueOf(EventDeduplicator.DEFAULT_FALSE_POSITIVE_RATE))),
+                Integer.getInteger(DEDUP_LRU_SIZE_PROPERTY, EventDeduplicator.DEFAULT_LRU_SIZE));
+
+        // POST /events stores the event and answers 201; -Devents.write.queue=<capacity> queues it and answers 202
+        int queueCapacity = Integer.getInteger(WRITE_QUEUE_PROPERTY, 0);
+        if (queueCapacity > 0) {
+            writeQueue = new EventWriteQueue(repository, deduplicator, queueCapacity,
+                    Integer.getInteger(WRITE_HIGH_WATER_PROPERTY, queueCapacity),
+                    Integer.getInteger(WRITE_WRITERS_PROPERTY, EventWriteQueue.DEFAULT_WRITERS),
+                    Integer.getInteger(WRITE_BATCH_PROPERTY, EventWriteQueue.DEFAULT_BATCH_SIZE));
+        }
         server = initHttpServer();
         server.start(port);
+
+        // -Devents.ingest.enabled=true consumes events from the broker queue
+        if (Boolean.getBoolean(INGEST_ENABLED_PROPERTY)) {
+            ingestion = new EventIngestionPipeline(repository,
+                    System.getProperty(INGEST_URL_PROPERTY, MQ.URL),
+                    System.getProperty(INGEST_QUEUE_PROPERTY, MQ.EVENTS_QUEUE),
+                    Integer.getInteger(INGEST_CONSUMERS_PROPERTY, EventIngestionPipeline.DEFAULT_CONSUMERS),
+                    Integer.getInteger(INGEST_BATCH_PROPERTY, EventIngestionPipeline.DEFAULT_BATCH_SIZE),
+                    Long.getLong(INGEST_WAIT_PROPERTY, EventIngestionPipeline.DEFAULT_BATCH_WAIT_MILLIS));
+            ingestion.start();
+        }
         System.out.println("EventService started on port " + port);
     }
 
     public void stop() {
+        if (ingestion != null) {
+            ingestion.close();
+        }
         if (server != null) {
             server.stop();
             System.out.println("EventService stopped");
         }
+        if (writeQueue != null) {
+            writeQueue.close();
+        }
+        if (broadcaster != null) {
+            broadcaster.close();
+        }
+        if (retention != null) {
+            retention.close();
+        }
+        if (repository instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Failed to close event store", e);
+            }
+        }
+    }
+
+    /**
+     * Picks the event store from {@code -Devents.store=memory|log} (default memory).
+     * The log store is tuned with {@code events.dir}, {@code events.segment.bytes},
+     * {@code events.fsync=always|interval|never} and {@code events.fsync.interval.ms}.
+     */
+    private EventRepository createRepository() {
+        String store = System.getProperty(STORE_PROPERTY, "memory");
+        if ("log".equalsIgnoreCase(store)) {
+            Path directory = Path.of(System.getProperty(DIR_PROPERTY, "data/events"));
+            SegmentLogEventRepository.FsyncPolicy policy = SegmentLogEventRepository.FsyncPolicy.valueOf(
+                    System.getProperty(FSYNC_PROPERTY, "interval").toUpperCase());
+            logger.info("Using segment log event store in " + directory);
+            return new SegmentLogEventRepository(directory,
+                    Integer.getInteger(SEGMENT_BYTES_PROPERTY, SegmentLogEventRepository.DEFAULT_SEGMENT_BYTES),
+                    policy, Long.getLong(FSYNC_INTERVAL_PROPERTY, 1000L));
+        }
+        // -Dsnapshot.dir=... restores the in-memory store from the last snapshot and keeps it current
+        return new InMemoryUserRepository(SnapshotManager.fromSystemProperties("events", new EventCodec()));
     }
 
     private Javalin initHttpServer() {
 
         Javalin app = Javalin.create();
 
-        // Receives events from queue
+        // Receives events from queue; ?from=&to=&type= (epoch millis, to exclusive) selects a time range
         app.get("/events", ctx -> {
-            List<Event> events = repository.findAll();
-            ctx.json(events);
+            String from = ctx.queryParam("from");
+            String to = ctx.queryParam("to");
+            String type = ctx.queryParam("type");
+            if (from == null && to == null && type == null) {
+                List<Event> events = repository.findAll();
+                respondAll(ctx, events);
+                return;
+            }
+
+            int limit = Math.min(parseLimit(ctx.queryParam("limit")), MAX_RANGE_LIMIT);
+            List<Event> events = repository.findByTimeRange(
+                    parseTime("from", from, Long.MIN_VALUE),
+                    parseTime("to", to, Long.MAX_VALUE),
+                    type, limit);
+            respondAll(ctx, events);
         });
 
+        // POST an event; a retry with the same Idempotency-Key gets the original back instead of storing a copy
         app.post("/events", ctx -> {
-            Event event = ctx.bodyAsClass(Event.class);
-            repository.save(event);
-            ctx.status(201).json(event);
+            Event event = readEvent(ctx);
+            String key = ctx.header(IDEMPOTENCY_KEY_HEADER);
+            if (key == null || key.isBlank()) {
+                store(ctx, event, null);
+                return;
+            }
+
+            // Claimed before storing so concurrent retries cannot both store; the id is filled in once assigned
+            OptionalInt original = deduplicator.claim(key);
+            if (original.isPresent()) {
+                if (original.getAsInt() == EventDeduplicator.PENDING) {
+                    ctx.status(409).header("Retry-After", "1")
+                            .result("A request with this Idempotency-Key is still being processed");
+                    return;
+                }
+                ctx.header(IDEMPOTENT_REPLAY_HEADER, "true");
+                Optional<Event> stored = repository.findById(original.getAsInt());
+                if (stored.isPresent()) {
+                    respond(ctx, stored.get());
+                } else {
+                    ctx.json(Map.of("id", original.getAsInt()));
+                }
+                return;
+            }
+            try {
+                if (!store(ctx, event, key)) {
+                    deduplicator.release(key);
+                }
+            } catch (RuntimeException e) {
+                deduplicator.release(key);
+                throw e;
+            }
+        });
+
+        // GET per-type counts and rates, ?window=30s|1m|1h&mode=sliding|tumbling
+        app.get("/events/stats", ctx -> {
+            String window = ctx.queryParam("window");
+            boolean tumbling = "tumbling".equalsIgnoreCase(ctx.queryParam("mode"));
+            try {
+                int seconds = EventStatsAggregator.parseWindow(window == null ? "1m" : window);
+                ctx.json(stats.snapshot(seconds, tumbling));
+            } catch (IllegalArgumentException | ArithmeticException e) {
+                ctx.status(400).result("Invalid window: " + e.getMessage());
+            }
+        });
+
+        // GET retention policy and sweeper counters
+        app.get("/events/retention", ctx -> {
+            if (retention != null) {
+                ctx.json(retention.getStats());
+            } else {
+                ctx.status(404).result("Event retention is disabled");
+            }
+        });
+
+        // GET broker ingestion counters
+        app.get("/events/ingest/stats", ctx -> {
+            if (ingestion == null) {
+                ctx.status(404).result("Event ingestion is disabled");
+                return;
+            }
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("received", ingestion.getReceived());
+            stats.put("persisted", ingestion.getPersisted());
+            stats.put("batches", ingestion.getBatches());
+            stats.put("rolledBack", ingestion.getRolledBack());
+            stats.put("poisonMessages", ingestion.getPoisonMessages());
+            ctx.json(stats);
+        });
+
+        // GET write queue depth, high-water mark and load-shedding counters
+        app.get("/events/queue/stats", ctx -> {
+            if (writeQueue != null) {
+                ctx.json(writeQueue.getStats());
+            } else {
+                ctx.status(404).result("The event write queue is disabled");
+            }
+        });
+
+        // GET idempotency-key filter sizing, memory and duplicate counters
+        app.get("/events/dedup/stats", ctx -> ctx.json(deduplicator.getStats()));
+
+        // Live events over SSE; ?type=a,b filters, ?after=<id> or Last-Event-ID resumes
+        app.sse("/events/stream", client -> {
+            client.keepAlive();
+            EventBroadcaster.Subscription subscription = broadcaster.subscribe(
+                    parseTypes(client.ctx().queryParam("type")),
+                    resumeId(client.ctx().queryParam("after"), client.ctx().header("Last-Event-ID")),
+                    event -> client.sendEvent("event", event, String.valueOf(event.getId())),
+                    client::close);
+            client.onClose(subscription::close);
+        });
+
+        // Live events over WebSocket, same ?type= and ?after= parameters as the SSE stream
+        Map<String, EventBroadcaster.Subscription> sockets = new ConcurrentHashMap<>();
+        app.ws("/events/ws", ws -> {
+            ws.onConnect(ctx -> sockets.put(ctx.getSessionId(), broadcaster.subscribe(
+                    parseTypes(ctx.queryParam("type")),
+                    resumeId(ctx.queryParam("after"), null),
+                    ctx::send,
+                    ctx::closeSession)));
+            ws.onClose(ctx -> {
+                EventBroadcaster.Subscription subscription = sockets.remove(ctx.getSessionId());
+                if (subscription != null) {
+                    subscription.close();
+                }
+            });
         });
 
         app.get("/events/{id}", ctx -> {
             int id = Integer.parseInt(ctx.pathParam("id"));
             
             repository.findById(id).ifPresentOrElse(
-                    ctx::json,
+                    event -> respond(ctx, event),
                     () -> ctx.status(404).result("Event not found")
             );
         });
 
         return app;
     }
+
+    /**
+     * Queues the event and answers 202, or sheds it with 429 and Retry-After when the queue is full.
+     * Without a write queue the event is stored inline and answered with 201.
+     */
+    private boolean store(Context ctx, Event event, String idempotencyKey) {
+        if (writeQueue == null) {
+            repository.save(event);
+            if (idempotencyKey != null) {
+                deduplicator.update(idempotencyKey, event.getId());
+            }
+            ctx.status(201);
+            respond(ctx, event);
+            return true;
+        }
+        if (!writeQueue.offer(event, idempotencyKey)) {
+            ctx.status(429).header("Retry-After", String.valueOf(writeQueue.retryAfterSeconds()))
+                    .result("Event ingestion is overloaded, retry later");
+            return false;
+        }
+        ctx.status(202);
+        respond(ctx, event);
+        return true;
+    }
+
+    // Bodies sent as application/x-userstream-bin are binary frames, anything else is JSON
+    private static Event readEvent(Context ctx) {
+        if (!BinaryCodec.isBinary(ctx.contentType())) {
+            return ctx.bodyAsClass(Event.class);
+        }
+        try {
+            return BINARY.decode(ctx.bodyAsBytes());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestResponse("Invalid event frame: " + e.getMessage());
+        }
+    }
+
+    private static void respond(Context ctx, Event event) {
+        if (BinaryCodec.accepts(ctx.header("Accept"))) {
+            ctx.contentType(BinaryCodec.MEDIA_TYPE).result(BINARY.encode(event));
+        } else {
+            ctx.json(event);
+        }
+    }
+
+    private static void respondAll(Context ctx, List<Event> events) {
+        if (BinaryCodec.accepts(ctx.header("Accept"))) {
+            ctx.contentType(BinaryCodec.MEDIA_TYPE).result(BINARY.encodeAll(events));
+        } else {
+            ctx.json(events);
+        }
+    }
+
+    private static Set<String> parseTypes(String value) {
+        if (value == null || value.isBlank()) {
+            return Set.of();
+        }
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(type -> !type.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    private static Integer resumeId(String after, String lastEventId) {
+        String value = after != null && !after.isBlank() ? after : lastEventId;
+        return value == null || value.isBlank() ? null : Integer.valueOf(value.trim());
+    }
+
+    private static int parseLimit(String value) {
+        if (value == null || value.isBlank()) {
+            return DEFAULT_RANGE_LIMIT;
+        }
+        try {
+            int limit = Integer.parseInt(value.trim());
+            if (limit < 1) {
+                throw new BadRequestResponse("limit must be at least 1");
+            }
+            return limit;
+        } catch (NumberFormatException e) {
+            throw new BadRequestResponse("Invalid limit: " + value);
+        }
+    }
+
+    private static long parseTime(String name, String value, long defaultValue) {
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new BadRequestResponse("Invalid " + name + ": " + value);
+        }
+    }
 }
@@ -0,0 +1,192 @@
+package com.userstream.events;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-type event counters over tumbling and sliding windows, updated as events are saved.
+ *
+ * <p>Every type owns two rings, each covering twice its longest window: one-second buckets for
+ * windows up to {@value #FINE_WINDOW_SECONDS} seconds and one-minute buckets for longer ones, which
+ * must then be whole minutes. Rings are split into stripes so concurrent writers rarely touch the
+ * same cache line, and a stripe is only allocated once a thread writes to it. Each cell packs
+ * {@code (bucket << 32) | count} into one long, so a stale cell from an earlier lap of the ring
+ * resets itself on the next increment with a single CAS. A type costs at most about 3 KB per
+ * stripe. Events are counted at arrival time, not by their own timestamp.
+ */
+public class EventStatsAggregator implements EventListener {
+
+    public static final int MAX_WINDOW_SECONDS = 3600;
+    public static final int FINE_WINDOW_SECONDS = 120;
+    public static final int MAX_TYPES = 128;
+
+    private static final int FINE_SLOTS = FINE_WINDOW_SECONDS * 2;
+    private static final int COARSE_SLOTS = MAX_WINDOW_SECONDS / 60 * 2;
+    private static final String UNKNOWN_TYPE = "unknown";
+    private static final String OTHER_TYPE = "other";
+
+    private final ConcurrentMap<String, TypeCounters> counters = new ConcurrentHashMap<>();
+    private final int stripes;
+    private final LongSupplier clock;
+
+    public EventStatsAggregator() {
+        this(System::currentTimeMillis);
+    }
+
+    EventStatsAggregator(LongSupplier clock) {
+        this.clock = clock;
+        int cpus = Runtime.getRuntime().availableProcessors();
+        this.stripes = Math.min(8, Integer.highestOneBit(Math.max(cpus, 1)));
+    }
+
+    @Override
+    public void onSaved(Event event) {
+        long second = Math.floorDiv(clock.getAsLong(), 1000);
+        TypeCounters typeCounters = countersFor(event.getType());
+        typeCounters.seconds.increment(second);
+        typeCounters.minutes.increment(Math.floorDiv(second, 60));
+    }
+
+    /**
+     * Counts for the last {@code windowSeconds} seconds including the current one (sliding), or for
+     * the last complete window aligned to multiples of {@code windowSeconds} (tumbling). A sliding
+     * window longer than {@value #FINE_WINDOW_SECONDS} seconds starts at a minute boundary, so it may
+     * be up to a minute shorter than asked; rates are over the span actually covered.
+     */
+    public WindowStats snapshot(int windowSeconds, boolean tumbling) {
+        if (windowSeconds <= 0 || windowSeconds > MAX_WINDOW_SECONDS) {
+            throw new IllegalArgumentException("window must be between 1s and " + MAX_WINDOW_SECONDS + "s");
+        }
+        boolean coarse = windowSeconds > FINE_WINDOW_SECONDS;
+        if (coarse && windowSeconds % 60 != 0) {
+            throw new IllegalArgumentException("windows over " + FINE_WINDOW_SECONDS + "s must be whole minutes");
+        }
+        long now = Math.floorDiv(clock.getAsLong(), 1000);
+        long to = tumbling ? now - Math.floorMod(now, windowSeconds) : now + 1;
+        long from = to - windowSeconds;
+        if (coarse && !tumbling) {
+            // The current minute is partly counted, so the window covers it plus the whole minutes before
+            from = (Math.floorDiv(now, 60) + 1) * 60 - windowSeconds;
+        }
+        long span = to - from;
+
+        Map<String, TypeStats> types = new TreeMap<>();
+        long total = 0;
+        for (Map.Entry<String, TypeCounters> entry : counters.entrySet()) {
+            TypeCounters typeCounters = entry.getValue();
+            long count = coarse
+                    ? typeCounters.minutes.sum(from / 60, Math.floorDiv(to + 59, 60))
+                    : typeCounters.seconds.sum(from, to);
+            if (count > 0) {
+                types.put(entry.getKey(), new TypeStats(count, (double) count / span));
+                total += count;
+            }
+        }
+        return new WindowStats(windowSeconds, tumbling ? "tumbling" : "sliding", from * 1000, to * 1000,
+                total, (double) total / span, types);
+    }
+
+    /**
+     * Parses durations such as {@code 30s}, {@code 1m}, {@code 5m} or {@code 1h} into seconds.
+     */
+    public static int parseWindow(String window) {
+        String value = window.trim().toLowerCase();
+        int unit = 1;
+        if (value.endsWith("s")) {
+            value = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("m")) {
+            unit = 60;
+            value = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("h")) {
+            unit = 3600;
+            value = value.substring(0, value.length() - 1);
+        }
+        return Math.multiplyExact(Integer.parseInt(value), unit);
+    }
+
+    private TypeCounters countersFor(String type) {
+        String key = type == null ? UNKNOWN_TYPE : type;
+        TypeCounters existing = counters.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        // Bound the number of rings so arbitrary client-supplied types cannot exhaust memory
+        if (counters.size() >= MAX_TYPES) {
+            key = OTHER_TYPE;
+        }
+        return counters.computeIfAbsent(key, k -> new TypeCounters(stripes));
+    }
+
+    private static final class TypeCounters {
+        final Ring seconds;
+        final Ring minutes;
+
+        TypeCounters(int stripes) {
+            this.seconds = new Ring(FINE_SLOTS, stripes);
+            this.minutes = new Ring(COARSE_SLOTS, stripes);
+        }
+    }
+
+    /**
+     * Striped ring of packed {@code (bucket, count)} cells, one array per stripe so that stripes
+     * never share a cache line and an unused stripe costs one null slot.
+     */
+    private static final class Ring {
+        private final AtomicReferenceArray<AtomicLongArray> stripes;
+        private final int slots;
+        private final int stripeMask;
+
+        Ring(int slots, int stripes) {
+            this.stripes = new AtomicReferenceArray<>(stripes);
+            this.slots = slots;
+            this.stripeMask = stripes - 1;
+        }
+
+        void increment(long bucket) {
+            int stripe = (int) Thread.currentThread().threadId() & stripeMask;
+            AtomicLongArray cells = stripes.get(stripe);
+            if (cells == null) {
+                stripes.compareAndSet(stripe, null, new AtomicLongArray(slots));
+                cells = stripes.get(stripe);
+            }
+            int index = (int) Math.floorMod(bucket, (long) slots);
+            long stamp = bucket << 32;
+            while (true) {
+                long current = cells.get(index);
+                long next = (current & 0xFFFFFFFF00000000L) == stamp ? current + 1 : stamp | 1;
+                if (cells.compareAndSet(index, current, next)) {
+                    return;
+                }
+            }
+        }
+
+        long sum(long fromBucket, long toBucket) {
+            long total = 0;
+            for (int stripe = 0; stripe <= stripeMask; stripe++) {
+                AtomicLongArray cells = stripes.get(stripe);
+                if (cells == null) {
+                    continue;
+                }
+                for (long bucket = fromBucket; bucket < toBucket; bucket++) {
+                    long cell = cells.get((int) Math.floorMod(bucket, (long) slots));
+                    if (cell >>> 32 == bucket) {
+                        total += cell & 0xFFFFFFFFL;
+                    }
+                }
+            }
+            return total;
+        }
+    }
+
+    public record TypeStats(long count, double ratePerSecond) {
+    }
+
+    public record WindowStats(int windowSeconds, String mode, long from, long to, long total,
+                              double ratePerSecond, Map<String, TypeStats> types) {
+    }
+}
@@ -0,0 +1,195 @@
+package com.userstream.events;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded hand-off between HTTP handlers and the event store.
+ *
+ * <p>Handlers only {@link #offer(Event)}, which never blocks: once the queue holds
+ * {@code highWaterMark} events further offers are refused, so the caller can shed load instead of
+ * tying up a request thread. {@code writers} background threads drain the queue in batches of up to
+ * {@code batchSize} and store each batch with one {@link EventRepository#saveAll(List)} call.
+ *
+ * <p>If a batch fails its events are saved again one at a time, so one bad event costs only
+ * itself. Events that still cannot be stored are counted as failed and their idempotency keys
+ * are released, so the client's retry is stored rather than answered with an id that never
+ * existed. Saving an event again is safe because it keeps any id the failed batch gave it.
+ */
+public class EventWriteQueue implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(EventWriteQueue.class.getName());
+
+    public static final int DEFAULT_WRITERS = 2;
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private static final long POLL_MILLIS = 500;
+    private static final int MAX_RETRY_AFTER_SECONDS = 60;
+
+    private final EventRepository repository;
+    private final EventDeduplicator deduplicator;
+    private final BlockingQueue<Pending> queue;
+    private final int capacity;
+    private final int highWaterMark;
+    private final int batchSize;
+    private final int writers;
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running = true;
+    // Smoothed per-writer store rate in events per second, used to size Retry-After
+    private volatile double drainRate;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder persisted = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public EventWriteQueue(EventRepository repository, EventDeduplicator deduplicator, int capacity, int highWaterMark,
+                           int writers, int batchSize) {
+        if (capacity <= 0 || highWaterMark <= 0 || highWaterMark > capacity || writers <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("capacity, writers and batch size must be positive, "
+                    + "and the high-water mark between 1 and the capacity");
+        }
+        this.repository = repository;
+        this.deduplicator = deduplicator;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.capacity = capacity;
+        this.highWaterMark = highWaterMark;
+        this.batchSize = batchSize;
+        this.writers = writers;
+        for (int i = 0; i < writers; i++) {
+            Thread worker = new Thread(this::drain, "event-writer-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues {@code event} for storage, or returns false if the queue is at its high-water mark.
+     */
+    public boolean offer(Event event) {
+        return offer(event, null);
+    }
+
+    /**
+     * Like {@link #offer(Event)}, for an event claimed under {@code idempotencyKey}; the key gets
+     * the event's id once it is stored, or is released if the event is finally lost.
+     */
+    public boolean offer(Event event, String idempotencyKey) {
+        if (!running || queue.size() >= highWaterMark || !queue.offer(new Pending(event, idempotencyKey))) {
+            rejected.increment();
+            return false;
+        }
+        accepted.increment();
+        return true;
+    }
+
+    /**
+     * Seconds until the current backlog should have drained at the recent write rate, at least 1.
+     */
+    public int retryAfterSeconds() {
+        double rate = drainRate;
+        if (rate <= 0) {
+            return 1;
+        }
+        return (int) Math.max(1, Math.min(MAX_RETRY_AFTER_SECONDS, Math.ceil(queue.size() / (rate * writers))));
+    }
+
+    public Stats getStats() {
+        return new Stats(queue.size(), capacity, highWaterMark, accepted.sum(), rejected.sum(),
+                persisted.sum(), failed.sum(), drainRate * writers);
+    }
+
+    /**
+     * Refuses new events, stores everything already queued and stops the writers.
+     */
+    @Override
+    public void close() {
+        running = false;
+        for (Thread worker : workers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        workers.clear();
+    }
+
+    private void drain() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        List<Event> events = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                for (Pending pending : batch) {
+                    events.add(pending.event());
+                }
+
+                long started = System.nanoTime();
+                try {
+                    repository.saveAll(events);
+                    persisted.add(events.size());
+                    for (Pending pending : batch) {
+                        stored(pending);
+                    }
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Failed to store a batch of " + events.size()
+                            + " queued events, saving them one by one", e);
+                    saveEach(batch);
+                }
+                double seconds = Math.max((System.nanoTime() - started) / 1e9, 1e-6);
+                double rate = drainRate;
+                drainRate = rate == 0 ? batch.size() / seconds : rate * 0.8 + batch.size() / seconds * 0.2;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+                events.clear();
+            }
+        }
+    }
+
+    private void saveEach(List<Pending> batch) {
+        for (Pending pending : batch) {
+            try {
+                repository.save(pending.event());
+                persisted.increment();
+                stored(pending);
+            } catch (RuntimeException e) {
+                // The client already got 202, so count and log the loss and let its retry through
+                failed.increment();
+                if (pending.idempotencyKey() != null) {
+                    deduplicator.release(pending.idempotencyKey());
+                }
+                logger.log(Level.SEVERE, "Failed to store queued event " + pending.event().getId(), e);
+            }
+        }
+    }
+
+    // The store has assigned the id now, so a retry of the request can be answered with it
+    private void stored(Pending pending) {
+        if (pending.idempotencyKey() != null) {
+            deduplicator.update(pending.idempotencyKey(), pending.event().getId());
+        }
+    }
+
+    private record Pending(Event event, String idempotencyKey) {
+    }
+
+    public record Stats(int depth, int capacity, int highWaterMark, long accepted, long rejected,
+                        long persisted, long failed, double drainRatePerSecond) {
+    }
+}
@@ -1,18 +1,60 @@
 package com.userstream.events;
 
+import com.userstream.common.ConcurrentIntObjectMap;
+import com.userstream.common.snapshot.SnapshotManager;
+
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Heap event store. Besides the id map, events are grouped into buckets of {@value #BUCKET_MILLIS}
+ * ms of history keyed by their start time, which let retention drop a whole expired bucket with one
+ * map removal. Each bucket keeps its events ordered by {@code (timestamp, id)}, overall and per
+ * type, so a time-range query reads only the events it returns plus one lookup per bucket.
+ */
+public class InMemoryUserRepository implements EventRepository, RetentionTarget, AutoCloseable {
 
-public class InMemoryUserRepository implements EventRepository{
+    private static final long BUCKET_MILLIS = 60_000;
+    private static final int MAX_EVICTION_CHUNK = 10_000;
+    private static final int EVENT_OVERHEAD_BYTES = 64;
+    private static final Comparator<Event> TIME_ORDER =
+            Comparator.comparingLong(Event::getTimestamp).thenComparingInt(Event::getId);
 
-    private final ConcurrentHashMap<Integer, Event> events = new ConcurrentHashMap<>();
+    private final ConcurrentIntObjectMap<Event> events = new ConcurrentIntObjectMap<>();
+    private final ConcurrentNavigableMap<Long, Bucket> buckets = new ConcurrentSkipListMap<>();
+    private final AtomicLong estimatedBytes = new AtomicLong();
+    private final SnapshotManager<Event> snapshots;
+
+    public InMemoryUserRepository() {
+        this(null);
+    }
+
+    /**
+     * Restores the events saved by {@code snapshots}, if given, and journals every change to it.
+     */
+    public InMemoryUserRepository(SnapshotManager<Event> snapshots) {
+        this.snapshots = snapshots;
+        if (snapshots != null) {
+            snapshots.restore(event -> store(event, false), id -> remove(id, false));
+            snapshots.scheduleSnapshots(events::values);
+        }
+    }
 
     @Override
     public void save(Event event) {
-        events.put(event.getId(),event);
-
+        store(event, snapshots != null);
     }
 
     @Override
@@ -22,12 +64,307 @@ public class InMemoryUserRepository implements EventRepository{
 
     @Override
     public List<Event> findAll() {
-        return new ArrayList<>(events.values());
+        return events.values();
+    }
+
+    /**
+     * Walks the buckets overlapping the range in time order, reading each from {@code from} in its
+     * time order for {@code type} until {@code limit} events are found.
+     */
+    @Override
+    public List<Event> findByTimeRange(long from, long to, String type, int limit) {
+        if (from >= to || limit <= 0) {
+            return new ArrayList<>();
+        }
+        List<Event> found = new ArrayList<>(Math.min(limit, 1024));
+        // Starts at the bucket holding from, without computing a bucket start that could overflow
+        Long first = buckets.floorKey(from);
+        for (Bucket bucket : buckets.subMap(first == null ? from : first, true, to, false).values()) {
+            bucket.visit(from, to, type, event -> {
+                // A bucket is weakly consistent with the map while an update moves an event, so re-check it
+                if (events.get(event.getId()) == event) {
+                    found.add(event);
+                }
+                return found.size() < limit;
+            });
+            if (found.size() >= limit) {
+                break;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Ids are chosen by clients and carry no order here, so this is one pass over the map that keeps
+     * only the {@code limit} lowest matching ids in a bounded heap, rather than a copy and full sort.
+     */
+    @Override
+    public List<Event> findAfterId(int afterId, Set<String> types, int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        // Highest id on top, so it is the one displaced by a lower match
+        PriorityQueue<Event> lowest = new PriorityQueue<>(Math.min(limit, 1024),
+                Comparator.comparingInt(Event::getId).reversed());
+        events.forEach(event -> {
+            // Type filters are immutable sets, which reject contains(null)
+            if (event.getId() <= afterId
+                    || (!types.isEmpty() && (event.getType() == null || !types.contains(event.getType())))) {
+                return;
+            }
+            if (lowest.size() < limit) {
+                lowest.add(event);
+            } else if (event.getId() < lowest.peek().getId()) {
+                lowest.poll();
+                lowest.add(event);
+            }
+        });
+        List<Event> found = new ArrayList<>(lowest);
+        found.sort(Comparator.comparingInt(Event::getId));
+        return found;
+    }
+
+    /**
+     * Age limits detach every bucket that has fully expired in one removal from the bucket map, so an
+     * event may outlive the limit by up to {@value #BUCKET_MILLIS} ms, as a segment does in the log.
+     * Count and byte limits drop whole buckets from the oldest end while the excess covers them and
+     * then just the oldest excess of the next. Each event leaves the id map on its own stripe, so
+     * writers are never paused.
+     */
+    @Override
+    public Reclaimed enforce(RetentionPolicy policy, long nowMillis) {
+        long evicted = 0;
+        long reclaimed = 0;
+        while (true) {
+            Map.Entry<Long, Bucket> oldest = buckets.firstEntry();
+            if (oldest == null) {
+                break;
+            }
+            Bucket bucket = oldest.getValue();
+
+            long excess = 0;
+            if (policy.exceedsCount(events.size())) {
+                excess = events.size() - policy.maxEvents();
+            }
+            if (policy.exceedsBytes(estimatedBytes.get())) {
+                long average = Math.max(estimatedBytes.get() / Math.max(events.size(), 1), 1);
+                excess = Math.max(excess, (estimatedBytes.get() - policy.maxBytes()) / average + 1);
+            }
+
+            List<Event> victims;
+            if (policy.exceedsAge(oldest.getKey() + BUCKET_MILLIS - 1, nowMillis) || excess >= bucket.size()) {
+                buckets.remove(oldest.getKey(), bucket);
+                victims = bucket.detach();
+            } else if (excess > 0) {
+                victims = bucket.oldest((int) Math.min(excess, MAX_EVICTION_CHUNK));
+            } else {
+                break;
+            }
+
+            long evictedBefore = evicted;
+            for (Event victim : victims) {
+                if (evict(victim)) {
+                    long bytes = estimateBytes(victim);
+                    reclaimed += bytes;
+                    evicted++;
+                }
+            }
+            // Only events a concurrent writer is replacing were left, the next sweep will see them
+            if (evicted == evictedBefore && !bucket.isDetached()) {
+                break;
+            }
+        }
+        return new Reclaimed(evicted, reclaimed);
+    }
+
+    /**
+     * Rough heap footprint of the stored events, used for the byte retention limit.
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes.get();
     }
 
     @Override
     public void delete(int id) {
-        events.remove(id);
+        remove(id, snapshots != null);
+    }
+
+    /**
+     * Writes a final snapshot, if snapshots are enabled.
+     */
+    @Override
+    public void close() {
+        if (snapshots != null) {
+            snapshots.close();
+        }
+    }
+
+    private void store(Event event, boolean journal) {
+        int id = event.getId();
+        // compute() serializes writers of the same id, so the map, the buckets and the journal
+        // all see them in the same order
+        events.compute(id, previous -> {
+            if (previous != null) {
+                unbucket(previous);
+            }
+            bucket(event);
+            if (journal) {
+                snapshots.journalPut(event);
+            }
+            estimatedBytes.addAndGet(estimateBytes(event) - (previous == null ? 0 : estimateBytes(previous)));
+            return event;
+        });
+    }
+
+    private void remove(int id, boolean journal) {
+        events.compute(id, previous -> {
+            if (previous != null) {
+                unbucket(previous);
+                if (journal) {
+                    snapshots.journalDelete(id);
+                }
+                estimatedBytes.addAndGet(-estimateBytes(previous));
+            }
+            return null;
+        });
+    }
+
+    // Removes the event only if it is still the stored version; it may have been updated or deleted meanwhile
+    private boolean evict(Event victim) {
+        boolean[] removed = new boolean[1];
+        events.compute(victim.getId(), current -> {
+            if (current != victim) {
+                return current;
+            }
+            unbucket(current);
+            if (snapshots != null) {
+                snapshots.journalDelete(current.getId());
+            }
+            estimatedBytes.addAndGet(-estimateBytes(current));
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
+    }
+
+    private void bucket(Event event) {
+        long start = bucketStart(event.getTimestamp());
+        // A bucket detached by retention or emptied meanwhile refuses the add; retry with a fresh one
+        while (!buckets.computeIfAbsent(start, key -> new Bucket()).add(event)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private void unbucket(Event event) {
+        long start = bucketStart(event.getTimestamp());
+        Bucket bucket = buckets.get(start);
+        // A detached bucket no longer matters, its events are being evicted
+        if (bucket != null && bucket.remove(event)) {
+            buckets.remove(start, bucket);
+        }
+    }
+
+    // Sorts before every event at timestamp
+    private static Event probe(long timestamp) {
+        Event probe = new Event();
+        probe.setTimestamp(timestamp);
+        probe.setId(Integer.MIN_VALUE);
+        return probe;
+    }
+
+    private static long bucketStart(long timestamp) {
+        return Math.floorDiv(timestamp, BUCKET_MILLIS) * BUCKET_MILLIS;
+    }
+
+    private static long estimateBytes(Event event) {
+        return EVENT_OVERHEAD_BYTES + length(event.getType()) + length(event.getData());
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    /**
+     * The events of one time window ordered by {@code (timestamp, id)}, with one ordered set per type.
+     * Once detached, by retention or by becoming empty, it accepts no more events.
+     */
+    private static final class Bucket {
+        private final NavigableSet<Event> all = new TreeSet<>(TIME_ORDER);
+        private final Map<String, NavigableSet<Event>> byType = new HashMap<>();
+        private boolean detached;
+
+        synchronized boolean add(Event event) {
+            if (detached) {
+                return false;
+            }
+            all.add(event);
+            if (event.getType() != null) {
+                byType.computeIfAbsent(event.getType(), type -> new TreeSet<>(TIME_ORDER)).add(event);
+            }
+            return true;
+        }
+
+        /**
+         * Removes {@code event} if this bucket holds that very instance. Returns true if that
+         * emptied the bucket, which then detaches itself and should leave the bucket map.
+         */
+        synchronized boolean remove(Event event) {
+            if (all.ceiling(event) != event) {
+                return false;
+            }
+            all.remove(event);
+            if (event.getType() != null) {
+                NavigableSet<Event> typed = byType.get(event.getType());
+                typed.remove(event);
+                if (typed.isEmpty()) {
+                    byType.remove(event.getType());
+                }
+            }
+            if (all.isEmpty() && !detached) {
+                detached = true;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Hands the events with {@code from <= timestamp < to}, of {@code type} unless it is null, to
+         * {@code visitor} oldest first until it returns false. The visitor runs under the bucket's lock.
+         */
+        synchronized void visit(long from, long to, String type, Predicate<Event> visitor) {
+            NavigableSet<Event> source = type == null ? all : byType.get(type);
+            if (source == null) {
+                return;
+            }
+            for (Event event : source.subSet(probe(from), true, probe(to), false)) {
+                if (!visitor.test(event)) {
+                    return;
+                }
+            }
+        }
+
+        synchronized List<Event> oldest(int count) {
+            List<Event> oldest = new ArrayList<>(Math.min(count, all.size()));
+            for (Event event : all) {
+                if (oldest.size() >= count) {
+                    break;
+                }
+                oldest.add(event);
+            }
+            return oldest;
+        }
+
+        synchronized List<Event> detach() {
+            detached = true;
+            return new ArrayList<>(all);
+        }
+
+        synchronized int size() {
+            return all.size();
+        }
 
+        synchronized boolean isDetached() {
+            return detached;
+        }
     }
 }
@@ -0,0 +1,111 @@
+package com.userstream.events;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decorator that tells registered {@link EventListener}s about every save and delete
+ * once the wrapped repository has applied it.
+ */
+public class ListeningEventRepository implements EventRepository, AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(ListeningEventRepository.class.getName());
+
+    private final EventRepository delegate;
+    private final List<EventListener> listeners = new CopyOnWriteArrayList<>();
+
+    public ListeningEventRepository(EventRepository delegate) {
+        this.delegate = delegate;
+    }
+
+    public void addListener(EventListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(EventListener listener) {
+        listeners.remove(listener);
+    }
+
+    public EventRepository getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void save(Event event) {
+        delegate.save(event);
+        for (EventListener listener : listeners) {
+            try {
+                listener.onSaved(event);
+            } catch (RuntimeException e) {
+                // A broken listener must not fail the write that has already happened
+                logger.log(Level.WARNING, "Event listener failed on save of event " + event.getId(), e);
+            }
+        }
+    }
+
+    @Override
+    public void saveAll(List<Event> events) {
+        delegate.saveAll(events);
+        for (Event event : events) {
+            for (EventListener listener : listeners) {
+                try {
+                    listener.onSaved(event);
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Event listener failed on save of event " + event.getId(), e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Optional<Event> findById(int id) {
+        return delegate.findById(id);
+    }
+
+    @Override
+    public List<Event> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public List<Event> findByTimeRange(long from, long to, String type, int limit) {
+        return delegate.findByTimeRange(from, to, type, limit);
+    }
+
+    @Override
+    public List<Event> findAfterId(int afterId, Set<String> types, int limit) {
+        return delegate.findAfterId(afterId, types, limit);
+    }
+
+    @Override
+    public void delete(int id) {
+        delegate.delete(id);
+        for (EventListener listener : listeners) {
+            try {
+                listener.onDeleted(id);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Event listener failed on delete of event " + id, e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (delegate instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new RuntimeException("Failed to close event store: " + e.getMessage(), e);
+            }
+        }
+    }
+}
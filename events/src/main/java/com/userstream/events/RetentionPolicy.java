@@ -0,0 +1,29 @@
+package com.userstream.events;
+
+/**
+ * Limits on how much event history a store keeps. A limit of zero or less means no limit.
+ *
+ * @param maxAgeMillis events older than this are evicted
+ * @param maxEvents    the oldest events are evicted while the store holds more than this
+ * @param maxBytes     the oldest events are evicted while the store uses more than this
+ */
+public record RetentionPolicy(long maxAgeMillis, long maxEvents, long maxBytes) {
+
+    public static final RetentionPolicy UNLIMITED = new RetentionPolicy(0, 0, 0);
+
+    public boolean isUnlimited() {
+        return maxAgeMillis <= 0 && maxEvents <= 0 && maxBytes <= 0;
+    }
+
+    public boolean exceedsAge(long timestamp, long now) {
+        return maxAgeMillis > 0 && timestamp < now - maxAgeMillis;
+    }
+
+    public boolean exceedsCount(long events) {
+        return maxEvents > 0 && events > maxEvents;
+    }
+
+    public boolean exceedsBytes(long bytes) {
+        return maxBytes > 0 && bytes > maxBytes;
+    }
+}
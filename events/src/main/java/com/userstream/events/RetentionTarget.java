@@ -0,0 +1,17 @@
+package com.userstream.events;
+
+/**
+ * An event store that can evict its oldest history to satisfy a {@link RetentionPolicy}.
+ */
+public interface RetentionTarget {
+
+    /**
+     * Evicts events in timestamp order until {@code policy} holds, in whole units
+     * (segments or time buckets) where the store has them. Must not block writers for
+     * the duration of the sweep.
+     */
+    Reclaimed enforce(RetentionPolicy policy, long nowMillis);
+
+    record Reclaimed(long events, long bytes) {
+    }
+}
@@ -0,0 +1,998 @@
+package com.userstream.events;
+
+import com.userstream.common.IntLongMap;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable EventRepository that appends events to fixed-size, memory-mapped segment files.
+ *
+ * <p>Each record is {@code [length][crc32c][kind][id][timestamp][type][data]}; deletes append a
+ * tombstone. When the active segment is full it is flushed, sealed and its index of
+ * {@code (id, position, timestamp, kind, type)} entries is written next to it as a {@code .idx} file,
+ * so recovery loads sealed segments from their index and only scans the tail segment, stopping
+ * at the first torn or corrupt record.
+ *
+ * <p>The in-memory index maps each live id to its newest record as a packed
+ * {@code (segment, position)} long. Reads decode straight from the mapped segment, and
+ * {@link #findRecord(int)} exposes the encoded record itself without copying. Each segment also
+ * keeps the positions of its records in {@code (timestamp, id)} order, overall and per type, as
+ * plain {@code int} arrays, so a time-range query binary-searches the segments whose timestamp
+ * bounds overlap the range and reads only the records it returns. Id-range queries scan the
+ * segments whose id bounds overlap, lowest first; both stop once the next segment starts after
+ * every event already collected.
+ *
+ * <p>Retention drops whole sealed segments, oldest first: the segment leaves the map under a brief
+ * write lock, its index entries are purged in small locked chunks and its files are deleted.
+ */
+public final class SegmentLogEventRepository implements EventRepository, RetentionTarget, AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(SegmentLogEventRepository.class.getName());
+
+    /**
+     * When appended records are forced to disk.
+     */
+    public enum FsyncPolicy {
+        /** After every append; slowest, nothing acknowledged is ever lost. */
+        ALWAYS,
+        /** From a background thread every {@code fsyncIntervalMillis}. */
+        INTERVAL,
+        /** Only when a segment is sealed or the log is closed. */
+        NEVER
+    }
+
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int INDEX_MAGIC = 0x45564932;
+    private static final int HEADER_BYTES = 8;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int NULL_LENGTH = -1;
+    private static final int PURGE_CHUNK = 4096;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final FsyncPolicy fsyncPolicy;
+    private final ScheduledExecutorService flusher;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    // Event id to packed (segment, position) location
+    private final IntLongMap locations = new IntLongMap();
+    private final CRC32C crc = new CRC32C();
+    private Segment active;
+    private int nextId = 1;
+
+    public SegmentLogEventRepository(Path directory) {
+        this(directory, DEFAULT_SEGMENT_BYTES, FsyncPolicy.INTERVAL, 1000);
+    }
+
+    public SegmentLogEventRepository(Path directory, int segmentBytes, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.fsyncPolicy = fsyncPolicy;
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open event log in " + directory + ": " + e.getMessage(), e);
+        }
+
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "event-log-fsync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * Appends the event. Events without an id get the next free one.
+     */
+    @Override
+    public void save(Event event) {
+        byte[] type = bytes(event.getType());
+        byte[] data = bytes(event.getData());
+
+        lock.writeLock().lock();
+        try {
+            if (event.getId() <= 0) {
+                event.setId(nextId);
+            }
+            int position = append(PUT, event.getId(), event.getTimestamp(), event.getType(), type, data, true);
+            locations.put(event.getId(), location(active.sequence, position));
+            nextId = Math.max(nextId, event.getId() + 1);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends the whole batch under one lock acquisition; with {@link FsyncPolicy#ALWAYS} the batch
+     * is forced once at the end instead of after every record.
+     */
+    @Override
+    public void saveAll(List<Event> events) {
+        lock.writeLock().lock();
+        try {
+            for (Event event : events) {
+                if (event.getId() <= 0) {
+                    event.setId(nextId);
+                }
+                int position = append(PUT, event.getId(), event.getTimestamp(), event.getType(),
+                        bytes(event.getType()), bytes(event.getData()), false);
+                locations.put(event.getId(), location(active.sequence, position));
+                nextId = Math.max(nextId, event.getId() + 1);
+            }
+            if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                forceActive();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<Event> findById(int id) {
+        lock.readLock().lock();
+        try {
+            long location = locations.get(id);
+            return location < 0 ? Optional.empty() : Optional.ofNullable(decode(location));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Read-only view of the newest encoded record for {@code id}, backed by the mapped segment.
+     */
+    public Optional<ByteBuffer> findRecord(int id) {
+        lock.readLock().lock();
+        try {
+            long location = locations.get(id);
+            if (location < 0) {
+                return Optional.empty();
+            }
+            Segment segment = segments.get(segmentOf(location));
+            if (segment == null) {
+                return Optional.empty();
+            }
+            ByteBuffer buffer = segment.buffer;
+            int position = positionOf(location);
+            return Optional.of(buffer.slice(position, HEADER_BYTES + buffer.getInt(position)).asReadOnlyBuffer());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Live events in log order.
+     */
+    @Override
+    public List<Event> findAll() {
+        lock.readLock().lock();
+        try {
+            List<Event> events = new ArrayList<>(locations.size());
+            for (Segment segment : segments.values()) {
+                segment.scan((position, kind, id, timestamp) -> {
+                    if (kind == PUT && locations.get(id) == location(segment.sequence, position)) {
+                        events.add(decode(segment.buffer, position));
+                    }
+                });
+            }
+            return events;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Walks the segments overlapping {@code [from, to)} in order of their oldest event, reading each
+     * from {@code from} in its time order for {@code type}, and keeps the {@code limit} oldest live
+     * matches in a bounded heap. Appends are roughly time-ordered, so this usually ends after the
+     * first segment or two, having read little more than the events it returns.
+     */
+    @Override
+    public List<Event> findByTimeRange(long from, long to, String type, int limit) {
+        if (from >= to || limit <= 0) {
+            return new ArrayList<>();
+        }
+        lock.readLock().lock();
+        try {
+            List<Segment> overlapping = new ArrayList<>();
+            for (Segment segment : segments.values()) {
+                if (segment.minTimestamp < to && segment.maxTimestamp >= from) {
+                    overlapping.add(segment);
+                }
+            }
+            overlapping.sort(Comparator.comparingLong(segment -> segment.minTimestamp));
+            // Newest kept hit on top, so it is the one displaced by an older match
+            PriorityQueue<Hit> hits = new PriorityQueue<>(Math.min(limit, 1024), Hit.TIME_ORDER.reversed());
+            for (Segment segment : overlapping) {
+                if (hits.size() == limit && segment.minTimestamp > hits.peek().timestamp()) {
+                    break;
+                }
+                TimeRun run = type == null ? segment.byTime : segment.byType.get(type);
+                if (run == null) {
+                    continue;
+                }
+                ByteBuffer buffer = segment.buffer;
+                for (int i = run.lowerBound(buffer, from, Integer.MIN_VALUE); i < run.count; i++) {
+                    int position = run.positions[i];
+                    long timestamp = timestampAt(buffer, position);
+                    if (timestamp >= to) {
+                        break;
+                    }
+                    long location = location(segment.sequence, position);
+                    Hit hit = new Hit(timestamp, idAt(buffer, position), location);
+                    if (hits.size() == limit && Hit.TIME_ORDER.compare(hit, hits.peek()) >= 0) {
+                        break;
+                    }
+                    // Superseded or deleted records stay in the run
+                    if (locations.get(hit.id()) != location) {
+                        continue;
+                    }
+                    if (hits.size() == limit) {
+                        hits.poll();
+                    }
+                    hits.add(hit);
+                }
+            }
+            return decodeAll(hits, Hit.TIME_ORDER);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Ids are mostly assigned in append order, so this scans the segments holding ids above
+     * {@code afterId} in order of their lowest id and usually stops after the first one or two.
+     */
+    @Override
+    public List<Event> findAfterId(int afterId, Set<String> types, int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        List<ByteBuffer> typeBytes = new ArrayList<>(types.size());
+        for (String type : types) {
+            typeBytes.add(ByteBuffer.wrap(bytes(type)));
+        }
+        lock.readLock().lock();
+        try {
+            List<Segment> overlapping = new ArrayList<>();
+            for (Segment segment : segments.values()) {
+                if (segment.maxId > afterId) {
+                    overlapping.add(segment);
+                }
+            }
+            return collect(overlapping, segment -> segment.minId, Hit.ID_ORDER, Hit::id, limit,
+                    (segment, position, id, timestamp) -> id > afterId
+                            && typeMatches(segment.buffer, position, typeBytes));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(int id) {
+        lock.writeLock().lock();
+        try {
+            if (locations.get(id) >= 0) {
+                append(DELETE, id, System.currentTimeMillis(), null, null, null, true);
+                locations.remove(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return locations.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getSegmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Bytes of record data held in all segments.
+     */
+    public long getLogBytes() {
+        lock.readLock().lock();
+        try {
+            return logBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Drops sealed segments from the head of the log while the policy is exceeded. Age is judged by
+     * a segment's newest event, so a segment goes only once everything in it has expired.
+     */
+    @Override
+    public Reclaimed enforce(RetentionPolicy policy, long nowMillis) {
+        long evicted = 0;
+        long reclaimed = 0;
+        while (true) {
+            Segment victim;
+            lock.writeLock().lock();
+            try {
+                victim = segments.firstEntry().getValue();
+                boolean expired = victim.maxTimestamp != Long.MIN_VALUE && policy.exceedsAge(victim.maxTimestamp, nowMillis);
+                if (victim == active || !(expired || policy.exceedsCount(locations.size())
+                        || policy.exceedsBytes(logBytes()))) {
+                    break;
+                }
+                segments.remove(victim.sequence);
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            evicted += purge(victim);
+            reclaimed += victim.writePosition;
+            try {
+                victim.delete(directory);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to delete event log segment " + victim.path, e);
+            }
+        }
+        return new Reclaimed(evicted, reclaimed);
+    }
+
+    /**
+     * Forces the active segment's unflushed records to disk.
+     */
+    public void flush() {
+        Segment segment;
+        int from;
+        int to;
+        lock.readLock().lock();
+        try {
+            segment = active;
+            from = segment.flushedPosition;
+            to = segment.writePosition;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (to > from) {
+            segment.buffer.force(from, to - from);
+            segment.flushedPosition = to;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        lock.writeLock().lock();
+        try {
+            active.buffer.force();
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to close event log: " + e.getMessage(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Removes index entries still pointing into a dropped segment; the sealed segment itself is immutable
+    private long purge(Segment victim) {
+        List<Integer> ids = new ArrayList<>();
+        victim.scan((position, kind, id, timestamp) -> {
+            if (kind == PUT) {
+                ids.add(id);
+            }
+        });
+
+        long purged = 0;
+        for (int from = 0; from < ids.size(); from += PURGE_CHUNK) {
+            lock.writeLock().lock();
+            try {
+                for (int i = from; i < Math.min(from + PURGE_CHUNK, ids.size()); i++) {
+                    int id = ids.get(i);
+                    long location = locations.get(id);
+                    if (location >= 0 && segmentOf(location) == victim.sequence) {
+                        locations.remove(id);
+                        purged++;
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        return purged;
+    }
+
+    // Keeps the limit first live matches under order in a bounded heap. Segments are visited by
+    // their lowest key, so once one starts past every kept hit, no later one can improve on them.
+    private List<Event> collect(List<Segment> candidates, ToLongFunction<Segment> lowestKey, Comparator<Hit> order,
+                                ToLongFunction<Hit> key, int limit, RecordFilter filter) {
+        candidates.sort(Comparator.comparingLong(lowestKey));
+        // Last hit in order on top, so it is the one displaced by a better match
+        PriorityQueue<Hit> hits = new PriorityQueue<>(Math.min(limit, 1024), order.reversed());
+        for (Segment segment : candidates) {
+            if (hits.size() == limit && lowestKey.applyAsLong(segment) > key.applyAsLong(hits.peek())) {
+                break;
+            }
+            segment.scan((position, kind, id, timestamp) -> {
+                if (kind != PUT || !filter.test(segment, position, id, timestamp)) {
+                    return;
+                }
+                long location = location(segment.sequence, position);
+                Hit hit = new Hit(timestamp, id, location);
+                if (hits.size() == limit && order.compare(hit, hits.peek()) >= 0 || locations.get(id) != location) {
+                    return;
+                }
+                if (hits.size() == limit) {
+                    hits.poll();
+                }
+                hits.add(hit);
+            });
+        }
+
+        return decodeAll(hits, order);
+    }
+
+    private List<Event> decodeAll(PriorityQueue<Hit> hits, Comparator<Hit> order) {
+        Hit[] ordered = hits.toArray(new Hit[0]);
+        Arrays.sort(ordered, order);
+        List<Event> events = new ArrayList<>(ordered.length);
+        for (Hit hit : ordered) {
+            events.add(decode(hit.location()));
+        }
+        return events;
+    }
+
+    private long logBytes() {
+        long bytes = 0;
+        for (Segment segment : segments.values()) {
+            bytes += segment.writePosition;
+        }
+        return bytes;
+    }
+
+    // Writes one record into the active segment, rolling to a new segment if it does not fit
+    private int append(byte kind, int id, long timestamp, String typeName, byte[] type, byte[] data, boolean sync) {
+        int bodyLength = 1 + 4 + 8 + 4 + length(type) + 4 + length(data);
+        int recordLength = HEADER_BYTES + bodyLength;
+        if (recordLength > segmentBytes) {
+            throw new IllegalArgumentException("Event " + id + " is larger than a segment: " + recordLength + " bytes");
+        }
+        if (active.writePosition + recordLength > segmentBytes) {
+            roll();
+        }
+
+        MappedByteBuffer buffer = active.buffer;
+        int position = active.writePosition;
+        int cursor = position + HEADER_BYTES;
+        buffer.put(cursor, kind);
+        buffer.putInt(cursor + 1, id);
+        buffer.putLong(cursor + 5, timestamp);
+        cursor = putBytes(buffer, cursor + 13, type);
+        putBytes(buffer, cursor, data);
+
+        crc.reset();
+        crc.update(buffer.slice(position + HEADER_BYTES, bodyLength));
+        buffer.putInt(position + 4, (int) crc.getValue());
+        // The length goes in last: a record is only visible to recovery once it is complete
+        buffer.putInt(position, bodyLength);
+
+        active.writePosition = position + recordLength;
+        active.track(id, position, timestamp, kind, typeName);
+        if (sync && fsyncPolicy == FsyncPolicy.ALWAYS) {
+            forceActive();
+        }
+        return position;
+    }
+
+    private void forceActive() {
+        int from = active.flushedPosition;
+        int to = active.writePosition;
+        if (to > from) {
+            active.buffer.force(from, to - from);
+            active.flushedPosition = to;
+        }
+    }
+
+    private void roll() {
+        try {
+            active.seal(directory);
+            active = Segment.create(directory, active.sequence + 1, segmentBytes);
+            segments.put(active.sequence, active);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to roll event log segment: " + e.getMessage(), e);
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> logs;
+        try (Stream<Path> files = Files.list(directory)) {
+            logs = files.filter(path -> path.getFileName().toString().endsWith(LOG_SUFFIX)).sorted().toList();
+        }
+
+        for (int i = 0; i < logs.size(); i++) {
+            Segment segment = Segment.open(logs.get(i), segmentBytes);
+            segments.put(segment.sequence, segment);
+            boolean tail = i == logs.size() - 1;
+            if (tail || !segment.loadIndex(directory, this::replay)) {
+                segment.recover(this::replay, crc);
+                if (!tail) {
+                    segment.seal(directory);
+                }
+            }
+        }
+
+        if (segments.isEmpty()) {
+            active = Segment.create(directory, 1, segmentBytes);
+            segments.put(active.sequence, active);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+    }
+
+    private void replay(Segment segment, int position, byte kind, int id) {
+        if (kind == PUT) {
+            locations.put(id, location(segment.sequence, position));
+            nextId = Math.max(nextId, id + 1);
+        } else {
+            locations.remove(id);
+        }
+    }
+
+    private Event decode(long location) {
+        // The segment may already have been dropped by retention while its entries are being purged
+        Segment segment = segments.get(segmentOf(location));
+        return segment == null ? null : decode(segment.buffer, positionOf(location));
+    }
+
+    private static Event decode(ByteBuffer buffer, int position) {
+        int cursor = position + HEADER_BYTES;
+        Event event = new Event();
+        event.setId(buffer.getInt(cursor + 1));
+        event.setTimestamp(buffer.getLong(cursor + 5));
+        cursor += 13;
+        int typeLength = buffer.getInt(cursor);
+        event.setType(string(buffer, cursor + 4, typeLength));
+        cursor += 4 + Math.max(typeLength, 0);
+        event.setData(string(buffer, cursor + 4, buffer.getInt(cursor)));
+        return event;
+    }
+
+    // Compares the record's type bytes in place instead of decoding the type; no types matches any
+    private static boolean typeMatches(ByteBuffer buffer, int position, List<ByteBuffer> types) {
+        if (types.isEmpty()) {
+            return true;
+        }
+        int cursor = position + HEADER_BYTES + 13;
+        int length = buffer.getInt(cursor);
+        for (ByteBuffer type : types) {
+            if (length == type.remaining() && buffer.slice(cursor + 4, length).mismatch(type) == -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long timestampAt(ByteBuffer buffer, int position) {
+        return buffer.getLong(position + HEADER_BYTES + 5);
+    }
+
+    private static int idAt(ByteBuffer buffer, int position) {
+        return buffer.getInt(position + HEADER_BYTES + 1);
+    }
+
+    private static String string(ByteBuffer buffer, int position, int length) {
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int putBytes(ByteBuffer buffer, int position, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(position, NULL_LENGTH);
+            return position + 4;
+        }
+        buffer.putInt(position, bytes.length);
+        buffer.put(position + 4, bytes);
+        return position + 4 + bytes.length;
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static long location(int segment, int position) {
+        return ((long) segment << 32) | (position & 0xFFFFFFFFL);
+    }
+
+    private static int segmentOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int positionOf(long location) {
+        return (int) location;
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        void visit(int position, byte kind, int id, long timestamp);
+    }
+
+    @FunctionalInterface
+    private interface ReplayTarget {
+        void replay(Segment segment, int position, byte kind, int id);
+    }
+
+    @FunctionalInterface
+    private interface RecordFilter {
+        boolean test(Segment segment, int position, int id, long timestamp);
+    }
+
+    private record Hit(long timestamp, int id, long location) {
+        static final Comparator<Hit> TIME_ORDER = Comparator.comparingLong(Hit::timestamp).thenComparingInt(Hit::id);
+        static final Comparator<Hit> ID_ORDER = Comparator.comparingInt(Hit::id);
+    }
+
+    /**
+     * Positions of records in one segment ordered by their {@code (timestamp, id)}, which are read
+     * from the mapped buffer rather than copied. Appends are mostly in time order and go on the
+     * end; a late one is shifted into place.
+     */
+    private static final class TimeRun {
+        private int[] positions = new int[64];
+        private int count;
+
+        void add(ByteBuffer buffer, int position) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            long timestamp = timestampAt(buffer, position);
+            int id = idAt(buffer, position);
+            int at = count;
+            if (count > 0 && compare(buffer, positions[count - 1], timestamp, id) > 0) {
+                at = lowerBound(buffer, timestamp, id);
+                System.arraycopy(positions, at, positions, at + 1, count - at);
+            }
+            positions[at] = position;
+            count++;
+        }
+
+        // Index of the first record at or after (timestamp, id)
+        int lowerBound(ByteBuffer buffer, long timestamp, int id) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compare(buffer, positions[mid], timestamp, id) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private static int compare(ByteBuffer buffer, int position, long timestamp, int id) {
+            int byTime = Long.compare(timestampAt(buffer, position), timestamp);
+            return byTime != 0 ? byTime : Integer.compare(idAt(buffer, position), id);
+        }
+    }
+
+    /**
+     * One segment file. Only the active segment is written; the entry arrays exist only until it is
+     * sealed, while the time runs live as long as the segment.
+     */
+    private static final class Segment {
+        final int sequence;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int writePosition;
+        volatile int flushedPosition;
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+        int minId = Integer.MAX_VALUE;
+        int maxId = Integer.MIN_VALUE;
+
+        private int entryCount;
+        private int[] ids = new int[1024];
+        private int[] positions = new int[1024];
+        private long[] timestamps = new long[1024];
+        private byte[] kinds = new byte[1024];
+        private String[] types = new String[1024];
+        private TimeRun byTime = new TimeRun();
+        private final Map<String, TimeRun> byType = new HashMap<>();
+
+        private Segment(int sequence, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path directory, int sequence, int segmentBytes) throws IOException {
+            return open(directory.resolve(String.format("%020d", sequence) + LOG_SUFFIX), segmentBytes);
+        }
+
+        static Segment open(Path path, int segmentBytes) throws IOException {
+            String name = path.getFileName().toString();
+            int sequence = Integer.parseInt(name.substring(0, name.length() - LOG_SUFFIX.length()));
+            FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // Segments written with a different segment size keep their own size
+            long size = Math.max(channel.size(), segmentBytes);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new Segment(sequence, path, channel, buffer);
+        }
+
+        void track(int id, int position, long timestamp, byte kind, String type) {
+            if (entryCount == ids.length) {
+                int capacity = entryCount * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                positions = Arrays.copyOf(positions, capacity);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                kinds = Arrays.copyOf(kinds, capacity);
+                types = Arrays.copyOf(types, capacity);
+            }
+            ids[entryCount] = id;
+            positions[entryCount] = position;
+            timestamps[entryCount] = timestamp;
+            kinds[entryCount] = kind;
+            types[entryCount] = type;
+            entryCount++;
+            minTimestamp = Math.min(minTimestamp, timestamp);
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+            minId = Math.min(minId, id);
+            maxId = Math.max(maxId, id);
+            if (kind == PUT) {
+                byTime.add(buffer, position);
+                if (type != null) {
+                    byType.computeIfAbsent(type, key -> new TimeRun()).add(buffer, position);
+                }
+            }
+        }
+
+        // Walks valid records from the start, validating CRCs, and cuts off a torn tail
+        void recover(ReplayTarget target, CRC32C crc) {
+            int position = 0;
+            int capacity = buffer.capacity();
+            while (position + HEADER_BYTES <= capacity) {
+                int bodyLength = buffer.getInt(position);
+                if (bodyLength <= 0 || position + HEADER_BYTES + bodyLength > capacity) {
+                    break;
+                }
+                crc.reset();
+                crc.update(buffer.slice(position + HEADER_BYTES, bodyLength));
+                if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                    break;
+                }
+                byte kind = buffer.get(position + HEADER_BYTES);
+                int id = buffer.getInt(position + HEADER_BYTES + 1);
+                long timestamp = buffer.getLong(position + HEADER_BYTES + 5);
+                int typeLength = buffer.getInt(position + HEADER_BYTES + 13);
+                String type = string(buffer, position + HEADER_BYTES + 17, typeLength);
+                track(id, position, timestamp, kind, type);
+                target.replay(this, position, kind, id);
+                position += HEADER_BYTES + bodyLength;
+            }
+
+            if (position + 4 <= capacity && buffer.getInt(position) != 0) {
+                logger.warning("Truncating torn record in " + path + " at " + position);
+                byte[] zeros = new byte[64 * 1024];
+                for (int offset = position; offset < capacity; offset += zeros.length) {
+                    buffer.put(offset, zeros, 0, Math.min(zeros.length, capacity - offset));
+                }
+                buffer.force();
+            }
+            writePosition = position;
+            flushedPosition = position;
+        }
+
+        void scan(RecordVisitor visitor) {
+            if (ids != null) {
+                for (int i = 0; i < entryCount; i++) {
+                    visitor.visit(positions[i], kinds[i], ids[i], timestamps[i]);
+                }
+                return;
+            }
+            int position = 0;
+            while (position < writePosition) {
+                int bodyLength = buffer.getInt(position);
+                visitor.visit(position, buffer.get(position + HEADER_BYTES),
+                        buffer.getInt(position + HEADER_BYTES + 1), buffer.getLong(position + HEADER_BYTES + 5));
+                position += HEADER_BYTES + bodyLength;
+            }
+        }
+
+        /**
+         * Flushes the segment and writes its index atomically. The entry arrays are released afterwards.
+         */
+        void seal(Path directory) throws IOException {
+            buffer.force();
+            flushedPosition = writePosition;
+
+            Path index = indexPath(directory);
+            Path temp = index.resolveSibling(index.getFileName() + ".tmp");
+            CRC32C checksum = new CRC32C();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(entryCount);
+                out.writeInt(writePosition);
+                DataOutputStream entries = new DataOutputStream(new CheckedOutputStream(out, checksum));
+                for (int i = 0; i < entryCount; i++) {
+                    entries.writeInt(ids[i]);
+                    entries.writeInt(positions[i]);
+                    entries.writeLong(timestamps[i]);
+                    entries.writeByte(kinds[i]);
+                    writeType(entries, types[i]);
+                }
+                out.writeInt((int) checksum.getValue());
+            }
+            Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            release();
+        }
+
+        /**
+         * Replays a sealed segment from its index file. Returns false if the index is missing or damaged.
+         */
+        boolean loadIndex(Path directory, ReplayTarget target) throws IOException {
+            Path index = indexPath(directory);
+            if (!Files.exists(index)) {
+                return false;
+            }
+            boolean loaded = false;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+                if (in.readInt() != INDEX_MAGIC) {
+                    return false;
+                }
+                int count = in.readInt();
+                int endPosition = in.readInt();
+                CRC32C checksum = new CRC32C();
+                DataInputStream entries = new DataInputStream(new CheckedInputStream(in, checksum));
+                // Read everything before replaying anything; a damaged index is forgotten in the finally below
+                for (int i = 0; i < count; i++) {
+                    int id = entries.readInt();
+                    int position = entries.readInt();
+                    long timestamp = entries.readLong();
+                    byte kind = entries.readByte();
+                    track(id, position, timestamp, kind, readType(entries));
+                }
+                if ((int) checksum.getValue() != in.readInt()) {
+                    return false;
+                }
+
+                for (int i = 0; i < entryCount; i++) {
+                    target.replay(this, positions[i], kinds[i], ids[i]);
+                }
+                writePosition = endPosition;
+                flushedPosition = endPosition;
+                release();
+                loaded = true;
+                return true;
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Ignoring unreadable index " + index, e);
+                return false;
+            } finally {
+                if (!loaded) {
+                    // recover() rescans the log and tracks every record again
+                    untrackAll();
+                }
+            }
+        }
+
+        private void untrackAll() {
+            entryCount = 0;
+            byTime = new TimeRun();
+            byType.clear();
+            minTimestamp = Long.MAX_VALUE;
+            maxTimestamp = Long.MIN_VALUE;
+            minId = Integer.MAX_VALUE;
+            maxId = Integer.MIN_VALUE;
+        }
+
+        private void release() {
+            ids = null;
+            positions = null;
+            timestamps = null;
+            kinds = null;
+            types = null;
+        }
+
+        private static void writeType(DataOutputStream out, String type) throws IOException {
+            if (type == null) {
+                out.writeInt(NULL_LENGTH);
+                return;
+            }
+            byte[] bytes = type.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readType(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length == NULL_LENGTH) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        Path indexPath(Path directory) {
+            String name = path.getFileName().toString();
+            return directory.resolve(name.substring(0, name.length() - LOG_SUFFIX.length()) + INDEX_SUFFIX);
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+
+        void delete(Path directory) throws IOException {
+            channel.close();
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(indexPath(directory));
+        }
+    }
+}
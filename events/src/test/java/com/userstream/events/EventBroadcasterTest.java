@@ -0,0 +1,96 @@
+package com.userstream.events;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventBroadcasterTest {
+
+    @Test
+    void slowSubscriberIsDroppedOnceItsBufferIsFullWithoutHoldingBackOthers() throws Exception {
+        EventBroadcaster broadcaster = new EventBroadcaster(new InMemoryUserRepository(), 4);
+        CountDownLatch slowSending = new CountDownLatch(1);
+        CountDownLatch never = new CountDownLatch(1);
+        CountDownLatch slowClosed = new CountDownLatch(1);
+        broadcaster.subscribe(Set.of(), null, event -> {
+            slowSending.countDown();
+            never.await();
+        }, slowClosed::countDown);
+        List<Integer> fast = new CopyOnWriteArrayList<>();
+        broadcaster.subscribe(Set.of(), null, event -> fast.add(event.getId()), () -> { });
+
+        broadcaster.onSaved(new Event(1, "click", "1"));
+        assertTrue(slowSending.await(10, TimeUnit.SECONDS));
+
+        // One event is stuck in the slow sink; the next four fill its buffer
+        for (int id = 2; id <= 5; id++) {
+            publish(broadcaster, fast, id);
+        }
+        assertEquals(0, broadcaster.getDropped());
+        assertEquals(2, broadcaster.getSubscriberCount());
+
+        publish(broadcaster, fast, 6);
+        assertEquals(1, broadcaster.getDropped());
+        assertEquals(1, broadcaster.getSubscriberCount());
+        assertTrue(slowClosed.await(10, TimeUnit.SECONDS));
+
+        for (int id = 7; id <= 100; id++) {
+            publish(broadcaster, fast, id);
+        }
+        assertEquals(100, fast.size());
+        for (int i = 0; i < fast.size(); i++) {
+            assertEquals(i + 1, fast.get(i));
+        }
+        assertEquals(1, broadcaster.getDropped());
+        broadcaster.close();
+    }
+
+    @Test
+    void burstLargerThanTheBufferDropsOnlyTheSubscribersThatMatchIt() throws Exception {
+        EventBroadcaster broadcaster = new EventBroadcaster(new InMemoryUserRepository(), 8);
+        CountDownLatch never = new CountDownLatch(1);
+        CountDownLatch clicksClosed = new CountDownLatch(1);
+        CountDownLatch viewsClosed = new CountDownLatch(1);
+        broadcaster.subscribe(Set.of("click"), null, event -> never.await(), clicksClosed::countDown);
+        broadcaster.subscribe(Set.of("view"), null, event -> never.await(), viewsClosed::countDown);
+
+        // Ten events overflow a buffer of eight even if the blocked sink already holds one
+        for (int id = 1; id <= 10; id++) {
+            broadcaster.onSaved(new Event(id, "view", "v"));
+        }
+        assertTrue(viewsClosed.await(10, TimeUnit.SECONDS));
+        assertEquals(1, broadcaster.getDropped());
+        assertEquals(1, broadcaster.getSubscriberCount());
+
+        // The click subscriber saw none of the burst and is still connected
+        assertEquals(1, clicksClosed.getCount());
+        broadcaster.close();
+        assertTrue(clicksClosed.await(10, TimeUnit.SECONDS));
+        assertEquals(0, broadcaster.getSubscriberCount());
+    }
+
+    // Waits for the fast subscriber to take each event so only the slow one can fall behind
+    private static void publish(EventBroadcaster broadcaster, List<Integer> fast, int id) throws InterruptedException {
+        broadcaster.onSaved(new Event(id, "click", String.valueOf(id)));
+        assertTrue(await(() -> fast.size() == id));
+    }
+
+    private static boolean await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
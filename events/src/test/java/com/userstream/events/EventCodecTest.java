@@ -0,0 +1,34 @@
+package com.userstream.events;
+
+import com.userstream.common.codec.BinaryCodec;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EventCodecTest {
+
+    private final BinaryCodec<Event> codec = new BinaryCodec<>(EventCodec.SCHEMA, new EventCodec());
+
+    @Test
+    void roundTripsEveryField() {
+        Event nested = new Event(1, "click", "{\"x\":1,\"tags\":[\"a\",\"ü\"]}");
+        nested.setTimestamp(Long.MIN_VALUE);
+        Event empty = new Event(-3, null, null);
+        empty.setTimestamp(1_700_000_000_123L);
+
+        List<Event> decoded = codec.decodeAll(codec.encodeAll(List.of(nested, empty)));
+
+        assertEquals(2, decoded.size());
+        assertSameEvent(nested, decoded.get(0));
+        assertSameEvent(empty, decoded.get(1));
+    }
+
+    private static void assertSameEvent(Event expected, Event actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getData(), actual.getData());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+    }
+}
@@ -0,0 +1,47 @@
+package com.userstream.events;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.OptionalInt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventDeduplicatorTest {
+
+    @TempDir
+    Path dir;
+
+    private final EventDeduplicator deduplicator = new EventDeduplicator(60_000, 1_000, 0.01, 100);
+
+    @Test
+    void retriesSeePendingUntilTheIdIsRecorded() {
+        assertFalse(deduplicator.claim("k").isPresent());
+        assertEquals(OptionalInt.of(EventDeduplicator.PENDING), deduplicator.claim("k"));
+
+        deduplicator.update("k", 17);
+        assertEquals(OptionalInt.of(17), deduplicator.claim("k"));
+
+        deduplicator.release("k");
+        assertFalse(deduplicator.claim("k").isPresent());
+    }
+
+    @Test
+    void writeQueueRecordsTheIdTheStoreAssigned() throws Exception {
+        SegmentLogEventRepository repository = new SegmentLogEventRepository(dir);
+        EventWriteQueue queue = new EventWriteQueue(repository, deduplicator, 16, 16, 1, 8);
+        repository.save(new Event(0, "click", "first"));
+
+        Event event = new Event(0, "click", "second");
+        assertFalse(deduplicator.claim("k").isPresent());
+        assertTrue(queue.offer(event, "k"));
+        queue.close();
+
+        assertEquals(2, event.getId());
+        assertEquals(OptionalInt.of(2), deduplicator.claim("k"));
+        repository.close();
+    }
+}
@@ -0,0 +1,97 @@
+package com.userstream.events;
+
+import com.userstream.common.codec.BinaryCodec;
+import com.userstream.mq.BinaryMessages;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.jms.Connection;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventIngestionPipelineTest {
+
+    private static final String URL = "vm://ingest-test?broker.persistent=false&broker.useJmx=false";
+    private static final String QUEUE = "events-test";
+
+    private EventIngestionPipeline pipeline;
+    private Connection connection;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (pipeline != null) {
+            pipeline.close();
+        }
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    @Test
+    void storesJsonAndBinaryMessagesAndSkipsPoison() throws Exception {
+        InMemoryUserRepository repository = new InMemoryUserRepository();
+        pipeline = new EventIngestionPipeline(repository, URL, QUEUE, 2, 10, 20);
+        pipeline.start();
+
+        Session session = session();
+        MessageProducer producer = session.createProducer(session.createQueue(QUEUE));
+        producer.send(session.createTextMessage("{\"id\":1,\"type\":\"click\",\"data\":\"json\"}"));
+        BinaryCodec<Event> codec = new BinaryCodec<>(EventCodec.SCHEMA, new EventCodec());
+        producer.send(BinaryMessages.create(session, codec, List.of(new Event(2, "view", "a"), new Event(3, "view", "b"))));
+        producer.send(session.createTextMessage("not json"));
+
+        assertTrue(await(() -> repository.findAll().size() == 3 && pipeline.getPoisonMessages() == 1));
+        assertEquals("json", repository.findById(1).orElseThrow().getData());
+        // Counted per message, and the binary frame carried two events
+        assertEquals(3, pipeline.getReceived());
+    }
+
+    @Test
+    void failedBatchIsRolledBackAndRedelivered() throws Exception {
+        AtomicInteger failures = new AtomicInteger(1);
+        InMemoryUserRepository store = new InMemoryUserRepository();
+        EventRepository flaky = new ListeningEventRepository(store) {
+            @Override
+            public void saveAll(List<Event> events) {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("store unavailable");
+                }
+                super.saveAll(events);
+            }
+        };
+        pipeline = new EventIngestionPipeline(flaky, URL, QUEUE, 1, 10, 20);
+        pipeline.start();
+
+        Session session = session();
+        session.createProducer(session.createQueue(QUEUE))
+                .send(session.createTextMessage("{\"id\":7,\"type\":\"click\",\"data\":\"retried\"}"));
+
+        assertTrue(await(() -> store.findById(7).isPresent()));
+        assertEquals(1, pipeline.getRolledBack());
+    }
+
+    private Session session() throws Exception {
+        connection = new ActiveMQConnectionFactory(URL).createConnection();
+        connection.start();
+        return connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+    }
+
+    private static boolean await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,132 @@
+package com.userstream.events;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventRetentionSweeperTest {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final int OLD_EVENTS = 5_000;
+    private static final int WRITERS = 4;
+    private static final int NEW_PER_WRITER = 2_000;
+    private static final int FIRST_NEW_ID = 100_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void bucketSweepsRacingWritersKeepEveryEventWrittenDuringThem() throws Exception {
+        InMemoryUserRepository repository = new InMemoryUserRepository();
+        long now = System.currentTimeMillis();
+        race(repository, repository, now);
+
+        // Every old bucket has fully expired, so nothing but rewritten ids survives from before
+        assertEquals(0, oldSurvivors(repository, now));
+        assertEquals(OLD_EVENTS / 2 + WRITERS * NEW_PER_WRITER, repository.findAll().size());
+        assertEquals(repository.findAll().size(), repository.findByTimeRange(0, Long.MAX_VALUE, null, Integer.MAX_VALUE).size());
+    }
+
+    @Test
+    void segmentSweepsRacingWritersKeepEveryEventWrittenDuringThem() throws Exception {
+        try (SegmentLogEventRepository repository = new SegmentLogEventRepository(
+                dir, 64 * 1024, SegmentLogEventRepository.FsyncPolicy.NEVER, 1000)) {
+            long now = System.currentTimeMillis();
+            race(repository, repository, now);
+
+            // Only the segment that was active when the writers started can still hold old events
+            int perSegment = 64 * 1024 / 200;
+            assertTrue(oldSurvivors(repository, now) <= perSegment, "old segments were not swept");
+            assertEquals(repository.size(), repository.findAll().size());
+            assertEquals(repository.size(), repository.findByTimeRange(0, Long.MAX_VALUE, null, Integer.MAX_VALUE).size());
+        }
+    }
+
+    /**
+     * Stores {@link #OLD_EVENTS} expired events, then sweeps on the scheduler and the test thread
+     * while writers add new events and rewrite half of the old ids with a current timestamp.
+     * Checks that everything the writers saved is still there with its new contents.
+     */
+    private static void race(EventRepository repository, RetentionTarget target, long now) throws Exception {
+        for (int id = 1; id <= OLD_EVENTS; id++) {
+            repository.save(event(id, now - 10 * DAY + id * 1_000L, "x".repeat(200)));
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int k = 0; k < NEW_PER_WRITER; k++) {
+                    repository.save(event(FIRST_NEW_ID + writer * NEW_PER_WRITER + k, now, "new"));
+                    int old = k * 8 + writer * 2 + 2;
+                    if (old <= OLD_EVENTS) {
+                        repository.save(event(old, now, "rewritten"));
+                    }
+                }
+            });
+            thread.start();
+            writers.add(thread);
+        }
+
+        try (EventRetentionSweeper sweeper = new EventRetentionSweeper(target, new RetentionPolicy(DAY, 0, 0), 1)) {
+            start.countDown();
+            Thread sweeping = new Thread(() -> {
+                while (writing.get()) {
+                    sweeper.sweep();
+                }
+            });
+            sweeping.start();
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            writing.set(false);
+            sweeping.join();
+            sweeper.sweep();
+            assertEquals(0, sweeper.getStats().failures());
+            assertTrue(sweeper.getStats().evictedEvents() >= OLD_EVENTS / 2 - 64 * 1024 / 200);
+        }
+
+        for (int id = FIRST_NEW_ID; id < FIRST_NEW_ID + WRITERS * NEW_PER_WRITER; id++) {
+            assertEquals("new", repository.findById(id).map(Event::getData).orElse(null), "event " + id);
+        }
+        for (int id = 2; id <= OLD_EVENTS; id += 2) {
+            assertEquals("rewritten", repository.findById(id).map(Event::getData).orElse(null), "event " + id);
+        }
+    }
+
+    private static int oldSurvivors(EventRepository repository, long now) {
+        int survivors = 0;
+        for (int id = 1; id <= OLD_EVENTS; id += 2) {
+            Optional<Event> event = repository.findById(id);
+            if (event.isPresent()) {
+                assertTrue(event.get().getTimestamp() < now - DAY);
+                survivors++;
+            }
+        }
+        return survivors;
+    }
+
+    private static Event event(int id, long timestamp, String data) {
+        Event event = new Event(id, id % 3 == 0 ? "click" : "view", data);
+        event.setTimestamp(timestamp);
+        return event;
+    }
+}
@@ -0,0 +1,59 @@
+package com.userstream.events;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventStatsAggregatorTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final EventStatsAggregator stats = new EventStatsAggregator(clock::get);
+
+    @Test
+    void shortWindowsCountBySecondAndLongOnesByMinute() {
+        // One click per second for two hours, ending 30 s into a minute
+        for (long second = 0; second < 7_230; second++) {
+            clock.set(second * 1000);
+            stats.onSaved(new Event(0, "click", null));
+        }
+
+        EventStatsAggregator.WindowStats last30 = stats.snapshot(30, false);
+        assertEquals(30, last30.total());
+        assertEquals(1.0, last30.ratePerSecond());
+
+        EventStatsAggregator.WindowStats tumbling2m = stats.snapshot(120, true);
+        assertEquals(120, tumbling2m.total());
+        assertEquals(7_080_000, tumbling2m.from());
+
+        // 30 s of the current minute plus the 59 whole minutes before it
+        EventStatsAggregator.WindowStats sliding1h = stats.snapshot(3600, false);
+        assertEquals(3_570, sliding1h.total());
+        assertEquals(1.0, sliding1h.ratePerSecond());
+
+        EventStatsAggregator.WindowStats tumbling1h = stats.snapshot(3600, true);
+        assertEquals(3_600, tumbling1h.total());
+        assertEquals(3_600_000, tumbling1h.from());
+    }
+
+    @Test
+    void longWindowsMustBeWholeMinutes() {
+        assertThrows(IllegalArgumentException.class, () -> stats.snapshot(150, false));
+        assertEquals(0, stats.snapshot(180, false).total());
+    }
+
+    @Test
+    void typesBeyondTheCapAreCountedAsOther() {
+        for (int type = 0; type < EventStatsAggregator.MAX_TYPES + 10; type++) {
+            stats.onSaved(new Event(0, "type" + type, null));
+        }
+
+        EventStatsAggregator.WindowStats window = stats.snapshot(60, false);
+        assertEquals(EventStatsAggregator.MAX_TYPES + 10, window.total());
+        assertTrue(window.types().size() <= EventStatsAggregator.MAX_TYPES + 1);
+        assertEquals(10, window.types().get("other").count());
+    }
+}
@@ -0,0 +1,88 @@
+package com.userstream.events;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventWriteQueueTest {
+
+    private static final int HIGH_WATER_MARK = 20;
+
+    private volatile long batchDelayMillis;
+    private volatile CountDownLatch gate;
+
+    private final InMemoryUserRepository repository = new InMemoryUserRepository() {
+        @Override
+        public void saveAll(List<Event> events) {
+            try {
+                CountDownLatch current = gate;
+                if (current != null) {
+                    current.await();
+                }
+                Thread.sleep(batchDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.saveAll(events);
+        }
+    };
+
+    @Test
+    void refusesOffersAtTheHighWaterMarkAndSizesRetryAfterFromTheDrainRate() throws Exception {
+        // No idempotency keys are offered, so the queue never touches a deduplicator
+        EventWriteQueue queue = new EventWriteQueue(repository, null, 2 * HIGH_WATER_MARK, HIGH_WATER_MARK, 1, 1);
+        assertEquals(1, queue.retryAfterSeconds());
+
+        // One slow batch sets the drain rate to at most five events a second
+        batchDelayMillis = 200;
+        assertTrue(queue.offer(new Event(1, "click", "1")));
+        assertTrue(await(() -> queue.getStats().persisted() == 1));
+        batchDelayMillis = 0;
+
+        // Park the writer on the next event so the queue only fills
+        gate = new CountDownLatch(1);
+        assertTrue(queue.offer(new Event(2, "click", "2")));
+        assertTrue(await(() -> queue.getStats().depth() == 0));
+        for (int id = 3; id < 3 + HIGH_WATER_MARK; id++) {
+            assertTrue(queue.offer(new Event(id, "click", String.valueOf(id))), "event " + id);
+        }
+
+        assertFalse(queue.offer(new Event(100, "click", "shed")));
+        EventWriteQueue.Stats stats = queue.getStats();
+        assertEquals(HIGH_WATER_MARK, stats.depth());
+        assertEquals(1, stats.rejected());
+        assertEquals(2 + HIGH_WATER_MARK, stats.accepted());
+        // Twenty queued events at five a second or less is at least four seconds of backlog
+        int retryAfter = queue.retryAfterSeconds();
+        assertTrue(retryAfter >= HIGH_WATER_MARK / 5 && retryAfter <= 60, "Retry-After " + retryAfter);
+
+        gate.countDown();
+        gate = null;
+        assertTrue(await(() -> queue.getStats().persisted() == 2 + HIGH_WATER_MARK));
+        assertTrue(queue.offer(new Event(101, "click", "accepted again")));
+
+        queue.close();
+        assertFalse(queue.offer(new Event(102, "click", "after close")));
+        assertEquals(3 + HIGH_WATER_MARK, queue.getStats().persisted());
+        assertEquals(3 + HIGH_WATER_MARK, repository.findAll().size());
+        assertTrue(repository.findById(100).isEmpty());
+    }
+
+    private static boolean await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
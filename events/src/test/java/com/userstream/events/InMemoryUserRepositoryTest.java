@@ -0,0 +1,215 @@
+package com.userstream.events;
+
+import com.userstream.common.snapshot.SnapshotManager;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class InMemoryUserRepositoryTest {
+
+    // The store's per-event overhead estimate plus the "click" type and a one-character payload
+    private static final long EVENT_BYTES = 64 + 5 + 1;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void racingSavesAndDeletesOfOneIdRestoreToTheLiveState() throws Exception {
+        InMemoryUserRepository live = new InMemoryUserRepository(journalOnly());
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            Thread writer = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 20_000; i++) {
+                    // Few ids, so writers constantly race on the same one
+                    int id = random.nextInt(50);
+                    if (random.nextInt(5) == 0) {
+                        live.delete(id);
+                    } else {
+                        live.save(event(id, random.nextInt(1_000), "v" + i));
+                    }
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        // No final snapshot, so the restore below replays the journal alone
+        live.close();
+
+        InMemoryUserRepository restored = new InMemoryUserRepository(snapshots());
+        assertEquals(describe(live.findAll()), describe(restored.findAll()));
+        assertEquals(describe(live.findByTimeRange(0, 1_000, null, Integer.MAX_VALUE)),
+                describe(restored.findByTimeRange(0, 1_000, null, Integer.MAX_VALUE)));
+        assertEquals(live.getEstimatedBytes(), restored.getEstimatedBytes());
+        restored.close();
+    }
+
+    @Test
+    void ageRetentionDropsOnlyFullyExpiredBuckets() {
+        InMemoryUserRepository repository = new InMemoryUserRepository();
+        for (int id = 1; id <= 300; id++) {
+            // One event per second across five one-minute buckets
+            repository.save(event(id, id * 1_000L, "v"));
+        }
+
+        // Everything before 150 s has expired, which fully covers the first two buckets only
+        RetentionTarget.Reclaimed reclaimed = repository.enforce(new RetentionPolicy(50_000, 0, 0), 200_000);
+
+        assertEquals(119, reclaimed.events());
+        assertEquals(181, repository.findAll().size());
+        assertEquals(120, repository.findByTimeRange(0, Long.MAX_VALUE, null, 1).get(0).getId());
+    }
+
+    @Test
+    void countRetentionEvictsTheOldestEventsFirst() {
+        InMemoryUserRepository repository = new InMemoryUserRepository();
+        for (int id = 1; id <= 300; id++) {
+            // Saved out of time order so a bucket's insertion order is not its time order
+            repository.save(event(id, (301 - id) * 1_000L, "v"));
+        }
+
+        RetentionTarget.Reclaimed reclaimed = repository.enforce(new RetentionPolicy(0, 100, 0), 0);
+
+        assertEquals(200, reclaimed.events());
+        List<Event> left = repository.findByTimeRange(0, Long.MAX_VALUE, null, Integer.MAX_VALUE);
+        assertEquals(100, left.size());
+        assertEquals(201_000, left.get(0).getTimestamp());
+        assertEquals(100 * EVENT_BYTES, repository.getEstimatedBytes());
+    }
+
+    @Test
+    void findAfterIdReturnsTheLowestMatchingIdsInOrder() {
+        InMemoryUserRepository repository = new InMemoryUserRepository();
+        Random random = new Random(9);
+        for (int i = 0; i < 5_000; i++) {
+            Event event = new Event(random.nextInt(10_000), random.nextBoolean() ? "click" : "view", "v");
+            repository.save(event);
+        }
+
+        List<Integer> expected = repository.findAll().stream()
+                .filter(event -> event.getId() > 2_500 && event.getType().equals("view"))
+                .map(Event::getId)
+                .sorted()
+                .limit(100)
+                .toList();
+        List<Integer> found = repository.findAfterId(2_500, Set.of("view"), 100).stream()
+                .map(Event::getId)
+                .toList();
+        assertEquals(expected, found);
+        assertEquals(0, repository.findAfterId(10_000, Set.of(), 100).size());
+    }
+
+    @Test
+    void typedTimeRangesMatchABruteForceScanAcrossBucketsAndUpdates() {
+        InMemoryUserRepository repository = new InMemoryUserRepository();
+        String[] types = {"click", "view", "purchase", null};
+        Random random = new Random(13);
+        for (int i = 0; i < 20_000; i++) {
+            int id = random.nextInt(3_000);
+            if (random.nextInt(6) == 0) {
+                repository.delete(id);
+            } else {
+                // Many events per one-minute bucket, with updates moving events between buckets
+                Event event = new Event(id, types[random.nextInt(types.length)], "v" + i);
+                event.setTimestamp(random.nextInt(600_000));
+                repository.save(event);
+            }
+        }
+
+        for (int q = 0; q < 300; q++) {
+            long from = random.nextInt(620_000) - 10_000;
+            long to = from + random.nextInt(q % 2 == 0 ? 1_000 : 200_000);
+            String type = types[random.nextInt(types.length)];
+            int limit = 1 + random.nextInt(100);
+            List<String> expected = repository.findAll().stream()
+                    .filter(event -> event.getTimestamp() >= from && event.getTimestamp() < to)
+                    .filter(event -> type == null || type.equals(event.getType()))
+                    .sorted(Comparator.comparingLong(Event::getTimestamp).thenComparingInt(Event::getId))
+                    .limit(limit)
+                    .map(event -> event.getId() + "@" + event.getTimestamp() + ":" + event.getData())
+                    .toList();
+            List<String> found = repository.findByTimeRange(from, to, type, limit).stream()
+                    .map(event -> event.getId() + "@" + event.getTimestamp() + ":" + event.getData())
+                    .toList();
+            assertEquals(expected, found, "from " + from + " to " + to + " type " + type + " limit " + limit);
+        }
+    }
+
+    @Test
+    void sweepsRacingWritersLeaveEveryStoredEventInItsBucket() throws Exception {
+        InMemoryUserRepository repository = new InMemoryUserRepository();
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < 3; w++) {
+            Thread writer = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    int id = random.nextInt(2_000);
+                    if (random.nextInt(5) == 0) {
+                        repository.delete(id);
+                    } else {
+                        repository.save(event(id, random.nextInt(600_000), "v"));
+                    }
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+        while (System.nanoTime() < until) {
+            repository.enforce(new RetentionPolicy(300_000, 500, 0), 600_000);
+        }
+        running.set(false);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        List<Event> all = repository.findAll();
+        assertEquals(describe(all), describe(repository.findByTimeRange(Long.MIN_VALUE, Long.MAX_VALUE, null, Integer.MAX_VALUE)));
+        assertEquals(all.size() * EVENT_BYTES, repository.getEstimatedBytes());
+    }
+
+    private SnapshotManager<Event> snapshots() {
+        return new SnapshotManager<>(dir, "events", new EventCodec(), Long.MAX_VALUE);
+    }
+
+    private SnapshotManager<Event> journalOnly() {
+        return new SnapshotManager<>(dir, "events", new EventCodec(), Long.MAX_VALUE) {
+            @Override
+            public void scheduleSnapshots(Supplier<? extends Collection<Event>> source) {
+            }
+        };
+    }
+
+    private static Event event(int id, long timestamp, String data) {
+        Event event = new Event(id, "click", data);
+        event.setTimestamp(timestamp);
+        return event;
+    }
+
+    private static List<String> describe(List<Event> events) {
+        List<Event> sorted = new ArrayList<>(events);
+        sorted.sort(Comparator.comparingInt(Event::getId));
+        List<String> described = new ArrayList<>();
+        for (Event event : sorted) {
+            described.add(event.getId() + "@" + event.getTimestamp() + ":" + event.getData());
+        }
+        return described;
+    }
+}
@@ -0,0 +1,135 @@
+package com.userstream.events;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentLogEventRepositoryTest {
+
+    private static final String[] TYPES = {"click", "view", "purchase", null};
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void rangeQueriesMatchABruteForceScanAcrossSegmentsAndRestarts() {
+        Map<Integer, Event> expected = new TreeMap<>();
+        Random random = new Random(5);
+        SegmentLogEventRepository repository = open();
+        for (int i = 0; i < 20_000; i++) {
+            int id = 1 + random.nextInt(5_000);
+            if (random.nextInt(6) == 0) {
+                repository.delete(id);
+                expected.remove(id);
+            } else {
+                // Mostly ascending timestamps with some stragglers, so segment ranges overlap
+                long timestamp = i * 10L - (random.nextInt(8) == 0 ? random.nextInt(50_000) : 0);
+                Event event = new Event(id, TYPES[random.nextInt(TYPES.length)], "data" + i);
+                event.setTimestamp(timestamp);
+                repository.save(event);
+                expected.put(id, event);
+            }
+        }
+        assertTrue(repository.getSegmentCount() > 10);
+        assertRangesMatch(expected, repository, random);
+
+        repository.close();
+        repository = open();
+        assertRangesMatch(expected, repository, random);
+        repository.close();
+    }
+
+    @Test
+    void truncatedIndexIsRebuiltFromTheLogWithoutDuplicates() throws IOException {
+        SegmentLogEventRepository repository = open();
+        for (int id = 1; id <= 5_000; id++) {
+            Event event = new Event(id, TYPES[id % TYPES.length], "data" + id);
+            event.setTimestamp(id);
+            repository.save(event);
+        }
+        repository.close();
+
+        Path index;
+        try (Stream<Path> files = Files.list(dir)) {
+            index = files.filter(file -> file.toString().endsWith(".idx")).sorted().findFirst().orElseThrow();
+        }
+        byte[] intact = Files.readAllBytes(index);
+        // Cut the index off inside its entries, so loading it fails part way through
+        try (FileChannel channel = FileChannel.open(index, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() / 2);
+        }
+
+        for (int restart = 0; restart < 2; restart++) {
+            repository = open();
+            List<Event> all = repository.findAll();
+            assertEquals(5_000, all.size());
+            assertEquals(5_000, all.stream().mapToInt(Event::getId).distinct().count());
+            assertEquals(5_000, repository.findByTimeRange(0, Long.MAX_VALUE, null, Integer.MAX_VALUE).size());
+            repository.close();
+            // The rebuilt index lists each record once, exactly as the original did
+            assertArrayEquals(intact, Files.readAllBytes(index));
+        }
+    }
+
+    private SegmentLogEventRepository open() {
+        return new SegmentLogEventRepository(dir, 64 * 1024, SegmentLogEventRepository.FsyncPolicy.NEVER, 1000);
+    }
+
+    private static void assertRangesMatch(Map<Integer, Event> expected, SegmentLogEventRepository repository,
+                                          Random random) {
+        for (int q = 0; q < 200; q++) {
+            long from = random.nextInt(200_000) - 10_000;
+            long to = from + random.nextInt(100_000);
+            String type = TYPES[random.nextInt(TYPES.length)];
+            int limit = random.nextInt(4) == 0 ? Integer.MAX_VALUE : 1 + random.nextInt(200);
+
+            List<String> wanted = expected.values().stream()
+                    .filter(event -> event.getTimestamp() >= from && event.getTimestamp() < to)
+                    .filter(event -> type == null || type.equals(event.getType()))
+                    .sorted(Comparator.comparingLong(Event::getTimestamp).thenComparingInt(Event::getId))
+                    .limit(limit)
+                    .map(SegmentLogEventRepositoryTest::describe)
+                    .toList();
+            List<String> found = new ArrayList<>();
+            for (Event event : repository.findByTimeRange(from, to, type, limit)) {
+                found.add(describe(event));
+            }
+            assertEquals(wanted, found, () -> "from " + from + " to " + to + " type " + type + " limit " + limit);
+
+            int afterId = random.nextInt(5_500) - 100;
+            Set<String> types = type == null ? Set.of() : Set.copyOf(List.of(type, TYPES[random.nextInt(TYPES.length - 1)]));
+            List<String> wantedAfter = expected.values().stream()
+                    .filter(event -> event.getId() > afterId)
+                    .filter(event -> types.isEmpty() || event.getType() != null && types.contains(event.getType()))
+                    .limit(limit)
+                    .map(SegmentLogEventRepositoryTest::describe)
+                    .toList();
+            List<String> foundAfter = new ArrayList<>();
+            for (Event event : repository.findAfterId(afterId, types, limit)) {
+                foundAfter.add(describe(event));
+            }
+            assertEquals(wantedAfter, foundAfter, () -> "after " + afterId + " types " + types + " limit " + limit);
+        }
+    }
+
+    private static String describe(Event event) {
+        return event.getId() + "@" + event.getTimestamp() + ":" + event.getType() + ":" + event.getData();
+    }
+}
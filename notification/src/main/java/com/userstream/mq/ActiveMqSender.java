@@ -1,4 +0,0 @@
-package com.userstream.mq;
-
-public class ActiveMqSender {
-}
@@ -0,0 +1,15 @@
+package com.userstream.notification;
+
+/**
+ * Delivers notifications over one channel (EMAIL, SMS, PUSH) to its provider.
+ * Called from the channel's dispatch workers, possibly several at once.
+ */
+public interface ChannelSender {
+
+    String channel();
+
+    /**
+     * Delivers {@code notification}, throwing if the provider did not accept it.
+     */
+    void send(Notification notification) throws Exception;
+}
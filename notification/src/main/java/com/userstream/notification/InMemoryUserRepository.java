@@ -1,17 +1,42 @@
 package com.userstream.notification;
 
+import com.userstream.common.ConcurrentIntObjectMap;
+import com.userstream.common.snapshot.SnapshotManager;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class InMemoryUserRepository implements NotificationRepository{
 
-    private final ConcurrentHashMap<Integer, Notification> notifications = new ConcurrentHashMap<>();
+    private final ConcurrentIntObjectMap<Notification> notifications = new ConcurrentIntObjectMap<>();
+    private final SnapshotManager<Notification> snapshots;
+
+    public InMemoryUserRepository() {
+        this(null);
+    }
+
+    /**
+     * Restores the notifications saved by {@code snapshots}, if given, and journals every change to it.
+     */
+    public InMemoryUserRepository(SnapshotManager<Notification> snapshots) {
+        this.snapshots = snapshots;
+        if (snapshots != null) {
+            snapshots.restore(notification -> notifications.put(notification.getId(), notification),
+                    notifications::remove);
+            snapshots.scheduleSnapshots(notifications::values);
+        }
+    }
 
     @Override
     public void save(Notification notification) {
-        notifications.put(notification.getId(),notification);
+        // Journaled under the entry's lock so concurrent saves of one id are replayed in order
+        notifications.compute(notification.getId(), previous -> {
+            if (snapshots != null) {
+                snapshots.journalPut(notification);
+            }
+            return notification;
+        });
     }
 
     @Override
@@ -21,19 +46,37 @@ public class InMemoryUserRepository implements NotificationRepository{
 
     @Override
     public List<Notification> findAll() {
-        return new ArrayList<>(notifications.values());
+        return notifications.values();
     }
 
     @Override
     public List<Notification> findByUserId(int userId) {
-        return notifications.values().stream()
-                .filter(ntf -> ntf.getUserId() == userId)
-                .toList();
+        List<Notification> result = new ArrayList<>();
+        notifications.forEach(ntf -> {
+            if (ntf.getUserId() == userId) {
+                result.add(ntf);
+            }
+        });
+        return result;
     }
 
     @Override
     public void delete(int id) {
-        notifications.remove(id);
+        notifications.compute(id, previous -> {
+            if (previous != null && snapshots != null) {
+                snapshots.journalDelete(id);
+            }
+            return null;
+        });
+
+    }
 
+    /**
+     * Writes a final snapshot, if snapshots are enabled.
+     */
+    public void close() {
+        if (snapshots != null) {
+            snapshots.close();
+        }
     }
 }
@@ -11,6 +11,7 @@ public class Notification {
     private String status; // PENDING, SENT, FAILED
     private LocalDateTime createdAt;
     private LocalDateTime sentAt;
+    private LocalDateTime scheduledAt; // deliver at this time instead of on /send, if set
 
     public Notification() {
     }
@@ -89,4 +90,12 @@ public class Notification {
     public void setSentAt(LocalDateTime sentAt) {
         this.sentAt = sentAt;
     }
+
+    public LocalDateTime getScheduledAt() {
+        return scheduledAt;
+    }
+
+    public void setScheduledAt(LocalDateTime scheduledAt) {
+        this.scheduledAt = scheduledAt;
+    }
 }
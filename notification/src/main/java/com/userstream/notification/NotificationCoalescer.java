@@ -0,0 +1,266 @@
+package com.userstream.notification;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Merges the notifications sent to one user on one channel within {@code windowMillis} into a
+ * single digest, so a burst costs one provider call instead of one per notification.
+ *
+ * <p>The first notification for a (user, channel) opens a digest; later ones join it until the
+ * window ends, when the digest is handed to the {@link NotificationDispatcher}. A digest that
+ * reaches {@code maxBatch} notifications goes out early, and once {@code maxOpenDigests} are open
+ * further notifications bypass coalescing, which bounds the memory held here. A lone notification
+ * is dispatched as it is.
+ */
+public final class NotificationCoalescer implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(NotificationCoalescer.class.getName());
+
+    public static final int DEFAULT_MAX_BATCH = 20;
+    public static final int DEFAULT_MAX_OPEN_DIGESTS = 100_000;
+    public static final long DEFAULT_FLUSH_MILLIS = 5_000;
+
+    private static final int MAX_DIGEST_LINES = 10;
+    private static final long FLUSH_RETRY_MILLIS = 10;
+
+    private final NotificationDispatcher dispatcher;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final int maxOpenDigests;
+
+    private final Map<Key, Digest> open = new ConcurrentHashMap<>();
+    // Digests in the order they were opened, which is also the order their windows end
+    private final Queue<Digest> deadlines = new ConcurrentLinkedQueue<>();
+    // Ids waiting in a digest, so a repeated /send does not add a notification twice
+    private final Set<Integer> buffered = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger openCount = new AtomicInteger();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder digests = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public NotificationCoalescer(NotificationDispatcher dispatcher, long windowMillis) {
+        this(dispatcher, windowMillis, DEFAULT_MAX_BATCH, DEFAULT_MAX_OPEN_DIGESTS);
+    }
+
+    public NotificationCoalescer(NotificationDispatcher dispatcher, long windowMillis, int maxBatch,
+                                 int maxOpenDigests) {
+        if (windowMillis <= 0 || maxBatch < 2 || maxOpenDigests <= 0) {
+            throw new IllegalArgumentException("window and open digests must be positive and batch at least 2");
+        }
+        this.dispatcher = dispatcher;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBatch = maxBatch;
+        this.maxOpenDigests = maxOpenDigests;
+        this.flusher = new Thread(this::flushExpired, "notify-coalescer");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Adds a pending notification to its (user, channel) digest, or dispatches it directly when
+     * coalescing is at its limit. Checks the notification the same way the dispatcher does.
+     */
+    public NotificationDispatcher.Outcome submit(Notification notification) {
+        if (!dispatcher.supports(notification.getChannel())) {
+            return NotificationDispatcher.Outcome.UNKNOWN_CHANNEL;
+        }
+        if (!NotificationDispatcher.isPending(notification)) {
+            return NotificationDispatcher.Outcome.NOT_PENDING;
+        }
+        if (!buffered.add(notification.getId())) {
+            return NotificationDispatcher.Outcome.QUEUED;
+        }
+        submitted.increment();
+        Key key = new Key(notification.getUserId(), notification.getChannel().trim().toUpperCase(Locale.ROOT));
+        Digest[] full = new Digest[1];
+        Digest digest = !running ? null : open.compute(key, (k, current) -> {
+            if (current != null) {
+                current.members.add(notification);
+                if (current.members.size() >= maxBatch) {
+                    current.closed = true;
+                    full[0] = current;
+                    return null;
+                }
+                return current;
+            }
+            if (openCount.get() >= maxOpenDigests) {
+                return null;
+            }
+            openCount.incrementAndGet();
+            Digest created = new Digest(k, System.nanoTime() + windowNanos);
+            created.members.add(notification);
+            deadlines.add(created);
+            return created;
+        });
+        if (full[0] != null) {
+            send(full[0]);
+            return NotificationDispatcher.Outcome.QUEUED;
+        }
+        if (digest == null) {
+            buffered.remove(notification.getId());
+            bypassed.increment();
+            calls.increment();
+            return dispatcher.dispatch(notification);
+        }
+        return NotificationDispatcher.Outcome.QUEUED;
+    }
+
+    public Stats getStats() {
+        long in = submitted.sum();
+        long out = calls.sum();
+        return new Stats(openCount.get(), buffered.size(), in, out, digests.sum(), bypassed.sum(), dropped.sum(),
+                in == 0 ? 0 : 1 - (double) out / in);
+    }
+
+    @Override
+    public void close() {
+        close(DEFAULT_FLUSH_MILLIS);
+    }
+
+    /**
+     * Stops coalescing and hands every open digest to the dispatcher straight away, so nothing
+     * waits out its window. A digest whose channel queue is full is retried for up to
+     * {@code flushMillis}. Close this before the dispatcher, whose close then delivers the flushed digests.
+     */
+    public void close(long flushMillis) {
+        running = false;
+        flusher.interrupt();
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long flushDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushMillis);
+        Digest digest;
+        while ((digest = deadlines.poll()) != null) {
+            take(digest, flushDeadline);
+        }
+    }
+
+    private void flushExpired() {
+        while (running) {
+            Digest head = deadlines.peek();
+            try {
+                if (head == null) {
+                    TimeUnit.NANOSECONDS.sleep(windowNanos);
+                    continue;
+                }
+                long wait = head.deadline - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            deadlines.poll();
+            take(head, 0);
+        }
+    }
+
+    // Closes the digest unless it already went out early for being full
+    private void take(Digest digest, long retryUntil) {
+        Digest[] taken = new Digest[1];
+        open.computeIfPresent(digest.key, (k, current) -> {
+            if (current == digest && !current.closed) {
+                current.closed = true;
+                taken[0] = current;
+                return null;
+            }
+            return current;
+        });
+        if (taken[0] != null) {
+            send(taken[0], retryUntil);
+        }
+    }
+
+    private void send(Digest digest) {
+        send(digest, 0);
+    }
+
+    // Retries a full channel queue until retryUntil (System.nanoTime); 0 sends once
+    private void send(Digest digest, long retryUntil) {
+        openCount.decrementAndGet();
+        List<Notification> members = digest.members;
+        calls.increment();
+        if (members.size() > 1) {
+            digests.increment();
+        }
+        // Members a repeated /send already queued are merged out, and the rest still go
+        NotificationDispatcher.Outcome outcome = dispatcher.dispatch(members, NotificationCoalescer::merge);
+        while (outcome == NotificationDispatcher.Outcome.QUEUE_FULL && retryUntil != 0
+                && System.nanoTime() - retryUntil < 0) {
+            try {
+                Thread.sleep(FLUSH_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            outcome = dispatcher.dispatch(members, NotificationCoalescer::merge);
+        }
+        // Released only once the dispatcher holds them, so a repeated /send cannot slip in between
+        for (Notification member : members) {
+            buffered.remove(member.getId());
+        }
+        if (outcome != NotificationDispatcher.Outcome.QUEUED) {
+            // Already answered 202, so the notifications stay PENDING and can be sent again
+            dropped.add(members.size());
+            logger.warning("Could not dispatch digest of " + members.size() + " notifications for user "
+                    + digest.key.userId() + " on " + digest.key.channel() + ": " + outcome);
+        }
+    }
+
+    private static Notification merge(List<Notification> members) {
+        Notification first = members.get(0);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < members.size() && i < MAX_DIGEST_LINES; i++) {
+            Notification member = members.get(i);
+            if (i > 0) {
+                content.append('\n');
+            }
+            content.append(member.getTitle()).append(": ").append(member.getContent());
+        }
+        if (members.size() > MAX_DIGEST_LINES) {
+            content.append("\n... and ").append(members.size() - MAX_DIGEST_LINES).append(" more");
+        }
+        Notification digest = new Notification(first.getId(), first.getUserId(),
+                members.size() + " new notifications", content.toString(), first.getChannel());
+        return digest;
+    }
+
+    private record Key(int userId, String channel) {
+    }
+
+    private static final class Digest {
+        private final Key key;
+        private final long deadline;
+        // Only touched inside open.compute for this key, or after the digest has left the map
+        private final List<Notification> members = new ArrayList<>();
+        private boolean closed;
+
+        Digest(Key key, long deadline) {
+            this.key = key;
+            this.deadline = deadline;
+        }
+    }
+
+    public record Stats(int openDigests, int bufferedNotifications, long submitted, long providerCalls,
+                        long digests, long bypassed, long dropped, double reductionRatio) {
+    }
+}
@@ -0,0 +1,56 @@
+package com.userstream.notification;
+
+import com.userstream.common.codec.Codecs;
+import com.userstream.common.codec.EntityCodec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public class NotificationCodec implements EntityCodec<Notification> {
+
+    public static final String SCHEMA = "Notification";
+
+    // 2 added scheduledAt
+    private static final int VERSION = 2;
+
+    @Override
+    public int version() {
+        return VERSION;
+    }
+
+    @Override
+    public int idOf(Notification notification) {
+        return notification.getId();
+    }
+
+    @Override
+    public void encode(Notification notification, DataOutput out) throws IOException {
+        out.writeInt(notification.getId());
+        out.writeInt(notification.getUserId());
+        Codecs.writeString(out, notification.getTitle());
+        Codecs.writeString(out, notification.getContent());
+        Codecs.writeString(out, notification.getChannel());
+        Codecs.writeString(out, notification.getStatus());
+        Codecs.writeDateTime(out, notification.getCreatedAt());
+        Codecs.writeDateTime(out, notification.getSentAt());
+        Codecs.writeDateTime(out, notification.getScheduledAt());
+    }
+
+    @Override
+    public Notification decode(DataInput in, int version) throws IOException {
+        Notification notification = new Notification();
+        notification.setId(in.readInt());
+        notification.setUserId(in.readInt());
+        notification.setTitle(Codecs.readString(in));
+        notification.setContent(Codecs.readString(in));
+        notification.setChannel(Codecs.readString(in));
+        notification.setStatus(Codecs.readString(in));
+        notification.setCreatedAt(Codecs.readDateTime(in));
+        notification.setSentAt(Codecs.readDateTime(in));
+        if (version >= 2) {
+            notification.setScheduledAt(Codecs.readDateTime(in));
+        }
+        return notification;
+    }
+}
@@ -0,0 +1,329 @@
+package com.userstream.notification;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers notifications asynchronously, one lane per channel.
+ *
+ * <p>Each lane has its own bounded queue, worker threads, {@link ChannelSender} and
+ * {@link TokenBucket}, so a slow or rate-limited provider never holds up the other channels.
+ * A queued notification stays {@code PENDING}; a worker waits for a token, sends it and saves it
+ * as {@code SENT}, or as {@code FAILED} once {@code maxAttempts} sends have thrown. Counters are per
+ * provider call, so a digest of several notifications counts once.
+ *
+ * <p>{@link #close()} stops taking new notifications and gives the workers up to
+ * {@code drainMillis} to deliver what is already queued before stopping them.
+ */
+public class NotificationDispatcher implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(NotificationDispatcher.class.getName());
+
+    public static final String PENDING = "PENDING";
+    public static final String SENT = "SENT";
+    public static final String FAILED = "FAILED";
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+    public static final int DEFAULT_WORKERS = 2;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_DRAIN_MILLIS = 10_000;
+
+    private static final long RETRY_BACKOFF_MILLIS = 200;
+    private static final long POLL_MILLIS = 500;
+    private static final long DRAIN_POLL_MILLIS = 20;
+    private static final int THROUGHPUT_SECONDS = 60;
+
+    public enum Outcome {
+        QUEUED,
+        NOT_PENDING,
+        UNKNOWN_CHANNEL,
+        QUEUE_FULL
+    }
+
+    private final NotificationRepository repository;
+    private final int maxAttempts;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    // Ids queued or being sent, so a repeated /send cannot deliver the same notification twice
+    private final Set<Integer> inFlight = ConcurrentHashMap.newKeySet();
+    private volatile boolean accepting = true;
+    private volatile boolean running = true;
+
+    public NotificationDispatcher(NotificationRepository repository) {
+        this(repository, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    public NotificationDispatcher(NotificationRepository repository, int maxAttempts) {
+        this.repository = repository;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Adds a lane for {@code sender}'s channel, limited to {@code ratePerSecond} with bursts of {@code burst}.
+     */
+    public void register(ChannelSender sender, double ratePerSecond, int burst, int workers, int queueCapacity) {
+        String channel = normalize(sender.channel());
+        Lane lane = new Lane(channel, sender, new TokenBucket(ratePerSecond, burst), ratePerSecond, queueCapacity);
+        if (lanes.putIfAbsent(channel, lane) != null) {
+            throw new IllegalArgumentException("Channel " + channel + " is already registered");
+        }
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(lane::work, "notify-" + channel.toLowerCase(Locale.ROOT) + "-" + i);
+            worker.setDaemon(true);
+            lane.workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues a pending notification for delivery on its channel.
+     */
+    public Outcome dispatch(Notification notification) {
+        return dispatch(List.of(notification), claimed -> notification);
+    }
+
+    /**
+     * Queues a single send on behalf of {@code members}, which are all saved as SENT or FAILED with it.
+     * Members already queued or being sent are left to that earlier send, and {@code merge} builds the
+     * message for the rest; a digest passes a merge whose message is never stored itself. A lone
+     * remaining member is sent as it is.
+     */
+    public Outcome dispatch(List<Notification> members, Function<List<Notification>, Notification> merge) {
+        Lane lane = members.get(0).getChannel() == null ? null : lanes.get(normalize(members.get(0).getChannel()));
+        if (lane == null) {
+            return Outcome.UNKNOWN_CHANNEL;
+        }
+        for (Notification member : members) {
+            if (!isPending(member)) {
+                return Outcome.NOT_PENDING;
+            }
+        }
+        if (!accepting) {
+            return Outcome.QUEUE_FULL;
+        }
+        List<Notification> claimed = new ArrayList<>(members.size());
+        for (Notification member : members) {
+            if (inFlight.add(member.getId())) {
+                claimed.add(member);
+            }
+        }
+        if (claimed.isEmpty()) {
+            // Every member is already on its way
+            return Outcome.QUEUED;
+        }
+        Notification message = claimed.size() == 1 ? claimed.get(0) : merge.apply(claimed);
+        // Saved before queueing, so a worker's SENT or FAILED can never be overwritten by it
+        for (Notification member : claimed) {
+            if (member.getStatus() == null) {
+                member.setStatus(PENDING);
+                repository.save(member);
+            }
+        }
+        if (!lane.queue.offer(new Delivery(message, claimed))) {
+            for (Notification member : claimed) {
+                inFlight.remove(member.getId());
+            }
+            lane.rejected.increment();
+            return Outcome.QUEUE_FULL;
+        }
+        return Outcome.QUEUED;
+    }
+
+    public boolean supports(String channel) {
+        return channel != null && lanes.containsKey(normalize(channel));
+    }
+
+    public static boolean isPending(Notification notification) {
+        return notification.getStatus() == null || PENDING.equals(notification.getStatus());
+    }
+
+    public Map<String, ChannelStats> getStats() {
+        Map<String, ChannelStats> stats = new LinkedHashMap<>();
+        lanes.values().stream()
+                .sorted((a, b) -> a.channel.compareTo(b.channel))
+                .forEach(lane -> stats.put(lane.channel, lane.stats()));
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        close(DEFAULT_DRAIN_MILLIS);
+    }
+
+    /**
+     * Stops accepting notifications and waits up to {@code drainMillis} for the queued ones to be
+     * delivered, then stops the workers after their current notification. Anything still queued at
+     * that point stays PENDING and can be sent again.
+     */
+    public void close(long drainMillis) {
+        accepting = false;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainMillis);
+        try {
+            while (!inFlight.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(DRAIN_POLL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        running = false;
+        for (Lane lane : lanes.values()) {
+            for (Thread worker : lane.workers) {
+                worker.interrupt();
+            }
+        }
+        for (Lane lane : lanes.values()) {
+            for (Thread worker : lane.workers) {
+                try {
+                    worker.join(TimeUnit.SECONDS.toMillis(5));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        int abandoned = 0;
+        for (Lane lane : lanes.values()) {
+            abandoned += lane.queue.size();
+        }
+        if (abandoned > 0) {
+            logger.warning("Stopped with " + abandoned + " queued notification deliveries still PENDING");
+        }
+    }
+
+    private static String normalize(String channel) {
+        return channel.trim().toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Queue, workers, limiter and counters of one channel.
+     */
+    private final class Lane {
+        private final String channel;
+        private final ChannelSender sender;
+        private final TokenBucket bucket;
+        private final double ratePerSecond;
+        private final int queueCapacity;
+        private final BlockingQueue<Delivery> queue;
+        private final List<Thread> workers = new ArrayList<>();
+
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder retried = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        // Packed (epochSecond << 32 | count) cells of sends over the last minute
+        private final AtomicLongArray sentPerSecond = new AtomicLongArray(THROUGHPUT_SECONDS);
+
+        Lane(String channel, ChannelSender sender, TokenBucket bucket, double ratePerSecond, int queueCapacity) {
+            this.channel = channel;
+            this.sender = sender;
+            this.bucket = bucket;
+            this.ratePerSecond = ratePerSecond;
+            this.queueCapacity = queueCapacity;
+            this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        }
+
+        void work() {
+            while (running) {
+                Delivery delivery;
+                try {
+                    delivery = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (delivery == null) {
+                    continue;
+                }
+                try {
+                    deliver(delivery);
+                } catch (InterruptedException e) {
+                    // Shutting down mid-delivery: leave it PENDING for the next start
+                    return;
+                } finally {
+                    for (Notification member : delivery.members()) {
+                        inFlight.remove(member.getId());
+                    }
+                }
+            }
+        }
+
+        private void deliver(Delivery delivery) throws InterruptedException {
+            Notification notification = delivery.message();
+            for (int attempt = 1; ; attempt++) {
+                bucket.acquire();
+                try {
+                    sender.send(notification);
+                    LocalDateTime sentAt = LocalDateTime.now();
+                    for (Notification member : delivery.members()) {
+                        member.setStatus(SENT);
+                        member.setSentAt(sentAt);
+                        repository.save(member);
+                    }
+                    sent.increment();
+                    countSent(System.currentTimeMillis() / 1000);
+                    return;
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    if (attempt >= maxAttempts) {
+                        logger.log(Level.WARNING, "Giving up on " + channel + " notification " + notification.getId()
+                                + " after " + attempt + " attempts", e);
+                        for (Notification member : delivery.members()) {
+                            member.setStatus(FAILED);
+                            repository.save(member);
+                        }
+                        failed.increment();
+                        return;
+                    }
+                    retried.increment();
+                    Thread.sleep(RETRY_BACKOFF_MILLIS * attempt);
+                }
+            }
+        }
+
+        private void countSent(long second) {
+            int index = (int) Math.floorMod(second, (long) THROUGHPUT_SECONDS);
+            long stamp = second << 32;
+            while (true) {
+                long current = sentPerSecond.get(index);
+                long next = (current & 0xFFFFFFFF00000000L) == stamp ? current + 1 : stamp | 1;
+                if (sentPerSecond.compareAndSet(index, current, next)) {
+                    return;
+                }
+            }
+        }
+
+        ChannelStats stats() {
+            long now = System.currentTimeMillis() / 1000;
+            long lastMinute = 0;
+            for (int i = 0; i < THROUGHPUT_SECONDS; i++) {
+                long cell = sentPerSecond.get(i);
+                if (now - (cell >>> 32) < THROUGHPUT_SECONDS) {
+                    lastMinute += cell & 0xFFFFFFFFL;
+                }
+            }
+            return new ChannelStats(queue.size(), queueCapacity, workers.size(), ratePerSecond,
+                    bucket.available(), sent.sum(), failed.sum(), retried.sum(), rejected.sum(),
+                    lastMinute, (double) lastMinute / THROUGHPUT_SECONDS);
+        }
+    }
+
+    private record Delivery(Notification message, List<Notification> members) {
+    }
+
+    public record ChannelStats(int queueDepth, int queueCapacity, int workers, double ratePerSecond,
+                               double availableTokens, long sent, long failed, long retried, long rejected,
+                               long sentLastMinute, double throughputPerSecond) {
+    }
+}
@@ -0,0 +1,156 @@
+package com.userstream.notification;
+
+import com.userstream.common.ConcurrentIntObjectMap;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands each scheduled notification id to {@code onDue} once its scheduled time has passed.
+ *
+ * <p>Pending notifications sit in a {@link TimingWheel} that one ticker thread advances every
+ * {@code tickMillis}, so scheduling or cancelling is O(1) and a million pending notifications cost
+ * a million small timeout objects rather than a million executor tasks. A notification fires at most
+ * one tick after its time; if the ticker falls behind it catches up on the next tick without skipping
+ * any. {@code onDue} runs on the ticker thread and must not block.
+ *
+ * <p>Only ids are held, never the notification itself, so {@code onDue} always loads the stored
+ * notification and sees any change made since it was scheduled. Nothing is persisted here: the
+ * schedule lives in {@code scheduledAt} on the stored notification, and the service reschedules
+ * pending notifications from the repository when it starts.
+ */
+public final class NotificationScheduler implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(NotificationScheduler.class.getName());
+
+    public static final long DEFAULT_TICK_MILLIS = 10;
+
+    private final TimingWheel<Integer> wheel;
+    // The live timeout per notification id, so a reschedule or cancel can find the old one
+    private final ConcurrentIntObjectMap<TimingWheel.Timeout<Integer>> pending = new ConcurrentIntObjectMap<>();
+    private final IntConsumer onDue;
+    private final Thread ticker;
+    private volatile boolean running = true;
+
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder fired = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder totalLatenessMillis = new LongAdder();
+    private final AtomicLong maxLatenessMillis = new AtomicLong();
+
+    public NotificationScheduler(IntConsumer onDue) {
+        this(DEFAULT_TICK_MILLIS, onDue);
+    }
+
+    public NotificationScheduler(long tickMillis, IntConsumer onDue) {
+        this.wheel = new TimingWheel<>(tickMillis, System.currentTimeMillis());
+        this.onDue = onDue;
+        this.ticker = new Thread(this::tick, "notify-scheduler");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /**
+     * Schedules notification {@code id} for {@code at}, replacing any earlier schedule.
+     * One that is already due goes to {@code onDue} straight away.
+     */
+    public void schedule(int id, LocalDateTime at) {
+        long deadline = toMillis(at);
+        boolean[] due = new boolean[1];
+        // Added to the wheel under the id's lock, so the ticker cannot expire the timeout before it is registered
+        pending.compute(id, previous -> {
+            if (previous != null) {
+                previous.cancel();
+            }
+            TimingWheel.Timeout<Integer> timeout = wheel.add(id, deadline);
+            due[0] = timeout == null;
+            return timeout;
+        });
+        scheduled.increment();
+        if (due[0]) {
+            fire(id, deadline, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Cancels the notification's pending schedule. Returns false if it had none.
+     */
+    public boolean cancel(int id) {
+        TimingWheel.Timeout<Integer> previous = pending.remove(id);
+        if (previous == null || !previous.cancel()) {
+            return false;
+        }
+        cancelled.increment();
+        return true;
+    }
+
+    public Stats getStats() {
+        long count = fired.sum();
+        return new Stats(wheel.size(), scheduled.sum(), count, cancelled.sum(),
+                count == 0 ? 0 : (double) totalLatenessMillis.sum() / count, maxLatenessMillis.get());
+    }
+
+    /**
+     * Stops the ticker. Pending notifications keep their {@code scheduledAt} and are rescheduled on the next start.
+     */
+    @Override
+    public void close() {
+        running = false;
+        ticker.interrupt();
+        try {
+            ticker.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void tick() {
+        long tickMillis = wheel.getTickMillis();
+        while (running) {
+            long now = System.currentTimeMillis();
+            for (TimingWheel.Timeout<Integer> timeout : wheel.advance(now)) {
+                int id = timeout.item();
+                // Skip a timeout that was replaced by a reschedule while it was expiring
+                boolean[] current = new boolean[1];
+                pending.compute(id, live -> {
+                    current[0] = live == timeout;
+                    return current[0] ? null : live;
+                });
+                if (current[0]) {
+                    fire(id, timeout.deadlineMillis(), now);
+                }
+            }
+            try {
+                Thread.sleep(Math.max(1, tickMillis - System.currentTimeMillis() % tickMillis));
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void fire(int id, long deadline, long now) {
+        long lateness = Math.max(0, now - deadline);
+        fired.increment();
+        totalLatenessMillis.add(lateness);
+        maxLatenessMillis.accumulateAndGet(lateness, Math::max);
+        try {
+            onDue.accept(id);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Failed to deliver scheduled notification " + id, e);
+        }
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    public record Stats(int pending, long scheduled, long fired, long cancelled, double averageLatenessMillis,
+                        long maxLatenessMillis) {
+    }
+}
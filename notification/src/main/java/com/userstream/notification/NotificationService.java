@@ -1,13 +1,38 @@
 package com.userstream.notification;
 
+import com.userstream.common.codec.BinaryCodec;
+import com.userstream.common.snapshot.SnapshotManager;
 import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.List;
+import java.util.logging.Logger;
 
 public class NotificationService {
 
+    private static final Logger logger = Logger.getLogger(NotificationService.class.getName());
+
     private static final int DEFAULT_PORT = 7004;
+    private static final String RATE_PROPERTY_PREFIX = "notifications.rate.";
+    private static final String BURST_PROPERTY_PREFIX = "notifications.burst.";
+    private static final String WORKERS_PROPERTY = "notifications.dispatch.workers";
+    private static final String QUEUE_PROPERTY = "notifications.dispatch.queue";
+    private static final String MAX_ATTEMPTS_PROPERTY = "notifications.dispatch.max.attempts";
+    private static final String DRAIN_PROPERTY = "notifications.dispatch.drain.ms";
+    private static final String COALESCE_WINDOW_PROPERTY = "notifications.coalesce.window.ms";
+    private static final String COALESCE_BATCH_PROPERTY = "notifications.coalesce.max.batch";
+    private static final String COALESCE_OPEN_PROPERTY = "notifications.coalesce.max.open";
+    private static final String SCHEDULE_TICK_PROPERTY = "notifications.schedule.tick.ms";
+    private static final long SCHEDULE_RETRY_SECONDS = 1;
+    private static final BinaryCodec<Notification> BINARY =
+            new BinaryCodec<>(NotificationCodec.SCHEMA, new NotificationCodec());
     private Javalin server;
+    private InMemoryUserRepository repository;
+    private NotificationDispatcher dispatcher;
+    private NotificationCoalescer coalescer;
+    private NotificationScheduler scheduler;
 
     public static void main(String[] args) {
         NotificationService notificationService = new NotificationService();
@@ -15,6 +40,20 @@ public class NotificationService {
     }
 
     public void start(int port) {
+        // -Dsnapshot.dir=... restores notifications from the last snapshot and keeps it current
+        repository = new InMemoryUserRepository(
+                SnapshotManager.fromSystemProperties("notifications", new NotificationCodec()));
+        dispatcher = initDispatcher();
+        // -Dnotifications.coalesce.window.ms=N merges a user's sends on a channel within N ms into one digest
+        long coalesceWindow = Long.getLong(COALESCE_WINDOW_PROPERTY, 0);
+        if (coalesceWindow > 0) {
+            coalescer = new NotificationCoalescer(dispatcher, coalesceWindow,
+                    Integer.getInteger(COALESCE_BATCH_PROPERTY, NotificationCoalescer.DEFAULT_MAX_BATCH),
+                    Integer.getInteger(COALESCE_OPEN_PROPERTY, NotificationCoalescer.DEFAULT_MAX_OPEN_DIGESTS));
+        }
+        scheduler = new NotificationScheduler(
+                Long.getLong(SCHEDULE_TICK_PROPERTY, NotificationScheduler.DEFAULT_TICK_MILLIS), this::sendScheduled);
+        reschedule();
         server = initHttpServer();
         server.start(port);
         System.out.println("NotificationService started on port " + port);
@@ -25,49 +64,233 @@ public class NotificationService {
             server.stop();
             System.out.println("NotificationService stopped");
         }
+        if (scheduler != null) {
+            scheduler.close();
+        }
+        // Flushing the coalescer queues its open digests, which the dispatcher then drains
+        if (coalescer != null) {
+            coalescer.close();
+        }
+        if (dispatcher != null) {
+            // Gives queued deliveries a bounded time to go out instead of leaving them PENDING
+            dispatcher.close(Long.getLong(DRAIN_PROPERTY, NotificationDispatcher.DEFAULT_DRAIN_MILLIS));
+        }
+        if (repository != null) {
+            repository.close();
+        }
     }
 
-    private Javalin initHttpServer() {
-        InMemoryUserRepository repository = new InMemoryUserRepository();
+    // -Dnotifications.rate.<channel>=N caps a channel at N sends per second, bursting to notifications.burst.<channel>
+    private NotificationDispatcher initDispatcher() {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(repository,
+                Integer.getInteger(MAX_ATTEMPTS_PROPERTY, NotificationDispatcher.DEFAULT_MAX_ATTEMPTS));
+        int workers = Integer.getInteger(WORKERS_PROPERTY, NotificationDispatcher.DEFAULT_WORKERS);
+        int queueCapacity = Integer.getInteger(QUEUE_PROPERTY, NotificationDispatcher.DEFAULT_QUEUE_CAPACITY);
+        registerChannel(dispatcher, "EMAIL", 100, workers, queueCapacity);
+        registerChannel(dispatcher, "SMS", 20, workers, queueCapacity);
+        registerChannel(dispatcher, "PUSH", 500, workers, queueCapacity);
+        return dispatcher;
+    }
+
+    private static void registerChannel(NotificationDispatcher dispatcher, String channel, double defaultRate,
+                                        int workers, int queueCapacity) {
+        String key = channel.toLowerCase();
+        double rate = Double.parseDouble(System.getProperty(RATE_PROPERTY_PREFIX + key, String.valueOf(defaultRate)));
+        int burst = Integer.getInteger(BURST_PROPERTY_PREFIX + key, (int) Math.max(1, Math.ceil(rate)));
+        // Stub senders stand in for the email, SMS and push providers until those are integrated
+        dispatcher.register(new StubChannelSender(channel), rate, burst, workers, queueCapacity);
+    }
+
+    // Pending schedules live in the stored notifications, so a restart picks them up from the snapshot
+    private void reschedule() {
+        int count = 0;
+        for (Notification notification : repository.findAll()) {
+            if (notification.getScheduledAt() != null && NotificationDispatcher.isPending(notification)) {
+                scheduler.schedule(notification.getId(), notification.getScheduledAt());
+                count++;
+            }
+        }
+        if (count > 0) {
+            logger.info("Rescheduled " + count + " pending notifications");
+        }
+    }
+
+    private NotificationDispatcher.Outcome submit(Notification notification) {
+        return coalescer != null ? coalescer.submit(notification) : dispatcher.dispatch(notification);
+    }
+
+    // Loads the stored notification, so a later POST or DELETE of the schedule is honoured
+    private void sendScheduled(int id) {
+        Notification notification = repository.findById(id).orElse(null);
+        if (notification == null || notification.getScheduledAt() == null
+                || !NotificationDispatcher.isPending(notification)) {
+            return;
+        }
+        NotificationDispatcher.Outcome outcome = submit(notification);
+        if (outcome == NotificationDispatcher.Outcome.QUEUE_FULL) {
+            notification.setScheduledAt(LocalDateTime.now().plusSeconds(SCHEDULE_RETRY_SECONDS));
+            repository.save(notification);
+            scheduler.schedule(id, notification.getScheduledAt());
+        } else if (outcome != NotificationDispatcher.Outcome.QUEUED) {
+            logger.warning("Dropped scheduled notification " + notification.getId() + ": " + outcome);
+        }
+    }
 
+    private Javalin initHttpServer() {
         Javalin app = Javalin.create();
 
         // Sends notification messages
         app.get("/notifications", ctx -> {
             List<Notification> notifications = repository.findAll();
-            ctx.json(notifications);
+            respondAll(ctx, notifications);
         });
 
         app.post("/notifications", ctx -> {
-            Notification notification = ctx.bodyAsClass(Notification.class);
+            Notification notification = readNotification(ctx);
             repository.save(notification);
-            ctx.status(201).json(notification);
+            if (notification.getScheduledAt() != null && NotificationDispatcher.isPending(notification)) {
+                scheduler.schedule(notification.getId(), notification.getScheduledAt());
+            } else {
+                // Replacing a scheduled notification with one that is not scheduled drops the old schedule
+                scheduler.cancel(notification.getId());
+            }
+            ctx.status(201);
+            respond(ctx, notification);
         });
 
         app.get("/notifications/{id}", ctx -> {
             int id = Integer.parseInt(ctx.pathParam("id"));
 
             repository.findById(id).ifPresentOrElse(
-                    ctx::json,
+                    notification -> respond(ctx, notification),
                     () -> ctx.status(404).result("Notification not found")
             );
         });
 
+        // Queues the notification on its channel and answers 202; it turns SENT or FAILED once delivered
         app.post("/notifications/{id}/send", ctx -> {
 
             int id = Integer.parseInt(ctx.pathParam("id"));
 
             repository.findById(id).ifPresentOrElse(
                     notification -> {
-                        notification.setStatus("SENT");
-                        notification.setSentAt(LocalDateTime.now());
+                        NotificationDispatcher.Outcome outcome = submit(notification);
+                        switch (outcome) {
+                            case QUEUED -> {
+                                // Sending now supersedes any schedule
+                                scheduler.cancel(id);
+                                ctx.status(202);
+                                respond(ctx, notification);
+                            }
+                            case NOT_PENDING -> ctx.status(409)
+                                    .result("Notification is already " + notification.getStatus());
+                            case UNKNOWN_CHANNEL -> ctx.status(400)
+                                    .result("Unknown channel: " + notification.getChannel());
+                            case QUEUE_FULL -> ctx.status(429).header("Retry-After", "1")
+                                    .result("Channel " + notification.getChannel() + " is overloaded, retry later");
+                        }
+                    },
+                    () -> ctx.status(404).result("Notification not found")
+            );
+        });
+
+        // Schedules delivery ?at=2024-05-01T09:00:00 (local time) or ?delayMinutes=N from now
+        app.post("/notifications/{id}/schedule", ctx -> {
+            int id = Integer.parseInt(ctx.pathParam("id"));
+            LocalDateTime at = readScheduleTime(ctx);
+
+            repository.findById(id).ifPresentOrElse(
+                    notification -> {
+                        if (!NotificationDispatcher.isPending(notification)) {
+                            ctx.status(409).result("Notification is already " + notification.getStatus());
+                            return;
+                        }
+                        notification.setScheduledAt(at);
                         repository.save(notification);
-                        ctx.json(notification);
+                        scheduler.schedule(id, at);
+                        ctx.status(202);
+                        respond(ctx, notification);
                     },
                     () -> ctx.status(404).result("Notification not found")
             );
         });
 
+        app.delete("/notifications/{id}/schedule", ctx -> {
+            int id = Integer.parseInt(ctx.pathParam("id"));
+
+            repository.findById(id).ifPresentOrElse(
+                    notification -> {
+                        if (!scheduler.cancel(id)) {
+                            ctx.status(404).result("Notification is not scheduled");
+                            return;
+                        }
+                        notification.setScheduledAt(null);
+                        repository.save(notification);
+                        respond(ctx, notification);
+                    },
+                    () -> ctx.status(404).result("Notification not found")
+            );
+        });
+
+        // GET pending count and how late scheduled notifications fired
+        app.get("/notifications/schedule/stats", ctx -> ctx.json(scheduler.getStats()));
+
+        // GET queue depth, token bucket and throughput per channel
+        app.get("/notifications/dispatch/stats", ctx -> ctx.json(dispatcher.getStats()));
+
+        // GET how many provider calls coalescing saved
+        app.get("/notifications/coalesce/stats", ctx -> {
+            if (coalescer == null) {
+                ctx.status(404).result("Coalescing is disabled");
+                return;
+            }
+            ctx.json(coalescer.getStats());
+        });
+
         return app;
     }
+
+    private static LocalDateTime readScheduleTime(Context ctx) {
+        String at = ctx.queryParam("at");
+        String delayMinutes = ctx.queryParam("delayMinutes");
+        try {
+            if (at != null) {
+                return LocalDateTime.parse(at);
+            }
+            if (delayMinutes != null) {
+                return LocalDateTime.now().plusMinutes(Long.parseLong(delayMinutes));
+            }
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new BadRequestResponse("Invalid schedule: " + e.getMessage());
+        }
+        throw new BadRequestResponse("Either at or delayMinutes is required");
+    }
+
+    // Bodies sent as application/x-userstream-bin are binary frames, anything else is JSON
+    private static Notification readNotification(Context ctx) {
+        if (!BinaryCodec.isBinary(ctx.contentType())) {
+            return ctx.bodyAsClass(Notification.class);
+        }
+        try {
+            return BINARY.decode(ctx.bodyAsBytes());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestResponse("Invalid notification frame: " + e.getMessage());
+        }
+    }
+
+    private static void respond(Context ctx, Notification notification) {
+        if (BinaryCodec.accepts(ctx.header("Accept"))) {
+            ctx.contentType(BinaryCodec.MEDIA_TYPE).result(BINARY.encode(notification));
+        } else {
+            ctx.json(notification);
+        }
+    }
+
+    private static void respondAll(Context ctx, List<Notification> notifications) {
+        if (BinaryCodec.accepts(ctx.header("Accept"))) {
+            ctx.contentType(BinaryCodec.MEDIA_TYPE).result(BINARY.encodeAll(notifications));
+        } else {
+            ctx.json(notifications);
+        }
+    }
 }
@@ -0,0 +1,43 @@
+package com.userstream.notification;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+
+/**
+ * Local stand-in for a provider: logs the notification after a simulated latency and fails
+ * a configurable fraction of sends.
+ */
+public class StubChannelSender implements ChannelSender {
+
+    private static final Logger logger = Logger.getLogger(StubChannelSender.class.getName());
+
+    private final String channel;
+    private final long latencyMillis;
+    private final double failureRate;
+
+    public StubChannelSender(String channel) {
+        this(channel, 0, 0);
+    }
+
+    public StubChannelSender(String channel, long latencyMillis, double failureRate) {
+        this.channel = channel;
+        this.latencyMillis = latencyMillis;
+        this.failureRate = failureRate;
+    }
+
+    @Override
+    public String channel() {
+        return channel;
+    }
+
+    @Override
+    public void send(Notification notification) throws Exception {
+        if (latencyMillis > 0) {
+            Thread.sleep(latencyMillis);
+        }
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            throw new IllegalStateException(channel + " provider rejected notification " + notification.getId());
+        }
+        logger.info("[" + channel + "] to user " + notification.getUserId() + ": " + notification.getTitle());
+    }
+}
@@ -0,0 +1,216 @@
+package com.userstream.notification;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel: {@link #LEVELS} wheels of {@link #SLOTS} slots, where a slot on level
+ * {@code i} spans {@code SLOTS^i} ticks. A timeout goes into the lowest level whose range covers its
+ * deadline and moves down a level each time the slot above comes round, until it expires from level 0.
+ *
+ * <p>Each slot is an intrusive doubly linked list, so {@link #add} and {@link Timeout#cancel} are O(1)
+ * and a pending timeout costs one small object. With 10 ms ticks the six levels reach about two
+ * years; later deadlines wait on the top level and are re-placed each time it turns.
+ *
+ * <p>Not driven by a thread of its own: the owner calls {@link #advance(long)} with the current time,
+ * which also steps through every tick missed while the owner was busy, so nothing expires early or
+ * is skipped. Stepping is skipped while the wheel is empty. All methods are thread-safe.
+ */
+public class TimingWheel<T> {
+
+    public static final int SLOTS = 64;
+    public static final int LEVELS = 6;
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private final long tickMillis;
+    private final Slot<T>[][] wheels;
+    private long currentTick;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickMillis, long startMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tick must be positive");
+        }
+        this.tickMillis = tickMillis;
+        this.currentTick = startMillis / tickMillis;
+        this.wheels = (Slot<T>[][]) new Slot<?>[LEVELS][SLOTS];
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                wheels[level][slot] = new Slot<>();
+            }
+        }
+    }
+
+    /**
+     * Schedules {@code item} for {@code deadlineMillis}, or returns null if that is not after the
+     * current tick, in which case the caller should handle the item now.
+     */
+    public synchronized Timeout<T> add(T item, long deadlineMillis) {
+        // Rounded up, so the timeout never expires before its deadline
+        Timeout<T> timeout = new Timeout<>(this, item, Math.ceilDiv(deadlineMillis, tickMillis));
+        if (!place(timeout)) {
+            return null;
+        }
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Moves the wheel forward to {@code nowMillis} and returns the timeouts that expired, earliest tick first.
+     */
+    public synchronized List<Timeout<T>> advance(long nowMillis) {
+        long target = nowMillis / tickMillis;
+        List<Timeout<T>> expired = new ArrayList<>();
+        if (size == 0) {
+            currentTick = Math.max(currentTick, target);
+            return expired;
+        }
+        while (currentTick < target) {
+            currentTick++;
+            // Cascade from the top so timeouts can fall through several levels on the same tick
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    cascade(wheels[level][(int) (currentTick >>> (SLOT_BITS * level)) & SLOT_MASK], expired);
+                }
+            }
+            drain(wheels[0][(int) currentTick & SLOT_MASK], expired);
+            if (size == 0) {
+                currentTick = target;
+            }
+        }
+        return expired;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    private boolean place(Timeout<T> timeout) {
+        long delta = timeout.deadlineTick - currentTick;
+        if (delta <= 0) {
+            return false;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        wheels[level][(int) (timeout.deadlineTick >>> (SLOT_BITS * level)) & SLOT_MASK].append(timeout);
+        return true;
+    }
+
+    private void cascade(Slot<T> slot, List<Timeout<T>> expired) {
+        Timeout<T> timeout = slot.detach();
+        while (timeout != null) {
+            Timeout<T> next = timeout.next;
+            timeout.next = null;
+            timeout.prev = null;
+            timeout.slot = null;
+            if (!place(timeout)) {
+                size--;
+                expired.add(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    private void drain(Slot<T> slot, List<Timeout<T>> expired) {
+        Timeout<T> timeout = slot.detach();
+        while (timeout != null) {
+            Timeout<T> next = timeout.next;
+            timeout.next = null;
+            timeout.prev = null;
+            timeout.slot = null;
+            size--;
+            expired.add(timeout);
+            timeout = next;
+        }
+    }
+
+    private synchronized boolean cancel(Timeout<T> timeout) {
+        if (timeout.slot == null) {
+            return false;
+        }
+        timeout.slot.unlink(timeout);
+        size--;
+        return true;
+    }
+
+    /**
+     * A pending item. Cancelling it unlinks it from its slot.
+     */
+    public static final class Timeout<T> {
+        private final TimingWheel<T> wheel;
+        private final T item;
+        private final long deadlineTick;
+        private Slot<T> slot;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+
+        private Timeout(TimingWheel<T> wheel, T item, long deadlineTick) {
+            this.wheel = wheel;
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public T item() {
+            return item;
+        }
+
+        public long deadlineMillis() {
+            return deadlineTick * wheel.tickMillis;
+        }
+
+        /**
+         * Returns false if the timeout already expired or was cancelled.
+         */
+        public boolean cancel() {
+            return wheel.cancel(this);
+        }
+    }
+
+    private static final class Slot<T> {
+        private Timeout<T> head;
+        private Timeout<T> tail;
+
+        void append(Timeout<T> timeout) {
+            timeout.slot = this;
+            timeout.prev = tail;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void unlink(Timeout<T> timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.slot = null;
+            timeout.prev = null;
+            timeout.next = null;
+        }
+
+        Timeout<T> detach() {
+            Timeout<T> first = head;
+            head = null;
+            tail = null;
+            return first;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.userstream.notification;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class NotificationCoalescerTest {
+
+    private final InMemoryUserRepository repository = new InMemoryUserRepository();
+    private final List<Notification> delivered = new CopyOnWriteArrayList<>();
+    // Holds every send until counted down
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+
+    @Test
+    void mergesABurstIntoOneDigest() throws Exception {
+        NotificationDispatcher dispatcher = dispatcher(100);
+        NotificationCoalescer coalescer = new NotificationCoalescer(dispatcher, 50);
+        for (int id = 1; id <= 5; id++) {
+            coalescer.submit(notification(id, 7));
+        }
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (delivered.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        coalescer.close();
+        dispatcher.close();
+
+        assertEquals(1, delivered.size());
+        assertEquals("5 new notifications", delivered.get(0).getTitle());
+        repository.findAll().forEach(n -> assertEquals(NotificationDispatcher.SENT, n.getStatus()));
+    }
+
+    @Test
+    void shutdownDeliversEveryOpenDigestEvenThroughAFullQueue() {
+        // A one-slot queue forces the flush to wait for room
+        NotificationDispatcher dispatcher = dispatcher(1);
+        NotificationCoalescer coalescer = new NotificationCoalescer(dispatcher, 60_000);
+        for (int user = 1; user <= 20; user++) {
+            coalescer.submit(notification(user * 10, user));
+            coalescer.submit(notification(user * 10 + 1, user));
+        }
+
+        coalescer.close(10_000);
+        dispatcher.close(10_000);
+
+        assertEquals(20, delivered.size());
+        assertEquals(0, coalescer.getStats().dropped());
+        repository.findAll().forEach(n -> assertEquals(NotificationDispatcher.SENT, n.getStatus()));
+    }
+
+    @Test
+    void digestStillSendsTheMembersNotAlreadyInFlight() {
+        gate = new CountDownLatch(1);
+        NotificationDispatcher dispatcher = dispatcher(100);
+        Notification first = notification(1, 7);
+        // A direct /send of 1 that is still waiting on the provider when the digest flushes
+        assertEquals(NotificationDispatcher.Outcome.QUEUED, dispatcher.dispatch(first));
+        NotificationCoalescer coalescer = new NotificationCoalescer(dispatcher, 60_000);
+        coalescer.submit(first);
+        coalescer.submit(notification(2, 7));
+        coalescer.submit(notification(3, 7));
+
+        coalescer.close();
+        gate.countDown();
+        dispatcher.close(10_000);
+
+        assertEquals(0, coalescer.getStats().dropped());
+        assertEquals(List.of("title 1", "2 new notifications"),
+                delivered.stream().map(Notification::getTitle).toList());
+        repository.findAll().forEach(n -> assertEquals(NotificationDispatcher.SENT, n.getStatus()));
+    }
+
+    private NotificationDispatcher dispatcher(int queueCapacity) {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(repository);
+        dispatcher.register(new ChannelSender() {
+            @Override
+            public String channel() {
+                return "PUSH";
+            }
+
+            @Override
+            public void send(Notification notification) throws Exception {
+                gate.await();
+                Thread.sleep(2);
+                delivered.add(notification);
+            }
+        }, 10_000, 10_000, 1, queueCapacity);
+        return dispatcher;
+    }
+
+    private Notification notification(int id, int userId) {
+        Notification notification = new Notification(id, userId, "title " + id, "content", "PUSH");
+        repository.save(notification);
+        return notification;
+    }
+}
@@ -0,0 +1,70 @@
+package com.userstream.notification;
+
+import com.userstream.common.codec.BinaryCodec;
+import com.userstream.common.codec.Codecs;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class NotificationCodecTest {
+
+    private final BinaryCodec<Notification> codec = new BinaryCodec<>(NotificationCodec.SCHEMA, new NotificationCodec());
+
+    @Test
+    void roundTripsEveryField() {
+        Notification notification = new Notification(3, 11, "Wöchentlicher Bericht", "line one\nline two", "email");
+        notification.setStatus("SCHEDULED");
+        notification.setCreatedAt(LocalDateTime.of(2025, 6, 1, 12, 0));
+        notification.setSentAt(null);
+        notification.setScheduledAt(LocalDateTime.of(2025, 6, 2, 9, 15, 30, 500));
+
+        List<Notification> decoded = codec.decodeAll(codec.encodeAll(List.of(notification, new Notification())));
+
+        assertSameNotification(notification, decoded.get(0));
+        assertSameNotification(new Notification(), decoded.get(1));
+    }
+
+    @Test
+    void readsVersionOneFramesWithoutScheduledAt() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x55534231);
+        out.writeUTF(NotificationCodec.SCHEMA);
+        out.writeInt(1);
+        out.writeInt(1);
+        out.writeInt(9);
+        out.writeInt(2);
+        Codecs.writeString(out, "title");
+        Codecs.writeString(out, "content");
+        Codecs.writeString(out, "sms");
+        Codecs.writeString(out, "SENT");
+        Codecs.writeDateTime(out, LocalDateTime.of(2020, 1, 1, 0, 0));
+        Codecs.writeDateTime(out, LocalDateTime.of(2020, 1, 1, 0, 1));
+
+        Notification decoded = codec.decode(bytes.toByteArray());
+
+        assertEquals(9, decoded.getId());
+        assertEquals("SENT", decoded.getStatus());
+        assertEquals(LocalDateTime.of(2020, 1, 1, 0, 1), decoded.getSentAt());
+        assertNull(decoded.getScheduledAt());
+    }
+
+    private static void assertSameNotification(Notification expected, Notification actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getUserId(), actual.getUserId());
+        assertEquals(expected.getTitle(), actual.getTitle());
+        assertEquals(expected.getContent(), actual.getContent());
+        assertEquals(expected.getChannel(), actual.getChannel());
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertEquals(expected.getCreatedAt(), actual.getCreatedAt());
+        assertEquals(expected.getSentAt(), actual.getSentAt());
+        assertEquals(expected.getScheduledAt(), actual.getScheduledAt());
+    }
+}
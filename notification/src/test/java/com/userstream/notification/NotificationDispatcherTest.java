@@ -0,0 +1,91 @@
+package com.userstream.notification;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NotificationDispatcherTest {
+
+    private final InMemoryUserRepository repository = new InMemoryUserRepository();
+
+    @Test
+    void closeDeliversWhatIsAlreadyQueued() {
+        SlowSender sender = new SlowSender(5);
+        NotificationDispatcher dispatcher = dispatcher(sender);
+        for (int id = 1; id <= 50; id++) {
+            assertEquals(NotificationDispatcher.Outcome.QUEUED, dispatcher.dispatch(notification(id)));
+        }
+
+        dispatcher.close(10_000);
+
+        assertEquals(50, sender.sent.get());
+        repository.findAll().forEach(n -> assertEquals(NotificationDispatcher.SENT, n.getStatus()));
+    }
+
+    @Test
+    void closeGivesUpAfterTheDrainTimeoutAndLeavesTheRestPending() {
+        SlowSender sender = new SlowSender(50);
+        NotificationDispatcher dispatcher = dispatcher(sender);
+        for (int id = 1; id <= 50; id++) {
+            dispatcher.dispatch(notification(id));
+        }
+
+        long started = System.nanoTime();
+        dispatcher.close(100);
+
+        assertTrue((System.nanoTime() - started) / 1_000_000 < 5_000);
+        int pending = 0;
+        for (Notification notification : repository.findAll()) {
+            if (NotificationDispatcher.isPending(notification)) {
+                pending++;
+            } else {
+                assertEquals(NotificationDispatcher.SENT, notification.getStatus());
+            }
+        }
+        assertEquals(50, pending + sender.sent.get());
+        assertTrue(pending > 0);
+    }
+
+    @Test
+    void refusesNewNotificationsOnceClosed() {
+        NotificationDispatcher dispatcher = dispatcher(new SlowSender(0));
+        dispatcher.close(0);
+
+        assertEquals(NotificationDispatcher.Outcome.QUEUE_FULL, dispatcher.dispatch(notification(1)));
+    }
+
+    private NotificationDispatcher dispatcher(ChannelSender sender) {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(repository);
+        dispatcher.register(sender, 10_000, 10_000, 1, 100);
+        return dispatcher;
+    }
+
+    private Notification notification(int id) {
+        Notification notification = new Notification(id, 1, "title " + id, "content", "EMAIL");
+        repository.save(notification);
+        return notification;
+    }
+
+    private static final class SlowSender implements ChannelSender {
+        private final long delayMillis;
+        private final AtomicInteger sent = new AtomicInteger();
+
+        SlowSender(long delayMillis) {
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public String channel() {
+            return "EMAIL";
+        }
+
+        @Override
+        public void send(Notification notification) throws Exception {
+            Thread.sleep(delayMillis);
+            sent.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.userstream.notification;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NotificationSchedulerTest {
+
+    private final BlockingQueue<Integer> due = new LinkedBlockingQueue<>();
+    private final NotificationScheduler scheduler = new NotificationScheduler(1, due::add);
+
+    @AfterEach
+    void tearDown() {
+        scheduler.close();
+    }
+
+    @Test
+    void firesOnceAtTheLatestSchedule() throws Exception {
+        scheduler.schedule(1, LocalDateTime.now().plusSeconds(60));
+        scheduler.schedule(1, LocalDateTime.now().plusNanos(20_000_000));
+
+        assertEquals(1, (int) due.poll(5, TimeUnit.SECONDS));
+        assertNull(due.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(0, scheduler.getStats().pending());
+    }
+
+    @Test
+    void cancelledScheduleNeverFires() throws Exception {
+        scheduler.schedule(2, LocalDateTime.now().plusNanos(50_000_000));
+
+        assertTrue(scheduler.cancel(2));
+        assertFalse(scheduler.cancel(2));
+        assertNull(due.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void dueScheduleFiresStraightAway() {
+        scheduler.schedule(3, LocalDateTime.now().minusMinutes(1));
+
+        assertEquals(3, (int) due.poll());
+    }
+
+    @Test
+    void schedulesRacingTheTickerAreNeverLost() throws Exception {
+        List<Integer> fired = new CopyOnWriteArrayList<>();
+        NotificationScheduler racing = new NotificationScheduler(1, fired::add);
+        try {
+            // Deadlines one tick out expire while schedule() is still registering them
+            for (int id = 0; id < 2_000; id++) {
+                racing.schedule(id, LocalDateTime.now().plusNanos(1_000_000));
+            }
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (fired.size() < 2_000 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(2_000, fired.size());
+        } finally {
+            racing.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.userstream.notification;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTest {
+
+    private static final long TICK = 10;
+
+    @Test
+    void cascadesDownEveryLevelAndFiresOnItsOwnTick() {
+        TimingWheel<Long> wheel = new TimingWheel<>(TICK, 0);
+        // One deadline per level, each off a slot boundary so it has to cascade through every level below
+        long[] deadlineTicks = {5, 64 + 3, 2 * 64 * 64 + 7, 64L * 64 * 64 + 5 * 64 + 9};
+        for (long tick : deadlineTicks) {
+            assertNotNull(wheel.add(tick, tick * TICK));
+        }
+
+        for (long tick : deadlineTicks) {
+            assertEquals(List.of(), items(wheel.advance((tick - 1) * TICK)), "fired early: " + tick);
+            assertEquals(List.of(tick), items(wheel.advance(tick * TICK)));
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void catchesUpOnMissedTicksInDeadlineOrder() {
+        TimingWheel<Long> wheel = new TimingWheel<>(TICK, 0);
+        Random random = new Random(42);
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            long tick = 1 + random.nextInt(3 * 64 * 64);
+            wheel.add(tick, tick * TICK);
+            expected.add(tick);
+        }
+        expected.sort(null);
+
+        // Nothing due yet, then one call that has to step through every missed tick
+        assertEquals(List.of(), items(wheel.advance(0)));
+        List<Long> fired = items(wheel.advance(3 * 64 * 64 * TICK));
+        assertEquals(expected, fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void partialCatchUpLeavesLaterTimeoutsPending() {
+        TimingWheel<Long> wheel = new TimingWheel<>(TICK, 0);
+        for (long tick = 1; tick <= 200; tick++) {
+            wheel.add(tick, tick * TICK);
+        }
+
+        assertEquals(100, wheel.advance(100 * TICK).size());
+        assertEquals(100, wheel.size());
+        List<Long> rest = items(wheel.advance(200 * TICK));
+        assertEquals(101L, rest.get(0));
+        assertEquals(200L, rest.get(rest.size() - 1));
+    }
+
+    @Test
+    void roundsDeadlinesUpSoNothingFiresEarly() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 0);
+        wheel.add("a", 15);
+
+        assertEquals(List.of(), items(wheel.advance(19)));
+        assertEquals(List.of("a"), items(wheel.advance(20)));
+    }
+
+    @Test
+    void refusesDeadlinesThatAreAlreadyDue() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 1_000);
+
+        assertNull(wheel.add("past", 500));
+        assertNull(wheel.add("now", 1_000));
+        assertNotNull(wheel.add("next", 1_001));
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    void cancelledTimeoutsDoNotFire() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 0);
+        TimingWheel.Timeout<String> near = wheel.add("near", 30);
+        TimingWheel.Timeout<String> far = wheel.add("far", 64 * 64 * TICK);
+        wheel.add("kept", 64 * 64 * TICK);
+
+        assertTrue(near.cancel());
+        assertTrue(far.cancel());
+        assertFalse(far.cancel());
+        assertEquals(1, wheel.size());
+        assertEquals(List.of("kept"), items(wheel.advance(64 * 64 * TICK)));
+    }
+
+    private static <T> List<T> items(List<TimingWheel.Timeout<T>> timeouts) {
+        List<T> items = new ArrayList<>(timeouts.size());
+        for (TimingWheel.Timeout<T> timeout : timeouts) {
+            items.add(timeout.item());
+        }
+        return items;
+    }
+}
@@ -1,27 +1,60 @@
 package com.userstream.reports;
 
+import com.userstream.common.ConcurrentIntObjectMap;
+import com.userstream.common.snapshot.SnapshotManager;
 import com.userstream.service.UserReport;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class InMemoryUserRepository implements ReportRepository{
 
-    private final ConcurrentHashMap<Integer, Report> reports = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<Integer, UserReport> userReports = new ConcurrentHashMap<>();
+    private final ConcurrentIntObjectMap<Report> reports = new ConcurrentIntObjectMap<>();
+    private final ConcurrentIntObjectMap<UserReport> userReports = new ConcurrentIntObjectMap<>();
+    private final SnapshotManager<Report> reportSnapshots;
+    private final SnapshotManager<UserReport> userReportSnapshots;
+
+    public InMemoryUserRepository() {
+        this(null, null);
+    }
+
+    /**
+     * Restores reports and user reports from their snapshots, where given, and journals every change.
+     */
+    public InMemoryUserRepository(SnapshotManager<Report> reportSnapshots,
+                                  SnapshotManager<UserReport> userReportSnapshots) {
+        this.reportSnapshots = reportSnapshots;
+        this.userReportSnapshots = userReportSnapshots;
+        if (reportSnapshots != null) {
+            reportSnapshots.restore(report -> reports.put(report.getId(), report), reports::remove);
+            reportSnapshots.scheduleSnapshots(reports::values);
+        }
+        if (userReportSnapshots != null) {
+            userReportSnapshots.restore(userReport -> userReports.put(userReport.getId(), userReport),
+                    userReports::remove);
+            userReportSnapshots.scheduleSnapshots(userReports::values);
+        }
+    }
 
     @Override
     public void save(Report report) {
-        reports.put(report.getId(), report);
-
+        // Journaled under the entry's lock so concurrent saves of one id are replayed in order
+        reports.compute(report.getId(), previous -> {
+            if (reportSnapshots != null) {
+                reportSnapshots.journalPut(report);
+            }
+            return report;
+        });
     }
 
     @Override
     public void saveUserReport(UserReport userReport) {
-        userReports.put(userReport.getId(), userReport);
-
+        userReports.compute(userReport.getId(), previous -> {
+            if (userReportSnapshots != null) {
+                userReportSnapshots.journalPut(userReport);
+            }
+            return userReport;
+        });
     }
 
     public Optional<Report> findById(int id) {
@@ -29,17 +62,22 @@ public class InMemoryUserRepository implements ReportRepository{
     }
 
     public List<Report> findAll() {
-        return new ArrayList<>(reports.values());
+        return reports.values();
     }
 
     @Override
     public List<UserReport> findAllUserReports() {
-        return new ArrayList<>(userReports.values());
+        return userReports.values();
     }
 
     @Override
     public void delete(int id) {
-        reports.remove(id);
+        reports.compute(id, previous -> {
+            if (previous != null && reportSnapshots != null) {
+                reportSnapshots.journalDelete(id);
+            }
+            return null;
+        });
 
     }
 
@@ -52,4 +90,16 @@ public class InMemoryUserRepository implements ReportRepository{
     public String generateUserReportCSV() {
         return "";
     }
+
+    /**
+     * Writes final snapshots, if snapshots are enabled.
+     */
+    public void close() {
+        if (reportSnapshots != null) {
+            reportSnapshots.close();
+        }
+        if (userReportSnapshots != null) {
+            userReportSnapshots.close();
+        }
+    }
 }
@@ -0,0 +1,43 @@
+package com.userstream.reports;
+
+import com.userstream.common.codec.Codecs;
+import com.userstream.common.codec.EntityCodec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public class ReportCodec implements EntityCodec<Report> {
+
+    private static final int VERSION = 1;
+
+    @Override
+    public int version() {
+        return VERSION;
+    }
+
+    @Override
+    public int idOf(Report report) {
+        return report.getId();
+    }
+
+    @Override
+    public void encode(Report report, DataOutput out) throws IOException {
+        out.writeInt(report.getId());
+        Codecs.writeString(out, report.getName());
+        Codecs.writeString(out, report.getFormat());
+        Codecs.writeString(out, report.getData());
+        out.writeLong(report.getCreatedAt());
+    }
+
+    @Override
+    public Report decode(DataInput in, int version) throws IOException {
+        Report report = new Report();
+        report.setId(in.readInt());
+        report.setName(Codecs.readString(in));
+        report.setFormat(Codecs.readString(in));
+        report.setData(Codecs.readString(in));
+        report.setCreatedAt(in.readLong());
+        return report;
+    }
+}
@@ -1,7 +1,9 @@
 package com.userstream.service;
 
+import com.userstream.common.snapshot.SnapshotManager;
 import com.userstream.reports.Report;
 import com.userstream.reports.InMemoryUserRepository;
+import com.userstream.reports.ReportCodec;
 import io.javalin.Javalin;
 
 import java.util.List;
@@ -18,6 +20,10 @@ public class ReportService {
     }
 
     public void start(int port) {
+        // -Dsnapshot.dir=... restores reports from the last snapshots and keeps them current
+        repository = new InMemoryUserRepository(
+                SnapshotManager.fromSystemProperties("reports", new ReportCodec()),
+                SnapshotManager.fromSystemProperties("user-reports", new UserReportCodec()));
         server = initHttpServer();
         server.start(port);
         System.out.println("ReportService started on port " + port);
@@ -28,6 +34,9 @@ public class ReportService {
             server.stop();
             System.out.println("ReportService stopped");
         }
+        if (repository != null) {
+            repository.close();
+        }
     }
 
     private Javalin initHttpServer() {
@@ -0,0 +1,43 @@
+package com.userstream.service;
+
+import com.userstream.common.codec.Codecs;
+import com.userstream.common.codec.EntityCodec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public class UserReportCodec implements EntityCodec<UserReport> {
+
+    private static final int VERSION = 1;
+
+    @Override
+    public int version() {
+        return VERSION;
+    }
+
+    @Override
+    public int idOf(UserReport userReport) {
+        return userReport.getId();
+    }
+
+    @Override
+    public void encode(UserReport userReport, DataOutput out) throws IOException {
+        out.writeInt(userReport.getId());
+        Codecs.writeString(out, userReport.getName());
+        Codecs.writeString(out, userReport.getSurname());
+        Codecs.writeString(out, userReport.getEmail());
+        Codecs.writeDateTime(out, userReport.getCreatedAt());
+    }
+
+    @Override
+    public UserReport decode(DataInput in, int version) throws IOException {
+        UserReport userReport = new UserReport();
+        userReport.setId(in.readInt());
+        userReport.setName(Codecs.readString(in));
+        userReport.setSurname(Codecs.readString(in));
+        userReport.setEmail(Codecs.readString(in));
+        userReport.setCreatedAt(Codecs.readDateTime(in));
+        return userReport;
+    }
+}
@@ -0,0 +1,46 @@
+package com.userstream.repository;
+
+/**
+ * Outcome of one item in a bulk write.
+ */
+public class BatchResult {
+    private final int index;
+    private final int id;
+    private final boolean success;
+    private final String error;
+
+    private BatchResult(int index, int id, boolean success, String error) {
+        this.index = index;
+        this.id = id;
+        this.success = success;
+        this.error = error;
+    }
+
+    public static BatchResult success(int index, int id) {
+        return new BatchResult(index, id, true, null);
+    }
+
+    public static BatchResult failure(int index, String error) {
+        return new BatchResult(index, 0, false, error);
+    }
+
+    public BatchResult withIndex(int newIndex) {
+        return new BatchResult(newIndex, id, success, error);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,306 @@
+package com.userstream.repository;
+
+import com.userstream.user.UserData;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Read-through / write-through cache in front of any {@link UserRepository}.
+ *
+ * <p>Lookups by id are served from a size-bounded, segmented LRU. When a segment is full a new
+ * entry is only admitted if it has been requested more often than the LRU victim (TinyLFU), so
+ * one-off reads cannot flush frequently used users. Entries expire after a fixed TTL and are
+ * invalidated or replaced on every save and delete.
+ *
+ * <p>Every cache write is checked against the segment version read before the delegate call it
+ * follows. If another write to the segment landed in between, the entry is dropped instead, so a
+ * save racing a delete never leaves the deleted user cached.
+ */
+public class CachingUserRepository implements UserRepository {
+
+    private static final int SEGMENTS = 16;
+
+    private final UserRepository delegate;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Segment[] segments;
+    private final FrequencySketch sketch;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public CachingUserRepository(UserRepository delegate, int maxEntries, Duration ttl) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.sketch = new FrequencySketch(maxEntries);
+
+        int segmentCount = Math.min(SEGMENTS, maxEntries);
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            int capacity = maxEntries / segmentCount + (i < maxEntries % segmentCount ? 1 : 0);
+            segments[i] = new Segment(capacity);
+        }
+    }
+
+    @Override
+    public Optional<UserData> findById(int id) {
+        sketch.increment(id);
+        Segment segment = segmentFor(id);
+
+        UserData cached = segment.get(id);
+        if (cached != null) {
+            hits.increment();
+            return Optional.of(cached);
+        }
+
+        misses.increment();
+        long version = segment.version;
+        Optional<UserData> loaded = delegate.findById(id);
+        loaded.ifPresent(user -> segment.admit(id, user, version));
+        return loaded;
+    }
+
+    /**
+     * Serves cached users directly and loads all misses from the delegate in a single call.
+     */
+    @Override
+    public List<UserData> findAllById(Collection<Integer> ids) {
+        Set<Integer> distinct = new LinkedHashSet<>(ids);
+        Map<Integer, UserData> resolved = new HashMap<>(distinct.size() * 2);
+        Map<Integer, Long> missVersions = new LinkedHashMap<>();
+        for (Integer id : distinct) {
+            sketch.increment(id);
+            Segment segment = segmentFor(id);
+            UserData cached = segment.get(id);
+            if (cached != null) {
+                hits.increment();
+                resolved.put(id, cached);
+            } else {
+                misses.increment();
+                missVersions.put(id, segment.version);
+            }
+        }
+
+        if (!missVersions.isEmpty()) {
+            for (UserData user : delegate.findAllById(missVersions.keySet())) {
+                resolved.put(user.getId(), user);
+                segmentFor(user.getId()).admit(user.getId(), user, missVersions.get(user.getId()));
+            }
+        }
+
+        List<UserData> found = new ArrayList<>(resolved.size());
+        for (Integer id : distinct) {
+            UserData user = resolved.get(id);
+            if (user != null) {
+                found.add(user);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public UserData save(UserData user) {
+        // A new user's id is only known afterwards, so there is no version to check it against;
+        // it is cached by its first read instead
+        long version = user.getId() > 0 ? segmentFor(user.getId()).version : -1;
+        UserData saved = delegate.save(user);
+        Segment segment = segmentFor(saved.getId());
+        if (user.getId() > 0 && saved.getId() == user.getId()) {
+            segment.put(saved.getId(), saved, version);
+        } else {
+            segment.invalidate(saved.getId());
+        }
+        return saved;
+    }
+
+    @Override
+    public List<BatchResult> saveAll(List<UserData> users) {
+        List<BatchResult> results = delegate.saveAll(users);
+        for (BatchResult result : results) {
+            if (result.isSuccess()) {
+                segmentFor(result.getId()).invalidate(result.getId());
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public boolean deleteById(int id) {
+        boolean deleted = delegate.deleteById(id);
+        segmentFor(id).invalidate(id);
+        return deleted;
+    }
+
+    @Override
+    public Optional<UserData> findByUsername(String username) {
+        return delegate.findByUsername(username);
+    }
+
+    @Override
+    public Optional<UserData> findByEmail(String email) {
+        return delegate.findByEmail(email);
+    }
+
+    @Override
+    public List<UserData> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public List<UserData> findPage(int afterId, int limit) {
+        return delegate.findPage(afterId, limit);
+    }
+
+    @Override
+    public void streamAll(Consumer<UserData> consumer) {
+        delegate.streamAll(consumer);
+    }
+
+    public CacheStats getStats() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), size, maxEntries);
+    }
+
+    private Segment segmentFor(int id) {
+        int hash = id * 0x9E3779B9;
+        return segments[Math.floorMod(hash ^ (hash >>> 16), segments.length)];
+    }
+
+    private final class Segment {
+        private final int capacity;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LinkedHashMap<Integer, Entry> entries;
+        // Bumped on every write so a slow read-through load cannot reinstate a stale user
+        private volatile long version;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.entries = new LinkedHashMap<>(capacity, 0.75f, true);
+        }
+
+        UserData get(int id) {
+            lock.lock();
+            try {
+                Entry entry = entries.get(id);
+                if (entry == null) {
+                    return null;
+                }
+                if (System.nanoTime() - entry.expiresAt > 0) {
+                    entries.remove(id);
+                    expirations.increment();
+                    return null;
+                }
+                return entry.user;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void admit(int id, UserData user, long expectedVersion) {
+            lock.lock();
+            try {
+                if (version != expectedVersion || entries.containsKey(id)) {
+                    return;
+                }
+                if (entries.size() >= capacity && !evictFor(id)) {
+                    return;
+                }
+                entries.put(id, new Entry(user, System.nanoTime() + ttlNanos));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Replaces the entry with a user just written, or drops it if another write got in since expectedVersion
+        void put(int id, UserData user, long expectedVersion) {
+            lock.lock();
+            try {
+                if (version++ != expectedVersion) {
+                    entries.remove(id);
+                    return;
+                }
+                if (!entries.containsKey(id) && entries.size() >= capacity && !evictFor(id)) {
+                    return;
+                }
+                entries.put(id, new Entry(user, System.nanoTime() + ttlNanos));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void invalidate(int id) {
+            lock.lock();
+            try {
+                version++;
+                entries.remove(id);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return entries.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Frees a slot for the candidate if it is more popular than the least recently used entry
+        private boolean evictFor(int candidate) {
+            Iterator<Map.Entry<Integer, Entry>> iterator = entries.entrySet().iterator();
+            if (!iterator.hasNext()) {
+                return true;
+            }
+            Map.Entry<Integer, Entry> victim = iterator.next();
+            if (System.nanoTime() - victim.getValue().expiresAt > 0) {
+                iterator.remove();
+                expirations.increment();
+                return true;
+            }
+            if (sketch.frequency(candidate) <= sketch.frequency(victim.getKey())) {
+                return false;
+            }
+            iterator.remove();
+            evictions.increment();
+            return true;
+        }
+    }
+
+    private record Entry(UserData user, long expiresAt) {
+    }
+
+    /**
+     * Point-in-time cache counters.
+     */
+    public record CacheStats(long hits, long misses, long evictions, long expirations, int size, int maxEntries) {
+
+        public double getHitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 0.0 : (double) hits / requests;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.userstream.repository;
+
+/**
+ * Approximate access-frequency counter (count-min sketch with 4-bit saturating counters).
+ * Counters are halved every {@code 10 * capacity} increments so old popularity fades out.
+ * Updates are deliberately unsynchronized: a lost increment only makes an estimate slightly low.
+ */
+class FrequencySketch {
+
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final byte[][] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int capacity) {
+        int width = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+        this.table = new byte[DEPTH][width];
+        this.mask = width - 1;
+        this.sampleSize = 10 * Math.max(capacity, 16);
+    }
+
+    void increment(int key) {
+        for (int row = 0; row < DEPTH; row++) {
+            int index = index(key, row);
+            if (table[row][index] < MAX_COUNT) {
+                table[row][index]++;
+            }
+        }
+        if (++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    int frequency(int key) {
+        int min = MAX_COUNT;
+        for (int row = 0; row < DEPTH; row++) {
+            min = Math.min(min, table[row][index(key, row)]);
+        }
+        return min;
+    }
+
+    private void reset() {
+        additions = 0;
+        for (byte[] row : table) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = (byte) (row[i] >>> 1);
+            }
+        }
+    }
+
+    private int index(int key, int row) {
+        int hash = key * SEEDS[row];
+        hash ^= hash >>> 16;
+        return hash & mask;
+    }
+}
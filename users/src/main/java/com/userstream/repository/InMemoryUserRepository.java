@@ -1,48 +1,248 @@
 package com.userstream.repository;
 
+import com.userstream.common.ConcurrentIntObjectMap;
+import com.userstream.common.snapshot.SnapshotManager;
 import com.userstream.user.UserData;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class InMemoryUserRepository implements UserRepository {
-    private final Map<Integer, UserData> users = new ConcurrentHashMap<>();
+    private static final int STREAM_CHUNK = 1024;
+
+    private final ConcurrentIntObjectMap<IndexedUser> users = new ConcurrentIntObjectMap<>();
+
+    // Secondary indexes: name/email -> ids of the users currently holding that value
+    private final Map<String, Set<Integer>> idsByName = new ConcurrentHashMap<>();
+    private final Map<String, Set<Integer>> idsByEmail = new ConcurrentHashMap<>();
+
+    // Ordered view of the ids for keyset pagination and id-ordered streaming. Written inside
+    // users.compute() and read without holding any map lock, so the lock order is always map -> ids
+    private final SortedIdSet sortedIds = new SortedIdSet();
+    private final ReadWriteLock sortedIdsLock = new ReentrantReadWriteLock();
+
+    private final SnapshotManager<UserData> snapshots;
+
+    public InMemoryUserRepository() {
+        this(null);
+    }
+
+    /**
+     * Restores the users saved by {@code snapshots}, if given, and journals every change to it.
+     */
+    public InMemoryUserRepository(SnapshotManager<UserData> snapshots) {
+        this.snapshots = snapshots;
+        if (snapshots != null) {
+            snapshots.restore(user -> store(user, false), id -> remove(id, false));
+            snapshots.scheduleSnapshots(this::snapshotUsers);
+        }
+    }
 
     @Override
     public UserData save(UserData user) {
-        users.put(user.getId(), user);
+        return store(user, snapshots != null);
+    }
+
+    private UserData store(UserData user, boolean journal) {
+        IndexedUser indexed = new IndexedUser(user, user.getName(), user.getEmail());
+
+        int id = user.getId();
+
+        // compute() serializes writers of the same id, so the old keys are unindexed exactly once
+        users.compute(id, previous -> {
+            if (previous != null) {
+                unindex(idsByName, previous.name(), id);
+                unindex(idsByEmail, previous.email(), id);
+            } else {
+                sortedIdsLock.writeLock().lock();
+                try {
+                    sortedIds.add(id);
+                } finally {
+                    sortedIdsLock.writeLock().unlock();
+                }
+            }
+            index(idsByName, indexed.name(), id);
+            index(idsByEmail, indexed.email(), id);
+            // Journaled under the same lock so concurrent saves of one id are replayed in order
+            if (journal) {
+                snapshots.journalPut(user);
+            }
+            return indexed;
+        });
         return user;
     }
 
+    @Override
+    public List<BatchResult> saveAll(List<UserData> users) {
+        // Each put must swap its index entries atomically, so the bulk path is a tight loop over save()
+        List<BatchResult> results = new ArrayList<>(users.size());
+        for (int i = 0; i < users.size(); i++) {
+            UserData user = users.get(i);
+            save(user);
+            results.add(BatchResult.success(i, user.getId()));
+        }
+        return results;
+    }
+
     @Override
     public Optional<UserData> findById(int id) {
-        return Optional.ofNullable(users.get(id));
+        IndexedUser indexed = users.get(id);
+        return indexed == null ? Optional.empty() : Optional.of(indexed.user());
+    }
+
+    @Override
+    public List<UserData> findAllById(Collection<Integer> ids) {
+        List<UserData> found = new ArrayList<>(ids.size());
+        for (Integer id : new LinkedHashSet<>(ids)) {
+            IndexedUser indexed = users.get(id);
+            if (indexed != null) {
+                found.add(indexed.user());
+            }
+        }
+        return found;
     }
 
     @Override
     public Optional<UserData> findByUsername(String username) {
-        return users.values().stream()
-                .filter(user -> username.equals(user.getName()))
-                .findFirst();
+        return lookup(idsByName, username, IndexedUser::name);
     }
 
     @Override
     public Optional<UserData> findByEmail(String email) {
-        return users.values().stream()
-                .filter(user -> email.equals(user.getEmail()))
-                .findFirst();
+        return lookup(idsByEmail, email, IndexedUser::email);
     }
 
     @Override
     public List<UserData> findAll() {
-        return new ArrayList<>(users.values());
+        List<UserData> result = new ArrayList<>(users.size());
+        users.forEach(indexed -> result.add(indexed.user()));
+        return result;
+    }
 
+    // Copied under the segment locks that store() journals under, see SnapshotManager
+    private List<UserData> snapshotUsers() {
+        List<IndexedUser> indexed = users.values();
+        List<UserData> result = new ArrayList<>(indexed.size());
+        for (IndexedUser user : indexed) {
+            result.add(user.user());
+        }
+        return result;
+    }
+
+    @Override
+    public List<UserData> findPage(int afterId, int limit) {
+        int[] ids = idsAfter(afterId, limit);
+        List<UserData> page = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            IndexedUser indexed = users.get(id);
+            if (indexed != null) {
+                page.add(indexed.user());
+            }
+        }
+        return page;
+    }
+
+    @Override
+    public void streamAll(Consumer<UserData> consumer) {
+        // Chunked so the consumer never runs while writers are locked out of sortedIds
+        int[] ids = idsAfter(Integer.MIN_VALUE, STREAM_CHUNK);
+        while (ids.length > 0) {
+            for (int id : ids) {
+                IndexedUser indexed = users.get(id);
+                if (indexed != null) {
+                    consumer.accept(indexed.user());
+                }
+            }
+            ids = ids.length < STREAM_CHUNK ? new int[0] : idsAfter(ids[ids.length - 1], STREAM_CHUNK);
+        }
+    }
+
+    private int[] idsAfter(int afterId, int limit) {
+        sortedIdsLock.readLock().lock();
+        try {
+            return sortedIds.after(afterId, limit);
+        } finally {
+            sortedIdsLock.readLock().unlock();
+        }
     }
 
     public boolean deleteById(int id) {
-        return users.remove(id) != null;
+        return remove(id, snapshots != null);
+    }
+
+    private boolean remove(int id, boolean journal) {
+        boolean[] removed = new boolean[1];
+        users.compute(id, previous -> {
+            if (previous != null) {
+                unindex(idsByName, previous.name(), id);
+                unindex(idsByEmail, previous.email(), id);
+                sortedIdsLock.writeLock().lock();
+                try {
+                    sortedIds.remove(id);
+                } finally {
+                    sortedIdsLock.writeLock().unlock();
+                }
+                removed[0] = true;
+                if (journal) {
+                    snapshots.journalDelete(id);
+                }
+            }
+            return null;
+        });
+        return removed[0];
+    }
+
+    private Optional<UserData> lookup(Map<String, Set<Integer>> index, String key,
+                                      Function<IndexedUser, String> indexedKey) {
+        if (key == null) {
+            return Optional.empty();
+        }
+        Set<Integer> ids = index.get(key);
+        if (ids == null) {
+            return Optional.empty();
+        }
+        for (Integer id : ids) {
+            IndexedUser indexed = users.get(id);
+            if (indexed != null && key.equals(indexedKey.apply(indexed))) {
+                return Optional.of(indexed.user());
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static void index(Map<String, Set<Integer>> index, String key, int id) {
+        if (key != null) {
+            index.compute(key, (k, ids) -> {
+                Set<Integer> result = ids != null ? ids : ConcurrentHashMap.<Integer>newKeySet();
+                result.add(id);
+                return result;
+            });
+        }
+    }
+
+    private static void unindex(Map<String, Set<Integer>> index, String key, int id) {
+        if (key != null) {
+            index.computeIfPresent(key, (k, ids) -> {
+                ids.remove(id);
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+
+    /**
+     * Stored user together with the keys it was indexed under, so an update can
+     * unindex the old values even when the caller mutated the same instance.
+     */
+    private record IndexedUser(UserData user, String name, String email) {
     }
 }
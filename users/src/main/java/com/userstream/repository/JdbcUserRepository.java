@@ -0,0 +1,485 @@
+package com.userstream.repository;
+
+import com.userstream.db.ConnectionPool;
+import com.userstream.db.GroupCommitWriter;
+import com.userstream.db.PooledConnection;
+import com.userstream.user.UserData;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * UserRepository backed by the SQLite {@code users} table.
+ * Every call borrows a connection from the pool and reuses that connection's cached statements.
+ * When a {@link GroupCommitWriter} is supplied, every save and delete, batches included, goes through
+ * it instead, so concurrent requests share one durable commit rather than contending for the write lock.
+ */
+public class JdbcUserRepository implements UserRepository {
+
+    private static final String INSERT_SQL = "INSERT INTO users (name, surname, email) VALUES (?, ?, ?)";
+    private static final String UPSERT_SQL = "INSERT OR REPLACE INTO users (id, name, surname, email) VALUES (?, ?, ?, ?)";
+    private static final String SELECT_BY_ID_SQL = "SELECT id, name, surname, email FROM users WHERE id = ?";
+    private static final String SELECT_BY_NAME_SQL = "SELECT id, name, surname, email FROM users WHERE name = ? LIMIT 1";
+    private static final String SELECT_BY_EMAIL_SQL = "SELECT id, name, surname, email FROM users WHERE email = ? LIMIT 1";
+    private static final String SELECT_ALL_SQL = "SELECT id, name, surname, email FROM users";
+    private static final String SELECT_PAGE_SQL = "SELECT id, name, surname, email FROM users WHERE id > ? ORDER BY id LIMIT ?";
+    private static final String SELECT_ALL_ORDERED_SQL = "SELECT id, name, surname, email FROM users ORDER BY id";
+    private static final String SELECT_BY_IDS_SQL = "SELECT id, name, surname, email FROM users WHERE id IN (";
+    private static final String DELETE_SQL = "DELETE FROM users WHERE id = ?";
+    private static final String LAST_INSERT_ID_SQL = "SELECT last_insert_rowid()";
+
+    private static final int BATCH_CHUNK_SIZE = 500;
+    private static final int STREAM_FETCH_SIZE = 1000;
+    // Well under SQLite's bound-parameter limit; also caps the number of IN-list shapes at 10
+    private static final int MAX_IN_LIST = 512;
+
+    private final ConnectionPool pool;
+    private final GroupCommitWriter writer;
+
+    public JdbcUserRepository(ConnectionPool pool) {
+        this(pool, null);
+    }
+
+    public JdbcUserRepository(ConnectionPool pool, GroupCommitWriter writer) {
+        this.pool = pool;
+        this.writer = writer;
+    }
+
+    @Override
+    public UserData save(UserData user) {
+        if (writer != null) {
+            // Only adopt the generated id once the group holding the insert has committed
+            user.setId(awaitWrite(writer.submit(connection -> write(connection, new UserData(
+                    user.getId(), user.getName(), user.getSurname(), user.getEmail()))),
+                    "save user " + user.getId()));
+            return user;
+        }
+        try (PooledConnection connection = pool.acquire()) {
+            if (user.getId() <= 0) {
+                insert(connection, user);
+            } else {
+                PreparedStatement statement = connection.prepare(UPSERT_SQL);
+                bindUpsert(statement, user);
+                statement.executeUpdate();
+            }
+            return user;
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to save user " + user.getId() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes users in chunks of {@value #BATCH_CHUNK_SIZE}, one transaction per chunk.
+     * Users with an id are upserted through addBatch/executeBatch; new users are inserted one by one
+     * inside the same transaction so each generated id can be read back.
+     * If a chunk fails it is rolled back and replayed row by row to isolate the failing items.
+     * With a writer, each chunk is one queued operation and shares its group's commit instead.
+     */
+    @Override
+    public List<BatchResult> saveAll(List<UserData> users) {
+        if (writer != null) {
+            return saveAllThroughWriter(users);
+        }
+        List<BatchResult> results = new ArrayList<>(users.size());
+        try (PooledConnection connection = pool.acquire()) {
+            for (int from = 0; from < users.size(); from += BATCH_CHUNK_SIZE) {
+                List<UserData> chunk = users.subList(from, Math.min(from + BATCH_CHUNK_SIZE, users.size()));
+                saveChunk(connection, chunk, from, results);
+            }
+        } catch (SQLException e) {
+            for (int i = results.size(); i < users.size(); i++) {
+                results.add(BatchResult.failure(i, e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Optional<UserData> findById(int id) {
+        return findOne(SELECT_BY_ID_SQL, id);
+    }
+
+    /**
+     * Runs one {@code IN}-list query per {@value #MAX_IN_LIST} ids. Each list is padded to a power of two
+     * by repeating its last id, so the connection's statement cache only ever sees a handful of shapes.
+     */
+    @Override
+    public List<UserData> findAllById(Collection<Integer> ids) {
+        List<Integer> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        Map<Integer, UserData> byId = new HashMap<>(distinct.size() * 2);
+        try (PooledConnection connection = pool.acquire()) {
+            for (int from = 0; from < distinct.size(); from += MAX_IN_LIST) {
+                List<Integer> chunk = distinct.subList(from, Math.min(from + MAX_IN_LIST, distinct.size()));
+                int slots = Math.max(Integer.highestOneBit(chunk.size() - 1) << 1, 1);
+
+                PreparedStatement statement = connection.prepare(inListSql(slots));
+                for (int i = 0; i < slots; i++) {
+                    statement.setInt(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+                }
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        UserData user = map(rs);
+                        byId.put(user.getId(), user);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to load users by id: " + e.getMessage(), e);
+        }
+
+        List<UserData> found = new ArrayList<>(byId.size());
+        for (Integer id : distinct) {
+            UserData user = byId.get(id);
+            if (user != null) {
+                found.add(user);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public Optional<UserData> findByUsername(String username) {
+        return findOne(SELECT_BY_NAME_SQL, username);
+    }
+
+    @Override
+    public Optional<UserData> findByEmail(String email) {
+        return findOne(SELECT_BY_EMAIL_SQL, email);
+    }
+
+    @Override
+    public List<UserData> findAll() {
+        try (PooledConnection connection = pool.acquire()) {
+            List<UserData> users = new ArrayList<>();
+            try (ResultSet rs = connection.prepare(SELECT_ALL_SQL).executeQuery()) {
+                while (rs.next()) {
+                    users.add(map(rs));
+                }
+            }
+            return users;
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to load users: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<UserData> findPage(int afterId, int limit) {
+        try (PooledConnection connection = pool.acquire()) {
+            PreparedStatement statement = connection.prepare(SELECT_PAGE_SQL);
+            statement.setInt(1, afterId);
+            statement.setInt(2, limit);
+
+            List<UserData> users = new ArrayList<>(limit);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    users.add(map(rs));
+                }
+            }
+            return users;
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to load users after " + afterId + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void streamAll(Consumer<UserData> consumer) {
+        try (PooledConnection connection = pool.acquire()) {
+            PreparedStatement statement = connection.prepare(SELECT_ALL_ORDERED_SQL);
+            statement.setFetchSize(STREAM_FETCH_SIZE);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(map(rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to stream users: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean deleteById(int id) {
+        if (writer != null) {
+            return awaitWrite(writer.submit(connection -> delete(connection, id)), "delete user " + id);
+        }
+        try (PooledConnection connection = pool.acquire()) {
+            return delete(connection, id);
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to delete user " + id + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Queues every chunk before waiting on any, so a large batch fills whole groups
+    private List<BatchResult> saveAllThroughWriter(List<UserData> users) {
+        List<CompletableFuture<List<BatchResult>>> chunks = new ArrayList<>();
+        RuntimeException rejected = null;
+        for (int from = 0; from < users.size() && rejected == null; from += BATCH_CHUNK_SIZE) {
+            // The writer works on copies, so ids are only adopted once the group holding them has committed
+            List<UserData> copies = new ArrayList<>();
+            for (UserData user : users.subList(from, Math.min(from + BATCH_CHUNK_SIZE, users.size()))) {
+                copies.add(new UserData(user.getId(), user.getName(), user.getSurname(), user.getEmail()));
+            }
+            int offset = from;
+            try {
+                chunks.add(writer.submit(connection -> writeChunkIsolated(connection, copies, offset)));
+            } catch (RuntimeException e) {
+                rejected = e;
+            }
+        }
+
+        List<BatchResult> results = new ArrayList<>(users.size());
+        for (CompletableFuture<List<BatchResult>> chunk : chunks) {
+            int offset = results.size();
+            try {
+                for (BatchResult result : chunk.join()) {
+                    if (result.isSuccess()) {
+                        users.get(result.getIndex()).setId(result.getId());
+                    }
+                    results.add(result);
+                }
+            } catch (CompletionException e) {
+                for (int i = offset; i < Math.min(offset + BATCH_CHUNK_SIZE, users.size()); i++) {
+                    results.add(BatchResult.failure(i, e.getCause().getMessage()));
+                }
+            }
+        }
+        for (int i = results.size(); i < users.size(); i++) {
+            results.add(BatchResult.failure(i, rejected.getMessage()));
+        }
+        return results;
+    }
+
+    // Runs inside the writer's transaction: the chunk in one go, or row by row under savepoints if that fails
+    private static List<BatchResult> writeChunkIsolated(PooledConnection connection, List<UserData> chunk,
+                                                        int offset) throws SQLException {
+        Connection jdbc = connection.getConnection();
+        List<BatchResult> results = new ArrayList<>(chunk.size());
+        int[] originalIds = new int[chunk.size()];
+        for (int i = 0; i < chunk.size(); i++) {
+            originalIds[i] = chunk.get(i).getId();
+        }
+
+        Savepoint whole = jdbc.setSavepoint();
+        try {
+            writeChunk(connection, chunk);
+            jdbc.releaseSavepoint(whole);
+            for (int i = 0; i < chunk.size(); i++) {
+                results.add(BatchResult.success(offset + i, chunk.get(i).getId()));
+            }
+            return results;
+        } catch (SQLException e) {
+            jdbc.rollback(whole);
+            restoreIds(chunk, originalIds);
+        }
+        for (int i = 0; i < chunk.size(); i++) {
+            UserData user = chunk.get(i);
+            Savepoint savepoint = jdbc.setSavepoint();
+            try {
+                write(connection, user);
+                jdbc.releaseSavepoint(savepoint);
+                results.add(BatchResult.success(offset + i, user.getId()));
+            } catch (SQLException e) {
+                jdbc.rollback(savepoint);
+                user.setId(originalIds[i]);
+                results.add(BatchResult.failure(offset + i, e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    private void saveChunk(PooledConnection connection, List<UserData> chunk, int offset,
+                           List<BatchResult> results) throws SQLException {
+        Connection jdbc = connection.getConnection();
+        int[] originalIds = new int[chunk.size()];
+        for (int i = 0; i < chunk.size(); i++) {
+            originalIds[i] = chunk.get(i).getId();
+        }
+
+        jdbc.setAutoCommit(false);
+        try {
+            try {
+                writeChunk(connection, chunk);
+                jdbc.commit();
+                for (int i = 0; i < chunk.size(); i++) {
+                    results.add(BatchResult.success(offset + i, chunk.get(i).getId()));
+                }
+            } catch (SQLException e) {
+                jdbc.rollback();
+                restoreIds(chunk, originalIds);
+                saveChunkRowByRow(connection, chunk, offset, results);
+            }
+        } finally {
+            jdbc.setAutoCommit(true);
+        }
+    }
+
+    // New users go in one insert batch ahead of the upserts; their ids are assigned only once it succeeded
+    private static void writeChunk(PooledConnection connection, List<UserData> chunk) throws SQLException {
+        PreparedStatement insert = connection.prepare(INSERT_SQL);
+        PreparedStatement upsert = connection.prepare(UPSERT_SQL);
+        List<UserData> inserted = new ArrayList<>();
+        try {
+            for (UserData user : chunk) {
+                if (user.getId() <= 0) {
+                    bindInsert(insert, user);
+                    insert.addBatch();
+                    inserted.add(user);
+                } else {
+                    bindUpsert(upsert, user);
+                    upsert.addBatch();
+                }
+            }
+            if (!inserted.isEmpty()) {
+                insert.executeBatch();
+                assignInsertedIds(connection, inserted);
+            }
+            upsert.executeBatch();
+        } catch (SQLException e) {
+            // The statements are cached, so never leave queued rows behind for the next caller
+            insert.clearBatch();
+            upsert.clearBatch();
+            throw e;
+        }
+    }
+
+    // AUTOINCREMENT gives rows inserted back to back inside one transaction consecutive ids, so the
+    // batch's ids are the ones ending at the connection's last inserted id
+    private static void assignInsertedIds(PooledConnection connection, List<UserData> inserted) throws SQLException {
+        long last;
+        try (ResultSet rs = connection.prepare(LAST_INSERT_ID_SQL).executeQuery()) {
+            if (!rs.next()) {
+                throw new SQLException("No id for the inserted users");
+            }
+            last = rs.getLong(1);
+        }
+        long first = last - inserted.size() + 1;
+        for (int i = 0; i < inserted.size(); i++) {
+            inserted.get(i).setId(Math.toIntExact(first + i));
+        }
+    }
+
+    private void saveChunkRowByRow(PooledConnection connection, List<UserData> chunk, int offset,
+                                   List<BatchResult> results) throws SQLException {
+        Connection jdbc = connection.getConnection();
+        for (int i = 0; i < chunk.size(); i++) {
+            UserData user = chunk.get(i);
+            int originalId = user.getId();
+            Savepoint savepoint = jdbc.setSavepoint();
+            try {
+                if (user.getId() <= 0) {
+                    insert(connection, user);
+                } else {
+                    PreparedStatement upsert = connection.prepare(UPSERT_SQL);
+                    bindUpsert(upsert, user);
+                    upsert.executeUpdate();
+                }
+                jdbc.releaseSavepoint(savepoint);
+                results.add(BatchResult.success(offset + i, user.getId()));
+            } catch (SQLException e) {
+                jdbc.rollback(savepoint);
+                user.setId(originalId);
+                results.add(BatchResult.failure(offset + i, e.getMessage()));
+            }
+        }
+        jdbc.commit();
+    }
+
+    private static int write(PooledConnection connection, UserData user) throws SQLException {
+        if (user.getId() <= 0) {
+            insert(connection, user);
+        } else {
+            PreparedStatement statement = connection.prepare(UPSERT_SQL);
+            bindUpsert(statement, user);
+            statement.executeUpdate();
+        }
+        return user.getId();
+    }
+
+    private static boolean delete(PooledConnection connection, int id) throws SQLException {
+        PreparedStatement statement = connection.prepare(DELETE_SQL);
+        statement.setInt(1, id);
+        return statement.executeUpdate() > 0;
+    }
+
+    private static <T> T awaitWrite(CompletableFuture<T> future, String action) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            throw new RuntimeException("Failed to " + action + ": " + cause.getMessage(), cause);
+        }
+    }
+
+    private static void insert(PooledConnection connection, UserData user) throws SQLException {
+        PreparedStatement statement = connection.prepare(INSERT_SQL, Statement.RETURN_GENERATED_KEYS);
+        bindInsert(statement, user);
+        statement.executeUpdate();
+
+        try (ResultSet keys = statement.getGeneratedKeys()) {
+            if (keys.next()) {
+                user.setId(keys.getInt(1));
+            }
+        }
+    }
+
+    private static void bindInsert(PreparedStatement statement, UserData user) throws SQLException {
+        statement.setString(1, user.getName());
+        statement.setString(2, user.getSurname());
+        statement.setString(3, user.getEmail());
+    }
+
+    private static void bindUpsert(PreparedStatement statement, UserData user) throws SQLException {
+        statement.setInt(1, user.getId());
+        statement.setString(2, user.getName());
+        statement.setString(3, user.getSurname());
+        statement.setString(4, user.getEmail());
+    }
+
+    private static void restoreIds(List<UserData> chunk, int[] originalIds) {
+        for (int i = 0; i < chunk.size(); i++) {
+            chunk.get(i).setId(originalIds[i]);
+        }
+    }
+
+    private static String inListSql(int slots) {
+        StringBuilder sql = new StringBuilder(SELECT_BY_IDS_SQL.length() + slots * 2 + 1).append(SELECT_BY_IDS_SQL);
+        for (int i = 0; i < slots; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        return sql.append(')').toString();
+    }
+
+    private Optional<UserData> findOne(String sql, Object parameter) {
+        try (PooledConnection connection = pool.acquire()) {
+            PreparedStatement statement = connection.prepare(sql);
+            statement.setObject(1, parameter);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? Optional.of(map(rs)) : Optional.empty();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to query users: " + e.getMessage(), e);
+        }
+    }
+
+    private static UserData map(ResultSet rs) throws SQLException {
+        return new UserData(
+                rs.getInt("id"),
+                rs.getString("name"),
+                rs.getString("surname"),
+                rs.getString("email")
+        );
+    }
+}
@@ -0,0 +1,510 @@
+package com.userstream.repository;
+
+import com.userstream.common.IntLongMap;
+import com.userstream.user.UserData;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * UserRepository that keeps users outside the Java heap in columnar direct buffers.
+ *
+ * <p>Rows are grouped into chunks of {@value #CHUNK_ROWS}. Each chunk stores ids as ints,
+ * timestamps as epoch-millis longs, {@code active} as a bitset and every string as a packed
+ * reference into append-only UTF-8 slabs. A {@link UserData} is only materialized when a user
+ * is read, so the heap holds a few arrays per chunk instead of several objects per user.
+ *
+ * <p>Timestamps are stored at millisecond precision in UTC. Name and email lookups hash the
+ * UTF-8 bytes to the head of a chain of rows, linked through two more int columns, and compare the
+ * encoded bytes along it without materializing rows. Pages come from a {@link SortedIdSet}, so
+ * they cost the page rather than a sort of every id. String bytes freed by updates and deletes are
+ * not compacted; {@link #getGarbageBytes()} reports how much slab space they hold.
+ */
+public class OffHeapUserRepository implements UserRepository {
+
+    private static final int CHUNK_ROWS = 1 << 16;
+    private static final int SLAB_BYTES = 1 << 24;
+    private static final long NULL_REF = -1L;
+    private static final long NULL_TIME = Long.MIN_VALUE;
+    private static final int NO_ROW = -1;
+
+    // Column offsets inside a chunk buffer; every column is CHUNK_ROWS wide
+    private static final int ID_COLUMN = 0;
+    private static final int CREATED_COLUMN = ID_COLUMN + 4 * CHUNK_ROWS;
+    private static final int UPDATED_COLUMN = CREATED_COLUMN + 8 * CHUNK_ROWS;
+    private static final int NAME_COLUMN = UPDATED_COLUMN + 8 * CHUNK_ROWS;
+    private static final int SURNAME_COLUMN = NAME_COLUMN + 8 * CHUNK_ROWS;
+    private static final int EMAIL_COLUMN = SURNAME_COLUMN + 8 * CHUNK_ROWS;
+    private static final int NAME_NEXT_COLUMN = EMAIL_COLUMN + 8 * CHUNK_ROWS;
+    private static final int EMAIL_NEXT_COLUMN = NAME_NEXT_COLUMN + 4 * CHUNK_ROWS;
+    private static final int CHUNK_BYTES = EMAIL_NEXT_COLUMN + 4 * CHUNK_ROWS;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Chunk> chunks = new ArrayList<>();
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private final IntLongMap rowsById = new IntLongMap();
+    private final SortedIdSet ids = new SortedIdSet();
+    // Hash of a name or email to the newest row in its chain; NO_ROW ends a chain
+    private final IntLongMap nameChains = new IntLongMap();
+    private final IntLongMap emailChains = new IntLongMap();
+
+    private int[] freeRows = new int[16];
+    private int freeCount;
+    private int nextRow;
+    private long garbageBytes;
+
+    @Override
+    public UserData save(UserData user) {
+        lock.writeLock().lock();
+        try {
+            write(user);
+            return user;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<BatchResult> saveAll(List<UserData> users) {
+        List<BatchResult> results = new ArrayList<>(users.size());
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < users.size(); i++) {
+                UserData user = users.get(i);
+                try {
+                    write(user);
+                    results.add(BatchResult.success(i, user.getId()));
+                } catch (IllegalArgumentException e) {
+                    results.add(BatchResult.failure(i, e.getMessage()));
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return results;
+    }
+
+    @Override
+    public Optional<UserData> findById(int id) {
+        lock.readLock().lock();
+        try {
+            int row = (int) rowsById.get(id);
+            return row < 0 ? Optional.empty() : Optional.of(materialize(row));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<UserData> findAllById(Collection<Integer> ids) {
+        List<UserData> found = new ArrayList<>(ids.size());
+        lock.readLock().lock();
+        try {
+            for (Integer id : new LinkedHashSet<>(ids)) {
+                int row = (int) rowsById.get(id);
+                if (row >= 0) {
+                    found.add(materialize(row));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return found;
+    }
+
+    @Override
+    public Optional<UserData> findByUsername(String username) {
+        return findByString(nameChains, NAME_COLUMN, NAME_NEXT_COLUMN, username);
+    }
+
+    @Override
+    public Optional<UserData> findByEmail(String email) {
+        return findByString(emailChains, EMAIL_COLUMN, EMAIL_NEXT_COLUMN, email);
+    }
+
+    @Override
+    public List<UserData> findAll() {
+        lock.readLock().lock();
+        try {
+            List<UserData> users = new ArrayList<>(rowsById.size());
+            for (int row = 0; row < nextRow; row++) {
+                if (isLive(row)) {
+                    users.add(materialize(row));
+                }
+            }
+            return users;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<UserData> findPage(int afterId, int limit) {
+        lock.readLock().lock();
+        try {
+            int[] pageIds = ids.after(afterId, limit);
+            List<UserData> page = new ArrayList<>(pageIds.length);
+            for (int id : pageIds) {
+                page.add(materialize((int) rowsById.get(id)));
+            }
+            return page;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void streamAll(Consumer<UserData> consumer) {
+        int[] all;
+        lock.readLock().lock();
+        try {
+            all = ids.after(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        } finally {
+            lock.readLock().unlock();
+        }
+        // Materialize one user at a time so writers are not blocked for the whole stream
+        for (int id : all) {
+            findById(id).ifPresent(consumer);
+        }
+    }
+
+    @Override
+    public boolean deleteById(int id) {
+        lock.writeLock().lock();
+        try {
+            int row = (int) rowsById.remove(id);
+            if (row < 0) {
+                return false;
+            }
+            unlink(nameChains, NAME_COLUMN, NAME_NEXT_COLUMN, row);
+            unlink(emailChains, EMAIL_COLUMN, EMAIL_NEXT_COLUMN, row);
+            ids.remove(id);
+            Chunk chunk = chunkOf(row);
+            int slot = slotOf(row);
+            garbageBytes += length(chunk.buffer.getLong(NAME_COLUMN + 8 * slot))
+                    + length(chunk.buffer.getLong(SURNAME_COLUMN + 8 * slot))
+                    + length(chunk.buffer.getLong(EMAIL_COLUMN + 8 * slot));
+            chunk.live[slot >>> 6] &= ~(1L << slot);
+            pushFreeRow(row);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rowsById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Direct memory held by column chunks and string slabs.
+     */
+    public long getOffHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) chunks.size() * CHUNK_BYTES + (long) slabs.size() * SLAB_BYTES;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Slab bytes still occupied by strings of deleted or overwritten users.
+     */
+    public long getGarbageBytes() {
+        lock.readLock().lock();
+        try {
+            return garbageBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void write(UserData user) {
+        // Encoded and checked up front, so an oversized string throws before any row is touched
+        byte[] name = encode(user.getName());
+        byte[] surname = encode(user.getSurname());
+        byte[] email = encode(user.getEmail());
+
+        int row = (int) rowsById.get(user.getId());
+        boolean existing = row >= 0;
+        if (existing) {
+            unlink(nameChains, NAME_COLUMN, NAME_NEXT_COLUMN, row);
+            unlink(emailChains, EMAIL_COLUMN, EMAIL_NEXT_COLUMN, row);
+        } else {
+            row = allocateRow();
+        }
+
+        Chunk chunk = chunkOf(row);
+        int slot = slotOf(row);
+        ByteBuffer buffer = chunk.buffer;
+        buffer.putInt(ID_COLUMN + 4 * slot, user.getId());
+        buffer.putLong(CREATED_COLUMN + 8 * slot, toMillis(user.getCreatedAt()));
+        buffer.putLong(UPDATED_COLUMN + 8 * slot, toMillis(user.getUpdatedAt()));
+        writeString(buffer, NAME_COLUMN + 8 * slot, name, existing);
+        writeString(buffer, SURNAME_COLUMN + 8 * slot, surname, existing);
+        writeString(buffer, EMAIL_COLUMN + 8 * slot, email, existing);
+        link(nameChains, NAME_COLUMN, NAME_NEXT_COLUMN, row);
+        link(emailChains, EMAIL_COLUMN, EMAIL_NEXT_COLUMN, row);
+
+        if (user.isActive()) {
+            chunk.active[slot >>> 6] |= 1L << slot;
+        } else {
+            chunk.active[slot >>> 6] &= ~(1L << slot);
+        }
+        chunk.live[slot >>> 6] |= 1L << slot;
+
+        if (!existing) {
+            rowsById.put(user.getId(), row);
+            ids.add(user.getId());
+        }
+    }
+
+    private UserData materialize(int row) {
+        Chunk chunk = chunkOf(row);
+        int slot = slotOf(row);
+        ByteBuffer buffer = chunk.buffer;
+
+        UserData user = new UserData();
+        user.setId(buffer.getInt(ID_COLUMN + 4 * slot));
+        user.setName(readString(buffer.getLong(NAME_COLUMN + 8 * slot)));
+        user.setSurname(readString(buffer.getLong(SURNAME_COLUMN + 8 * slot)));
+        user.setEmail(readString(buffer.getLong(EMAIL_COLUMN + 8 * slot)));
+        user.setCreatedAt(fromMillis(buffer.getLong(CREATED_COLUMN + 8 * slot)));
+        user.setUpdatedAt(fromMillis(buffer.getLong(UPDATED_COLUMN + 8 * slot)));
+        user.setActive((chunk.active[slot >>> 6] & (1L << slot)) != 0);
+        return user;
+    }
+
+    private Optional<UserData> findByString(IntLongMap chains, int column, int nextColumn, String value) {
+        if (value == null) {
+            return Optional.empty();
+        }
+        byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+
+        lock.readLock().lock();
+        try {
+            for (int row = (int) chains.get(hash(expected)); row != NO_ROW; row = next(nextColumn, row)) {
+                if (matches(chunkOf(row).buffer.getLong(column + 8 * slotOf(row)), expected)) {
+                    return Optional.of(materialize(row));
+                }
+            }
+            return Optional.empty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // --- hash chains over a string column, newest row first
+
+    private void link(IntLongMap chains, int column, int nextColumn, int row) {
+        long ref = chunkOf(row).buffer.getLong(column + 8 * slotOf(row));
+        if (ref == NULL_REF) {
+            setNext(nextColumn, row, NO_ROW);
+            return;
+        }
+        // IntLongMap.MISSING is NO_ROW, so the first row of a chain ends it
+        setNext(nextColumn, row, (int) chains.put(hash(ref), row));
+    }
+
+    private void unlink(IntLongMap chains, int column, int nextColumn, int row) {
+        long ref = chunkOf(row).buffer.getLong(column + 8 * slotOf(row));
+        if (ref == NULL_REF) {
+            return;
+        }
+        int hash = hash(ref);
+        int next = next(nextColumn, row);
+        int current = (int) chains.get(hash);
+        if (current == row) {
+            if (next == NO_ROW) {
+                chains.remove(hash);
+            } else {
+                chains.put(hash, next);
+            }
+            return;
+        }
+        while (current != NO_ROW) {
+            int after = next(nextColumn, current);
+            if (after == row) {
+                setNext(nextColumn, current, next);
+                return;
+            }
+            current = after;
+        }
+    }
+
+    private int next(int nextColumn, int row) {
+        return chunkOf(row).buffer.getInt(nextColumn + 4 * slotOf(row));
+    }
+
+    private void setNext(int nextColumn, int row, int next) {
+        chunkOf(row).buffer.putInt(nextColumn + 4 * slotOf(row), next);
+    }
+
+    // 32-bit FNV-1a over the UTF-8 bytes, the same whether they sit in a slab or an array
+    private int hash(long ref) {
+        ByteBuffer slab = slabs.get(slabIndex(ref));
+        int offset = offset(ref);
+        int h = 0x811c9dc5;
+        for (int i = 0; i < length(ref); i++) {
+            h = (h ^ (slab.get(offset + i) & 0xFF)) * 0x01000193;
+        }
+        return h;
+    }
+
+    private static int hash(byte[] bytes) {
+        int h = 0x811c9dc5;
+        for (byte b : bytes) {
+            h = (h ^ (b & 0xFF)) * 0x01000193;
+        }
+        return h;
+    }
+
+    // --- string slabs: a reference packs slab index (16 bits), offset (24 bits) and length (24 bits)
+
+    private static byte[] encode(String value) {
+        if (value == null) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length >= SLAB_BYTES) {
+            throw new IllegalArgumentException("String too large for off-heap storage: " + bytes.length + " bytes");
+        }
+        return bytes;
+    }
+
+    private void writeString(ByteBuffer buffer, int position, byte[] bytes, boolean existing) {
+        long oldRef = existing ? buffer.getLong(position) : NULL_REF;
+        if (bytes == null) {
+            garbageBytes += length(oldRef);
+            buffer.putLong(position, NULL_REF);
+            return;
+        }
+
+        // Overwrite in place when the new value fits in the old one's bytes
+        if (oldRef != NULL_REF && bytes.length <= length(oldRef)) {
+            ByteBuffer slab = slabs.get(slabIndex(oldRef));
+            slab.put(offset(oldRef), bytes);
+            garbageBytes += length(oldRef) - bytes.length;
+            buffer.putLong(position, ref(slabIndex(oldRef), offset(oldRef), bytes.length));
+            return;
+        }
+
+        garbageBytes += length(oldRef);
+        buffer.putLong(position, append(bytes));
+    }
+
+    private long append(byte[] bytes) {
+        ByteBuffer slab = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+        if (slab == null || slab.remaining() < bytes.length) {
+            slab = ByteBuffer.allocateDirect(SLAB_BYTES);
+            slabs.add(slab);
+        }
+        int offset = slab.position();
+        slab.put(bytes);
+        return ref(slabs.size() - 1, offset, bytes.length);
+    }
+
+    private String readString(long ref) {
+        if (ref == NULL_REF) {
+            return null;
+        }
+        byte[] bytes = new byte[length(ref)];
+        slabs.get(slabIndex(ref)).get(offset(ref), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean matches(long ref, byte[] expected) {
+        if (ref == NULL_REF || length(ref) != expected.length) {
+            return false;
+        }
+        ByteBuffer slab = slabs.get(slabIndex(ref));
+        int offset = offset(ref);
+        for (int i = 0; i < expected.length; i++) {
+            if (slab.get(offset + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long ref(int slab, int offset, int length) {
+        return ((long) slab << 48) | ((long) offset << 24) | length;
+    }
+
+    private static int slabIndex(long ref) {
+        return (int) (ref >>> 48);
+    }
+
+    private static int offset(long ref) {
+        return (int) ((ref >>> 24) & 0xFFFFFF);
+    }
+
+    private static int length(long ref) {
+        return ref == NULL_REF ? 0 : (int) (ref & 0xFFFFFF);
+    }
+
+    // --- rows
+
+    private int allocateRow() {
+        if (freeCount > 0) {
+            return freeRows[--freeCount];
+        }
+        int row = nextRow++;
+        if (slotOf(row) == 0) {
+            chunks.add(new Chunk());
+        }
+        return row;
+    }
+
+    private void pushFreeRow(int row) {
+        if (freeCount == freeRows.length) {
+            freeRows = Arrays.copyOf(freeRows, freeCount * 2);
+        }
+        freeRows[freeCount++] = row;
+    }
+
+    private boolean isLive(int row) {
+        int slot = slotOf(row);
+        return (chunkOf(row).live[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    private Chunk chunkOf(int row) {
+        return chunks.get(row / CHUNK_ROWS);
+    }
+
+    private static int slotOf(int row) {
+        return row % CHUNK_ROWS;
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time == null ? NULL_TIME : time.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static LocalDateTime fromMillis(long millis) {
+        return millis == NULL_TIME ? null : LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+    }
+
+    private static final class Chunk {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_BYTES);
+        final long[] active = new long[CHUNK_ROWS / 64];
+        final long[] live = new long[CHUNK_ROWS / 64];
+    }
+}
@@ -0,0 +1,151 @@
+package com.userstream.repository;
+
+import com.userstream.user.UserData;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Decorator that keeps a {@link UserSearchIndex} in step with every write to the wrapped repository.
+ * The index is built from the delegate's current contents on construction.
+ *
+ * <p>Every index update is checked against the stripe version read before the delegate call it
+ * follows, as the caching decorator does. If another write to the stripe was applied in between,
+ * the two writes may have reached the delegate in either order, so the user is read back from the
+ * delegate under the stripe lock instead. A save racing a delete therefore never leaves a stored
+ * user unsearchable or a deleted one indexed.
+ */
+public class SearchableUserRepository implements UserRepository {
+
+    private static final int STRIPES = 64;
+
+    private final UserRepository delegate;
+    private final UserSearchIndex index = new UserSearchIndex();
+    private final Object[] locks = new Object[STRIPES];
+    // Bumped under the stripe's lock by every index update
+    private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+    // Index updates across all stripes, for new users whose stripe is unknown until the delegate assigns an id
+    private final AtomicLong updates = new AtomicLong();
+
+    public SearchableUserRepository(UserRepository delegate) {
+        this.delegate = delegate;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        delegate.streamAll(index::add);
+    }
+
+    /**
+     * Top {@code limit} users whose name, surname or email match {@code query} by token, prefix or substring.
+     */
+    public List<UserData> search(String query, int limit) {
+        return delegate.findAllById(index.search(query, limit));
+    }
+
+    public int getIndexedUsers() {
+        return index.size();
+    }
+
+    @Override
+    public UserData save(UserData user) {
+        long version = user.getId() > 0 ? versions.get(stripeFor(user.getId())) : -1;
+        long updatesBefore = updates.get();
+        UserData saved = delegate.save(user);
+        update(saved.getId(), saved, saved.getId() == user.getId() ? version : -1, updatesBefore);
+        return saved;
+    }
+
+    @Override
+    public List<BatchResult> saveAll(List<UserData> users) {
+        long[] userVersions = new long[users.size()];
+        for (int i = 0; i < users.size(); i++) {
+            int id = users.get(i).getId();
+            userVersions[i] = id > 0 ? versions.get(stripeFor(id)) : -1;
+        }
+        long updatesBefore = updates.get();
+        List<BatchResult> results = delegate.saveAll(users);
+        // This batch's own earlier updates are expected; any other one means a possible race
+        long[] ownByStripe = new long[STRIPES];
+        long own = 0;
+        for (BatchResult result : results) {
+            if (result.isSuccess()) {
+                UserData saved = users.get(result.getIndex());
+                int stripe = stripeFor(saved.getId());
+                long version = userVersions[result.getIndex()];
+                update(saved.getId(), saved, version < 0 ? -1 : version + ownByStripe[stripe], updatesBefore + own);
+                ownByStripe[stripe]++;
+                own++;
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public boolean deleteById(int id) {
+        long version = versions.get(stripeFor(id));
+        boolean deleted = delegate.deleteById(id);
+        update(id, null, version, -1);
+        return deleted;
+    }
+
+    @Override
+    public Optional<UserData> findById(int id) {
+        return delegate.findById(id);
+    }
+
+    @Override
+    public List<UserData> findAllById(Collection<Integer> ids) {
+        return delegate.findAllById(ids);
+    }
+
+    @Override
+    public Optional<UserData> findByUsername(String username) {
+        return delegate.findByUsername(username);
+    }
+
+    @Override
+    public Optional<UserData> findByEmail(String email) {
+        return delegate.findByEmail(email);
+    }
+
+    @Override
+    public List<UserData> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public List<UserData> findPage(int afterId, int limit) {
+        return delegate.findPage(afterId, limit);
+    }
+
+    @Override
+    public void streamAll(Consumer<UserData> consumer) {
+        delegate.streamAll(consumer);
+    }
+
+    // Indexes written (null for a delete) if no other update to id's stripe, or to any stripe when
+    // version is -1, was applied since the caller's read; otherwise indexes what the delegate now holds
+    private void update(int id, UserData written, long version, long updatesBefore) {
+        int stripe = stripeFor(id);
+        synchronized (locks[stripe]) {
+            boolean raced = version >= 0 ? versions.get(stripe) != version : updates.get() != updatesBefore;
+            UserData current = raced ? delegate.findById(id).orElse(null) : written;
+            if (current != null) {
+                index.add(current);
+            } else {
+                index.remove(id);
+            }
+            versions.incrementAndGet(stripe);
+            updates.incrementAndGet();
+        }
+    }
+
+    private static int stripeFor(int id) {
+        int hash = id * 0x9E3779B9;
+        return Math.floorMod(hash ^ (hash >>> 16), STRIPES);
+    }
+}
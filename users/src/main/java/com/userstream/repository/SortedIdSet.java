@@ -0,0 +1,128 @@
+package com.userstream.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sorted set of {@code int} ids kept as a list of sorted blocks of at most {@value #BLOCK_SIZE} ids.
+ *
+ * <p>An insert or delete binary-searches for its block and shifts at most one block, so it costs
+ * O(log n + block size) even for ids that arrive out of order, and appending a new highest id,
+ * the usual case, touches only the last block. Iterating from a given id costs O(log n) to find
+ * the start plus the ids returned. Four bytes per id plus a little per block; not thread-safe.
+ */
+class SortedIdSet {
+
+    private static final int BLOCK_SIZE = 1024;
+
+    private final List<Block> blocks = new ArrayList<>();
+    private int size;
+
+    /**
+     * Adds {@code id}; returns false if it was already present.
+     */
+    boolean add(int id) {
+        if (blocks.isEmpty()) {
+            blocks.add(new Block());
+        }
+        int b = blockFor(id);
+        Block block = blocks.get(b);
+        int position = Arrays.binarySearch(block.ids, 0, block.count, id);
+        if (position >= 0) {
+            return false;
+        }
+        position = -position - 1;
+        if (block.count == BLOCK_SIZE && position == BLOCK_SIZE && b == blocks.size() - 1) {
+            // Appending past the last full block starts a new one, so ascending ids leave blocks full
+            block = new Block();
+            blocks.add(block);
+            position = 0;
+        } else if (block.count == BLOCK_SIZE) {
+            // Split the full block in half and insert into whichever half the id belongs to
+            Block upper = new Block();
+            int half = BLOCK_SIZE / 2;
+            System.arraycopy(block.ids, half, upper.ids, 0, BLOCK_SIZE - half);
+            upper.count = BLOCK_SIZE - half;
+            block.count = half;
+            blocks.add(b + 1, upper);
+            if (position > half) {
+                block = upper;
+                position -= half;
+            }
+        }
+        System.arraycopy(block.ids, position, block.ids, position + 1, block.count - position);
+        block.ids[position] = id;
+        block.count++;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes {@code id}; returns false if it was not present.
+     */
+    boolean remove(int id) {
+        if (blocks.isEmpty()) {
+            return false;
+        }
+        int b = blockFor(id);
+        Block block = blocks.get(b);
+        int position = Arrays.binarySearch(block.ids, 0, block.count, id);
+        if (position < 0) {
+            return false;
+        }
+        System.arraycopy(block.ids, position + 1, block.ids, position, block.count - position - 1);
+        block.count--;
+        if (block.count == 0 && blocks.size() > 1) {
+            blocks.remove(b);
+        }
+        size--;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Up to {@code limit} ids greater than {@code afterId}, ascending.
+     */
+    int[] after(int afterId, int limit) {
+        int[] ids = new int[Math.max(0, Math.min(limit, size))];
+        int found = 0;
+        if (blocks.isEmpty() || ids.length == 0) {
+            return ids;
+        }
+        int b = blockFor(afterId);
+        Block first = blocks.get(b);
+        int position = Arrays.binarySearch(first.ids, 0, first.count, afterId);
+        position = position >= 0 ? position + 1 : -position - 1;
+        for (; b < blocks.size() && found < ids.length; b++, position = 0) {
+            Block block = blocks.get(b);
+            int take = Math.min(block.count - position, ids.length - found);
+            System.arraycopy(block.ids, position, ids, found, take);
+            found += take;
+        }
+        return found == ids.length ? ids : Arrays.copyOf(ids, found);
+    }
+
+    // Index of the last block whose first id is <= id, or 0
+    private int blockFor(int id) {
+        int low = 0;
+        int high = blocks.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (blocks.get(mid).ids[0] <= id) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private static final class Block {
+        final int[] ids = new int[BLOCK_SIZE];
+        int count;
+    }
+}
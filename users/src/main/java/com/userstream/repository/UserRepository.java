@@ -2,19 +2,42 @@ package com.userstream.repository;
 
 import com.userstream.user.UserData;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface UserRepository {
     UserData save(UserData user);
 
+    /**
+     * Saves all users in one bulk operation. Results are returned in input order.
+     */
+    List<BatchResult> saveAll(List<UserData> users);
+
     Optional<UserData> findById(int id);
 
+    /**
+     * Resolves many ids in one call. Users come back in the order their ids were first given;
+     * duplicates are collapsed and unknown ids are skipped.
+     */
+    List<UserData> findAllById(Collection<Integer> ids);
+
     Optional<UserData> findByUsername(String username);
 
     Optional<UserData> findByEmail(String email);
 
     List<UserData> findAll();
 
+    /**
+     * Keyset page: up to {@code limit} users with an id greater than {@code afterId}, in ascending id order.
+     */
+    List<UserData> findPage(int afterId, int limit);
+
+    /**
+     * Visits every user in ascending id order without materializing the whole table.
+     */
+    void streamAll(Consumer<UserData> consumer);
+
     boolean deleteById(int id);
 }
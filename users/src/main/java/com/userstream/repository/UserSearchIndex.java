@@ -0,0 +1,306 @@
+package com.userstream.repository;
+
+import com.userstream.common.ConcurrentIntObjectMap;
+import com.userstream.user.UserData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.IntPredicate;
+
+/**
+ * Incrementally maintained search index over user name, surname and email.
+ *
+ * <p>Prefix matches come from a sorted token map (a range scan starting at the prefix),
+ * substring matches from trigram postings. Postings are append-only int arrays: updates and
+ * deletes only replace the user's document, stale ids are skipped at query time by re-checking
+ * the current document, and a posting drops them when it next has to grow.
+ *
+ * <p>A query is driven by its most selective term. Candidates are gathered tier by tier (exact token,
+ * token prefix, substring) until {@code limit} users matching every term have been found; those
+ * are ranked by score (exact 3, prefix 2, substring 1, summed over terms) and then by id.
+ * Reads are lock-free; writers are serialized.
+ */
+class UserSearchIndex {
+
+    private static final int GRAM = 3;
+    private static final int EXACT_SCORE = 3;
+    private static final int PREFIX_SCORE = 2;
+    private static final int SUBSTRING_SCORE = 1;
+
+    private final ConcurrentIntObjectMap<Document> documents = new ConcurrentIntObjectMap<>();
+    private final NavigableMap<String, Postings> tokens = new ConcurrentSkipListMap<>();
+    private final Map<String, Postings> trigrams = new ConcurrentHashMap<>();
+
+    synchronized void add(UserData user) {
+        int id = user.getId();
+        Document previous = documents.get(id);
+        Document document = Document.of(user);
+        documents.put(id, document);
+
+        for (String token : document.tokens) {
+            if (previous == null || !previous.hasToken(token)) {
+                tokens.computeIfAbsent(token, key -> new Postings())
+                        .append(id, other -> hasToken(other, token));
+            }
+        }
+        for (String gram : document.trigrams()) {
+            if (previous == null || !previous.contains(gram)) {
+                trigrams.computeIfAbsent(gram, key -> new Postings())
+                        .append(id, other -> containsText(other, gram));
+            }
+        }
+    }
+
+    synchronized void remove(int id) {
+        documents.remove(id);
+    }
+
+    /**
+     * Ids of up to {@code limit} users matching every whitespace-separated term of {@code query}, best first.
+     */
+    List<Integer> search(String query, int limit) {
+        String[] terms = query.toLowerCase(Locale.ROOT).trim().split("\\s+");
+        String driver = selectDriver(terms);
+        if (driver == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        Collector collector = new Collector(terms, limit);
+        collector.collect(tokens.get(driver));
+        for (Map.Entry<String, Postings> entry : tokens.tailMap(driver, false).entrySet()) {
+            // The tail map is sorted, so the first token without the prefix ends the range
+            if (collector.isFull() || !entry.getKey().startsWith(driver)) {
+                break;
+            }
+            collector.collect(entry.getValue());
+        }
+        if (!collector.isFull() && driver.length() >= GRAM) {
+            collector.collect(rarestTrigram(driver));
+        }
+        return collector.ranked();
+    }
+
+    int size() {
+        return documents.size();
+    }
+
+    /**
+     * Picks the most selective term. Every exact, prefix or substring match of a term contains all of
+     * its trigrams, so the rarest trigram's posting size bounds how many users the term can match.
+     * Terms shorter than a trigram fall back to length.
+     */
+    private String selectDriver(String[] terms) {
+        String driver = null;
+        int driverBound = Integer.MAX_VALUE;
+        for (String term : terms) {
+            if (term.isEmpty()) {
+                continue;
+            }
+            int bound;
+            if (term.length() >= GRAM) {
+                Postings rarest = rarestTrigram(term);
+                bound = rarest == null ? 0 : rarest.size;
+            } else {
+                bound = Integer.MAX_VALUE - term.length();
+            }
+            if (driver == null || bound < driverBound) {
+                driver = term;
+                driverBound = bound;
+            }
+        }
+        return driver;
+    }
+
+    private Postings rarestTrigram(String term) {
+        Postings rarest = null;
+        for (int i = 0; i + GRAM <= term.length(); i++) {
+            Postings postings = trigrams.get(term.substring(i, i + GRAM));
+            if (postings == null) {
+                return null;
+            }
+            if (rarest == null || postings.size < rarest.size) {
+                rarest = postings;
+            }
+        }
+        return rarest;
+    }
+
+    private boolean hasToken(int id, String token) {
+        Document document = documents.get(id);
+        return document != null && document.hasToken(token);
+    }
+
+    private boolean containsText(int id, String text) {
+        Document document = documents.get(id);
+        return document != null && document.contains(text);
+    }
+
+    private final class Collector {
+        private final String[] terms;
+        private final int limit;
+        private final Set<Integer> seen = new HashSet<>();
+        private final List<int[]> hits = new ArrayList<>();
+
+        Collector(String[] terms, int limit) {
+            this.terms = terms;
+            this.limit = limit;
+        }
+
+        boolean isFull() {
+            return hits.size() >= limit;
+        }
+
+        void collect(Postings postings) {
+            if (postings == null) {
+                return;
+            }
+            int size = postings.size;
+            int[] ids = postings.ids;
+            size = Math.min(size, ids.length);
+            for (int i = 0; i < size && !isFull(); i++) {
+                int id = ids[i];
+                if (!seen.add(id)) {
+                    continue;
+                }
+                Document document = documents.get(id);
+                int score = document == null ? 0 : document.score(terms);
+                if (score > 0) {
+                    hits.add(new int[]{id, score});
+                }
+            }
+        }
+
+        List<Integer> ranked() {
+            hits.sort((a, b) -> a[1] == b[1] ? Integer.compare(a[0], b[0]) : Integer.compare(b[1], a[1]));
+            List<Integer> ids = new ArrayList<>(hits.size());
+            for (int[] hit : hits) {
+                ids.add(hit[0]);
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Append-only list of ids with a single writer. Readers bound their scan by both
+     * {@code size} and the array length, and re-check every id against its document,
+     * so they tolerate seeing a size and an array from different moments.
+     */
+    private static final class Postings {
+        private volatile int[] ids = new int[4];
+        private volatile int size;
+
+        void append(int id, IntPredicate stillValid) {
+            int[] current = ids;
+            if (size == current.length) {
+                current = compact(current, stillValid);
+            }
+            current[size] = id;
+            size = size + 1;
+        }
+
+        // Drops stale and duplicate ids, leaving room for at least as many again
+        private int[] compact(int[] current, IntPredicate stillValid) {
+            Set<Integer> live = new LinkedHashSet<>();
+            for (int i = 0; i < size; i++) {
+                if (stillValid.test(current[i])) {
+                    live.add(current[i]);
+                }
+            }
+            int[] compacted = new int[Math.max(4, live.size() * 2)];
+            int count = 0;
+            for (Integer id : live) {
+                compacted[count++] = id;
+            }
+            size = count;
+            ids = compacted;
+            return compacted;
+        }
+    }
+
+    private record Document(String[] fields, String[] tokens) {
+
+        static Document of(UserData user) {
+            List<String> fields = new ArrayList<>(3);
+            Set<String> tokens = new LinkedHashSet<>();
+            for (String value : new String[]{user.getName(), user.getSurname(), user.getEmail()}) {
+                if (value == null || value.isBlank()) {
+                    continue;
+                }
+                String field = value.toLowerCase(Locale.ROOT);
+                fields.add(field);
+                tokens.add(field);
+                for (String token : field.split("[\\s@._+\\-]+")) {
+                    if (!token.isEmpty()) {
+                        tokens.add(token);
+                    }
+                }
+            }
+            return new Document(fields.toArray(new String[0]), tokens.toArray(new String[0]));
+        }
+
+        Set<String> trigrams() {
+            Set<String> grams = new HashSet<>();
+            for (String field : fields) {
+                for (int i = 0; i + GRAM <= field.length(); i++) {
+                    grams.add(field.substring(i, i + GRAM));
+                }
+            }
+            return grams;
+        }
+
+        boolean hasToken(String token) {
+            for (String candidate : tokens) {
+                if (candidate.equals(token)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean contains(String text) {
+            for (String field : fields) {
+                if (field.contains(text)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Sum of the best per-term scores, or 0 if any term does not match
+        int score(String[] terms) {
+            int total = 0;
+            for (String term : terms) {
+                if (term.isEmpty()) {
+                    continue;
+                }
+                int best = 0;
+                for (String token : tokens) {
+                    if (token.equals(term)) {
+                        best = EXACT_SCORE;
+                        break;
+                    }
+                    if (token.startsWith(term)) {
+                        best = PREFIX_SCORE;
+                    }
+                }
+                if (best == 0 && contains(term)) {
+                    best = SUBSTRING_SCORE;
+                }
+                if (best == 0) {
+                    return 0;
+                }
+                total += best;
+            }
+            return total;
+        }
+    }
+}
@@ -1,18 +1,69 @@
 package com.userstream.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.userstream.common.codec.BinaryCodec;
+import com.userstream.common.snapshot.SnapshotManager;
 import com.userstream.db.DatabaseConfig;
+import com.userstream.repository.BatchResult;
+import com.userstream.repository.CachingUserRepository;
 import com.userstream.repository.InMemoryUserRepository;
+import com.userstream.repository.JdbcUserRepository;
+import com.userstream.repository.OffHeapUserRepository;
+import com.userstream.repository.SearchableUserRepository;
+import com.userstream.repository.UserRepository;
 import com.userstream.user.UserData;
+import com.userstream.user.UserDataCodec;
 import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ContentTooLargeResponse;
+import io.javalin.http.Context;
+import io.javalin.json.JavalinJackson;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 public class UserService {
 
     private static Logger logger = Logger.getLogger("");
     private static final int DEFAULT_PORT = 7001;
+    private static final String REPOSITORY_PROPERTY = "users.repository";
+    private static final String CACHE_SIZE_PROPERTY = "users.cache.size";
+    private static final String CACHE_TTL_PROPERTY = "users.cache.ttl.seconds";
+    private static final String SEARCH_PROPERTY = "users.search.enabled";
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
+    private static final int MAX_BATCH_SIZE = 10_000;
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final String NEXT_CURSOR_HEADER = "X-Next-After";
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    // Flushing is left to the generator's buffer so streamed users are written in large chunks
+    private static final ObjectWriter STREAM_WRITER = MAPPER.writer()
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    private static final BinaryCodec<UserData> BINARY = new BinaryCodec<>(UserDataCodec.SCHEMA, new UserDataCodec());
     private Javalin server;
+    private CachingUserRepository cache;
+    private SearchableUserRepository search;
+    private SnapshotManager<UserData> snapshots;
+    private boolean database;
 
     public static void main(String[] args) {
         UserService userService = new UserService();
@@ -30,17 +81,119 @@ public class UserService {
             server.stop();
             System.out.println("UserService stopped");
         }
+        if (snapshots != null) {
+            snapshots.close();
+        }
+        if (database) {
+            DatabaseConfig.close();
+        }
+    }
+
+    // Picks the user store from -Dusers.repository=memory|offheap|jdbc (default: memory)
+    private UserRepository createRepository() {
+        String type = System.getProperty(REPOSITORY_PROPERTY, "memory");
+        UserRepository repository;
+        switch (type) {
+            case "memory":
+                // -Dsnapshot.dir=... restores users from the last snapshot and keeps it current
+                snapshots = SnapshotManager.fromSystemProperties("users", new UserDataCodec());
+                repository = new InMemoryUserRepository(snapshots);
+                break;
+            case "offheap":
+                repository = new OffHeapUserRepository();
+                break;
+            case "jdbc":
+                DatabaseConfig.createTable();
+                database = true;
+                repository = new JdbcUserRepository(DatabaseConfig.getPool(), DatabaseConfig.getWriter());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown " + REPOSITORY_PROPERTY + ": " + type);
+        }
+
+        // -Dusers.cache.size=N puts a read-through cache of N users in front of the store
+        int cacheSize = Integer.getInteger(CACHE_SIZE_PROPERTY, 0);
+        if (cacheSize > 0) {
+            Duration ttl = Duration.ofSeconds(Long.getLong(CACHE_TTL_PROPERTY, 300L));
+            cache = new CachingUserRepository(repository, cacheSize, ttl);
+            repository = cache;
+        }
+
+        // Search index over name/surname/email, off unless -Dusers.search.enabled=true: it keeps every
+        // user's tokens on the heap, which defeats an off-heap or JDBC store and doubles a heap one
+        if (Boolean.getBoolean(SEARCH_PROPERTY)) {
+            search = new SearchableUserRepository(repository);
+            repository = search;
+        }
+        return repository;
     }
 
     private Javalin initHttpServer() {
-        InMemoryUserRepository repository = new InMemoryUserRepository();
+        UserRepository repository = createRepository();
+        logger.info("Using user repository " + repository.getClass().getSimpleName());
 
-        Javalin app = Javalin.create();
+        Javalin app = Javalin.create(config -> config.jsonMapper(new JavalinJackson(MAPPER)));
 
-        // GET all users
+        // GET users: by id (?ids=1,2,3), keyset page (?after=<id>&limit=<n>) or the whole table streamed (?stream=true)
         app.get("/users", ctx -> {
-            List<UserData> users = repository.findAll();
-            ctx.json(users);
+            String ids = ctx.queryParam("ids");
+            if (ids != null) {
+                List<Integer> parsed = new ArrayList<>();
+                try {
+                    for (String id : ids.split(",")) {
+                        if (!id.isBlank()) {
+                            parsed.add(Integer.parseInt(id.trim()));
+                        }
+                    }
+                } catch (NumberFormatException e) {
+                    ctx.status(400).result("ids must be a comma-separated list of integers");
+                    return;
+                }
+                lookupUsers(ctx, repository, parsed);
+                return;
+            }
+
+            if (Boolean.parseBoolean(ctx.queryParam("stream"))) {
+                streamUsers(ctx, repository);
+                return;
+            }
+
+            int limit = Math.min(intParam(ctx, "limit", DEFAULT_PAGE_SIZE), MAX_PAGE_SIZE);
+            int after = intParam(ctx, "after", Integer.MIN_VALUE);
+            if (limit <= 0) {
+                ctx.status(400).result("limit must be positive");
+                return;
+            }
+
+            List<UserData> users = repository.findPage(after, limit);
+            if (users.size() == limit) {
+                ctx.header(NEXT_CURSOR_HEADER, String.valueOf(users.get(users.size() - 1).getId()));
+            }
+            respondAll(ctx, users);
+        });
+
+        // GET users matching a name/surname/email prefix or substring (?q=<text>&limit=<n>)
+        app.get("/users/search", ctx -> {
+            if (search == null) {
+                ctx.status(404).result("User search is disabled");
+                return;
+            }
+            String query = ctx.queryParam("q");
+            if (query == null || query.isBlank()) {
+                ctx.status(400).result("q is required");
+                return;
+            }
+            int limit = Math.min(intParam(ctx, "limit", DEFAULT_SEARCH_LIMIT), MAX_PAGE_SIZE);
+            ctx.json(search.search(query, limit));
+        });
+
+        // GET cache counters, for sizing -Dusers.cache.size
+        app.get("/users/cache/stats", ctx -> {
+            if (cache != null) {
+                ctx.json(cache.getStats());
+            } else {
+                ctx.status(404).result("User cache is disabled");
+            }
         });
 
         // GET user by ID
@@ -48,25 +201,75 @@ public class UserService {
             int id = Integer.parseInt(ctx.pathParam("id"));
 
             repository.findById(id).ifPresentOrElse(
-                    ctx::json,
+                    user -> respond(ctx, user),
                     () -> ctx.status(404).result("User not found")
             );
         });
 
         // POST create user
         app.post("/users", ctx -> {
-            UserData user = ctx.bodyAsClass(UserData.class);
+            UserData user = readUser(ctx);
             repository.save(user);
-            ctx.status(201).json(user);
+            ctx.status(201);
+            respond(ctx, user);
+        });
+
+        // POST lookup users by id (JSON array of ids, or {"ids": [...]})
+        app.post("/users/lookup", ctx -> {
+            List<Integer> ids = new ArrayList<>();
+            try {
+                JsonNode body = MAPPER.readTree(ctx.bodyInputStream());
+                JsonNode array = body != null && body.isObject() ? body.get("ids") : body;
+                if (array == null || !array.isArray()) {
+                    throw new IllegalArgumentException("Expected a JSON array of ids");
+                }
+                for (JsonNode id : array) {
+                    if (!id.canConvertToInt()) {
+                        throw new IllegalArgumentException("Invalid id: " + id);
+                    }
+                    ids.add(id.asInt());
+                }
+            } catch (IllegalArgumentException | JsonProcessingException e) {
+                ctx.status(400).result("Invalid lookup: " + e.getMessage());
+                return;
+            }
+            lookupUsers(ctx, repository, ids);
+        });
+
+        // POST bulk create users (JSON array or NDJSON body); 413 past MAX_BATCH_SIZE items
+        app.post("/users/batch", ctx -> {
+            List<BatchResult> parseFailures = new ArrayList<>();
+            List<Integer> positions = new ArrayList<>();
+            List<UserData> users = new ArrayList<>();
+            try {
+                readBatch(ctx, users, positions, parseFailures);
+            } catch (IllegalArgumentException | JsonProcessingException e) {
+                ctx.status(400).result("Invalid batch: " + e.getMessage());
+                return;
+            }
+
+            List<BatchResult> results = new ArrayList<>(parseFailures);
+            for (BatchResult result : repository.saveAll(users)) {
+                results.add(result.withIndex(positions.get(result.getIndex())));
+            }
+            results.sort((a, b) -> Integer.compare(a.getIndex(), b.getIndex()));
+
+            long succeeded = results.stream().filter(BatchResult::isSuccess).count();
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("total", results.size());
+            response.put("succeeded", succeeded);
+            response.put("failed", results.size() - succeeded);
+            response.put("results", results);
+            ctx.json(response);
         });
 
         // PUT update user
         app.put("/users/{id}", ctx -> {
             int id = Integer.parseInt(ctx.pathParam("id"));
-            UserData updatedUser = ctx.bodyAsClass(UserData.class);
+            UserData updatedUser = readUser(ctx);
             updatedUser.setId(id);
             repository.save(updatedUser);
-            ctx.json(updatedUser);
+            respond(ctx, updatedUser);
         });
 
         // DELETE user
@@ -82,4 +285,135 @@ public class UserService {
 
         return app;
     }
+
+    /**
+     * Writes every user straight to the response as one JSON array, one user at a time,
+     * so heap usage does not grow with the number of users.
+     */
+    private static void streamUsers(Context ctx, UserRepository repository) throws IOException {
+        ctx.contentType("application/json");
+        try (JsonGenerator generator = MAPPER.getFactory().createGenerator(ctx.outputStream())) {
+            generator.writeStartArray();
+            repository.streamAll(user -> {
+                try {
+                    STREAM_WRITER.writeValue(generator, user);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * Resolves up to {@value #MAX_PAGE_SIZE} ids with a single repository call.
+     * Found users are returned in request order; unknown ids are left out.
+     */
+    private static void lookupUsers(Context ctx, UserRepository repository, List<Integer> ids) {
+        if (ids.size() > MAX_PAGE_SIZE) {
+            ctx.status(400).result("At most " + MAX_PAGE_SIZE + " ids per lookup");
+            return;
+        }
+        respondAll(ctx, repository.findAllById(ids));
+    }
+
+    // Bodies sent as application/x-userstream-bin are binary frames, anything else is JSON
+    private static UserData readUser(Context ctx) {
+        if (!BinaryCodec.isBinary(ctx.contentType())) {
+            return ctx.bodyAsClass(UserData.class);
+        }
+        try {
+            return BINARY.decode(ctx.bodyAsBytes());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestResponse("Invalid user frame: " + e.getMessage());
+        }
+    }
+
+    private static void respond(Context ctx, UserData user) {
+        if (BinaryCodec.accepts(ctx.header("Accept"))) {
+            ctx.contentType(BinaryCodec.MEDIA_TYPE).result(BINARY.encode(user));
+        } else {
+            ctx.json(user);
+        }
+    }
+
+    private static void respondAll(Context ctx, List<UserData> users) {
+        if (BinaryCodec.accepts(ctx.header("Accept"))) {
+            ctx.contentType(BinaryCodec.MEDIA_TYPE).result(BINARY.encodeAll(users));
+        } else {
+            ctx.json(users);
+        }
+    }
+
+    private static int intParam(Context ctx, String name, int defaultValue) {
+        String value = ctx.queryParam(name);
+        return value == null || value.isBlank() ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * Parses a batch body into users, remembering each user's position in the request.
+     * Items that cannot be parsed are reported as failures instead of rejecting the whole batch.
+     * Items are read one at a time and counted as they arrive, so an oversized batch is refused
+     * once its first extra item shows up rather than after the whole body has been buffered.
+     */
+    private static void readBatch(Context ctx, List<UserData> users, List<Integer> positions,
+                                  List<BatchResult> failures) throws IOException {
+        String contentType = ctx.contentType();
+        if (contentType != null && contentType.contains("ndjson")) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(ctx.bodyInputStream(), StandardCharsets.UTF_8))) {
+                int index = 0;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    checkBatchSize(index);
+                    try {
+                        addItem(MAPPER.readTree(line), index, users, positions, failures);
+                    } catch (JsonProcessingException e) {
+                        failures.add(BatchResult.failure(index, "Invalid JSON: " + e.getOriginalMessage()));
+                    }
+                    index++;
+                }
+            }
+            return;
+        }
+
+        try (JsonParser parser = MAPPER.getFactory().createParser(ctx.bodyInputStream())) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IllegalArgumentException("Expected a JSON array of users");
+            }
+            int index = 0;
+            for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+                if (token == null) {
+                    throw new IllegalArgumentException("Unterminated JSON array");
+                }
+                checkBatchSize(index);
+                addItem(MAPPER.readTree(parser), index, users, positions, failures);
+                index++;
+            }
+        }
+    }
+
+    private static void checkBatchSize(int index) {
+        if (index >= MAX_BATCH_SIZE) {
+            throw new ContentTooLargeResponse("Batch exceeds " + MAX_BATCH_SIZE + " users");
+        }
+    }
+
+    private static void addItem(JsonNode node, int index, List<UserData> users, List<Integer> positions,
+                                List<BatchResult> failures) {
+        try {
+            UserData user = MAPPER.treeToValue(node, UserData.class);
+            if (user == null) {
+                failures.add(BatchResult.failure(index, "User is null"));
+                return;
+            }
+            users.add(user);
+            positions.add(index);
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            failures.add(BatchResult.failure(index, "Invalid user: " + e.getMessage()));
+        }
+    }
 }
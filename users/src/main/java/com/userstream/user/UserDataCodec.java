@@ -0,0 +1,49 @@
+package com.userstream.user;
+
+import com.userstream.common.codec.Codecs;
+import com.userstream.common.codec.EntityCodec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public class UserDataCodec implements EntityCodec<UserData> {
+
+    public static final String SCHEMA = "UserData";
+
+    private static final int VERSION = 1;
+
+    @Override
+    public int version() {
+        return VERSION;
+    }
+
+    @Override
+    public int idOf(UserData user) {
+        return user.getId();
+    }
+
+    @Override
+    public void encode(UserData user, DataOutput out) throws IOException {
+        out.writeInt(user.getId());
+        Codecs.writeString(out, user.getName());
+        Codecs.writeString(out, user.getSurname());
+        Codecs.writeString(out, user.getEmail());
+        Codecs.writeDateTime(out, user.getCreatedAt());
+        Codecs.writeDateTime(out, user.getUpdatedAt());
+        out.writeBoolean(user.isActive());
+    }
+
+    @Override
+    public UserData decode(DataInput in, int version) throws IOException {
+        UserData user = new UserData();
+        user.setId(in.readInt());
+        user.setName(Codecs.readString(in));
+        user.setSurname(Codecs.readString(in));
+        user.setEmail(Codecs.readString(in));
+        user.setCreatedAt(Codecs.readDateTime(in));
+        user.setUpdatedAt(Codecs.readDateTime(in));
+        user.setActive(in.readBoolean());
+        return user;
+    }
+}
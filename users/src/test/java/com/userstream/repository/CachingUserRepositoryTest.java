@@ -0,0 +1,65 @@
+package com.userstream.repository;
+
+import com.userstream.user.UserData;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CachingUserRepositoryTest {
+
+    @Test
+    void saveFinishingAfterADeleteDoesNotCacheTheDeletedUser() throws Exception {
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch deleted = new CountDownLatch(1);
+        InMemoryUserRepository store = new InMemoryUserRepository() {
+            @Override
+            public UserData save(UserData user) {
+                UserData saved = super.save(user);
+                if (user.getName().equals("slow")) {
+                    // Hold the save between its write and its cache update until the delete is done
+                    written.countDown();
+                    await(deleted);
+                }
+                return saved;
+            }
+        };
+        CachingUserRepository cache = new CachingUserRepository(store, 100, Duration.ofMinutes(5));
+        cache.save(new UserData(1, "ada", "lovelace", "ada@example.com"));
+
+        CompletableFuture<UserData> save = CompletableFuture.supplyAsync(
+                () -> cache.save(new UserData(1, "slow", "lovelace", "ada@example.com")));
+        await(written);
+        assertTrue(cache.deleteById(1));
+        deleted.countDown();
+        save.get(5, TimeUnit.SECONDS);
+
+        assertFalse(store.findById(1).isPresent());
+        assertFalse(cache.findById(1).isPresent());
+    }
+
+    @Test
+    void uncontendedSaveIsServedFromTheCache() {
+        CachingUserRepository cache = new CachingUserRepository(new InMemoryUserRepository(), 100, Duration.ofMinutes(5));
+        cache.save(new UserData(7, "ada", "lovelace", "ada@example.com"));
+        cache.save(new UserData(7, "grace", "hopper", "grace@example.com"));
+
+        assertEquals("grace", cache.findById(7).orElseThrow().getName());
+        assertEquals(1, cache.getStats().hits());
+        assertEquals(0, cache.getStats().misses());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
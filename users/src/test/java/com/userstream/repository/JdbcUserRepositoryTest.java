@@ -0,0 +1,106 @@
+package com.userstream.repository;
+
+import com.userstream.db.ConnectionPool;
+import com.userstream.db.GroupCommitWriter;
+import com.userstream.user.UserData;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JdbcUserRepositoryTest {
+
+    @TempDir
+    Path dir;
+
+    private ConnectionPool pool;
+    private GroupCommitWriter writer;
+    private JdbcUserRepository repository;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        String url = "jdbc:sqlite:" + dir.resolve("users.db");
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement statement = connection.createStatement()) {
+            // A unique email gives the batch a row that can fail on its own
+            statement.execute("CREATE TABLE users (id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT, surname TEXT, email TEXT UNIQUE)");
+        }
+        pool = new ConnectionPool(url, 2, 1_000);
+        writer = new GroupCommitWriter(url, 1_000, 64, 200);
+        repository = new JdbcUserRepository(pool, writer);
+    }
+
+    @AfterEach
+    void tearDown() {
+        writer.close();
+        pool.close();
+    }
+
+    @Test
+    void saveAllGoesThroughTheWriterAndIsolatesFailingRows() {
+        List<UserData> users = new ArrayList<>();
+        for (int i = 0; i < 1_200; i++) {
+            // Index 700 repeats the email of index 3, so only it fails, in the second chunk
+            users.add(new UserData(0, "name" + i, "surname", "user" + (i == 700 ? 3 : i) + "@example.com"));
+        }
+        long commitsBefore = writer.getCommits();
+
+        List<BatchResult> results = repository.saveAll(users);
+
+        assertEquals(users.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i, results.get(i).getIndex());
+            assertEquals(i != 700, results.get(i).isSuccess());
+        }
+        assertEquals(0, users.get(700).getId());
+        assertEquals(users.get(5).getId(), results.get(5).getId());
+        assertEquals("name5", repository.findById(users.get(5).getId()).orElseThrow().getName());
+        assertEquals(1_199, repository.findAll().size());
+        assertTrue(writer.getCommits() > commitsBefore);
+    }
+
+    @Test
+    void batchedInsertsGiveEveryNewUserTheIdItWasStoredUnder() {
+        // A deleted high id moves the AUTOINCREMENT sequence past every id the upserts below use
+        repository.save(new UserData(5_000, "first", "surname", "first@example.com"));
+        repository.deleteById(5_000);
+        List<UserData> users = new ArrayList<>();
+        for (int i = 0; i < 1_100; i++) {
+            // Every tenth row has its own id, so inserts and upserts share each chunk
+            int id = i % 10 == 9 ? i : 0;
+            users.add(new UserData(id, "name" + i, "surname", "user" + i + "@example.com"));
+        }
+
+        List<BatchResult> results = repository.saveAll(users);
+
+        for (int i = 0; i < users.size(); i++) {
+            assertTrue(results.get(i).isSuccess());
+            assertEquals(users.get(i).getId(), results.get(i).getId());
+            assertEquals("name" + i, repository.findById(users.get(i).getId()).orElseThrow().getName());
+        }
+        assertEquals(users.size(), repository.findAll().size());
+    }
+
+    @Test
+    void saveAllAfterTheWriterClosedFailsEveryRow() {
+        writer.close();
+        List<UserData> users = List.of(new UserData(0, "a", "b", "a@example.com"));
+
+        List<BatchResult> results = repository.saveAll(users);
+
+        assertEquals(1, results.size());
+        assertFalse(results.get(0).isSuccess());
+        assertEquals(0, users.get(0).getId());
+    }
+}
@@ -0,0 +1,77 @@
+package com.userstream.repository;
+
+import com.userstream.user.UserData;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffHeapUserRepositoryTest {
+
+    private final OffHeapUserRepository repository = new OffHeapUserRepository();
+
+    @Test
+    void pagesAndLookupsTrackRandomSavesUpdatesAndDeletes() {
+        Map<Integer, UserData> expected = new TreeMap<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 20_000; i++) {
+            int id = random.nextInt(3_000);
+            if (random.nextInt(4) == 0) {
+                assertEquals(expected.remove(id) != null, repository.deleteById(id));
+            } else {
+                // Few distinct names, so hash chains hold many rows and updates move rows between them
+                UserData user = new UserData(id, "name" + random.nextInt(50), "surname",
+                        random.nextInt(10) == 0 ? null : "user" + id + "@example.com");
+                repository.save(user);
+                expected.put(id, user);
+            }
+        }
+
+        assertEquals(expected.size(), repository.size());
+        List<Integer> paged = new ArrayList<>();
+        int after = Integer.MIN_VALUE;
+        for (List<UserData> page = repository.findPage(after, 100); !page.isEmpty();
+             page = repository.findPage(after, 100)) {
+            for (UserData user : page) {
+                paged.add(user.getId());
+            }
+            after = page.get(page.size() - 1).getId();
+        }
+        assertEquals(new ArrayList<>(expected.keySet()), paged);
+
+        for (UserData user : expected.values()) {
+            if (user.getEmail() != null) {
+                assertEquals(user.getId(), repository.findByEmail(user.getEmail()).orElseThrow().getId());
+            }
+            assertEquals(user.getName(), repository.findByUsername(user.getName()).orElseThrow().getName());
+        }
+        for (int id = 0; id < 3_000; id++) {
+            if (!expected.containsKey(id)) {
+                assertFalse(repository.findByEmail("user" + id + "@example.com").isPresent());
+            }
+        }
+    }
+
+    @Test
+    void oversizedStringLeavesTheStoredUserUntouched() {
+        repository.save(new UserData(1, "ada", "lovelace", "ada@example.com"));
+        UserData update = new UserData(1, "ada2", "lovelace", "x".repeat(1 << 24));
+
+        assertThrows(IllegalArgumentException.class, () -> repository.save(update));
+        assertThrows(IllegalArgumentException.class, () -> repository.save(new UserData(2, "b", "c", "x".repeat(1 << 24))));
+
+        assertEquals(1, repository.size());
+        assertEquals("ada", repository.findById(1).orElseThrow().getName());
+        assertTrue(repository.findByUsername("ada").isPresent());
+        assertFalse(repository.findByUsername("ada2").isPresent());
+        assertFalse(repository.findById(2).isPresent());
+    }
+}
@@ -0,0 +1,96 @@
+package com.userstream.repository;
+
+import com.userstream.user.UserData;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchableUserRepositoryTest {
+
+    private final CountDownLatch written = new CountDownLatch(1);
+    private final CountDownLatch raced = new CountDownLatch(1);
+
+    @Test
+    void saveFinishingAfterADeleteDoesNotIndexTheDeletedUser() throws Exception {
+        InMemoryUserRepository store = new InMemoryUserRepository() {
+            @Override
+            public UserData save(UserData user) {
+                UserData saved = super.save(user);
+                if (user.getName().equals("slow")) {
+                    // Hold the save between its write and its index update until the delete is done
+                    written.countDown();
+                    await(raced);
+                }
+                return saved;
+            }
+        };
+        SearchableUserRepository search = new SearchableUserRepository(store);
+        search.save(new UserData(1, "ada", "lovelace", "ada@example.com"));
+
+        CompletableFuture<UserData> save = CompletableFuture.supplyAsync(
+                () -> search.save(new UserData(1, "slow", "lovelace", "ada@example.com")));
+        await(written);
+        assertTrue(search.deleteById(1));
+        raced.countDown();
+        save.get(5, TimeUnit.SECONDS);
+
+        assertFalse(store.findById(1).isPresent());
+        assertEquals(List.of(), search.search("lovelace", 10));
+        assertEquals(0, search.getIndexedUsers());
+    }
+
+    @Test
+    void deleteFinishingAfterASaveLeavesTheSavedUserSearchable() throws Exception {
+        InMemoryUserRepository store = new InMemoryUserRepository() {
+            @Override
+            public boolean deleteById(int id) {
+                boolean deleted = super.deleteById(id);
+                // Hold the delete between its write and its index update until the save is done
+                written.countDown();
+                await(raced);
+                return deleted;
+            }
+        };
+        SearchableUserRepository search = new SearchableUserRepository(store);
+        search.save(new UserData(1, "ada", "lovelace", "ada@example.com"));
+
+        CompletableFuture<Boolean> delete = CompletableFuture.supplyAsync(() -> search.deleteById(1));
+        await(written);
+        search.save(new UserData(1, "grace", "hopper", "grace@example.com"));
+        raced.countDown();
+        delete.get(5, TimeUnit.SECONDS);
+
+        assertTrue(store.findById(1).isPresent());
+        assertEquals("grace", search.search("hopper", 10).get(0).getName());
+        assertEquals(List.of(), search.search("lovelace", 10));
+    }
+
+    @Test
+    void uncontendedWritesKeepTheIndexInStep() {
+        SearchableUserRepository search = new SearchableUserRepository(new InMemoryUserRepository());
+        search.saveAll(List.of(new UserData(1, "ada", "lovelace", "ada@example.com"),
+                new UserData(2, "grace", "hopper", "grace@example.com")));
+        search.save(new UserData(1, "ada", "byron", "ada@example.com"));
+        search.deleteById(2);
+
+        assertEquals(1, search.getIndexedUsers());
+        assertEquals(1, search.search("byron", 10).size());
+        assertEquals(0, search.search("lovelace", 10).size());
+        assertEquals(0, search.search("hopper", 10).size());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.userstream.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SortedIdSetTest {
+
+    @Test
+    void matchesTreeSetAcrossBlockSplitsAndRemovals() {
+        SortedIdSet set = new SortedIdSet();
+        TreeSet<Integer> expected = new TreeSet<>();
+        Random random = new Random(3);
+        for (int i = 0; i < 100_000; i++) {
+            int id = random.nextInt(20_000) - 10_000;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(id), set.remove(id));
+            } else {
+                assertEquals(expected.add(id), set.add(id));
+            }
+        }
+
+        assertEquals(expected.size(), set.size());
+        assertArrayEquals(toArray(expected), set.after(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        for (int after : new int[] {-10_001, -5_000, 0, 1, 9_999}) {
+            int[] tail = toArray(expected.tailSet(after, false));
+            assertArrayEquals(Arrays.copyOf(tail, Math.min(tail.length, 50)), set.after(after, 50));
+        }
+    }
+
+    @Test
+    void pagesAfterAscendingAppends() {
+        SortedIdSet set = new SortedIdSet();
+        for (int id = 0; id < 10_000; id++) {
+            set.add(id);
+        }
+
+        assertEquals(10_000, set.size());
+        int[] page = set.after(4_999, 3);
+        assertArrayEquals(new int[] {5_000, 5_001, 5_002}, page);
+        assertEquals(0, set.after(9_999, 10).length);
+    }
+
+    private static int[] toArray(Collection<Integer> ids) {
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,66 @@
+package com.userstream.repository;
+
+import com.userstream.user.UserData;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class UserSearchIndexTest {
+
+    private final UserSearchIndex index = new UserSearchIndex();
+
+    @Test
+    void ranksExactTokensAbovePrefixesAbovePrefixOnlyMatches() {
+        index.add(new UserData(1, "ada", "lovelace", "ada@example.com"));
+        index.add(new UserData(2, "adalbert", "stifter", "adalbert@example.com"));
+        index.add(new UserData(3, "grace", "hopper", "grace@example.com"));
+
+        assertEquals(List.of(1, 2), index.search("ada", 10));
+        assertEquals(List.of(2), index.search("adal", 10));
+        assertEquals(List.of(1), index.search("ADA", 1));
+        assertEquals(List.of(), index.search("zed", 10));
+    }
+
+    @Test
+    void findsSubstringsThroughTrigrams() {
+        index.add(new UserData(1, "ada", "lovelace", "ada@example.com"));
+        index.add(new UserData(2, "grace", "hopper", "grace@example.com"));
+
+        assertEquals(List.of(1), index.search("velac", 10));
+        assertEquals(List.of(2), index.search("opp", 10));
+        // Every term must match, each on its own field
+        assertEquals(List.of(1), index.search("ada elac", 10));
+        assertEquals(List.of(), index.search("ada opp", 10));
+    }
+
+    @Test
+    void updateReplacesTheOldTextAndDeleteDropsTheUser() {
+        index.add(new UserData(1, "ada", "lovelace", "ada@example.com"));
+        index.add(new UserData(2, "grace", "hopper", "grace@example.com"));
+        index.add(new UserData(1, "ada", "byron", "ada@example.com"));
+        index.remove(2);
+
+        assertEquals(1, index.size());
+        assertEquals(List.of(), index.search("lovelace", 10));
+        assertEquals(List.of(), index.search("velac", 10));
+        assertEquals(List.of(1), index.search("byr", 10));
+        assertEquals(List.of(), index.search("hopper", 10));
+        assertEquals(List.of(), index.search("race", 10));
+
+        index.add(new UserData(2, "grace", "hopper", "grace@example.com"));
+        assertEquals(List.of(2), index.search("hopper", 10));
+    }
+
+    @Test
+    void stopsAtTheLimitAcrossManyUsers() {
+        for (int id = 1; id <= 1_000; id++) {
+            index.add(new UserData(id, "user" + id, "smith", "user" + id + "@example.com"));
+        }
+
+        assertEquals(5, index.search("smith", 5).size());
+        assertEquals(List.of(42), index.search("user42@", 10));
+        assertEquals(List.of(42), index.search("user42 smith", 1));
+    }
+}
@@ -0,0 +1,45 @@
+package com.userstream.user;
+
+import com.userstream.common.codec.BinaryCodec;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class UserDataCodecTest {
+
+    private final BinaryCodec<UserData> codec = new BinaryCodec<>(UserDataCodec.SCHEMA, new UserDataCodec());
+
+    @Test
+    void roundTripsEveryField() {
+        UserData user = new UserData(42, "Zoë", "O'Brien", "zoe@example.com");
+        user.setCreatedAt(LocalDateTime.of(2024, 2, 29, 23, 59, 59, 123_456_789));
+        user.setUpdatedAt(LocalDateTime.of(1969, 12, 31, 0, 0));
+        user.setActive(false);
+        UserData sparse = new UserData(7, null, "", null);
+        sparse.setCreatedAt(null);
+        sparse.setUpdatedAt(null);
+
+        List<UserData> decoded = codec.decodeAll(codec.encodeAll(List.of(user, sparse)));
+
+        assertSameUser(user, decoded.get(0));
+        assertFalse(decoded.get(0).isActive());
+        assertSameUser(sparse, decoded.get(1));
+        assertNull(decoded.get(1).getName());
+        assertNull(decoded.get(1).getCreatedAt());
+    }
+
+    private static void assertSameUser(UserData expected, UserData actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getSurname(), actual.getSurname());
+        assertEquals(expected.getEmail(), actual.getEmail());
+        assertEquals(expected.getCreatedAt(), actual.getCreatedAt());
+        assertEquals(expected.getUpdatedAt(), actual.getUpdatedAt());
+        assertEquals(expected.isActive(), actual.isActive());
+    }
+}
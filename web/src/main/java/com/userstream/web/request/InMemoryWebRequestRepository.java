@@ -1,13 +1,12 @@
 package com.userstream.web.request;
 
-import java.util.ArrayList;
+import com.userstream.common.ConcurrentIntObjectMap;
+
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.Map;
 
 public class InMemoryWebRequestRepository implements WebRequestRepository {
-    private final Map<Integer, WebRequest> requests = new ConcurrentHashMap<>();
+    private final ConcurrentIntObjectMap<WebRequest> requests = new ConcurrentIntObjectMap<>();
 
     @Override
     public void save(WebRequest request) {
@@ -21,7 +20,7 @@ public class InMemoryWebRequestRepository implements WebRequestRepository {
 
     @Override
     public List<WebRequest> findAll() {
-        return new ArrayList<>(requests.values());
+        return requests.values();
     }
 
     @Override